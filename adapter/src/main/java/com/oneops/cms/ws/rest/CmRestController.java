@@ -17,10 +17,12 @@
  *******************************************************************************/
 package com.oneops.cms.ws.rest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.oneops.cms.cm.domain.CmsAltNs;
@@ -51,6 +53,7 @@ import com.oneops.cms.ws.rest.util.RelationParam;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -63,6 +66,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -70,6 +74,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Controller
@@ -80,6 +85,8 @@ public class CmRestController extends AbstractRestController {
 	private CmsCmManager cmManager;
 	private OpsManager opsManager;
 	private CmsScopeVerifier scopeVerifier;
+	// configured like the one of the json message converter
+	private final ObjectMapper streamMapper = Jackson2ObjectMapperBuilder.json().build();
 	private static final boolean ENABLE_FORCE_EXECUTION = Boolean.valueOf(System.getProperty("adapter.proc.forceExecution", "false"));
 
 	@Autowired
@@ -420,6 +427,67 @@ public class CmRestController extends AbstractRestController {
                 .collect(Collectors.toList());
     }
 
+	/**
+	 * Streams the cis of the ns to the response as they are read instead of loading them all first, the memory used
+	 * does not grow with the number of cis. The queries by attributes, ids or alt ns are served by getCISimpleQuery.
+	 * It is not marked ReadOnlyDataAccess as a partly written response can not be retried in the primary.
+	 */
+	@RequestMapping(value="/cm/simple/cis", method = RequestMethod.GET, params = {"stream=true", "nsPath", "!attr", "!ids", "!altNs", "!altNsTag"})
+	public void streamCISimpleQuery(
+			@RequestParam(value="nsPath") String nsPath,
+			@RequestParam(value="ciClassName", required = false) String clazzName,
+			@RequestParam(value="ciName", required = false) String ciName,
+			@RequestParam(value="value", required = false)  String valueType,
+			@RequestParam(value="includeAltNs", required = false)  String includeAltNs,
+			@RequestParam(value="recursive", required = false)  Boolean recursive,
+			@RequestParam(value="getEncrypted", required = false) String getEncrypted,
+			@RequestParam(value="attrProps", required = false) String attrProps,
+			@RequestHeader(value="X-Cms-Scope", required = false)  String scope,
+			HttpServletResponse response) throws IOException {
+
+		scopeVerifier.verifyScope(scope, nsPath);
+		writeJsonArray(response, generator ->
+				cmManager.streamCiBy3(nsPath, clazzName, ciName, recursive != null && recursive, ciList ->
+						writeRows(generator, ciList, ci -> cmsUtil.custCI2CISimple(ci, valueType == null ? "df" : valueType,
+								attrProps, getEncrypted != null, includeAltNs))));
+	}
+
+	private interface JsonArrayBody {
+		void write(JsonGenerator generator) throws IOException;
+	}
+
+	private void writeJsonArray(HttpServletResponse response, JsonArrayBody body) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		// the error handlers write the error with the writer too
+		JsonGenerator generator = streamMapper.getFactory().createGenerator(response.getWriter());
+		try {
+			generator.writeStartArray();
+			body.write(generator);
+			generator.writeEndArray();
+			generator.flush();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} catch (RuntimeException e) {
+			// the error replaces what is not sent yet, after that the client gets a broken array
+			if (!response.isCommitted()) {
+				response.resetBuffer();
+			}
+			throw e;
+		}
+	}
+
+	private <T> void writeRows(JsonGenerator generator, List<T> rows, Function<T, Object> converter) {
+		try {
+			for (T row : rows) {
+				generator.writeObject(converter.apply(row));
+			}
+			generator.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
 	@RequestMapping(value="/cm/simple/cis/count", method = RequestMethod.GET)
 	@ResponseBody
 	@ReadOnlyDataAccess
@@ -725,6 +793,37 @@ public class CmRestController extends AbstractRestController {
 				param.getShortRelationName(), param.getFromClazz(), param.getTargetClazz());
 	}
 
+	/**
+	 * Streams the relations of the ns to the response as they are read, with the scope verified per relation, instead
+	 * of loading them all first. The memory used does not grow with the number of relations. The queries by ci id
+	 * are served by getCIRelationSimpleQuery.
+	 */
+	@RequestMapping(value="/cm/simple/relations", method = RequestMethod.GET, params = {"stream=true", "nsPath", "!ciId"})
+	public void streamCIRelationSimpleQuery(
+			@RequestParam(value="nsPath") String nsPath,
+			@RequestParam(value="relationName", required = false) String relationName,
+			@RequestParam(value="relationShortName", required = false) String shortRelationName,
+			@RequestParam(value="fromClassName", required = false) String fromClazz,
+			@RequestParam(value="targetClassName", required = false) String targetClazz,
+			@RequestParam(value="value", required = false)  String valueType,
+			@RequestParam(value="recursive", required = false)  Boolean recursive,
+			@RequestParam(value="getEncrypted", required = false) String getEncrypted,
+			@RequestParam(value="includeFromCi", required = false) String includeFromCi,
+			@RequestParam(value="includeToCi", required = false) String includeToCi,
+			@RequestParam(value="attrProps", required = false) String attrProps,
+			@RequestHeader(value="X-Cms-Scope", required = false)  String scope,
+			HttpServletResponse response) throws IOException {
+
+		String[] relationAttrProps = attrProps == null ? null : attrProps.split(",");
+		writeJsonArray(response, generator ->
+				cmManager.streamCIRelations(nsPath, relationName, shortRelationName, fromClazz, targetClazz,
+						recursive != null && recursive, includeFromCi != null, includeToCi != null, relList ->
+								writeRows(generator, relList, rel -> {
+									scopeVerifier.verifyScope(scope, rel);
+									return cmsUtil.custCIRelation2CIRelationSimple(rel, valueType, getEncrypted != null, relationAttrProps);
+								})));
+	}
+
 	@RequestMapping(method=RequestMethod.POST, value="/cm/simple/relations")
 	@ResponseBody
 	public CmsCIRelationSimple createCIRelation(
@@ -0,0 +1,67 @@
+package com.oneops.cms.ws.rest;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the relations of {@link CmRestControllerStreamTest} in forked jvms with a small heap: streamed they are
+ * all written, as a list they do not fit. The forked jvm writes the response to its stdout, the parent reads it back:
+ * <pre>
+ * java -cp ... com.oneops.cms.ws.rest.CmRestControllerStreamBenchmark [relations] [heap]
+ * </pre>
+ */
+public class CmRestControllerStreamBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && ("stream".equals(args[0]) || "list".equals(args[0]))) {
+      CmRestControllerStreamTest.serve(args[0], Integer.parseInt(args[1]),
+          new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+      return;
+    }
+    int relations = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+    String heap = args.length > 1 ? args[1] : "-Xmx48m";
+
+    long start = System.nanoTime();
+    Process stream = fork("stream", relations, heap);
+    long count = CmRestControllerStreamTest.countArrayElements(
+        new InputStreamReader(stream.getInputStream(), StandardCharsets.UTF_8), relations);
+    int streamExit = exitValue(stream);
+    long streamMs = (System.nanoTime() - start) / 1000000;
+    if (streamExit != 0 || count != relations) {
+      throw new IllegalStateException("streamed " + count + " of " + relations + " relations, exit " + streamExit);
+    }
+
+    start = System.nanoTime();
+    Process list = fork("list", relations, heap);
+    InputStream out = list.getInputStream();
+    while (out.read() >= 0) {
+      // drained
+    }
+    int listExit = exitValue(list);
+    long listMs = (System.nanoTime() - start) / 1000000;
+
+    System.out.println(String.format("%d relations in %s: streamed in %d ms, list exit %d after %d ms",
+        relations, heap, streamMs, listExit, listMs));
+  }
+
+  private static Process fork(String mode, int relations, String heap) throws Exception {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    return new ProcessBuilder(java, heap, "-cp", System.getProperty("java.class.path"),
+        CmRestControllerStreamBenchmark.class.getName(), mode, String.valueOf(relations))
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+  }
+
+  private static int exitValue(Process child) throws Exception {
+    if (!child.waitFor(5, TimeUnit.MINUTES)) {
+      child.destroyForcibly();
+      throw new IllegalStateException("forked jvm did not exit in 5 minutes");
+    }
+    return child.exitValue();
+  }
+}
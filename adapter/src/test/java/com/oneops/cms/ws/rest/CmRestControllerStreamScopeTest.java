@@ -0,0 +1,118 @@
+package com.oneops.cms.ws.rest;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oneops.cms.cm.dal.CIMapper;
+import com.oneops.cms.cm.service.CmsCmManagerImpl;
+import com.oneops.cms.cm.service.CmsCmProcessor;
+import com.oneops.cms.md.domain.CmsRelation;
+import com.oneops.cms.md.service.CmsMdProcessor;
+import com.oneops.cms.util.CmsUtil;
+import com.oneops.cms.ws.rest.util.CmsScopeVerifier;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Collections;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.mybatis.spring.transaction.SpringManagedTransactionFactory;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+/**
+ * Streams the relations of an org through the ci mapper on an in-memory database: a relation out of the scope
+ * fails the request with 403 even when the scope is verified while the rows are read.
+ */
+public class CmRestControllerStreamScopeTest {
+
+  private static final int RELATION_ID = 200;
+  // more than a batch, so the scope fails while the query reads the rows
+  private static final int RELATIONS = 250;
+
+  private MockMvc mvc;
+
+  @Before
+  public void setUp() throws Exception {
+    JdbcDataSource dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:stream-scope;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+    createRelations(dataSource);
+    Configuration configuration = new Configuration(new Environment("test", new SpringManagedTransactionFactory(), dataSource));
+    configuration.addMapper(CIMapper.class);
+    // translates the errors of the queries like the mappers of the adapter
+    SqlSessionTemplate sqlSession = new SqlSessionTemplate(new SqlSessionFactoryBuilder().build(configuration));
+
+    CmsCmProcessor cmProcessor = new CmsCmProcessor();
+    cmProcessor.setCiMapper(sqlSession.getMapper(CIMapper.class));
+    cmProcessor.setMdProcessor(new CmsMdProcessor() {
+      @Override
+      public CmsRelation getRelation(long relationId) {
+        CmsRelation relation = new CmsRelation();
+        relation.setRelationId((int) relationId);
+        relation.setRelationName("base.Requires");
+        relation.setMdAttributes(Collections.emptyList());
+        return relation;
+      }
+    });
+    CmsCmManagerImpl cmManager = new CmsCmManagerImpl();
+    cmManager.setCmProcessor(cmProcessor);
+    CmRestController controller = new CmRestController();
+    controller.setCmManager(cmManager);
+    controller.setScopeVerifier(new CmsScopeVerifier());
+    controller.setCmsUtil(new CmsUtil());
+    mvc = MockMvcBuilders.standaloneSetup(controller).build();
+  }
+
+  @Test
+  public void relationOutOfScopeIsForbidden() throws Exception {
+    mvc.perform(get("/cm/simple/relations").param("stream", "true").param("nsPath", "/org").param("recursive", "true")
+        .header("X-Cms-Scope", "/org/a"))
+        .andExpect(status().isForbidden());
+  }
+
+  @Test
+  public void relationsInScopeAreStreamed() throws Exception {
+    String json = mvc.perform(get("/cm/simple/relations").param("stream", "true").param("nsPath", "/org/b")
+        .header("X-Cms-Scope", "/org/b"))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+    Assert.assertEquals(RELATIONS, new ObjectMapper().readTree(json).size());
+  }
+
+  private static void createRelations(JdbcDataSource dataSource) throws Exception {
+    try (Connection connection = dataSource.getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute("DROP ALL OBJECTS");
+      // the columns read by getCIRelationsNsLike, getCIRelations and getCIRelationAttrsNakedByRelIdList
+      statement.execute("CREATE TABLE ns_namespaces (ns_id BIGINT PRIMARY KEY, ns_path VARCHAR(200))");
+      statement.execute("CREATE TABLE cm_ci_state (ci_state_id INTEGER PRIMARY KEY, state_name VARCHAR(64))");
+      statement.execute("CREATE TABLE md_classes (class_id INTEGER PRIMARY KEY, class_name VARCHAR(200),"
+          + " short_class_name VARCHAR(200))");
+      statement.execute("CREATE TABLE md_relations (relation_id INTEGER PRIMARY KEY, relation_name VARCHAR(200),"
+          + " short_relation_name VARCHAR(200))");
+      statement.execute("CREATE TABLE cm_ci (ci_id BIGINT PRIMARY KEY, class_id INTEGER)");
+      statement.execute("CREATE TABLE cm_ci_relations (ci_relation_id BIGINT PRIMARY KEY, ns_id BIGINT, from_ci_id BIGINT,"
+          + " relation_goid VARCHAR(256), relation_id INTEGER, to_ci_id BIGINT, ci_state_id INTEGER,"
+          + " last_applied_rfc_id BIGINT, comments VARCHAR(2000), created TIMESTAMP DEFAULT now(),"
+          + " updated TIMESTAMP DEFAULT now())");
+      statement.execute("CREATE TABLE cm_ci_relation_attributes (ci_rel_attribute_id BIGINT PRIMARY KEY,"
+          + " ci_relation_id BIGINT, attribute_id INTEGER, df_attribute_value VARCHAR(200),"
+          + " dj_attribute_value VARCHAR(200), owner VARCHAR(32), comments VARCHAR(2000),"
+          + " created TIMESTAMP DEFAULT now(), updated TIMESTAMP DEFAULT now())");
+      statement.execute("INSERT INTO ns_namespaces VALUES (1, '/org/b')");
+      statement.execute("INSERT INTO cm_ci_state VALUES (100, 'default')");
+      statement.execute("INSERT INTO md_classes VALUES (100, 'catalog.Compute', 'Compute')");
+      statement.execute("INSERT INTO md_relations VALUES (" + RELATION_ID + ", 'base.Requires', 'Requires')");
+      statement.execute("INSERT INTO cm_ci VALUES (1, 100)");
+      statement.execute("INSERT INTO cm_ci_relations (ci_relation_id, ns_id, from_ci_id, relation_goid, relation_id,"
+          + " to_ci_id, ci_state_id) SELECT x, 1, 1, '1-' || x, " + RELATION_ID + ", 1, 100"
+          + " FROM system_range(1, " + RELATIONS + ")");
+    }
+  }
+}
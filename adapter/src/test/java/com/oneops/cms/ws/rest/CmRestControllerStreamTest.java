@@ -0,0 +1,177 @@
+package com.oneops.cms.ws.rest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oneops.cms.cm.domain.CmsCI;
+import com.oneops.cms.cm.domain.CmsCIAttribute;
+import com.oneops.cms.cm.domain.CmsCIRelation;
+import com.oneops.cms.cm.domain.CmsCIRelationAttribute;
+import com.oneops.cms.cm.service.CmsCmManager;
+import com.oneops.cms.util.CmsUtil;
+import com.oneops.cms.ws.rest.util.CmsScopeVerifier;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Serves the relations of an org streamed and as a list: both write the same relations with their to cis.
+ * See {@link CmRestControllerStreamBenchmark} for 500k relations in a jvm with a small heap.
+ */
+public class CmRestControllerStreamTest {
+
+  private static final int RELATIONS = 2000;
+  private static final int BATCH = 100;
+
+  @Test
+  public void streamsRelations() throws Exception {
+    StringWriter stream = new StringWriter();
+    serve("stream", RELATIONS, new PrintWriter(stream));
+    StringWriter list = new StringWriter();
+    serve("list", RELATIONS, new PrintWriter(list));
+
+    Assert.assertEquals(RELATIONS, countArrayElements(new StringReader(stream.toString()), RELATIONS));
+    ObjectMapper mapper = new ObjectMapper();
+    Assert.assertEquals(mapper.readTree(list.toString()), mapper.readTree(stream.toString()));
+  }
+
+  /**
+   * @return the number of relations in the response, checking their ids and to cis
+   */
+  static long countArrayElements(Reader in, int relations) throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    long count = 0;
+    try (JsonParser parser = new JsonFactory().createParser(in)) {
+      Assert.assertEquals(JsonToken.START_ARRAY, parser.nextToken());
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        count++;
+        JsonNode rel = mapper.readTree(parser);
+        Assert.assertEquals(count, rel.get("ciRelationId").asLong());
+        Assert.assertEquals(relations + count, rel.get("toCi").get("ciId").asLong());
+      }
+      Assert.assertEquals(JsonToken.END_ARRAY, parser.getCurrentToken());
+    }
+    return count;
+  }
+
+  /**
+   * Serves the relations of the org recursively, streamed or as a list.
+   */
+  static void serve(String mode, int relations, PrintWriter writer) throws Exception {
+    CmRestController controller = new CmRestController();
+    controller.setCmManager(cmManager(relations));
+    controller.setScopeVerifier(new CmsScopeVerifier());
+    controller.setCmsUtil(new CmsUtil());
+    if ("stream".equals(mode)) {
+      controller.streamCIRelationSimpleQuery("/org", "base.Requires", null, null, null, null, true,
+          null, null, "true", null, "/org", response(writer));
+    } else {
+      new ObjectMapper().writeValue(writer, controller.getCIRelationSimpleQuery(null, null, "/org", "base.Requires",
+          null, null, null, null, true, null, null, null, null, "true", null, "/org"));
+    }
+    writer.flush();
+  }
+
+  private static CmsCmManager cmManager(int relations) {
+    return (CmsCmManager) Proxy.newProxyInstance(CmsCmManager.class.getClassLoader(),
+        new Class<?>[]{CmsCmManager.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "streamCIRelations": {
+              @SuppressWarnings("unchecked")
+              Consumer<List<CmsCIRelation>> consumer = (Consumer<List<CmsCIRelation>>) args[8];
+              boolean toCis = (Boolean) args[7];
+              for (long id = 1; id <= relations; ) {
+                List<CmsCIRelation> batch = new ArrayList<>(BATCH);
+                for (int i = 0; i < BATCH && id <= relations; i++, id++) {
+                  batch.add(relation(id, relations, toCis));
+                }
+                consumer.accept(batch);
+              }
+              return null;
+            }
+            case "getCIRelationsNsLike": {
+              List<CmsCIRelation> list = new ArrayList<>();
+              for (long id = 1; id <= relations; id++) {
+                list.add(relation(id, relations, false));
+              }
+              return list;
+            }
+            case "populateRelCis": {
+              @SuppressWarnings("unchecked")
+              List<CmsCIRelation> list = (List<CmsCIRelation>) args[0];
+              if ((Boolean) args[2]) {
+                list.forEach(rel -> rel.setToCi(ci(rel.getToCiId())));
+              }
+              return null;
+            }
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private static HttpServletResponse response(PrintWriter writer) {
+    return (HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(),
+        new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getWriter":
+              return writer;
+            case "isCommitted":
+              return false;
+            default:
+              return null;
+          }
+        });
+  }
+
+  private static CmsCIRelation relation(long id, int relations, boolean toCi) {
+    CmsCIRelation rel = new CmsCIRelation();
+    rel.setCiRelationId(id);
+    rel.setRelationName("base.Requires");
+    rel.setNsPath("/org/assembly" + id % 100 + "/_design");
+    rel.setFromCiId(id);
+    rel.setToCiId(relations + id);
+    rel.setRelationState("default");
+    for (String name : new String[]{"constraint", "flex", "min", "max"}) {
+      CmsCIRelationAttribute attr = new CmsCIRelationAttribute();
+      attr.setCiRelationId(id);
+      attr.setAttributeName(name);
+      attr.setDfValue(name + "-" + id);
+      attr.setDjValue(name + "-" + id);
+      rel.addAttribute(attr);
+    }
+    if (toCi) {
+      rel.setToCi(ci(rel.getToCiId()));
+    }
+    return rel;
+  }
+
+  private static CmsCI ci(long id) {
+    CmsCI ci = new CmsCI();
+    ci.setCiId(id);
+    ci.setCiName("compute-" + id);
+    ci.setCiClassName("catalog.Compute");
+    ci.setNsPath("/org/assembly/_design");
+    ci.setCiState("default");
+    for (String name : new String[]{"size", "ostype", "require_public_ip"}) {
+      CmsCIAttribute attr = new CmsCIAttribute();
+      attr.setCiId(id);
+      attr.setAttributeName(name);
+      attr.setDfValue(name + "-" + id);
+      attr.setDjValue(name + "-" + id);
+      ci.addAttribute(attr);
+    }
+    return ci;
+  }
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.antenna.cache;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.oneops.cms.dj.dal.DJDpmtMapper;
+import com.oneops.cms.dj.domain.CmsDeployment;
+import com.oneops.cms.dj.domain.CmsRfcCI;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.oneops.cms.dj.service.CmsDpmtProcessor.DPMT_STATE_CANCELED;
+import static com.oneops.cms.dj.service.CmsDpmtProcessor.DPMT_STATE_COMPLETE;
+
+/**
+ * A cache of the rfc CIs of deployments, shared by the url subscribers including the deployment
+ * CIs in their notifications. All the rfc CIs of a deployment are loaded with one query and the
+ * subscribers pick the classes and action they are interested in. The rfc CIs of a complete or
+ * canceled deployment are kept until they are evicted by weight, the ones of other deployments
+ * are reloaded after a short ttl.
+ */
+@Service
+public class DeploymentCiCache {
+
+    private static Logger logger = Logger.getLogger(DeploymentCiCache.class);
+
+    /**
+     * Max number of rfc CIs in the cache. Defaults to 200000.
+     */
+    @Value("${oo.antenna.dpmt_cache.max_weight:200000}")
+    private long maxWeight = 200000;
+
+    /**
+     * Time to live of the rfc CIs of an active deployment. Defaults to 30 secs.
+     */
+    @Value("${oo.antenna.dpmt_cache.active_ttl:30}")
+    private int activeTtl = 30;
+
+    private final DJDpmtMapper dpmtMapper;
+
+    /**
+     * Loading Cache instance
+     */
+    private LoadingCache<Long, DeploymentCis> cache;
+
+    @Autowired
+    public DeploymentCiCache(DJDpmtMapper dpmtMapper) {
+        this.dpmtMapper = dpmtMapper;
+    }
+
+    /**
+     * Initialize the cache
+     */
+    @PostConstruct
+    public void init() {
+        logger.info("***** Initializing the deployment CI cache with maxWeight=" + maxWeight
+                + ", activeTtl=" + activeTtl + " sec");
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((Long dpmtId, DeploymentCis cis) -> cis.rfcs.size() + 1)
+                .recordStats()
+                .build(new CacheLoader<Long, DeploymentCis>() {
+                    @Override
+                    public DeploymentCis load(Long dpmtId) {
+                        return loadDeployment(dpmtId);
+                    }
+                });
+    }
+
+    /**
+     * Get the rfc CIs of a deployment, same as {@link DJDpmtMapper#getDeploymentRfcCIs} for
+     * all states and execution orders.
+     *
+     * @param dpmtId     deployment id
+     * @param classNames CI class names
+     * @param action     rfc action, <code>null</code> for all actions
+     * @return rfc CIs in execution order
+     */
+    public List<CmsRfcCI> getDeploymentRfcCIs(long dpmtId, String[] classNames, String action) {
+        DeploymentCis cis = cache.getUnchecked(dpmtId);
+        if (!cis.terminal && System.nanoTime() - cis.loaded > TimeUnit.SECONDS.toNanos(activeTtl)) {
+            cache.invalidate(dpmtId);
+            cis = cache.getUnchecked(dpmtId);
+        }
+        if (classNames == null || classNames.length == 0) {
+            return Collections.emptyList();
+        }
+        Set<String> classes = new HashSet<>(Arrays.asList(classNames));
+        List<CmsRfcCI> rfcs = new ArrayList<>();
+        for (CmsRfcCI rfc : cis.rfcs) {
+            if (classes.contains(rfc.getCiClassName()) && (action == null || action.equals(rfc.getRfcAction()))) {
+                rfcs.add(rfc);
+            }
+        }
+        return rfcs;
+    }
+
+    private DeploymentCis loadDeployment(long dpmtId) {
+        // The state is read first, the rfc CIs of a deployment that's over don't change.
+        CmsDeployment dpmt = dpmtMapper.getDeployment(dpmtId);
+        boolean terminal = dpmt != null && (DPMT_STATE_COMPLETE.equals(dpmt.getDeploymentState())
+                || DPMT_STATE_CANCELED.equals(dpmt.getDeploymentState()));
+        List<CmsRfcCI> rfcs = dpmtMapper.getDeploymentRfcCIs(dpmtId, null, null, null, null);
+        return new DeploymentCis(rfcs, terminal);
+    }
+
+    /**
+     * Get the cache max weight configuration value
+     *
+     * @return max number of rfc CIs
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Get the time to live of active deployments
+     *
+     * @return ttl in sec
+     */
+    public int getActiveTtl() {
+        return activeTtl;
+    }
+
+    /**
+     * Returns the loading cache instance
+     *
+     * @return cache.
+     */
+    public LoadingCache<Long, DeploymentCis> instance() {
+        return cache;
+    }
+
+    /**
+     * The rfc CIs of a deployment.
+     */
+    public static final class DeploymentCis {
+
+        private final List<CmsRfcCI> rfcs;
+        private final boolean terminal;
+        private final long loaded = System.nanoTime();
+
+        DeploymentCis(List<CmsRfcCI> rfcs, boolean terminal) {
+            this.rfcs = rfcs;
+            this.terminal = terminal;
+        }
+
+        public int size() {
+            return rfcs.size();
+        }
+
+        public boolean isTerminal() {
+            return terminal;
+        }
+
+        @Override
+        public String toString() {
+            return "DeploymentCis{rfcs=" + rfcs.size() + ", terminal=" + terminal + '}';
+        }
+    }
+}
@@ -19,7 +19,6 @@ package com.oneops.antenna.cache;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.LoadingCache;
-import com.oneops.antenna.domain.BasicSubscriber;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,7 +27,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -67,7 +65,7 @@ public class SinkCache {
     /**
      * Loading Cache instance
      */
-    private LoadingCache<SinkKey, List<BasicSubscriber>> cache;
+    private LoadingCache<SinkKey, SubscriberIndex> cache;
 
     @Autowired
     public SinkCache(SinkRemovalListener removalListener, SinkSubscriberLoader cacheLoader) {
@@ -115,7 +113,7 @@ public class SinkCache {
      *
      * @return cache.
      */
-    public LoadingCache<SinkKey, List<BasicSubscriber>> instance() {
+    public LoadingCache<SinkKey, SubscriberIndex> instance() {
         return cache;
     }
 
@@ -19,13 +19,10 @@ package com.oneops.antenna.cache;
 
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
-import com.oneops.antenna.domain.BasicSubscriber;
 
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
-
 /**
  * Cache removal listener implementation for sink subscribers
  *
@@ -33,13 +30,13 @@ import java.util.List;
  * @version 1.0
  */
 @Component
-public class SinkRemovalListener implements RemovalListener<SinkKey, List<BasicSubscriber>> {
+public class SinkRemovalListener implements RemovalListener<SinkKey, SubscriberIndex> {
 
     /* Logger instance */
     private static Logger logger = Logger.getLogger(SinkRemovalListener.class);
 
     @Override
-    public void onRemoval(RemovalNotification<SinkKey, List<BasicSubscriber>> notif) {
+    public void onRemoval(RemovalNotification<SinkKey, SubscriberIndex> notif) {
         logger.warn("Removing sink subscribers for " + notif.getKey().getNsPath() + " as it's " + notif.getCause());
     }
 }
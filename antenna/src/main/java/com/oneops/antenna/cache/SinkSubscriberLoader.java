@@ -54,7 +54,7 @@ import static com.oneops.notification.NotificationSeverity.none;
  * @author <a href="mailto:sgopal1@walmartlabs.com">Suresh G</a>
  */
 @Component
-public class SinkSubscriberLoader extends CacheLoader<SinkKey, List<BasicSubscriber>> {
+public class SinkSubscriberLoader extends CacheLoader<SinkKey, SubscriberIndex> {
 
     private static Logger logger = Logger.getLogger(SinkSubscriberLoader.class);
     private final Gson gson;
@@ -74,7 +74,7 @@ public class SinkSubscriberLoader extends CacheLoader<SinkKey, List<BasicSubscri
     }
 
     @Override
-    public List<BasicSubscriber> load(SinkKey key) {
+    public SubscriberIndex load(SinkKey key) {
 
         logger.warn("Loading subscribers from cms for " + key);
         // Get nspath from sinkkey
@@ -87,13 +87,13 @@ public class SinkSubscriberLoader extends CacheLoader<SinkKey, List<BasicSubscri
         if (!key.hasValidNsPath()) {
             //This is probably a cloud service
             logger.error("Couldn't get env for nsPath - " + nsPath);
-            return subs;
+            return new SubscriberIndex(subs);
         }
 
         CmsCI env = cmProcessor.getEnvByNS(nsPath);
         if (env == null) {
             logger.error("Can not get env for nsPath - " + nsPath);
-            return subs;
+            return new SubscriberIndex(subs);
         }
 
         List<CmsCI> sinks = getSubscribersForEnv(env);
@@ -129,8 +129,8 @@ public class SinkSubscriberLoader extends CacheLoader<SinkKey, List<BasicSubscri
                     sub.setFilter(NotificationFilter.fromSinkCI(sink));
                     // Add message transformer
                     sub.setTransformer(Transformer.fromSinkCI(sink));
-                    // Add dispatching method
-                    sub.setDispatchMethod(Dispatcher.Method.SYNC);
+                    // Add dispatching method, the url sinks are posted to from the http sender queues
+                    sub.setDispatchMethod(sub instanceof URLSubscriber ? Dispatcher.Method.ASYNC : Dispatcher.Method.SYNC);
                     // Finally, add the subscriber to the list
                     subs.add(sub);
                 }
@@ -139,7 +139,7 @@ public class SinkSubscriberLoader extends CacheLoader<SinkKey, List<BasicSubscri
                 logger.error("Can not get decrypt ci - " + sink.getCiId() + " " + sink.getCiName() + ";", e);
             }
         }
-        return subs;
+        return new SubscriberIndex(subs);
     }
 
     /**
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.antenna.cache;
+
+import com.oneops.antenna.domain.BasicSubscriber;
+import com.oneops.notification.NotificationMessage;
+import com.oneops.notification.NotificationSeverity;
+import com.oneops.notification.NotificationType;
+import com.oneops.notification.filter.NotificationFilter;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sink subscribers of an nsPath, indexed by the message type and severity their
+ * notification filters accept. The index is built once when the subscribers are loaded
+ * into the sink cache, so dispatching a message only runs the nsPath, subject, cloud and
+ * env profile rules of the subscribers that can take its type and severity.
+ * <p>
+ * It's the list of subscribers in the loading order, for the callers that need all of them.
+ */
+public class SubscriberIndex extends AbstractList<BasicSubscriber> {
+
+    /**
+     * All subscribers, in the loading order
+     */
+    private final List<BasicSubscriber> subscribers;
+
+    /**
+     * Candidate subscribers for a message type and severity, in the loading order
+     */
+    private final Map<NotificationType, Map<NotificationSeverity, List<BasicSubscriber>>> candidates =
+            new EnumMap<>(NotificationType.class);
+
+    public SubscriberIndex(List<BasicSubscriber> subscribers) {
+        this.subscribers = Collections.unmodifiableList(new ArrayList<>(subscribers));
+        for (NotificationType type : NotificationType.values()) {
+            Map<NotificationSeverity, List<BasicSubscriber>> bySeverity = new EnumMap<>(NotificationSeverity.class);
+            for (NotificationSeverity severity : NotificationSeverity.values()) {
+                List<BasicSubscriber> subs = new ArrayList<>();
+                for (BasicSubscriber sub : this.subscribers) {
+                    if (mayAccept(sub, type, severity)) {
+                        subs.add(sub);
+                    }
+                }
+                bySeverity.put(severity, subs.size() == this.subscribers.size() ? this.subscribers : subs);
+            }
+            candidates.put(type, bySeverity);
+        }
+    }
+
+    /**
+     * Checks whether or not the subscriber filter can accept messages of the given type and
+     * severity. Subscribers without a notification filter take every message.
+     */
+    private static boolean mayAccept(BasicSubscriber sub, NotificationType type, NotificationSeverity severity) {
+        if (!(sub.getFilter() instanceof NotificationFilter)) {
+            return true;
+        }
+        NotificationFilter filter = (NotificationFilter) sub.getFilter();
+        if (filter.eventType() == null || filter.eventSeverity() == null) {
+            // Leave it to the filter
+            return true;
+        }
+        return filter.acceptType(type) && filter.acceptSeverity(severity);
+    }
+
+    /**
+     * Get the subscribers accepting the given message, in the loading order.
+     *
+     * @param msg {@link NotificationMessage}
+     * @return subscribers without a filter or with a filter accepting the message.
+     */
+    public List<BasicSubscriber> match(NotificationMessage msg) {
+        List<BasicSubscriber> subs = subscribers;
+        if (msg.getType() != null && msg.getSeverity() != null) {
+            subs = candidates.get(msg.getType()).get(msg.getSeverity());
+        }
+        List<BasicSubscriber> matched = new ArrayList<>(subs.size());
+        for (BasicSubscriber sub : subs) {
+            if (!sub.hasFilter() || sub.getFilter().accept(msg)) {
+                matched.add(sub);
+            }
+        }
+        return matched;
+    }
+
+    @Override
+    public BasicSubscriber get(int index) {
+        return subscribers.get(index);
+    }
+
+    @Override
+    public int size() {
+        return subscribers.size();
+    }
+}
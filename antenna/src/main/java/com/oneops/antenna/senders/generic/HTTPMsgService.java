@@ -28,20 +28,31 @@ import com.oneops.notification.NotificationMessage;
 import com.oneops.antenna.domain.URLSubscriber;
 import com.oneops.antenna.senders.NotificationSender;
 import java.util.Date;
-import org.apache.commons.codec.binary.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -50,12 +61,52 @@ import static com.oneops.metrics.OneOpsMetrics.ANTENNA;
 /**
  * Http message dispatcher. This is basically used to send
  * the notifications to web and other url sinks.
+ * <p>
+ * All the sinks share one pooled http client, the connections are kept alive between the
+ * notifications and at most <code>maxRequestsPerHost</code> requests go to a host at a time.
+ * The notifications of the async subscribers are queued, at most <code>queueSize</code> per
+ * subscriber, and sent without holding up the dispatching thread. A failed delivery (connection
+ * error, 5xx or 429) is retried after a backoff, up to <code>maxRetries</code> times, without
+ * holding up the deliveries to the other subscribers. The sync subscribers are posted to on the
+ * dispatching thread, with the shared client.
  */
 public class HTTPMsgService implements NotificationSender {
 
     private static Logger logger = Logger.getLogger(HTTPMsgService.class);
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final int DEFAULT_TIMEOUT = 2000;
     private  Gson gson ;
 
+    @Value("${antenna.http.max_requests:64}")
+    private int maxRequests = 64;
+
+    @Value("${antenna.http.max_requests_per_host:10}")
+    private int maxRequestsPerHost = 10;
+
+    @Value("${antenna.http.max_idle_connections:20}")
+    private int maxIdleConnections = 20;
+
+    @Value("${antenna.http.keep_alive_sec:300}")
+    private int keepAliveSec = 300;
+
+    @Value("${antenna.http.connect_timeout_ms:2000}")
+    private int connectTimeout = 2000;
+
+    @Value("${antenna.http.queue_size:5000}")
+    private int queueSize = 5000;
+
+    @Value("${antenna.http.max_retries:3}")
+    private int maxRetries = 3;
+
+    @Value("${antenna.http.retry_backoff_ms:1000}")
+    private long retryBackoffMs = 1000;
+
+    private OkHttpClient client;
+    // the clients with the read timeouts of the subscribers, sharing the pool and the dispatcher
+    private final Map<Integer, OkHttpClient> timeoutClients = new ConcurrentHashMap<>();
+    // the queued and in flight notifications of each subscriber
+    private final Map<String, Semaphore> queues = new ConcurrentHashMap<>();
+    private ScheduledExecutorService retryScheduler;
 
     // Metrics
     private final MetricRegistry metrics;
@@ -63,6 +114,8 @@ public class HTTPMsgService implements NotificationSender {
     private Meter httpErr;
     private Meter hpom;
     private Meter hpomErr;
+    private Meter httpRetry;
+    private Meter httpDropped;
 
     @Autowired
     public HTTPMsgService(MetricRegistry metrics) {
@@ -76,11 +129,40 @@ public class HTTPMsgService implements NotificationSender {
         httpErr = metrics.meter(name(ANTENNA, "http.error"));
         hpom = metrics.meter(name(ANTENNA, "hpom.count"));
         hpomErr = metrics.meter(name(ANTENNA, "hpom.error"));
+        httpRetry = metrics.meter(name(ANTENNA, "http.retry"));
+        httpDropped = metrics.meter(name(ANTENNA, "http.dropped"));
         GsonBuilder builder = new GsonBuilder();
 
         builder.registerTypeAdapter(Date.class,
             (JsonSerializer<Date>) (date, typeOfSrc, context) -> new JsonPrimitive(date.getTime()));
         gson = builder.create();
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSec, TimeUnit.SECONDS))
+                .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                .readTimeout(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .writeTimeout(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(false)
+                .build();
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "http-sink-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        logger.info("Http sink client, max requests: " + maxRequests + ", per host: " + maxRequestsPerHost
+                + ", queue size: " + queueSize + ", max retries: " + maxRetries);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        retryScheduler.shutdownNow();
+        client.dispatcher().cancelAll();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
     }
 
     /**
@@ -88,42 +170,111 @@ public class HTTPMsgService implements NotificationSender {
      *
      * @param msg the notification message
      * @param sub URL subscriber
-     * @return <code>true</code> if response code is 200, else return <code>false</code>
+     * @return <code>true</code> if response code is 200, or the message is queued for an async
+     * subscriber, else return <code>false</code>
      */
     @Override
     public boolean postMessage(NotificationMessage msg, BasicSubscriber sub) {
         URLSubscriber urlSub = (URLSubscriber) sub;
         boolean isHpom = urlSub.hasHpomXfmr();
 
-        CloseableHttpClient httpClient = HttpClients.createDefault();
-
-        HttpPost req = new HttpPost(urlSub.getUrl());
-        req.setEntity(new StringEntity(gson.toJson(msg), ContentType.APPLICATION_JSON));
-
-        int timeout = urlSub.getTimeout();
-        req.setConfig(RequestConfig.custom().setSocketTimeout(timeout > 0 ? timeout : 2000).build());
+        HttpUrl url = urlSub.getUrl() == null ? null : HttpUrl.parse(urlSub.getUrl());
+        if (url == null) {
+            logger.error((isHpom ? "HPOM" : "HTTP") + " message post failed. Invalid URL for URL sink: " + urlSub.getName());
+            countErr(isHpom);
+            return false;
+        }
+        Request.Builder req = new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(JSON, gson.toJson(msg)));
         String userName = urlSub.getUserName();
         if (userName != null && StringUtils.isNotEmpty(userName) && StringUtils.isNotEmpty(urlSub.getPassword()) ) {
-            String auth = userName + ":" + urlSub.getPassword();
-            req.addHeader(HttpHeaders.AUTHORIZATION, "Basic " + new String(Base64.encodeBase64(auth.getBytes())));
+            req.header(HttpHeaders.AUTHORIZATION, Credentials.basic(userName, urlSub.getPassword()));
         }
+        OkHttpClient subClient = clientFor(urlSub.getTimeout());
 
-        try (CloseableHttpResponse res = httpClient.execute(req)) {
-            if (res.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-                countOK(isHpom);
-                return true;
-            } else {
-                logger.warn(isHpom ? "HPOM" : "HTTP" + " message post response code: "
-                        + res.getStatusLine().getStatusCode()
-                        + " for URL sink: "
-                        + urlSub.getName());
+        if (!urlSub.isAsync()) {
+            try (Response res = subClient.newCall(req.build()).execute()) {
+                if (res.code() == HttpStatus.SC_OK) {
+                    countOK(isHpom);
+                    return true;
+                }
+                logger.warn((isHpom ? "HPOM" : "HTTP") + " message post response code: " + res.code()
+                        + " for URL sink: " + urlSub.getName());
+            } catch (IOException ex) {
+                logger.error((isHpom ? "HPOM" : "HTTP") + " message post failed." + ex.getMessage());
             }
-        } catch (IOException ex) {
-            logger.error(isHpom ? "HPOM" : "HTTP" + " message post failed." + ex.getMessage());
+            countErr(isHpom);
+            return false;
         }
 
-        countErr(isHpom);
-        return false;
+        Semaphore queue = queues.computeIfAbsent(urlSub.getName() + "|" + urlSub.getUrl(), k -> new Semaphore(queueSize));
+        if (!queue.tryAcquire()) {
+            logger.error((isHpom ? "HPOM" : "HTTP") + " message dropped, " + queueSize
+                    + " messages are queued for URL sink: " + urlSub.getName());
+            httpDropped.mark();
+            countErr(isHpom);
+            return false;
+        }
+        send(new Delivery(subClient, req.build(), urlSub.getName(), isHpom, queue), 0);
+        return true;
+    }
+
+    private OkHttpClient clientFor(int timeout) {
+        int readTimeout = timeout > 0 ? timeout : DEFAULT_TIMEOUT;
+        if (readTimeout == DEFAULT_TIMEOUT) {
+            return client;
+        }
+        return timeoutClients.computeIfAbsent(readTimeout, t -> client.newBuilder()
+                .readTimeout(t, TimeUnit.MILLISECONDS)
+                .writeTimeout(t, TimeUnit.MILLISECONDS)
+                .build());
+    }
+
+    private void send(Delivery delivery, int attempt) {
+        delivery.client.newCall(delivery.request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                retryOrFail(delivery, attempt, "failed. " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response res) {
+                try {
+                    int code = res.code();
+                    if (code == HttpStatus.SC_OK) {
+                        delivery.queue.release();
+                        countOK(delivery.isHpom);
+                    } else if (code >= HttpStatus.SC_INTERNAL_SERVER_ERROR || code == 429) {
+                        retryOrFail(delivery, attempt, "response code: " + code);
+                    } else {
+                        fail(delivery, "response code: " + code);
+                    }
+                } finally {
+                    res.close();
+                }
+            }
+        });
+    }
+
+    private void retryOrFail(Delivery delivery, int attempt, String error) {
+        if (attempt >= maxRetries) {
+            fail(delivery, error + " after " + attempt + " retries");
+            return;
+        }
+        httpRetry.mark();
+        try {
+            retryScheduler.schedule(() -> send(delivery, attempt + 1), retryBackoffMs << attempt, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // shutting down
+            fail(delivery, error);
+        }
+    }
+
+    private void fail(Delivery delivery, String error) {
+        delivery.queue.release();
+        logger.warn((delivery.isHpom ? "HPOM" : "HTTP") + " message post " + error + " for URL sink: " + delivery.sinkName);
+        countErr(delivery.isHpom);
     }
 
     /**
@@ -153,4 +304,39 @@ public class HTTPMsgService implements NotificationSender {
             httpErr.mark();
         }
     }
+
+    /**
+     * A notification on its way to an async subscriber.
+     */
+    private static class Delivery {
+        private final OkHttpClient client;
+        private final Request request;
+        private final String sinkName;
+        private final boolean isHpom;
+        private final Semaphore queue;
+
+        private Delivery(OkHttpClient client, Request request, String sinkName, boolean isHpom, Semaphore queue) {
+            this.client = client;
+            this.request = request;
+            this.sinkName = sinkName;
+            this.isHpom = isHpom;
+            this.queue = queue;
+        }
+    }
+
+    void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    void setRetryBackoffMs(long retryBackoffMs) {
+        this.retryBackoffMs = retryBackoffMs;
+    }
 }
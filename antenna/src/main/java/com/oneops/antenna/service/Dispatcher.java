@@ -18,6 +18,7 @@
 package com.oneops.antenna.service;
 
 import com.google.gson.Gson;
+import com.oneops.antenna.cache.DeploymentCiCache;
 import com.oneops.antenna.domain.BasicSubscriber;
 import com.oneops.antenna.domain.EmailSubscriber;
 import com.oneops.notification.NotificationMessage;
@@ -32,13 +33,14 @@ import com.oneops.cms.cm.domain.CmsCI;
 import com.oneops.cms.cm.ops.domain.CmsOpsProcedure;
 import com.oneops.cms.cm.ops.service.OpsProcedureProcessor;
 import com.oneops.cms.cm.service.CmsCmProcessor;
-import com.oneops.cms.dj.dal.DJDpmtMapper;
 import com.oneops.cms.dj.domain.CmsDeployment;
 import com.oneops.cms.dj.service.CmsDpmtProcessor;
 import com.oneops.cms.md.service.CmsMdProcessor;
 import com.oneops.cms.simple.domain.CmsCISimple;
 import com.oneops.cms.util.CmsUtil;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
@@ -62,7 +64,7 @@ public class Dispatcher {
     private final CmsDpmtProcessor dpmtProcessor;
     private final OpsProcedureProcessor procProcessor;
     private final CmsUtil cmsUtil;
-    private DJDpmtMapper dpmtMapper;
+    private final DeploymentCiCache dpmtCiCache;
     private CmsMdProcessor cmsMdProcessor;
 
     @Autowired
@@ -76,7 +78,7 @@ public class Dispatcher {
                       CmsCmProcessor cmProcessor,
                       CmsDpmtProcessor dpmtProcessor,
                       OpsProcedureProcessor procProcessor,
-        DJDpmtMapper dpmtMapper,
+        DeploymentCiCache dpmtCiCache,
         CmsMdProcessor mdProcessor,
         CmsUtil cmsUtil) {
         this.gson = gson;
@@ -89,7 +91,7 @@ public class Dispatcher {
         this.cmProcessor = cmProcessor;
         this.dpmtProcessor = dpmtProcessor;
         this.procProcessor = procProcessor;
-        this.dpmtMapper =  dpmtMapper;
+        this.dpmtCiCache = dpmtCiCache;
         this.cmsMdProcessor = mdProcessor;
         this.cmsUtil =cmsUtil;
     }
@@ -110,14 +112,14 @@ public class Dispatcher {
             }
         }
 
-        List<BasicSubscriber> subscribers = sbrService.getSubscribersForNs(msg.getNsPath());
         try {
+            // Only the subscribers whose filters accept the message
+            List<BasicSubscriber> subscribers = sbrService.getSubscribers(msg);
+            // CIs already fetched for the subscribers of this message
+            Map<List<Long>, List<CmsCISimple>> cisByIds = new HashMap<>();
             for (BasicSubscriber sub : subscribers) {
                 NotificationMessage nMsg = msg;
 
-                if (sub.hasFilter() && !sub.getFilter().accept(nMsg)) {
-                    continue;
-                }
                 if (sub.hasTransformer()) {
                     nMsg = sub.getTransformer().transform(nMsg);
                 }
@@ -129,9 +131,8 @@ public class Dispatcher {
                   if (sub.getFilter() instanceof NotificationFilter) {
                     NotificationFilter nFilter = NotificationFilter.class.cast(sub.getFilter());
                     if (nFilter.isIncludeCi() && ArrayUtils.isNotEmpty(nFilter.getClassNames())) {
-                      final List<Long> ciIds = dpmtMapper
-                          .getDeploymentRfcCIs(msg.getCmsId(), null, null, nFilter.getClassNames(),
-                              nFilter.getActions())
+                      final List<Long> ciIds = dpmtCiCache
+                          .getDeploymentRfcCIs(msg.getCmsId(), nFilter.getClassNames(), nFilter.getActions())
                           .stream()
                           .map(rfc -> rfc.getCiId())
                           .collect(Collectors.toList());
@@ -139,9 +140,10 @@ public class Dispatcher {
                         // There are no ci's which sink is subscribed to , skip notifications.
                         continue;
                       }
-                      final List<CmsCISimple> cis = cmProcessor.getCiByIdList(ciIds).stream()
-                          .map(ci -> cmsUtil.custCI2CISimple(ci, "df")).collect(
-                              Collectors.toList());
+                      final List<CmsCISimple> cis = cisByIds.computeIfAbsent(ciIds,
+                          ids -> cmProcessor.getCiByIdList(ids).stream()
+                              .map(ci -> cmsUtil.custCI2CISimple(ci, "df")).collect(
+                                  Collectors.toList()));
                       nMsg.setCis(cis);
                     }
                   }
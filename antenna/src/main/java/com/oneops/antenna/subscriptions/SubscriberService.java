@@ -19,8 +19,10 @@ package com.oneops.antenna.subscriptions;
 
 import com.oneops.antenna.cache.SinkCache;
 import com.oneops.antenna.cache.SinkKey;
+import com.oneops.antenna.cache.SubscriberIndex;
 import com.oneops.antenna.domain.BasicSubscriber;
 import com.oneops.antenna.domain.URLSubscriber;
+import com.oneops.notification.NotificationMessage;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -70,4 +72,23 @@ public class SubscriberService {
             return Collections.singletonList(defaultSystemSubscriber);
         }
     }
+
+    /**
+     * Get the subscribers of the message nsPath whose filters accept the message. The
+     * subscribers are looked up in the sink cache index for the message type and severity.
+     *
+     * @param msg notification message
+     * @return the subscribers accepting the message
+     */
+    public List<BasicSubscriber> getSubscribers(NotificationMessage msg) {
+        SubscriberIndex index;
+        try {
+            index = sinkCache.instance().get(new SinkKey(msg.getNsPath()));
+        } catch (Exception e) {
+            logger.error("Can't retrieve subscribers for nspath " + msg.getNsPath() + " from sink cache", e);
+            // In case of any error, returns the default subscriber
+            index = new SubscriberIndex(Collections.singletonList(defaultSystemSubscriber));
+        }
+        return index.match(msg);
+    }
 }
@@ -29,6 +29,7 @@ import com.google.common.cache.CacheStats;
 import com.google.gson.Gson;
 import com.oneops.antenna.cache.SinkCache;
 import com.oneops.antenna.cache.SinkKey;
+import com.oneops.antenna.cache.SubscriberIndex;
 import com.oneops.antenna.domain.BasicSubscriber;
 import com.oneops.notification.NotificationMessage;
 import com.oneops.antenna.service.Dispatcher;
@@ -159,7 +160,7 @@ public class AntennaWsController {
         stat.put("status", "ok");
         stat.put("size", size);
 
-        Map<SinkKey, List<BasicSubscriber>> map = cache.instance().asMap();
+        Map<SinkKey, SubscriberIndex> map = cache.instance().asMap();
         Map<String, Object> entries = new HashMap<>(map.size());
         for (SinkKey key : map.keySet()) {
             entries.put(key.getOrg(), map.get(key).toString());
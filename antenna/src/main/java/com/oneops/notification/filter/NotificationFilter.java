@@ -27,6 +27,9 @@ import com.oneops.cms.cm.domain.CmsCI;
 import com.oneops.cms.cm.domain.CmsCIAttribute;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.log4j.Logger;
@@ -49,6 +52,11 @@ public class NotificationFilter implements MessageFilter {
      */
     private static final ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * Cloud names matched with equals instead of a regex
+     */
+    private static final Pattern LITERAL_CLOUD = Pattern.compile("[A-Za-z0-9_-]+");
+
     /**
      * Notification event type
      */
@@ -64,6 +72,11 @@ public class NotificationFilter implements MessageFilter {
      */
     private String[] clouds;
 
+    /**
+     * Compiled cloud matchers, a cloud with an invalid regex matches nothing
+     */
+    private Predicate<String>[] cloudMatchers;
+
     /**
      * NS Paths to be used for message filtering
      */
@@ -74,11 +87,21 @@ public class NotificationFilter implements MessageFilter {
      */
     private String selectorPattern;
 
+    /**
+     * Compiled message selector, <code>null</code> if it's empty or invalid
+     */
+    private Pattern selector;
+
     /**
      * Env Profiles to be used for message filtering based on type of env the notification is coming from
      */
     private String envProfilePattern;
 
+    /**
+     * Compiled case-insensitive env profile pattern, <code>null</code> if it's empty or invalid
+     */
+    private Pattern envProfile;
+
     /**
      *  Should CI information be included.
      */
@@ -126,15 +149,15 @@ public class NotificationFilter implements MessageFilter {
      */
     @Override
     public boolean accept(NotificationMessage msg) {
-      if (NotificationType.none == this.eventType || msg.getType() == this.eventType) {
-        if (msg.getSeverity().getLevel() >= this.eventSeverity.getLevel()) {
+      if (acceptType(msg.getType())) {
+        if (acceptSeverity(msg.getSeverity())) {
           if (hasValidNSPath(msg.getNsPath())) {
             if (filter(msg.getSubject())) {
               if (allowCloud(msg.getCloudName())) {
                 if (isNotEmpty(envProfilePattern)) {
                   String envProfile = msg.getEnvironmentProfileName();
                   // ProfilePattern regex match is Case-Insensitive.
-                  return envProfile != null && envProfile.matches("(?i)" + envProfilePattern);
+                  return envProfile != null && this.envProfile != null && this.envProfile.matcher(envProfile).matches();
                 } else {
                   // Pass through all messages because env profile pattern is empty.
                   return true;
@@ -147,16 +170,52 @@ public class NotificationFilter implements MessageFilter {
       return false;
     }
 
+    /**
+     * Checks whether or not messages of the given type pass the event type rule.
+     *
+     * @param type notification message type
+     * @return <code>true</code> if the filter is for all or for this type of messages.
+     */
+    public boolean acceptType(NotificationType type) {
+      return NotificationType.none == this.eventType || type == this.eventType;
+    }
+
+    /**
+     * Checks whether or not messages of the given severity pass the event severity rule.
+     *
+     * @param severity notification message severity
+     * @return <code>true</code> if the severity is at or above the filter severity.
+     */
+    public boolean acceptSeverity(NotificationSeverity severity) {
+      return severity.getLevel() >= this.eventSeverity.getLevel();
+    }
+
   private boolean filter(String subject) {
     if("*".equals(this.selectorPattern) || this.selectorPattern ==null ) return true;
-    if (isNotEmpty(this.selectorPattern)) {
-        if (subject != null && subject.matches(selectorPattern)) {
+    if (this.selector != null) {
+        if (subject != null && selector.matcher(subject).matches()) {
           return true;
         }
       }
       return false;
   }
 
+  /**
+   * Compiles a regex of the sink, an invalid one is logged and matches nothing.
+   *
+   * @param regex regex configured in the sink
+   * @param flags match flags
+   * @return compiled pattern, <code>null</code> if the regex is invalid.
+   */
+  private static Pattern compile(String regex, int flags) {
+    try {
+      return Pattern.compile(regex, flags);
+    } catch (PatternSyntaxException e) {
+      logger.error("Invalid notification filter regex '" + regex + "', it won't match any message. " + e.getDescription());
+      return null;
+    }
+  }
+
   /**
      * Converts the json string to java string array.
      *
@@ -281,8 +340,8 @@ public class NotificationFilter implements MessageFilter {
      */
     public boolean allowCloud(String cloudName) {
         if (isNotEmpty(this.clouds)) {
-            for (String cloud : clouds) {
-                if (cloudName != null && cloudName.matches(cloud)) {
+            for (Predicate<String> cloud : cloudMatchers) {
+                if (cloudName != null && cloud.test(cloudName)) {
                     return true;
                 }
             }
@@ -319,18 +378,37 @@ public class NotificationFilter implements MessageFilter {
         return this;
     }
 
+    @SuppressWarnings("unchecked")
     public NotificationFilter clouds(final String[] clouds) {
         this.clouds = clouds;
+        if (clouds != null) {
+            this.cloudMatchers = new Predicate[clouds.length];
+            for (int i = 0; i < clouds.length; i++) {
+                String cloud = clouds[i];
+                if (cloud == null) {
+                    cloudMatchers[i] = name -> false;
+                } else if (LITERAL_CLOUD.matcher(cloud).matches()) {
+                    cloudMatchers[i] = cloud::equals;
+                } else {
+                    Pattern pattern = compile(cloud, 0);
+                    cloudMatchers[i] = pattern == null ? name -> false : name -> pattern.matcher(name).matches();
+                }
+            }
+        } else {
+            this.cloudMatchers = null;
+        }
         return this;
     }
 
     public NotificationFilter selectorPattern(final String selectorPattern) {
         this.selectorPattern = selectorPattern;
+        this.selector = isNotEmpty(selectorPattern) && !"*".equals(selectorPattern) ? compile(selectorPattern, 0) : null;
         return this;
     }
 
     public NotificationFilter envProfilePattern(String envProfilePattern) {
         this.envProfilePattern = envProfilePattern;
+        this.envProfile = isNotEmpty(envProfilePattern) ? compile(envProfilePattern, Pattern.CASE_INSENSITIVE) : null;
         return this;
     }
 
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.antenna.senders.generic;
+
+/**
+ * Deliveries per second, connections and open file descriptors of the notifications of
+ * {@link PooledHttpDeliveryTest} posted to one sink:
+ * <pre>
+ * java -cp ... com.oneops.antenna.senders.generic.PooledHttpDeliveryBenchmark [notifications]
+ * </pre>
+ */
+public class PooledHttpDeliveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int notifications = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        PooledHttpDeliveryTest fixture = new PooledHttpDeliveryTest();
+        fixture.startServer();
+        try {
+            fixture.setUp();
+            try {
+                long ms = fixture.deliver(notifications);
+                if (fixture.errors() > 0) {
+                    throw new IllegalStateException(fixture.errors() + " notifications failed");
+                }
+                System.out.println(String.format("%d notifications in %.1fs, %d deliveries/sec, %d connections,"
+                                + " open file descriptors %d before, %d at most",
+                        notifications, ms / 1000.0, notifications * 1000L / Math.max(1, ms),
+                        fixture.connections.size(), fixture.openFds, fixture.maxFds));
+            } finally {
+                fixture.tearDown();
+            }
+        } finally {
+            fixture.stopServer();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.antenna.senders.generic;
+
+import com.codahale.metrics.MetricRegistry;
+import com.oneops.antenna.domain.URLSubscriber;
+import com.oneops.antenna.service.Dispatcher;
+import com.oneops.notification.NotificationMessage;
+import com.sun.management.UnixOperatingSystemMXBean;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.oneops.metrics.OneOpsMetrics.ANTENNA;
+import static com.oneops.notification.NotificationSeverity.info;
+import static com.oneops.notification.NotificationType.ci;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Posts notifications to async url subscribers served by a local stub http server. See
+ * {@link PooledHttpDeliveryBenchmark} for the delivery rate.
+ */
+public class PooledHttpDeliveryTest {
+
+    private static final int NOTIFICATIONS = 10000;
+    private static final int QUEUE_SIZE = 1000;
+    private static final int MAX_PER_HOST = 10;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private int port;
+    final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    // open file descriptors before and at most during the last delivery
+    long openFds;
+    long maxFds;
+
+    private MetricRegistry metrics;
+    private HTTPMsgService service;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 100);
+        server.createContext("/ok", exchange -> respond(exchange, 200));
+        server.createContext("/flaky", exchange -> respond(exchange, 503));
+        server.createContext("/hang", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200);
+        });
+        serverExecutor = Executors.newFixedThreadPool(32);
+        server.setExecutor(serverExecutor);
+        server.start();
+        port = server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        connections.clear();
+        metrics = new MetricRegistry();
+        service = new HTTPMsgService(metrics);
+        service.setMaxRequestsPerHost(MAX_PER_HOST);
+        service.setQueueSize(QUEUE_SIZE);
+        service.setMaxRetries(3);
+        service.setRetryBackoffMs(100);
+        service.init();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    public void keepsConnectionsAndFileDescriptors() throws Exception {
+        deliver(NOTIFICATIONS);
+        assertEquals(errors(), 0);
+        assertTrue(connections.size() <= 2 * MAX_PER_HOST, connections.size() + " connections");
+        assertTrue(maxFds <= openFds + 4 * MAX_PER_HOST, maxFds + " open file descriptors");
+    }
+
+    /**
+     * Posts that many notifications to one sink as fast as its queue takes them, after warming up
+     * the connections.
+     *
+     * @return the time it took in ms
+     */
+    long deliver(int notifications) throws Exception {
+        URLSubscriber sub = subscriber("sink", "/ok");
+        // warm up the connections
+        post(sub, 1000);
+        openFds = openFileDescriptors();
+        maxFds = openFds;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < notifications; i++) {
+            // the dispatcher would drop what doesn't fit in the queue of the sink, keep up with it
+            while (i + 1000 - delivered() >= QUEUE_SIZE) {
+                Thread.sleep(1);
+            }
+            assertTrue(service.postMessage(message(i), sub));
+            if (i % 10000 == 0) {
+                maxFds = Math.max(maxFds, openFileDescriptors());
+            }
+        }
+        awaitDelivered(notifications + 1000);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        maxFds = Math.max(maxFds, openFileDescriptors());
+        return elapsed;
+    }
+
+    @Test
+    public void retriesDontHoldUpOtherSinks() throws Exception {
+        URLSubscriber flaky = subscriber("flaky", "/flaky");
+        URLSubscriber ok = subscriber("ok", "/ok");
+        for (int i = 0; i < 50; i++) {
+            assertTrue(service.postMessage(message(i), flaky));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < 500; i++) {
+            assertTrue(service.postMessage(message(i), ok));
+        }
+        awaitDelivered(500);
+        // the flaky sink retries for 100 + 200 + 400ms
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(700));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (errors() < 50 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(errors(), 50);
+        assertEquals(metrics.meter(name(ANTENNA, "http.retry")).getCount(), 150);
+    }
+
+    @Test
+    public void boundsTheQueueOfASink() throws Exception {
+        service.setQueueSize(5);
+        URLSubscriber hung = subscriber("hung", "/hang");
+        for (int i = 0; i < 5; i++) {
+            assertTrue(service.postMessage(message(i), hung));
+        }
+        assertFalse(service.postMessage(message(5), hung));
+        assertEquals(metrics.meter(name(ANTENNA, "http.dropped")).getCount(), 1);
+        // the other sinks still get their notifications
+        assertTrue(service.postMessage(message(6), subscriber("ok", "/ok")));
+        awaitDelivered(1);
+    }
+
+    private void post(URLSubscriber sub, int count) throws InterruptedException {
+        long delivered = delivered();
+        for (int i = 0; i < count; i++) {
+            assertTrue(service.postMessage(message(i), sub));
+        }
+        awaitDelivered(delivered + count);
+    }
+
+    private void awaitDelivered(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+        while (delivered() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(delivered(), count);
+    }
+
+    private long delivered() {
+        return metrics.meter(name(ANTENNA, "http.count")).getCount();
+    }
+
+    long errors() {
+        return metrics.meter(name(ANTENNA, "http.error")).getCount();
+    }
+
+    private void respond(HttpExchange exchange, int code) throws IOException {
+        connections.add(exchange.getRemoteAddress());
+        try (InputStream body = exchange.getRequestBody()) {
+            while (body.read() >= 0) {
+                // read the notification
+            }
+        }
+        exchange.sendResponseHeaders(code, -1);
+        exchange.close();
+    }
+
+    private URLSubscriber subscriber(String name, String path) {
+        URLSubscriber sub = new URLSubscriber();
+        sub.setName(name);
+        sub.setUrl("http://127.0.0.1:" + port + path);
+        sub.setDispatchMethod(Dispatcher.Method.ASYNC);
+        sub.setTimeout(5000);
+        return sub;
+    }
+
+    private static NotificationMessage message(int i) {
+        NotificationMessage n = new NotificationMessage();
+        n.setSeverity(info);
+        n.setNsPath("/testing/assembly/env/bom/tom/1");
+        n.setCmsId(i);
+        n.setSubject("ci:compute-" + i + "; Procedure ci_repair complete");
+        n.setSource("procedure");
+        n.setTimestamp(1405569317585L);
+        n.setType(ci);
+        return n;
+    }
+
+    private static long openFileDescriptors() {
+        return ((UnixOperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getOpenFileDescriptorCount();
+    }
+}
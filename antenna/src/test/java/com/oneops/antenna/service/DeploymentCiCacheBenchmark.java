@@ -0,0 +1,67 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.antenna.service;
+
+import com.oneops.antenna.cache.DeploymentCiCache;
+import com.oneops.cms.dj.dal.DJDpmtMapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Query counts and dispatch latency of the deployment notifications of {@link DeploymentCiCacheTest},
+ * querying the rfc CIs for every subscriber and through the {@link DeploymentCiCache}:
+ * <pre>
+ * java -cp ... com.oneops.antenna.service.DeploymentCiCacheBenchmark [notifications]
+ * </pre>
+ */
+public class DeploymentCiCacheBenchmark {
+
+    public static void main(String[] args) {
+        int notifications = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        DeploymentCiCacheTest fixture = new DeploymentCiCacheTest();
+        DJDpmtMapper dpmtMapper = fixture.dpmtMapper("active");
+
+        List<Integer> before = new ArrayList<>();
+        long[] beforeLatency = fixture.replay(DeploymentCiCacheTest.uncached(dpmtMapper), before, notifications);
+        int rfcQueriesBefore = fixture.rfcQueries.getAndSet(0);
+        int ciQueriesBefore = fixture.ciQueries.getAndSet(0);
+
+        DeploymentCiCache cache = new DeploymentCiCache(dpmtMapper);
+        cache.init();
+        List<Integer> after = new ArrayList<>();
+        long[] afterLatency = fixture.replay(cache, after, notifications);
+
+        if (!after.equals(before)) {
+            throw new IllegalStateException("subscribers got other CIs");
+        }
+        System.out.println(String.format("%d notifications, %d subscribers: rfc CI queries %d -> %d,"
+                        + " CI queries %d -> %d, dispatch p50 %.2fms -> %.2fms, p99 %.2fms -> %.2fms",
+                notifications, DeploymentCiCacheTest.SUBSCRIBERS, rfcQueriesBefore, fixture.rfcQueries.get(),
+                ciQueriesBefore, fixture.ciQueries.get(),
+                percentile(beforeLatency, 50) / 1000.0, percentile(afterLatency, 50) / 1000.0,
+                percentile(beforeLatency, 99) / 1000.0, percentile(afterLatency, 99) / 1000.0));
+    }
+
+    private static long percentile(long[] values, int percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+}
@@ -0,0 +1,231 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.antenna.service;
+
+import com.google.gson.Gson;
+import com.oneops.antenna.cache.DeploymentCiCache;
+import com.oneops.antenna.domain.BasicSubscriber;
+import com.oneops.antenna.domain.URLSubscriber;
+import com.oneops.antenna.senders.NotificationSender;
+import com.oneops.antenna.subscriptions.SubscriberService;
+import com.oneops.cms.cm.domain.CmsCI;
+import com.oneops.cms.cm.ops.service.OpsProcedureProcessor;
+import com.oneops.cms.cm.service.CmsCmProcessor;
+import com.oneops.cms.dj.dal.DJDpmtMapper;
+import com.oneops.cms.dj.domain.CmsDeployment;
+import com.oneops.cms.dj.domain.CmsRfcCI;
+import com.oneops.cms.dj.service.CmsDpmtProcessor;
+import com.oneops.cms.md.service.CmsMdProcessor;
+import com.oneops.cms.simple.domain.CmsCISimple;
+import com.oneops.cms.util.CmsUtil;
+import com.oneops.notification.NotificationMessage;
+import com.oneops.notification.NotificationSeverity;
+import com.oneops.notification.NotificationType;
+import com.oneops.notification.filter.NotificationFilter;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Dispatches the notifications of a deployment to url subscribers including the deployment
+ * CIs, querying the rfc CIs for every subscriber and through the {@link DeploymentCiCache}.
+ * The queries take a fixed time. See {@link DeploymentCiCacheBenchmark} for the dispatch latency.
+ */
+public class DeploymentCiCacheTest {
+
+    private static final long DPMT_ID = 42;
+    private static final int NOTIFICATIONS = 100;
+    static final int SUBSCRIBERS = 50;
+    private static final int RFCS = 500;
+    private static final long QUERY_MICROS = 200;
+    private static final String[] CLASSES = {"bom.Compute", "bom.Tomcat", "bom.Artifact", "bom.Lb", "bom.Fqdn"};
+
+    final AtomicInteger rfcQueries = new AtomicInteger();
+    final AtomicInteger ciQueries = new AtomicInteger();
+
+    @Test
+    public void cacheCutsQueries() {
+        DJDpmtMapper dpmtMapper = dpmtMapper("active");
+        List<Integer> before = new ArrayList<>();
+        replay(uncached(dpmtMapper), before, NOTIFICATIONS);
+        int rfcQueriesBefore = rfcQueries.getAndSet(0);
+        int ciQueriesBefore = ciQueries.getAndSet(0);
+
+        DeploymentCiCache cache = new DeploymentCiCache(dpmtMapper);
+        cache.init();
+        List<Integer> after = new ArrayList<>();
+        replay(cache, after, NOTIFICATIONS);
+
+        assertEquals(after, before, "subscribers got other CIs");
+        // the deployment state and the rfc CIs
+        assertEquals(rfcQueries.get(), 2);
+        assertEquals(rfcQueriesBefore, NOTIFICATIONS * SUBSCRIBERS);
+        assertTrue(ciQueries.get() <= ciQueriesBefore);
+    }
+
+    @Test
+    public void keepsCompleteDeployments() {
+        DeploymentCiCache active = new DeploymentCiCache(dpmtMapper("active"));
+        active.init();
+        active.getDeploymentRfcCIs(DPMT_ID, CLASSES, null);
+        assertFalse(active.instance().getUnchecked(DPMT_ID).isTerminal());
+
+        DeploymentCiCache complete = new DeploymentCiCache(dpmtMapper("complete"));
+        complete.init();
+        rfcQueries.set(0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(complete.getDeploymentRfcCIs(DPMT_ID, new String[]{"bom.Compute"}, "add").size(),
+                    RFCS / CLASSES.length / 2);
+        }
+        assertEquals(rfcQueries.get(), 2);
+        assertTrue(complete.instance().getUnchecked(DPMT_ID).isTerminal());
+        assertEquals(complete.instance().getUnchecked(DPMT_ID).size(), RFCS);
+    }
+
+    /**
+     * @return a cache that queries the rfc CIs on every call
+     */
+    static DeploymentCiCache uncached(DJDpmtMapper dpmtMapper) {
+        return new DeploymentCiCache(dpmtMapper) {
+            @Override
+            public List<CmsRfcCI> getDeploymentRfcCIs(long dpmtId, String[] classNames, String action) {
+                return dpmtMapper.getDeploymentRfcCIs(dpmtId, null, null, classNames, action);
+            }
+        };
+    }
+
+    /**
+     * @return the dispatch latency of each notification in micros
+     */
+    long[] replay(DeploymentCiCache dpmtCiCache, List<Integer> sent, int notifications) {
+        List<BasicSubscriber> subs = subscribers();
+        SubscriberService subService = mock(SubscriberService.class);
+        when(subService.getSubscribers(any(NotificationMessage.class))).thenReturn(subs);
+        NotificationSender urlSender = (msg, sub) -> {
+            sent.add(msg.getCis().stream().map(CmsCISimple::getCiId).collect(Collectors.toList()).hashCode());
+            return true;
+        };
+        // not mocks, they would keep every invocation
+        CmsCmProcessor cmProcessor = new CmsCmProcessor() {
+            @Override
+            public List<CmsCI> getCiByIdList(List<Long> ids) {
+                ciQueries.incrementAndGet();
+                query();
+                List<CmsCI> cis = new ArrayList<>();
+                for (long ciId : ids) {
+                    CmsCI ci = new CmsCI();
+                    ci.setCiId(ciId);
+                    cis.add(ci);
+                }
+                return cis;
+            }
+        };
+        CmsUtil cmsUtil = new CmsUtil() {
+            @Override
+            public CmsCISimple custCI2CISimple(CmsCI ci, String valueType) {
+                CmsCISimple simple = new CmsCISimple();
+                simple.setCiId(ci.getCiId());
+                return simple;
+            }
+        };
+        NotificationSender noop = mock(NotificationSender.class);
+        Dispatcher dispatcher = new Dispatcher(new Gson(), subService, noop, noop, urlSender, noop, noop, cmProcessor,
+                mock(CmsDpmtProcessor.class), mock(OpsProcedureProcessor.class), dpmtCiCache,
+                mock(CmsMdProcessor.class), cmsUtil);
+
+        long[] latencies = new long[notifications];
+        for (int i = 0; i < notifications; i++) {
+            NotificationMessage msg = new NotificationMessage();
+            msg.setType(NotificationType.deployment);
+            msg.setSeverity(NotificationSeverity.info);
+            msg.setCmsId(DPMT_ID);
+            msg.setNsPath("/org/assembly/env/bom");
+            msg.setSubject("Deployment step " + i);
+            long start = System.nanoTime();
+            dispatcher.dispatch(msg);
+            latencies[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        }
+        return latencies;
+    }
+
+    DJDpmtMapper dpmtMapper(String state) {
+        List<CmsRfcCI> rfcs = new ArrayList<>(RFCS);
+        for (int i = 0; i < RFCS; i++) {
+            CmsRfcCI rfc = new CmsRfcCI();
+            rfc.setCiId(1000 + i);
+            rfc.setCiClassName(CLASSES[i % CLASSES.length]);
+            rfc.setRfcAction(i / CLASSES.length % 2 == 0 ? "add" : "update");
+            rfcs.add(rfc);
+        }
+        DJDpmtMapper dpmtMapper = mock(DJDpmtMapper.class);
+        when(dpmtMapper.getDeployment(anyLong())).thenAnswer(invocation -> {
+            rfcQueries.incrementAndGet();
+            CmsDeployment dpmt = new CmsDeployment();
+            dpmt.setDeploymentState(state);
+            return dpmt;
+        });
+        when(dpmtMapper.getDeploymentRfcCIs(anyLong(), any(), any(), any(), any())).thenAnswer(invocation -> {
+            rfcQueries.incrementAndGet();
+            query();
+            String[] classNames = (String[]) invocation.getArguments()[3];
+            String action = (String) invocation.getArguments()[4];
+            Set<String> classes = classNames == null ? null : new HashSet<>(Arrays.asList(classNames));
+            return rfcs.stream()
+                    .filter(rfc -> classes == null || classes.contains(rfc.getCiClassName()))
+                    .filter(rfc -> action == null || action.equals(rfc.getRfcAction()))
+                    .collect(Collectors.toList());
+        });
+        return dpmtMapper;
+    }
+
+    private List<BasicSubscriber> subscribers() {
+        List<BasicSubscriber> subs = new ArrayList<>(SUBSCRIBERS);
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            URLSubscriber sub = new URLSubscriber();
+            sub.setName("sink-" + i);
+            sub.setFilter(new NotificationFilter()
+                    .eventType(NotificationType.deployment)
+                    .eventSeverity(NotificationSeverity.none)
+                    .includeCi(true)
+                    .classNames(Arrays.copyOfRange(CLASSES, i % CLASSES.length, CLASSES.length))
+                    .actions(i % 3 == 0 ? "add" : null));
+            subs.add(sub);
+        }
+        return subs;
+    }
+
+    private static void query() {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(QUERY_MICROS));
+    }
+}
@@ -18,6 +18,7 @@
 package com.oneops.antenna.service;
 
 import com.google.gson.Gson;
+import com.oneops.antenna.cache.DeploymentCiCache;
 import com.oneops.antenna.domain.BasicSubscriber;
 import com.oneops.antenna.domain.EmailSubscriber;
 import com.oneops.notification.NotificationMessage;
@@ -29,7 +30,6 @@ import com.oneops.antenna.subscriptions.SubscriberService;
 import com.oneops.cms.cm.domain.CmsCI;
 import com.oneops.cms.cm.ops.service.OpsProcedureProcessor;
 import com.oneops.cms.cm.service.CmsCmProcessor;
-import com.oneops.cms.dj.dal.DJDpmtMapper;
 import com.oneops.cms.dj.service.CmsDpmtProcessor;
 import com.oneops.cms.md.service.CmsMdProcessor;
 import com.oneops.cms.util.CmsUtil;
@@ -70,7 +70,7 @@ public class DispatcherTest {
         SubscriberService subService = mock(SubscriberService.class);
         NotificationSender notMock = mock(NotificationSender.class);
         this.dispatcher = new Dispatcher(new Gson(), subService, notMock, notMock, notMock, notMock, notMock, cmProcessor, mock(CmsDpmtProcessor.class), mock(OpsProcedureProcessor.class),mock(
-            DJDpmtMapper.class),mock(CmsMdProcessor.class),mock(CmsUtil.class));
+            DeploymentCiCache.class),mock(CmsMdProcessor.class),mock(CmsUtil.class));
     }
 
     /**
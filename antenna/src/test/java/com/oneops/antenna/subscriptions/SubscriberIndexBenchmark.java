@@ -0,0 +1,63 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.antenna.subscriptions;
+
+import com.oneops.antenna.cache.SubscriberIndex;
+import com.oneops.antenna.domain.BasicSubscriber;
+import com.oneops.notification.NotificationMessage;
+
+import java.util.List;
+
+/**
+ * Dispatch cost per message of the sinks of {@link SubscriberIndexTest}, filtering every
+ * subscriber and matching through the {@link SubscriberIndex}:
+ * <pre>
+ * java -cp ... com.oneops.antenna.subscriptions.SubscriberIndexBenchmark [messages]
+ * </pre>
+ */
+public class SubscriberIndexBenchmark {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        SubscriberIndexTest fixture = new SubscriberIndexTest();
+        List<BasicSubscriber> subs = fixture.subscribers();
+        SubscriberIndex index = new SubscriberIndex(subs);
+        List<NotificationMessage> messages = fixture.messages(count);
+
+        long start = System.nanoTime();
+        long scanned = 0;
+        for (NotificationMessage msg : messages) {
+            scanned += SubscriberIndexTest.scan(subs, msg).size();
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long matched = 0;
+        for (NotificationMessage msg : messages) {
+            matched += index.match(msg).size();
+        }
+        long indexNanos = System.nanoTime() - start;
+
+        if (matched != scanned) {
+            throw new IllegalStateException("index matched " + matched + " subscribers, the filters " + scanned);
+        }
+        System.out.println(String.format("%d subscribers, %d messages: filtering all %.1fus/msg, index %.1fus/msg,"
+                        + " %.1f subscribers/msg", SubscriberIndexTest.SUBSCRIBERS, count, scanNanos / 1000.0 / count,
+                indexNanos / 1000.0 / count, (double) matched / count));
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.antenna.subscriptions;
+
+import com.oneops.antenna.cache.SubscriberIndex;
+import com.oneops.antenna.domain.BasicSubscriber;
+import com.oneops.antenna.domain.URLSubscriber;
+import com.oneops.notification.NotificationMessage;
+import com.oneops.notification.NotificationSeverity;
+import com.oneops.notification.NotificationType;
+import com.oneops.notification.filter.NotificationFilter;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Dispatches messages to a thousand sinks of one nsPath, filtering every subscriber and
+ * matching through the {@link SubscriberIndex}. See {@link SubscriberIndexBenchmark} for the
+ * dispatch cost per message.
+ */
+public class SubscriberIndexTest {
+
+    static final int SUBSCRIBERS = 1000;
+    private static final int MESSAGES = 2000;
+    private static final String[] CLOUDS = {"prod-dfw1", "prod-dal2", "qa-dfw2", "dev-ndc1"};
+
+    private final Random random = new Random(11);
+
+    @Test
+    public void indexMatchesTheFilters() {
+        List<BasicSubscriber> subs = subscribers();
+        SubscriberIndex index = new SubscriberIndex(subs);
+        for (NotificationMessage msg : messages(MESSAGES)) {
+            assertEquals(index.match(msg), scan(subs, msg));
+        }
+        assertEquals(index, subs);
+    }
+
+    @Test
+    public void invalidRegexMatchesNothing() {
+        URLSubscriber broken = new URLSubscriber();
+        broken.setFilter(new NotificationFilter()
+                .eventType(NotificationType.none)
+                .eventSeverity(NotificationSeverity.none)
+                .selectorPattern("compute-(")
+                .envProfilePattern("prod"));
+        URLSubscriber all = new URLSubscriber();
+        SubscriberIndex index = new SubscriberIndex(Arrays.asList(broken, all));
+
+        NotificationMessage msg = message(NotificationType.ci, NotificationSeverity.critical);
+        List<BasicSubscriber> matched = index.match(msg);
+        assertEquals(matched.size(), 1);
+        assertTrue(matched.get(0) == all);
+    }
+
+    static List<BasicSubscriber> scan(List<BasicSubscriber> subs, NotificationMessage msg) {
+        List<BasicSubscriber> matched = new ArrayList<>();
+        for (BasicSubscriber sub : subs) {
+            if (!sub.hasFilter() || sub.getFilter().accept(msg)) {
+                matched.add(sub);
+            }
+        }
+        return matched;
+    }
+
+    List<BasicSubscriber> subscribers() {
+        List<BasicSubscriber> subs = new ArrayList<>(SUBSCRIBERS);
+        NotificationType[] types = NotificationType.values();
+        NotificationSeverity[] severities = NotificationSeverity.values();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            URLSubscriber sub = new URLSubscriber();
+            sub.setName("sink-" + i);
+            if (i % 10 != 0) {
+                NotificationFilter filter = new NotificationFilter()
+                        .eventType(types[random.nextInt(types.length)])
+                        .eventSeverity(severities[random.nextInt(severities.length)]);
+                if (random.nextInt(3) == 0) {
+                    filter.selectorPattern(".*compute-" + random.nextInt(10) + ".*");
+                }
+                if (random.nextInt(3) == 0) {
+                    filter.clouds(new String[]{CLOUDS[random.nextInt(CLOUDS.length)], "prod-.*"});
+                }
+                if (random.nextInt(5) == 0) {
+                    filter.envProfilePattern("PROD|qa");
+                }
+                if (random.nextInt(4) == 0) {
+                    filter.nsPaths(new String[]{"/org/assembly/env-" + random.nextInt(3)});
+                }
+                sub.setFilter(filter);
+            }
+            subs.add(sub);
+        }
+        return subs;
+    }
+
+    List<NotificationMessage> messages(int count) {
+        List<NotificationMessage> messages = new ArrayList<>(count);
+        NotificationType[] types = {NotificationType.ci, NotificationType.deployment, NotificationType.procedure};
+        NotificationSeverity[] severities = {NotificationSeverity.info, NotificationSeverity.warning,
+                NotificationSeverity.critical};
+        for (int i = 0; i < count; i++) {
+            messages.add(message(types[random.nextInt(types.length)], severities[random.nextInt(severities.length)]));
+        }
+        return messages;
+    }
+
+    private NotificationMessage message(NotificationType type, NotificationSeverity severity) {
+        NotificationMessage msg = new NotificationMessage();
+        msg.setType(type);
+        msg.setSeverity(severity);
+        msg.setNsPath("/org/assembly/env-" + random.nextInt(3) + "/bom/tomcat/1");
+        msg.setSubject("ci:compute-" + random.nextInt(100) + "; Procedure ci_repair complete");
+        msg.setCloudName(CLOUDS[random.nextInt(CLOUDS.length)]);
+        msg.setEnvironmentProfileName(random.nextBoolean() ? "prod" : "dev");
+        return msg;
+    }
+}
@@ -23,6 +23,7 @@ import java.util.Map;
 
 import com.oneops.cms.cm.domain.*;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.session.ResultHandler;
 
 import com.oneops.cms.util.domain.AttrQueryCondition;
 
@@ -53,8 +54,10 @@ public interface CIMapper {
 	CmsCI getCIById(long id);
 	List<CmsCI> getCIByIdList(@Param("ciIds") List<Long> ciIds);
 	List<CmsCI> getCIby3(@Param("ns") String ns, @Param("clazz") String clazz, @Param("shortClazz") String shortClazz, @Param("name") String name);
+	void getCIby3(@Param("ns") String ns, @Param("clazz") String clazz, @Param("shortClazz") String shortClazz, @Param("name") String name, ResultHandler handler);
 	List<CmsCI> getCIby3lower(@Param("ns") String ns, @Param("clazz") String clazz, @Param("shortClazz") String shortClazz, @Param("name") String name);
 	List<CmsCI> getCIby3NsLike(@Param("ns") String ns, @Param("nsLike") String nsLike, @Param("clazz") String clazz, @Param("shortClazz") String shortClazz, @Param("name") String name);
+	void getCIby3NsLike(@Param("ns") String ns, @Param("nsLike") String nsLike, @Param("clazz") String clazz, @Param("shortClazz") String shortClazz, @Param("name") String name, ResultHandler handler);
 	List<CmsCI> getCIbyStateNsLike(@Param("ns") String ns, @Param("nsLike") String nsLike, @Param("clazz") String clazz, @Param("state") String state);
 	List<CmsCI> getCIby3with2Names(@Param("ns") String ns, @Param("clazz") String clazz, @Param("name") String name, @Param("altName") String altName);
 	List<CmsCI> getCIbyAttributes(@Param("ns") String ns, @Param("clazz") String clazz, @Param("shortClazz") String shortName, @Param("attrList") List<AttrQueryCondition> attrList);
@@ -76,13 +79,16 @@ public interface CIMapper {
 	
 	CmsCIRelation getCIRelation(long ciRelationId);
 	List<CmsCIRelation> getCIRelations(@Param("nsPath") String nsPath, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("fromClazzName") String fromClazzName, @Param("fromShortClazzName") String fromShortClazzName, @Param("toClazzName") String toClazzName, @Param("toShortClazzName") String toShortClazzName);
+	void getCIRelations(@Param("nsPath") String nsPath, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("fromClazzName") String fromClazzName, @Param("fromShortClazzName") String fromShortClazzName, @Param("toClazzName") String toClazzName, @Param("toShortClazzName") String toShortClazzName, ResultHandler handler);
 	List<CmsCIRelation> getCIRelationsByState(@Param("nsPath") String nsPath, @Param("relationName") String relationName, @Param("ciState") String ciState, @Param("fromClazzName") String fromClazzName, @Param("toClazzName") String toClazzName);
 	List<CmsCIRelation> getCIRelationsNsLike(@Param("ns") String ns, @Param("nsLike") String nsLike, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("fromClazzName") String fromClazzName, @Param("fromShortClazzName") String fromShortClazzName, @Param("toClazzName") String toClazzName, @Param("toShortClazzName") String toShortClazzName);
+	void getCIRelationsNsLike(@Param("ns") String ns, @Param("nsLike") String nsLike, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("fromClazzName") String fromClazzName, @Param("fromShortClazzName") String fromShortClazzName, @Param("toClazzName") String toClazzName, @Param("toShortClazzName") String toShortClazzName, ResultHandler handler);
 	List<CmsCIRelation> getCIRelationsByStateNsLike(@Param("ns") String ns, @Param("nsLike") String nsLike, @Param("relationNames") List<String> relationNames, @Param("ciState") String ciState, @Param("fromClazzName") String fromClazzName, @Param("toClazzName") String toClazzName);
 	
 	List<CmsCIRelation> getFromCIRelations(@Param("fromId") long fromId, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("toClazzName") String toClazzName, @Param("toShortClazzName") String toShortClazzName);
 	List<CmsCIRelation> getFromCIRelationsByToClassAndCiName(@Param("fromId") long fromId, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("toClazzName") String toClazzName,@Param("toCiName") String toCiName);
 	List<CmsCIRelation> getFromCIRelationsByToCiIDs(@Param("fromId") long fromId, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("toCiIds") List<Long> toCiIds);
+	List<CmsCIRelation> getFromCIRelationsByFromCiIDs(@Param("fromCiIds") List<Long> fromCiIds, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("toClazzName") String toClazzName, @Param("toShortClazzName") String toShortClazzName);
 	List<CmsCIRelation> getFromCIRelationsByNS(@Param("fromId") long fromId, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("toClazzName") String toClazzName, @Param("toShortClazzName") String toShortClazzName, @Param("toNsPath") String toNsPath);
 	List<CmsCIRelation> getFromCIRelationsByNSLike(@Param("fromId") long fromId, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("toClazzName") String toClazzName, @Param("toShortClazzName") String toShortClazzName, @Param("toNsPath") String toNsPath, @Param("toNsPathLike") String toNsPathLike);
 	List<CmsCIRelation> getFromCIRelationsByMultiRelationNames(@Param("fromId") long fromId, @Param("relationNames") List<String> relationNames, @Param("shortRelNames") List<String> shortRelNames);
@@ -97,6 +103,7 @@ public interface CIMapper {
 	
 	List<CmsCIRelation> getToCIRelations(@Param("toId") long toId, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("fromClazzName") String fromClazzName, @Param("fromShortClazzName") String fromShortClazzName);
 	List<CmsCIRelation> getToCIRelationsByFromCiIDs(@Param("toId") long toId, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("fromCiIds") List<Long> fromCiIds);
+	List<CmsCIRelation> getToCIRelationsByToCiIDs(@Param("toCiIds") List<Long> toCiIds, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("fromClazzName") String fromClazzName, @Param("fromShortClazzName") String fromShortClazzName);
 	List<CmsCIRelation> getToCIRelationsByNS(@Param("toId") long toId, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("fromClazzName") String fromClazzName, @Param("fromShortClazzName") String fromShortClazzName, @Param("fromNsPath") String fromNsPath);
 	List<CmsCIRelation> getToCIRelationsByNSLike(@Param("toId") long toId, @Param("relationName") String relationName, @Param("shortRelName") String shortRelName, @Param("fromClazzName") String fromClazzName, @Param("fromShortClazzName") String fromShortClazzName, @Param("fromNsPath") String fromNsPath, @Param("fromNsPathLike") String fromNsPathLike);
 	//List<CmsCIRelation> getToCIRelationsShortName(@Param("toId") long toId, @Param("shortRelName") String shortRelName, @Param("fromClazzName") String fromClazzName);
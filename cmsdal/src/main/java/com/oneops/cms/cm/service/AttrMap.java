@@ -0,0 +1,228 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.cm.service;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import com.oneops.cms.cm.domain.CmsBasicAttribute;
+
+/**
+ * The attributes of a ci or relation: the ones read from the db or put, over the defaults of its md class or
+ * relation. A default attribute is copied for the ci the first time it is looked up, so it can be changed like
+ * the others, and the defaults that are never looked up are not allocated for every ci. Serialized as a plain
+ * {@link HashMap}.
+ *
+ * @param <A> the ci or relation attribute
+ */
+class AttrMap<A extends CmsBasicAttribute> extends AbstractMap<String, A> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private transient AttrTemplate<A> template;
+	private final long ownerId;
+	private final Map<String, A> own;
+	// the defaults removed from the map, not to be copied again
+	private Set<String> removed;
+
+	AttrMap(AttrTemplate<A> template, long ownerId, Map<String, A> own) {
+		this.template = template;
+		this.ownerId = ownerId;
+		this.own = own;
+	}
+
+	private boolean isDefault(Object key) {
+		return template != null && template.hasDefault(key) && !own.containsKey(key) && (removed == null || !removed.contains(key));
+	}
+
+	@Override
+	public synchronized A get(Object key) {
+		A attr = own.get(key);
+		if (attr == null && isDefault(key)) {
+			attr = template.newDefault((String) key, ownerId);
+			own.put((String) key, attr);
+		}
+		return attr;
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key) {
+		return own.containsKey(key) || isDefault(key);
+	}
+
+	@Override
+	public synchronized A put(String key, A value) {
+		A previous = get(key);
+		own.put(key, value);
+		return previous;
+	}
+
+	@Override
+	public synchronized A remove(Object key) {
+		A previous = get(key);
+		own.remove(key);
+		if (template != null && template.hasDefault(key)) {
+			if (removed == null) {
+				removed = new HashSet<>();
+			}
+			removed.add((String) key);
+		}
+		return previous;
+	}
+
+	@Override
+	public synchronized void clear() {
+		own.clear();
+		template = null;
+		removed = null;
+	}
+
+	@Override
+	public synchronized int size() {
+		return own.size() + (template == null ? 0 : (int) template.getNames().stream().filter(this::isDefault).count());
+	}
+
+	/**
+	 * @return the keys at the time of the call, the defaults in md order first
+	 */
+	private synchronized List<String> keys() {
+		List<String> keys = new ArrayList<>(size());
+		if (template != null) {
+			template.getNames().stream().filter(this::containsKey).forEach(keys::add);
+		}
+		for (String key : own.keySet()) {
+			if (template == null || !template.hasDefault(key)) {
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new KeyIterator<String>() {
+					@Override
+					public String next() {
+						return nextKey();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return AttrMap.this.size();
+			}
+
+			@Override
+			public boolean contains(Object key) {
+				return containsKey(key);
+			}
+
+			@Override
+			public boolean remove(Object key) {
+				if (!containsKey(key)) {
+					return false;
+				}
+				AttrMap.this.remove(key);
+				return true;
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<String, A>> entrySet() {
+		return new AbstractSet<Entry<String, A>>() {
+			@Override
+			public Iterator<Entry<String, A>> iterator() {
+				return new KeyIterator<Entry<String, A>>() {
+					@Override
+					public Entry<String, A> next() {
+						String key = nextKey();
+						return new SimpleEntry<String, A>(key, get(key)) {
+							private static final long serialVersionUID = 1L;
+
+							@Override
+							public A setValue(A value) {
+								put(key, value);
+								return super.setValue(value);
+							}
+						};
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return AttrMap.this.size();
+			}
+		};
+	}
+
+	private abstract class KeyIterator<T> implements Iterator<T> {
+		private final Iterator<String> keys = keys().iterator();
+		private String current;
+
+		@Override
+		public boolean hasNext() {
+			return keys.hasNext();
+		}
+
+		String nextKey() {
+			current = keys.next();
+			return current;
+		}
+
+		@Override
+		public void remove() {
+			if (current == null) {
+				throw new IllegalStateException();
+			}
+			AttrMap.this.remove(current);
+			current = null;
+		}
+	}
+
+	/**
+	 * @return a map over the same defaults with copies of the attributes of this one
+	 */
+	synchronized AttrMap<A> copy(UnaryOperator<A> copier) {
+		Map<String, A> copies = new HashMap<>();
+		own.forEach((name, attr) -> copies.put(name, copier.apply(attr)));
+		AttrMap<A> copy = new AttrMap<>(template, ownerId, copies);
+		if (removed != null) {
+			copy.removed = new HashSet<>(removed);
+		}
+		return copy;
+	}
+
+	private synchronized Object writeReplace() {
+		return new HashMap<>(this);
+	}
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.cm.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+import com.oneops.cms.cm.domain.CmsBasicAttribute;
+import com.oneops.cms.cm.domain.CmsCIAttribute;
+import com.oneops.cms.cm.domain.CmsCIRelationAttribute;
+import com.oneops.cms.md.domain.CmsClazz;
+import com.oneops.cms.md.domain.CmsClazzAttribute;
+import com.oneops.cms.md.domain.CmsRelation;
+import com.oneops.cms.md.domain.CmsRelationAttribute;
+
+/**
+ * The attributes of an md class or relation with their default values, built once from the definition and
+ * shared by all the cis or relations of it. A ci keeps the attributes read from the db in an {@link AttrMap}
+ * and gets its own copy of a default attribute the first time it is looked up.
+ *
+ * @param <A> the ci or relation attribute
+ */
+class AttrTemplate<A extends CmsBasicAttribute> {
+
+	private final Object definition;
+	private final Map<Integer, String> names = new HashMap<>();
+	private final Map<String, Integer> ids = new LinkedHashMap<>();
+	private final Map<String, String> defaults = new HashMap<>();
+	private final Supplier<A> factory;
+	private final ObjLongConsumer<A> owner;
+
+	private AttrTemplate(Object definition, Supplier<A> factory, ObjLongConsumer<A> owner) {
+		this.definition = definition;
+		this.factory = factory;
+		this.owner = owner;
+	}
+
+	static AttrTemplate<CmsCIAttribute> of(CmsClazz clazz) {
+		AttrTemplate<CmsCIAttribute> template = new AttrTemplate<>(clazz, CmsCIAttribute::new, CmsCIAttribute::setCiId);
+		for (CmsClazzAttribute attr : clazz.getMdAttributes()) {
+			template.add(attr.getAttributeId(), attr.getAttributeName(), attr.getDefaultValue());
+		}
+		return template;
+	}
+
+	static AttrTemplate<CmsCIRelationAttribute> of(CmsRelation relation) {
+		AttrTemplate<CmsCIRelationAttribute> template = new AttrTemplate<>(relation, CmsCIRelationAttribute::new, CmsCIRelationAttribute::setCiRelationId);
+		for (CmsRelationAttribute attr : relation.getMdAttributes()) {
+			template.add(attr.getAttributeId(), attr.getAttributeName(), attr.getDefaultValue());
+		}
+		return template;
+	}
+
+	private void add(int attributeId, String attributeName, String defaultValue) {
+		names.put(attributeId, attributeName);
+		ids.put(attributeName, attributeId);
+		defaults.put(attributeName, defaultValue);
+	}
+
+	/**
+	 * @return true if the template was built from this md class or relation, the md cache gives out a new one when it is reloaded
+	 */
+	boolean isFrom(Object definition) {
+		return this.definition == definition;
+	}
+
+	/**
+	 * Names the attributes read from the db and backs them with the defaults of the other attributes.
+	 *
+	 * @param ownerId the ci or relation id
+	 * @param attrs the attributes of the ci or relation read from the db
+	 */
+	Map<String, A> newAttributes(long ownerId, List<A> attrs) {
+		Map<String, A> own = new HashMap<>();
+		for (A attr : attrs) {
+			attr.setAttributeName(names.get(attr.getAttributeId()));
+			own.put(attr.getAttributeName(), attr);
+		}
+		return new AttrMap<>(this, ownerId, own);
+	}
+
+	/**
+	 * @return the names of the attributes, in md order
+	 */
+	Set<String> getNames() {
+		return Collections.unmodifiableSet(ids.keySet());
+	}
+
+	boolean hasDefault(Object attributeName) {
+		return ids.containsKey(attributeName);
+	}
+
+	A newDefault(String attributeName, long ownerId) {
+		A attr = factory.get();
+		attr.setAttributeId(ids.get(attributeName));
+		attr.setAttributeName(attributeName);
+		owner.accept(attr, ownerId);
+		attr.setDfValue(defaults.get(attributeName));
+		attr.setDjValue(defaults.get(attributeName));
+		return attr;
+	}
+}
@@ -0,0 +1,392 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.cm.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.BeanUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.oneops.cms.cm.domain.CmsBasicAttribute;
+import com.oneops.cms.cm.domain.CmsCI;
+import com.oneops.cms.cm.domain.CmsCIRelation;
+
+/**
+ * A bounded read-through cache of the cis and relation lists read by {@link CmsCmProcessor}, least recently
+ * used first out. The write paths of the cms invalidate what they change:
+ * <ul>
+ * <li>every invalidation bumps the version, a read that started before it doesn't fill the cache;</li>
+ * <li>a transaction that wrote reads past the cache until it completes, then invalidates again what it
+ * changed, in case a reader outside of it cached the state before the commit;</li>
+ * <li>the changes made by other processes are seen after the ttl.</li>
+ * </ul>
+ * The cached cis and relations are copies, the callers get their own copies to change.
+ */
+public class CmsCmCache {
+
+	private static final Logger logger = Logger.getLogger(CmsCmCache.class);
+
+	private int maxSize = 10000;
+	private long ttlMs = 10000;
+
+	private final Object lock = new Object();
+	private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+			if (size() > maxSize) {
+				unindex(eldest.getKey(), eldest.getValue());
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	};
+	// the keys of the relation lists by the ids of the cis and relations in them
+	private final Map<Long, Set<Object>> keysByCi = new HashMap<>();
+	private final Map<Long, Set<Object>> keysByRelation = new HashMap<>();
+	private long version;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private static class Entry {
+		private final Object value;
+		private final long expires;
+		private final long[] ciIds;
+		private final long[] relationIds;
+
+		private Entry(Object value, long expires, long[] ciIds, long[] relationIds) {
+			this.value = value;
+			this.expires = expires;
+			this.ciIds = ciIds;
+			this.relationIds = relationIds;
+		}
+	}
+
+	/**
+	 * The invalidations of a transaction, done again when it completes.
+	 */
+	private class TransactionInvalidations extends TransactionSynchronizationAdapter {
+		private final Set<Long> ciIds = new HashSet<>();
+		private final Set<Long> relationIds = new HashSet<>();
+		private boolean all;
+
+		@Override
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(CmsCmCache.this);
+			synchronized (lock) {
+				version++;
+				if (all) {
+					clear();
+				} else {
+					ciIds.forEach(CmsCmCache.this::removeCi);
+					relationIds.forEach(id -> removeKeys(keysByRelation.get(id)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return false if the cache is off, or if the current transaction wrote to the cms, it doesn't read from the cache until it completes
+	 */
+	boolean isReadable() {
+		return maxSize > 0 && (!TransactionSynchronizationManager.isSynchronizationActive() || !TransactionSynchronizationManager.hasResource(this));
+	}
+
+	/**
+	 * @return the version to fill the cache with after reading from the db
+	 */
+	long stamp() {
+		synchronized (lock) {
+			return version;
+		}
+	}
+
+	CmsCI getCi(long ciId) {
+		CmsCI ci = (CmsCI) get(ciId);
+		return ci == null ? null : copy(ci);
+	}
+
+	void putCi(CmsCI ci, long stamp) {
+		if (ci != null) {
+			put(ci.getCiId(), copy(ci), stamp, new long[0], new long[0]);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	List<CmsCIRelation> getRelations(String key) {
+		List<CmsCIRelation> rels = (List<CmsCIRelation>) get(key);
+		return rels == null ? null : copy(rels);
+	}
+
+	/**
+	 * @param ciId the ci the relations are from or to, the list is dropped with it even if it is empty
+	 */
+	void putRelations(long ciId, String key, List<CmsCIRelation> rels, long stamp) {
+		Set<Long> ciIds = new HashSet<>();
+		ciIds.add(ciId);
+		long[] relationIds = new long[rels.size()];
+		for (int i = 0; i < rels.size(); i++) {
+			CmsCIRelation rel = rels.get(i);
+			ciIds.add(rel.getFromCiId());
+			ciIds.add(rel.getToCiId());
+			relationIds[i] = rel.getCiRelationId();
+		}
+		put(key, copy(rels), stamp, ciIds.stream().mapToLong(Long::longValue).toArray(), relationIds);
+	}
+
+	private Object get(Object key) {
+		synchronized (lock) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.expires < System.currentTimeMillis()) {
+				entries.remove(key);
+				unindex(key, entry);
+				entry = null;
+			}
+			if (entry == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return entry.value;
+		}
+	}
+
+	private void put(Object key, Object value, long stamp, long[] ciIds, long[] relationIds) {
+		synchronized (lock) {
+			if (stamp != version) {
+				// changed while it was read
+				return;
+			}
+			Entry previous = entries.put(key, new Entry(value, System.currentTimeMillis() + ttlMs, ciIds, relationIds));
+			if (previous != null) {
+				unindex(key, previous);
+			}
+			for (long ciId : ciIds) {
+				keysByCi.computeIfAbsent(ciId, id -> new HashSet<>()).add(key);
+			}
+			for (long relationId : relationIds) {
+				keysByRelation.computeIfAbsent(relationId, id -> new HashSet<>()).add(key);
+			}
+		}
+	}
+
+	/**
+	 * Drops the ci and the relation lists it is in.
+	 */
+	public void invalidateCi(long ciId) {
+		synchronized (lock) {
+			version++;
+			removeCi(ciId);
+		}
+		invalidations.incrementAndGet();
+		TransactionInvalidations pending = pending();
+		if (pending != null) {
+			pending.ciIds.add(ciId);
+		}
+	}
+
+	/**
+	 * Drops the relation lists of the cis the relation is from and to, and the lists the relation is in.
+	 */
+	public void invalidateRelation(long relationId, long fromCiId, long toCiId) {
+		synchronized (lock) {
+			version++;
+			removeKeys(keysByRelation.get(relationId));
+			removeKeys(keysByCi.get(fromCiId));
+			removeKeys(keysByCi.get(toCiId));
+		}
+		invalidations.incrementAndGet();
+		TransactionInvalidations pending = pending();
+		if (pending != null) {
+			pending.relationIds.add(relationId);
+			pending.ciIds.add(fromCiId);
+			pending.ciIds.add(toCiId);
+		}
+	}
+
+	/**
+	 * Drops everything, for the writes that change many cis like the commit of a release.
+	 */
+	public void invalidateAll() {
+		synchronized (lock) {
+			version++;
+			clear();
+		}
+		invalidations.incrementAndGet();
+		TransactionInvalidations pending = pending();
+		if (pending != null) {
+			pending.all = true;
+		}
+	}
+
+	private TransactionInvalidations pending() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		TransactionInvalidations pending = (TransactionInvalidations) TransactionSynchronizationManager.getResource(this);
+		if (pending == null) {
+			pending = new TransactionInvalidations();
+			TransactionSynchronizationManager.bindResource(this, pending);
+			TransactionSynchronizationManager.registerSynchronization(pending);
+		}
+		return pending;
+	}
+
+	private void removeCi(long ciId) {
+		Entry entry = entries.remove(ciId);
+		if (entry != null) {
+			unindex(ciId, entry);
+		}
+		removeKeys(keysByCi.get(ciId));
+	}
+
+	private void removeKeys(Set<Object> keys) {
+		if (keys != null) {
+			for (Object key : new ArrayList<>(keys)) {
+				Entry entry = entries.remove(key);
+				if (entry != null) {
+					unindex(key, entry);
+				}
+			}
+		}
+	}
+
+	private void unindex(Object key, Entry entry) {
+		for (long ciId : entry.ciIds) {
+			unindex(keysByCi, ciId, key);
+		}
+		for (long relationId : entry.relationIds) {
+			unindex(keysByRelation, relationId, key);
+		}
+	}
+
+	private static void unindex(Map<Long, Set<Object>> index, long id, Object key) {
+		Set<Object> keys = index.get(id);
+		if (keys != null) {
+			keys.remove(key);
+			if (keys.isEmpty()) {
+				index.remove(id);
+			}
+		}
+	}
+
+	private void clear() {
+		entries.clear();
+		keysByCi.clear();
+		keysByRelation.clear();
+	}
+
+	private static List<CmsCIRelation> copy(List<CmsCIRelation> rels) {
+		List<CmsCIRelation> copies = new ArrayList<>(rels.size());
+		for (CmsCIRelation rel : rels) {
+			CmsCIRelation copy = new CmsCIRelation();
+			BeanUtils.copyProperties(rel, copy, "attributes", "fromCi", "toCi");
+			copy.setAttributes(copyAttrs(rel.getAttributes()));
+			copy.setFromCi(rel.getFromCi() == null ? null : copy(rel.getFromCi()));
+			copy.setToCi(rel.getToCi() == null ? null : copy(rel.getToCi()));
+			copies.add(copy);
+		}
+		return copies;
+	}
+
+	private static CmsCI copy(CmsCI ci) {
+		CmsCI copy = new CmsCI();
+		BeanUtils.copyProperties(ci, copy, "attributes");
+		copy.setAttributes(copyAttrs(ci.getAttributes()));
+		return copy;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <A extends CmsBasicAttribute> Map<String, A> copyAttrs(Map<String, A> attrs) {
+		if (attrs == null) {
+			return null;
+		}
+		if (attrs instanceof AttrMap) {
+			return ((AttrMap<A>) attrs).copy(CmsCmCache::copyAttr);
+		}
+		Map<String, A> copies = new HashMap<>();
+		attrs.forEach((name, attr) -> copies.put(name, copyAttr(attr)));
+		return copies;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <A extends CmsBasicAttribute> A copyAttr(A attr) {
+		if (attr == null) {
+			return null;
+		}
+		A copy = (A) BeanUtils.instantiateClass(attr.getClass());
+		BeanUtils.copyProperties(attr, copy);
+		return copy;
+	}
+
+	/**
+	 * Sets the maximum number of cis and relation lists.
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public void setTtlSeconds(long ttlSeconds) {
+		this.ttlMs = ttlSeconds * 1000;
+	}
+
+	public void init() {
+		logger.info("Cm cache of " + maxSize + " cis and relation lists, ttl " + ttlMs / 1000 + "s");
+	}
+
+	public void destroy() {
+		logger.info("Cm cache hits: " + getHits() + ", misses: " + getMisses() + ", invalidations: " + getInvalidations()
+				+ ", evictions: " + getEvictions());
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public int getSize() {
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+}
@@ -20,6 +20,7 @@ package com.oneops.cms.cm.service;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import com.oneops.cms.cm.domain.CmsAltNs;
 import com.oneops.cms.dj.domain.CmsRfcCI;
@@ -43,10 +44,14 @@ public interface CmsCmManager {
 	void deleteCI(long ciId, String userId);
 	CmsCI getCiByGoid(String goid);
 	CmsCI getCiById(long id);
+	@Transactional(readOnly = true)
 	List<CmsCI> getCiByIdList(List<Long> ids);
+	@Transactional(readOnly = true)
 	List<CmsCI> getCiByIdListNaked(List<Long> ids);
 	List<CmsCI> getCiBy3(String ns, String clazz, String ci);
 	List<CmsCI> getCiBy3NsLike(String ns, String clazz, String ci);
+	@Transactional(readOnly = true)
+	void streamCiBy3(String ns, String clazz, String ci, boolean recursive, Consumer<List<CmsCI>> consumer);
 	List<CmsCI> getCiByAttributes(String ns, String clazz, List<AttrQueryCondition> attrs, boolean recursive);
 	List<CmsCI> getCiByName(String name, String oper);
 	long getCountBy3(String ns, String clazz, String ci, boolean recursive);
@@ -71,6 +76,8 @@ public interface CmsCmManager {
 	List<CmsCIRelation> getCIRelations(String nsPath, String relationName, String shortRelName, String fromClazzName, String toClazzName);
 	List<CmsCIRelation> getCIRelationsNsLike(String nsPath, String relationName, String shortRelName, String fromClazzName, String toClazzName);
 	void populateRelCis(List<CmsCIRelation> rels, boolean fromCis, boolean toCis);
+	@Transactional(readOnly = true)
+	void streamCIRelations(String nsPath, String relationName, String shortRelName, String fromClazzName, String toClazzName, boolean recursive, boolean fromCis, boolean toCis, Consumer<List<CmsCIRelation>> consumer);
 	
 	
 	long getCountFromCIRelationsByNS(long fromId,String relationName, String shortRelName, String toClazzName, String toNsPath, boolean recursive);
@@ -28,6 +28,7 @@ import com.oneops.cms.util.domain.AttrQueryCondition;
 import com.oneops.cms.util.domain.CmsVar;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -99,6 +100,14 @@ public class CmsCmManagerImpl implements CmsCmManager {
         return cmProcessor.getCiBy3NsLike(ns, clazzName, ciName);
     }
 
+    /* (non-Javadoc)
+     * @see com.oneops.cms.cm.service.CmsCmManager#streamCiBy3(java.lang.String, java.lang.String, java.lang.String, boolean, java.util.function.Consumer)
+     */
+    @Override
+    public void streamCiBy3(String ns, String clazzName, String ciName, boolean recursive, Consumer<List<CmsCI>> consumer) {
+        cmProcessor.streamCiBy3(ns, clazzName, ciName, recursive, consumer);
+    }
+
 
     /* (non-Javadoc)
      * @see com.oneops.cms.cm.service.CmsCmManager#getCiByAttributes(java.lang.String, java.lang.String, java.util.List, boolean)
@@ -240,6 +249,16 @@ public class CmsCmManagerImpl implements CmsCmManager {
         return cmProcessor.getCIRelationsNsLikeNaked(nsPath, relationName, shortRelName, fromClazzName, toClazzName);
     }
 
+    /* (non-Javadoc)
+     * @see com.oneops.cms.cm.service.CmsCmManager#streamCIRelations(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, boolean, boolean, boolean, java.util.function.Consumer)
+     */
+    @Override
+    public void streamCIRelations(String nsPath, String relationName, String shortRelName, String fromClazzName,
+                                  String toClazzName, boolean recursive, boolean fromCis, boolean toCis,
+                                  Consumer<List<CmsCIRelation>> consumer) {
+        cmProcessor.streamCIRelations(nsPath, relationName, shortRelName, fromClazzName, toClazzName, recursive, fromCis, toCis, consumer);
+    }
+
     /* (non-Javadoc)
      * @see com.oneops.cms.cm.service.CmsCmManager#getCiByName(java.lang.String, java.lang.String)
      */
@@ -22,23 +22,39 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import com.oneops.cms.cm.domain.*;
 import com.oneops.cms.ns.service.CmsNsProcessor;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
 import org.apache.log4j.Logger;
+import org.mybatis.spring.SqlSessionHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.oneops.cms.cm.dal.CIMapper;
+import com.oneops.cms.ds.DataType;
+import com.oneops.cms.ds.DataTypeHolder;
 import com.oneops.cms.exceptions.CIValidationException;
 import com.oneops.cms.exceptions.CmsException;
 import com.oneops.cms.md.domain.CmsClazz;
-import com.oneops.cms.md.domain.CmsClazzAttribute;
 import com.oneops.cms.md.domain.CmsRelation;
 import com.oneops.cms.md.domain.CmsRelationAttribute;
 import com.oneops.cms.md.service.CmsMdProcessor;
@@ -69,7 +85,13 @@ public class CmsCmProcessor {
 	private CmsNsProcessor cmsNsProcessor;
 	private CmsMdProcessor mdProcessor;
 	private QueryConditionMapper qcm = new QueryConditionMapper();
+	private CmsCmCache cmCache;
+	private ExecutorService fetchExecutor;
+	private Semaphore fetchConnections = new Semaphore(4);
 	private Set<String> bomRelations = new HashSet<>();
+	// the attribute templates of the md classes and relations, rebuilt when the md cache reloads them
+	private final Map<Integer, AttrTemplate<CmsCIAttribute>> clazzTemplates = new ConcurrentHashMap<>();
+	private final Map<Integer, AttrTemplate<CmsCIRelationAttribute>> relationTemplates = new ConcurrentHashMap<>();
 
 	public CmsCmProcessor() {
 		bomRelations.add(BASE_REALIZED_AS);
@@ -98,6 +120,37 @@ public class CmsCmProcessor {
 		this.cmsNsProcessor = cmsNsProcessor;
 	}
 
+	/**
+	 * Sets the cache of the cis and relation lists, nothing is cached without one.
+	 *
+	 * @param cmCache the cm cache
+	 */
+	public void setCmCache(CmsCmCache cmCache) {
+		this.cmCache = cmCache;
+	}
+
+	/**
+	 * Sets the executor the chunks of the long id lists are read on in parallel, they are read one after the other
+	 * without one.
+	 *
+	 * @param fetchExecutor the fetch executor
+	 */
+	public void setFetchExecutor(ExecutorService fetchExecutor) {
+		this.fetchExecutor = fetchExecutor;
+	}
+
+	/**
+	 * Sets the number of db connections the parallel reads hold at most, the callers waiting for their chunks
+	 * included. It must be below the connection pool size: a caller in a transaction keeps its connection while it
+	 * waits, so the remaining connections are left to the threads that do not wait and to the readers of the chunks.
+	 * A caller that gets none reads its chunks itself, a helper that gets none leaves the chunks to the caller.
+	 *
+	 * @param fetchConnections the connections of the parallel reads, 4 by default
+	 */
+	public void setFetchConnections(int fetchConnections) {
+		this.fetchConnections = new Semaphore(fetchConnections);
+	}
+
 	/**
 	 * Sets the ci mapper.
 	 *
@@ -222,24 +275,7 @@ public class CmsCmProcessor {
 
 	private void populateAttrs(CmsCI ci) {
 		if (ci != null) {
-			CmsClazz clazz = mdProcessor.getClazz(ci.getCiClassId());
-			Map<Integer, CmsClazzAttribute> clazzAttrs = getClazzAttrsMap(clazz.getMdAttributes()); 
-			//first lets populate the attr names for ci attrs
-			for (CmsCIAttribute attr : ciMapper.getCIAttrsNaked(ci.getCiId())) {
-				attr.setAttributeName(clazzAttrs.get(attr.getAttributeId()).getAttributeName());
-				ci.addAttribute(attr);
-				clazzAttrs.remove(attr.getAttributeId());
-			}
-			// now populate default values from missing attrs
-			for (CmsClazzAttribute clazzAttr : clazzAttrs.values()) {
-				CmsCIAttribute attr = new CmsCIAttribute();
-				attr.setAttributeId(clazzAttr.getAttributeId());
-				attr.setAttributeName(clazzAttr.getAttributeName());
-				attr.setCiId(ci.getCiId());
-				attr.setDfValue(clazzAttr.getDefaultValue());
-				attr.setDjValue(clazzAttr.getDefaultValue());
-				ci.addAttribute(attr);
-			}
+			ci.setAttributes(getClazzTemplate(ci.getCiClassId()).newAttributes(ci.getCiId(), ciMapper.getCIAttrsNaked(ci.getCiId())));
 		}
 	}
 
@@ -258,83 +294,35 @@ public class CmsCmProcessor {
 		for (CmsCIAttribute attr: allAttrs) {
 			attrMap.get(attr.getCiId()).add(attr);
 		}
-		Map<Integer, CmsClazz> clazzes = new HashMap<Integer, CmsClazz>();
+		Map<Integer, AttrTemplate<CmsCIAttribute>> templates = new HashMap<>();
 		for (CmsCI ci : cis) {
-			CmsClazz clazz = null;
-			if (!clazzes.containsKey(ci.getCiClassId())) {
-				clazz = mdProcessor.getClazz(ci.getCiClassId());
-				clazzes.put(clazz.getClassId(), clazz);
-			} else {
-				clazz = clazzes.get(ci.getCiClassId());
-			}
-			Map<Integer, CmsClazzAttribute> clazzAttrs = getClazzAttrsMap(clazz.getMdAttributes()); 
-			//first lets populate the attr names for ci attrs
-			if (attrMap.containsKey(ci.getCiId())) {
-				for (CmsCIAttribute attr : attrMap.get(ci.getCiId())) {
-					attr.setAttributeName(clazzAttrs.get(attr.getAttributeId()).getAttributeName());
-					ci.addAttribute(attr);
-					clazzAttrs.remove(attr.getAttributeId());
-				}
-			}
-			// now populate default values from missing attrs
-			for (CmsClazzAttribute clazzAttr : clazzAttrs.values()) {
-				CmsCIAttribute attr = new CmsCIAttribute();
-				attr.setAttributeId(clazzAttr.getAttributeId());
-				attr.setAttributeName(clazzAttr.getAttributeName());
-				attr.setCiId(ci.getCiId());
-				attr.setDfValue(clazzAttr.getDefaultValue());
-				attr.setDjValue(clazzAttr.getDefaultValue());
-				ci.addAttribute(attr);
-			}
+			AttrTemplate<CmsCIAttribute> template = templates.computeIfAbsent(ci.getCiClassId(), this::getClazzTemplate);
+			// the ci keeps the attrs read from the db, the class defaults are shared until they are looked up
+			ci.setAttributes(template.newAttributes(ci.getCiId(), attrMap.get(ci.getCiId())));
 		}
 	}
 	
 	
     private void populateAttrs(List<CmsCI> cis) {
-		int fromIndex = 0;
-		int toIndex = cis.size() > (fromIndex + CHUNK_SIZE) ? fromIndex + CHUNK_SIZE : cis.size();
-		List<CmsCI> subList = cis.subList(fromIndex, toIndex);
-		while (subList.size() == CHUNK_SIZE) {
+		queryByChunks(cis, subList -> {
 			populateAttrsSimple(subList);
-			fromIndex += CHUNK_SIZE;
-			toIndex = cis.size() > (fromIndex + CHUNK_SIZE) ? fromIndex + CHUNK_SIZE : cis.size();
-			subList = cis.subList(fromIndex, toIndex);
-		}
-		if (subList.size() >0) {
-			populateAttrsSimple(subList);
-		}
+			return Collections.emptyList();
+		});
     }
 
-	
-	private Map<Integer, CmsClazzAttribute> getClazzAttrsMap(List<CmsClazzAttribute> attrs) {
-		Map<Integer, CmsClazzAttribute> clazzAttrsMap = new HashMap<Integer, CmsClazzAttribute>();
-		for (CmsClazzAttribute attr : attrs) {
-			clazzAttrsMap.put(attr.getAttributeId(), attr);
+	private AttrTemplate<CmsCIAttribute> getClazzTemplate(int clazzId) {
+		CmsClazz clazz = mdProcessor.getClazz(clazzId);
+		AttrTemplate<CmsCIAttribute> template = clazzTemplates.get(clazzId);
+		if (template == null || !template.isFrom(clazz)) {
+			template = AttrTemplate.of(clazz);
+			clazzTemplates.put(clazzId, template);
 		}
-		return clazzAttrsMap;
+		return template;
 	}
 
 	private void populateRelAttrs(CmsCIRelation rel) {
 		if (rel != null) {
-			CmsRelation mdRel = mdProcessor.getRelation(rel.getRelationId());
-
-			Map<Integer, CmsRelationAttribute> relAttrs = getRelAttrsMap(mdRel.getMdAttributes()); 
-			//first lets populate the attr names for ci attrs
-			for (CmsCIRelationAttribute attr : ciMapper.getCIRelationAttrsNaked(rel.getCiRelationId())) {
-				attr.setAttributeName(relAttrs.get(attr.getAttributeId()).getAttributeName());
-				rel.addAttribute(attr);
-				relAttrs.remove(attr.getAttributeId());
-			}
-			// now populate default values from missing attrs
-			for (CmsRelationAttribute mdAttr : relAttrs.values()) {
-				CmsCIRelationAttribute attr = new CmsCIRelationAttribute();
-				attr.setAttributeId(mdAttr.getAttributeId());
-				attr.setAttributeName(mdAttr.getAttributeName());
-				attr.setCiRelationId(rel.getCiRelationId());
-				attr.setDfValue(mdAttr.getDefaultValue());
-				attr.setDjValue(mdAttr.getDefaultValue());
-				rel.addAttribute(attr);
-			}
+			rel.setAttributes(getRelationTemplate(rel.getRelationId()).newAttributes(rel.getCiRelationId(), ciMapper.getCIRelationAttrsNaked(rel.getCiRelationId())));
 		}
 	}
 	
@@ -359,57 +347,120 @@ public class CmsCmProcessor {
 			attrMap.get(attr.getCiRelationId()).add(attr);
 		}
 		
-		Map<Integer, CmsRelation> mdRels = new HashMap<Integer, CmsRelation>();
+		Map<Integer, AttrTemplate<CmsCIRelationAttribute>> templates = new HashMap<>();
 		for (CmsCIRelation rel : rels) {
-			CmsRelation mdRel = null;
-			if (!mdRels.containsKey(rel.getRelationId())) {
-				mdRel = mdProcessor.getRelation(rel.getRelationId());
-				mdRels.put(rel.getRelationId(), mdRel);
-			} else {
-				mdRel = mdRels.get(rel.getRelationId());
-			}
-			Map<Integer, CmsRelationAttribute> relAttrs = getRelAttrsMap(mdRel.getMdAttributes()); 
-			//first lets populate the attr names for ci attrs
-			for (CmsCIRelationAttribute attr : attrMap.get(rel.getCiRelationId())) {
-				attr.setAttributeName(relAttrs.get(attr.getAttributeId()).getAttributeName());
-				rel.addAttribute(attr);
-				relAttrs.remove(attr.getAttributeId());
-			}
-			// now populate default values from missing attrs
-			for (CmsRelationAttribute mdAttr : relAttrs.values()) {
-				CmsCIRelationAttribute attr = new CmsCIRelationAttribute();
-				attr.setAttributeId(mdAttr.getAttributeId());
-				attr.setAttributeName(mdAttr.getAttributeName());
-				attr.setCiRelationId(rel.getCiRelationId());
-				attr.setDfValue(mdAttr.getDefaultValue());
-				attr.setDjValue(mdAttr.getDefaultValue());
-				rel.addAttribute(attr);
-			}
+			AttrTemplate<CmsCIRelationAttribute> template = templates.computeIfAbsent(rel.getRelationId(), this::getRelationTemplate);
+			rel.setAttributes(template.newAttributes(rel.getCiRelationId(), attrMap.get(rel.getCiRelationId())));
 		}
 	}
 	
     private void populateRelAttrs(List<CmsCIRelation> rels) {
-		int fromIndex = 0;
-		int toIndex = rels.size() > (fromIndex + CHUNK_SIZE) ? fromIndex + CHUNK_SIZE : rels.size();
-		List<CmsCIRelation> subList = rels.subList(fromIndex, toIndex);
-		while (subList.size() == CHUNK_SIZE) {
+		queryByChunks(rels, subList -> {
 			populateRelAttrsSimple(subList);
-			fromIndex += CHUNK_SIZE;
-			toIndex = rels.size() > (fromIndex + CHUNK_SIZE) ? fromIndex + CHUNK_SIZE : rels.size();
-			subList = rels.subList(fromIndex, toIndex);
+			return Collections.emptyList();
+		});
+    }
+
+	/**
+	 * Runs the query on each chunk of the list, the results are in the order of the chunks. The chunks are shared
+	 * by the calling thread and the fetch executor, on the data source the calling thread is routed to, unless
+	 * there is only one chunk, the calling thread is in a transaction that may have written, the executor
+	 * threads would not see the changes, or all the fetch connections are taken.
+	 */
+	private <T, R> List<R> queryByChunks(List<T> list, Function<List<T>, List<R>> query) {
+		List<List<T>> chunks = new ArrayList<>();
+		for (int fromIndex = 0; fromIndex < list.size(); fromIndex += CHUNK_SIZE) {
+			chunks.add(list.subList(fromIndex, Math.min(fromIndex + CHUNK_SIZE, list.size())));
 		}
-		if (subList.size() >0) {
-			populateRelAttrsSimple(subList);
+		List<R> results = new ArrayList<>(list.size());
+		Semaphore connections = fetchConnections;
+		if (!isParallel(chunks.size()) || !connections.tryAcquire()) {
+			for (List<T> chunk : chunks) {
+				results.addAll(query.apply(chunk));
+			}
+			return results;
+		}
+		try {
+			queryByChunks(chunks, query, connections).forEach(results::addAll);
+		} finally {
+			connections.release();
+		}
+		return results;
+	}
+
+	private <T, R> List<List<R>> queryByChunks(List<List<T>> chunks, Function<List<T>, List<R>> query, Semaphore connections) {
+		List<List<R>> chunkResults = new ArrayList<>(Collections.nCopies(chunks.size(), null));
+		AtomicInteger next = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(chunks.size());
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		Runnable worker = () -> {
+			for (int i = next.getAndIncrement(); i < chunks.size(); i = next.getAndIncrement()) {
+				try {
+					if (failure.get() == null) {
+						List<R> chunkResult = query.apply(chunks.get(i));
+						synchronized (chunkResults) {
+							chunkResults.set(i, chunkResult);
+						}
+					}
+				} catch (RuntimeException e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					done.countDown();
+				}
+			}
+		};
+		DataType dataType = DataTypeHolder.get();
+		int helpers = chunks.size() - 1;
+		if (fetchExecutor instanceof ThreadPoolExecutor) {
+			helpers = Math.min(helpers, ((ThreadPoolExecutor) fetchExecutor).getMaximumPoolSize());
+		}
+		for (int i = 0; i < helpers; i++) {
+			fetchExecutor.execute(() -> {
+				// a helper claims chunks only with a connection to read them, the caller waits for the claimed ones
+				if (!connections.tryAcquire()) {
+					return;
+				}
+				DataTypeHolder.set(dataType);
+				try {
+					worker.run();
+				} finally {
+					DataTypeHolder.clear();
+					connections.release();
+				}
+			});
 		}
-    }
+		// the calling thread reads too, it is not left waiting on the executor for the chunks nobody started
+		worker.run();
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			next.set(chunks.size());
+			throw new CmsException(CmsError.CMS_EXCEPTION, "Interrupted while reading " + chunks.size() + " chunks");
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		synchronized (chunkResults) {
+			return new ArrayList<>(chunkResults);
+		}
+	}
 
-	
-	private Map<Integer, CmsRelationAttribute> getRelAttrsMap(List<CmsRelationAttribute> attrs) {
-		Map<Integer, CmsRelationAttribute> clazzAttrsMap = new HashMap<Integer, CmsRelationAttribute>();
-		for (CmsRelationAttribute attr : attrs) {
-			clazzAttrsMap.put(attr.getAttributeId(), attr);
+	private boolean isParallel(int chunks) {
+		return fetchExecutor != null && chunks > 1
+				&& (!TransactionSynchronizationManager.isActualTransactionActive()
+						|| TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+						|| DataTypeHolder.get() == DataType.READ_ONLY);
+	}
+
+	private AttrTemplate<CmsCIRelationAttribute> getRelationTemplate(int relationId) {
+		CmsRelation mdRel = mdProcessor.getRelation(relationId);
+		AttrTemplate<CmsCIRelationAttribute> template = relationTemplates.get(relationId);
+		if (template == null || !template.isFrom(mdRel)) {
+			template = AttrTemplate.of(mdRel);
+			relationTemplates.put(relationId, template);
 		}
-		return clazzAttrsMap;
+		return template;
 	}
 
 	@SuppressWarnings("unused")
@@ -467,6 +518,31 @@ public class CmsCmProcessor {
 		populateAttrs(ciList);
 		return ciList;
 	}
+
+	/**
+	 * Streams the cis of the ns, or of the ns and the ones under it, to the consumer with their attributes in
+	 * batches of CHUNK_SIZE as they are read, the batches are not kept.
+	 *
+	 * @param ns the ns
+	 * @param clazzName the clazz name
+	 * @param ciName the ci name
+	 * @param recursive true for the nss under the ns too
+	 * @param consumer the consumer of the batches
+	 */
+	public void streamCiBy3(String ns, String clazzName, String ciName, boolean recursive, Consumer<List<CmsCI>> consumer) {
+		CiClassNames names = parseClassName(clazzName);
+		BatchResultHandler<CmsCI> handler = new BatchResultHandler<>(ciList -> {
+			populateAttrs(ciList);
+			consumer.accept(ciList);
+		});
+		handler.stream(() -> {
+			if (recursive) {
+				ciMapper.getCIby3NsLike(ns, CmsUtil.likefyNsPath(ns), names.className, names.shortClassName, ciName, handler);
+			} else {
+				ciMapper.getCIby3(ns, names.className, names.shortClassName, ciName, handler);
+			}
+		});
+	}
 	
 	/**
 	 * Gets the ci by state ns like no attrs.
@@ -640,33 +716,27 @@ public class CmsCmProcessor {
 	}	
 
 	private List<CmsCI> getCiByIdListLocal(List<Long> ids, boolean populateAttrs) {
-		List<CmsCI> cis = new ArrayList<CmsCI>();
-		
 		if (ids == null || ids.size() ==0) {
-			return cis;
+			return new ArrayList<CmsCI>();
 		}
-		
-		int fromIndex = 0;
-		int toIndex = ids.size() > (fromIndex + CHUNK_SIZE) ? fromIndex + CHUNK_SIZE : ids.size();
-		List<Long> subList = ids.subList(fromIndex, toIndex);
-		while (subList.size() == CHUNK_SIZE) {
-			List<CmsCI> ciChank = ciMapper.getCIByIdList(subList);
-			if (populateAttrs) {
-				populateAttrsSimple(ciChank);
+		return queryByChunks(ids, subList -> {
+			// in the order of the ids
+			Map<Long, CmsCI> ciMap = new HashMap<>();
+			for (CmsCI ci : ciMapper.getCIByIdList(subList)) {
+				ciMap.put(ci.getCiId(), ci);
+			}
+			List<CmsCI> ciChank = new ArrayList<>(ciMap.size());
+			for (Long id : subList) {
+				CmsCI ci = ciMap.remove(id);
+				if (ci != null) {
+					ciChank.add(ci);
+				}
 			}
-			cis.addAll(ciChank);
-			fromIndex += CHUNK_SIZE;
-			toIndex = ids.size() > (fromIndex + CHUNK_SIZE) ? fromIndex + CHUNK_SIZE : ids.size();
-			subList = ids.subList(fromIndex, toIndex);
-		}
-		if (subList.size()>0) {
-			List<CmsCI> ciChank = ciMapper.getCIByIdList(subList);
 			if (populateAttrs) {
 				populateAttrsSimple(ciChank);
 			}
-			cis.addAll(ciChank);
-		}
-		return cis;
+			return ciChank;
+		});
 	}
 	
 	
@@ -677,7 +747,28 @@ public class CmsCmProcessor {
 	 * @return the ci by id list
 	 */
 	public List<CmsCI> getCiByIdList(List<Long> ids) {
-		return getCiByIdListLocal(ids, true);
+		if (cmCache == null || !cmCache.isReadable() || ids == null) {
+			return getCiByIdListLocal(ids, true);
+		}
+		Map<Long, CmsCI> cis = new LinkedHashMap<>();
+		List<Long> missingIds = new ArrayList<>();
+		for (Long id : ids) {
+			if (!cis.containsKey(id)) {
+				CmsCI ci = cmCache.getCi(id);
+				cis.put(id, ci);
+				if (ci == null) {
+					missingIds.add(id);
+				}
+			}
+		}
+		if (missingIds.size() > 0) {
+			long stamp = cmCache.stamp();
+			for (CmsCI ci : getCiByIdListLocal(missingIds, true)) {
+				cmCache.putCi(ci, stamp);
+				cis.put(ci.getCiId(), ci);
+			}
+		}
+		return cis.values().stream().filter(Objects::nonNull).collect(Collectors.toList());
 	}	
 	/**
 	 * Gets the ci by id.
@@ -686,11 +777,63 @@ public class CmsCmProcessor {
 	 * @return the ci by id
 	 */
 	public CmsCI getCiById(long id) {
+		if (cmCache == null || !cmCache.isReadable()) {
+			return loadCiById(id);
+		}
+		CmsCI ci = cmCache.getCi(id);
+		if (ci == null) {
+			long stamp = cmCache.stamp();
+			ci = loadCiById(id);
+			cmCache.putCi(ci, stamp);
+		}
+		return ci;
+	}
+
+	private CmsCI loadCiById(long id) {
 		CmsCI ci = ciMapper.getCIById(id);
 		populateAttrs(ci);
 		return ci;
 	}
 
+	private List<CmsCIRelation> getCachedRelations(long ciId, String key, Supplier<List<CmsCIRelation>> loader) {
+		if (cmCache == null || !cmCache.isReadable()) {
+			return loader.get();
+		}
+		List<CmsCIRelation> rels = cmCache.getRelations(key);
+		if (rels == null) {
+			long stamp = cmCache.stamp();
+			rels = loader.get();
+			cmCache.putRelations(ciId, key, rels, stamp);
+		}
+		return rels;
+	}
+
+	/**
+	 * Drops the ci from the cm cache, for the changes made to it outside of this processor.
+	 *
+	 * @param ciId the ci id
+	 */
+	public void invalidateCi(long ciId) {
+		if (cmCache != null) {
+			cmCache.invalidateCi(ciId);
+		}
+	}
+
+	/**
+	 * Empties the cm cache, for the changes to many cis made outside of this processor.
+	 */
+	public void invalidateAll() {
+		if (cmCache != null) {
+			cmCache.invalidateAll();
+		}
+	}
+
+	private void invalidateRelation(long relId, long fromCiId, long toCiId) {
+		if (cmCache != null) {
+			cmCache.invalidateRelation(relId, fromCiId, toCiId);
+		}
+	}
+
 	/**
 	 * Gets the ci by id naked.
 	 *
@@ -709,7 +852,7 @@ public class CmsCmProcessor {
 	 * @return the cms ci
 	 */
 	public CmsCI updateCI(CmsCI ci) {
-		CmsCI existingCi = getCiById(ci.getCiId());
+		CmsCI existingCi = loadCiById(ci.getCiId());
 
 		if (existingCi == null) {
 			throw new CIValidationException(CmsError.VALIDATION_COULDNT_FIND_CI_FOR_UPDATE_ERROR,
@@ -755,6 +898,7 @@ public class CmsCmProcessor {
 		if (ciChanged) {
 			ciMapper.updateCI(ci);
 		}
+		invalidateCi(ci.getCiId());
 		return getCiById(ci.getCiId());
 	}
 	
@@ -780,6 +924,7 @@ public class CmsCmProcessor {
 		existingCi.setCiStateId(ciStateId);
 		existingCi.setUpdatedBy(user);
 		ciMapper.updateCI(existingCi);
+		invalidateCi(ciId);
 
 		return existingCi;
 	}
@@ -804,6 +949,7 @@ public class CmsCmProcessor {
 	 */
 	public void deleteCI(long ciId, boolean delete4real, String userId) {
 		ciMapper.deleteCI(ciId, delete4real, userId);
+		invalidateCi(ciId);
 	}
 	
 
@@ -863,7 +1009,7 @@ public class CmsCmProcessor {
 			attr.setCiRelationId(relation.getCiRelationId());
 			ciMapper.addRelationAttribute(attr);
 		}
-		
+		invalidateRelation(relation.getCiRelationId(), relation.getFromCiId(), relation.getToCiId());
 
 		return getRelationById(relation.getCiRelationId());
 	}
@@ -983,15 +1129,17 @@ public class CmsCmProcessor {
 	private List<CmsCIRelation> getFromCIRelationsLocal(long fromId,
 			String relationName, String shortRelName, String toClazzName) {
 
-		List<CmsCIRelation> relList = getFromCIRelationsNakedLocal(fromId, relationName, shortRelName,toClazzName);
+		return getCachedRelations(fromId, "from|" + fromId + "|" + relationName + "|" + shortRelName + "|" + toClazzName, () -> {
+			List<CmsCIRelation> relList = getFromCIRelationsNakedLocal(fromId, relationName, shortRelName,toClazzName);
 
-		populateRelCis(relList, false, true);
-		/*
-		for (CmsCIRelation rel : relList) {
-			rel.setToCi(getCiById(rel.getToCiId()));
-		}
-		*/
-		return relList;
+			populateRelCis(relList, false, true);
+			/*
+			for (CmsCIRelation rel : relList) {
+				rel.setToCi(getCiById(rel.getToCiId()));
+			}
+			*/
+			return relList;
+		});
 	}
 
 	private List<CmsCIRelation> getFromCIRelationsLocal(long fromId, List<String> relationNames, List<String> shortRelNames) {
@@ -1071,11 +1219,13 @@ public class CmsCmProcessor {
 	private List<CmsCIRelation> getFromCIRelationsNakedLocal(long fromId,
 			String relationName, String shortRelName, String toClazzName) {
 		
-		CiClassNames names = parseClassName(toClazzName);
-		
-		List<CmsCIRelation> relList = ciMapper.getFromCIRelations(fromId, relationName, shortRelName, names.className, names.shortClassName);
-		populateRelAttrs(relList);
-		return relList;
+		return getCachedRelations(fromId, "fromNaked|" + fromId + "|" + relationName + "|" + shortRelName + "|" + toClazzName, () -> {
+			CiClassNames names = parseClassName(toClazzName);
+
+			List<CmsCIRelation> relList = ciMapper.getFromCIRelations(fromId, relationName, shortRelName, names.className, names.shortClassName);
+			populateRelAttrs(relList);
+			return relList;
+		});
 	}
 
 	private List<CmsCIRelation> getFromCIRelationsNakedLocal(long fromId, List<String> relationNames, List<String> shortRelNames) {
@@ -1233,6 +1383,100 @@ public class CmsCmProcessor {
 		populateRelAttrs(relList);
 		return relList;
 	}
+
+	/**
+	 * Streams the relations of the ns, or of the ns and the ones under it, to the consumer with their attributes and
+	 * optionally their cis in batches of CHUNK_SIZE as they are read, the batches are not kept.
+	 *
+	 * @param nsPath the ns path
+	 * @param relationName the relation name
+	 * @param shortRelName the short rel name
+	 * @param fromClazzName the from clazz name
+	 * @param toClazzName the to clazz name
+	 * @param recursive true for the nss under the ns too
+	 * @param fromCis true to load the from cis
+	 * @param toCis true to load the to cis
+	 * @param consumer the consumer of the batches
+	 */
+	public void streamCIRelations(String nsPath, String relationName, String shortRelName, String fromClazzName, String toClazzName,
+			boolean recursive, boolean fromCis, boolean toCis, Consumer<List<CmsCIRelation>> consumer) {
+		CiClassNames toNames = parseClassName(toClazzName);
+		CiClassNames fromNames = parseClassName(fromClazzName);
+		BatchResultHandler<CmsCIRelation> handler = new BatchResultHandler<>(relList -> {
+			populateRelAttrs(relList);
+			populateRelCis(relList, fromCis, toCis);
+			consumer.accept(relList);
+		});
+		handler.stream(() -> {
+			if (recursive) {
+				ciMapper.getCIRelationsNsLike(nsPath, CmsUtil.likefyNsPath(nsPath), relationName, shortRelName,
+						fromNames.className, fromNames.shortClassName, toNames.className, toNames.shortClassName, handler);
+			} else {
+				ciMapper.getCIRelations(nsPath, relationName, shortRelName,
+						fromNames.className, fromNames.shortClassName, toNames.className, toNames.shortClassName, handler);
+			}
+		});
+	}
+
+	/**
+	 * Hands the rows of a query to the consumer in batches of CHUNK_SIZE while they are read. The queries of the
+	 * consumer run in the session of the transaction, its cache is cleared after each batch not to keep them all.
+	 * An exception of the consumer is thrown as is, not wrapped in the exception of the query.
+	 */
+	private static class BatchResultHandler<T> implements ResultHandler {
+		private final Consumer<List<T>> consumer;
+		private List<T> batch = new ArrayList<>(CHUNK_SIZE);
+		private RuntimeException failure;
+
+		private BatchResultHandler(Consumer<List<T>> consumer) {
+			this.consumer = consumer;
+		}
+
+		/**
+		 * Runs the query with this handler, then hands the last batch to the consumer.
+		 */
+		private void stream(Runnable query) {
+			try {
+				query.run();
+			} catch (RuntimeException e) {
+				if (failure != null) {
+					throw failure;
+				}
+				throw e;
+			}
+			flush();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void handleResult(ResultContext context) {
+			batch.add((T) context.getResultObject());
+			if (batch.size() == CHUNK_SIZE) {
+				flush();
+			}
+		}
+
+		private void flush() {
+			if (batch.isEmpty()) {
+				return;
+			}
+			List<T> full = batch;
+			batch = new ArrayList<>(CHUNK_SIZE);
+			try {
+				consumer.accept(full);
+			} catch (RuntimeException e) {
+				failure = e;
+				throw e;
+			}
+			if (TransactionSynchronizationManager.isSynchronizationActive()) {
+				for (Object resource : TransactionSynchronizationManager.getResourceMap().values()) {
+					if (resource instanceof SqlSessionHolder) {
+						((SqlSessionHolder) resource).getSqlSession().clearCache();
+					}
+				}
+			}
+		}
+	}
 	
 	
 	/**
@@ -1375,16 +1619,18 @@ public class CmsCmProcessor {
 	private List<CmsCIRelation> getToCIRelationsLocal(long toId, String relationName, String shortRelName,
 			String fromClazzName) {
 
-		List<CmsCIRelation> relList = getToCIRelationsNakedLocal(toId, relationName, shortRelName, fromClazzName);
+		return getCachedRelations(toId, "to|" + toId + "|" + relationName + "|" + shortRelName + "|" + fromClazzName, () -> {
+			List<CmsCIRelation> relList = getToCIRelationsNakedLocal(toId, relationName, shortRelName, fromClazzName);
 
-		populateRelCis(relList, true, false);
-		
-		/*
-		for (CmsCIRelation rel : relList) {
-			rel.setFromCi(getCiById(rel.getFromCiId()));
-		}
-		*/
-		return relList;
+			populateRelCis(relList, true, false);
+
+			/*
+			for (CmsCIRelation rel : relList) {
+				rel.setFromCi(getCiById(rel.getFromCiId()));
+			}
+			*/
+			return relList;
+		});
 	}
 	
 	/**
@@ -1607,12 +1853,14 @@ public class CmsCmProcessor {
 	private List<CmsCIRelation> getToCIRelationsNakedLocal(long toId, 
 			String relationName, String shortRelName, String fromClazzName) {
 
-		CiClassNames fromNames = parseClassName(fromClazzName);
-	
-		List<CmsCIRelation> relList = ciMapper.getToCIRelations(toId, relationName, shortRelName, fromNames.className, fromNames.shortClassName);
-		populateRelAttrs(relList);
-		
-		return relList;
+		return getCachedRelations(toId, "toNaked|" + toId + "|" + relationName + "|" + shortRelName + "|" + fromClazzName, () -> {
+			CiClassNames fromNames = parseClassName(fromClazzName);
+
+			List<CmsCIRelation> relList = ciMapper.getToCIRelations(toId, relationName, shortRelName, fromNames.className, fromNames.shortClassName);
+			populateRelAttrs(relList);
+
+			return relList;
+		});
 	}
 
 	/**
@@ -1632,6 +1880,56 @@ public class CmsCmProcessor {
 		return relList;
 	}
 
+	/**
+	 * Gets the to ci relations of all the given ci ids, queried in chunks with an IN-list.
+	 *
+	 * @param toCiIds the to ci ids
+	 * @param relationName the relation name
+	 * @param shortRelName the short rel name
+	 * @param fromClazzName the from clazz name
+	 * @param populateAttrs whether to populate the relation attributes
+	 * @return the to ci relations naked
+	 */
+	public List<CmsCIRelation> getToCIRelationsNakedByToCiIds(List<Long> toCiIds, String relationName,
+			String shortRelName, String fromClazzName, boolean populateAttrs) {
+		CiClassNames fromNames = parseClassName(fromClazzName);
+		List<CmsCIRelation> relList = new ArrayList<>();
+		for (int i = 0; i < toCiIds.size(); i += CHUNK_SIZE) {
+			List<CmsCIRelation> chunk = ciMapper.getToCIRelationsByToCiIDs(toCiIds.subList(i, Math.min(i + CHUNK_SIZE, toCiIds.size())),
+					relationName, shortRelName, fromNames.className, fromNames.shortClassName);
+			if (populateAttrs) {
+				populateRelAttrs(chunk);
+			}
+			relList.addAll(chunk);
+		}
+		return relList;
+	}
+
+	/**
+	 * Gets the from ci relations of all the given ci ids, queried in chunks with an IN-list.
+	 *
+	 * @param fromCiIds the from ci ids
+	 * @param relationName the relation name
+	 * @param shortRelName the short rel name
+	 * @param toClazzName the to clazz name
+	 * @param populateAttrs whether to populate the relation attributes
+	 * @return the from ci relations naked
+	 */
+	public List<CmsCIRelation> getFromCIRelationsNakedByFromCiIds(List<Long> fromCiIds, String relationName,
+			String shortRelName, String toClazzName, boolean populateAttrs) {
+		CiClassNames toNames = parseClassName(toClazzName);
+		List<CmsCIRelation> relList = new ArrayList<>();
+		for (int i = 0; i < fromCiIds.size(); i += CHUNK_SIZE) {
+			List<CmsCIRelation> chunk = ciMapper.getFromCIRelationsByFromCiIDs(fromCiIds.subList(i, Math.min(i + CHUNK_SIZE, fromCiIds.size())),
+					relationName, shortRelName, toNames.className, toNames.shortClassName);
+			if (populateAttrs) {
+				populateRelAttrs(chunk);
+			}
+			relList.addAll(chunk);
+		}
+		return relList;
+	}
+
 	
 	/**
 	 * Gets the to ci relations naked no attrs.
@@ -1682,6 +1980,8 @@ public class CmsCmProcessor {
 	 */
 	public void deleteRelation(long relId, boolean delete4real) {
 		ciMapper.deleteRelation(relId, delete4real);
+		// the lists of the relation are found by its id
+		invalidateRelation(relId, 0, 0);
 	}
 	
 	
@@ -1759,6 +2059,7 @@ public class CmsCmProcessor {
 				}
 			}
 		}
+		invalidateRelation(relation.getCiRelationId(), existingRel.getFromCiId(), existingRel.getToCiId());
 		return getRelationById(relation.getCiRelationId());		
 	}
 	
@@ -2062,6 +2363,7 @@ public class CmsCmProcessor {
 		String nsLike = CmsUtil.likefyNsPath(nsPath);
 		ciMapper.resetDeletionsByNsLike(nsPath, nsLike);	
 		ciMapper.resetRelDeletionsByNsLike(nsPath, nsLike);
+		invalidateAll();
 	}
 		
 	/**
@@ -80,6 +80,8 @@ public interface DJMapper {
 
   CmsRfcCI getRfcCIById(long rfcId);
 
+  List<CmsRfcCI> getRfcCIByIdList(@Param("rfcIds") List<Long> rfcIds);
+
   CmsRfcCI getOpenRfcCIByCiId(long ciId);
   CmsRfcCI getOpenRfcCIByCiIdNoAttrs(long ciId);
 
@@ -146,6 +148,10 @@ public interface DJMapper {
       @Param("toCiId") Long toCiId, @Param("relName") String relName,
       @Param("shortRelName") String shortRelName);
 
+  List<CmsRfcRelation> getOpenRfcRelationsByCiIds(@Param("fromCiIds") List<Long> fromCiIds,
+      @Param("toCiIds") List<Long> toCiIds, @Param("relName") String relName,
+      @Param("shortRelName") String shortRelName, @Param("targetClassName") String targetClassName);
+
   List<CmsRfcRelation> getOpenFromRfcRelationByTargetClass(@Param("fromCiId") long fromCiId,
       @Param("relName") String relName, @Param("shortRelName") String shortRelName,
       @Param("targetClassName") String targetClassName);
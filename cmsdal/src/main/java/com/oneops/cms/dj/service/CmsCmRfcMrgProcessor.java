@@ -1010,6 +1010,60 @@ public class CmsCmRfcMrgProcessor {
         return result;
     }
 
+    /**
+     * Gets the merged to ci relations of all the given ci ids with IN-list queries, the batch
+     * version of {@link #getToCIRelationsNaked(long, String, String, String)}.
+     *
+     * @param toIds         the to ids
+     * @param relationName  the relation name
+     * @param fromClazzName the from clazz name
+     * @param populateAttrs whether to populate the relation attributes
+     * @return the relations by to ci id, an empty list for the ids without relations
+     */
+    public Map<Long, List<CmsRfcRelation>> getToCIRelationsNakedByToCiIds(List<Long> toIds, String relationName,
+                                                                          String fromClazzName, boolean populateAttrs) {
+        List<CmsCIRelation> cmRelations = cmProcessor.getToCIRelationsNakedByToCiIds(toIds, relationName, null, fromClazzName, populateAttrs);
+        List<CmsRfcRelation> rfcRelations = rfcProcessor.getOpenRfcRelationsByCiIds(toIds, false, relationName, null, fromClazzName, populateAttrs);
+        Map<Long, List<CmsRfcRelation>> result = new HashMap<>();
+        for (Long toId : toIds) {
+            result.put(toId, new ArrayList<>());
+        }
+        for (Relations rels : buildRelationsMap(cmRelations, rfcRelations).values()) {
+            CmsRfcRelation mergedRel = rfcUtil.mergeRfcRelAndCiRel(rels.getRfcRelation(), rels.getCiRelation(), "df");
+            if (mergedRel != null) {
+                result.computeIfAbsent(mergedRel.getToCiId(), id -> new ArrayList<>()).add(mergedRel);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the merged from ci relations of all the given ci ids with IN-list queries, the batch
+     * version of {@link #getFromCIRelationsNakedNoAttrs(long, String, String, String)}.
+     *
+     * @param fromIds       the from ids
+     * @param relationName  the relation name
+     * @param toClazzName   the to clazz name
+     * @param populateAttrs whether to populate the relation attributes
+     * @return the relations by from ci id, an empty list for the ids without relations
+     */
+    public Map<Long, List<CmsRfcRelation>> getFromCIRelationsNakedByFromCiIds(List<Long> fromIds, String relationName,
+                                                                              String toClazzName, boolean populateAttrs) {
+        List<CmsCIRelation> cmRelations = cmProcessor.getFromCIRelationsNakedByFromCiIds(fromIds, relationName, null, toClazzName, populateAttrs);
+        List<CmsRfcRelation> rfcRelations = rfcProcessor.getOpenRfcRelationsByCiIds(fromIds, true, relationName, null, toClazzName, populateAttrs);
+        Map<Long, List<CmsRfcRelation>> result = new HashMap<>();
+        for (Long fromId : fromIds) {
+            result.put(fromId, new ArrayList<>());
+        }
+        for (Relations rels : buildRelationsMap(cmRelations, rfcRelations).values()) {
+            CmsRfcRelation mergedRel = rfcUtil.mergeRfcRelAndCiRel(rels.getRfcRelation(), rels.getCiRelation(), "df");
+            if (mergedRel != null) {
+                result.computeIfAbsent(mergedRel.getFromCiId(), id -> new ArrayList<>()).add(mergedRel);
+            }
+        }
+        return result;
+    }
+
 
     /**
      * Gets the to ci relations.
@@ -659,6 +659,12 @@ public class CmsDpmtProcessor {
    */
   public void completeWorkOrder(CmsWorkOrder wo) {
     dpmtMapper.updDpmtRecordState(wo);
+    // the record state applies the rfc, a new ci can be in the relation lists of any other
+    if (wo.getRfcCi().getRfcAction().equalsIgnoreCase("add")) {
+      cmProcessor.invalidateAll();
+    } else {
+      cmProcessor.invalidateCi(wo.getRfcCi().getCiId());
+    }
     if (!wo.getRfcCi().getRfcAction().equalsIgnoreCase("delete") && wo.getResultCi() != null) {
       wo.getResultCi().setUpdatedBy(wo.getRfcCi().getCreatedBy() + ":controller");
       cmProcessor.updateCI(wo.getResultCi());
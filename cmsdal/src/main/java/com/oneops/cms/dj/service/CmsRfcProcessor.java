@@ -23,6 +23,7 @@ import com.oneops.cms.cm.domain.CmsAltNs;
 import com.oneops.cms.cm.domain.CmsCI;
 import com.oneops.cms.cm.domain.CmsCIRelation;
 import com.oneops.cms.cm.domain.CmsCIRelationAttribute;
+import com.oneops.cms.cm.service.CmsCmCache;
 import com.oneops.cms.dj.dal.DJMapper;
 import com.oneops.cms.dj.domain.*;
 import com.oneops.cms.exceptions.DJException;
@@ -55,6 +56,7 @@ public class CmsRfcProcessor {
 	private CmsDJValidator djValidator;
 	private CIMapper ciMapper;
 	private CmsRfcUtil rfcUtil;
+	private CmsCmCache cmCache;
 	private Gson gson = new Gson();
 
 	/**
@@ -97,6 +99,15 @@ public class CmsRfcProcessor {
 	public void setRfcUtil(CmsRfcUtil rfcUtil) {
 		this.rfcUtil = rfcUtil;
 	}
+
+	/**
+	 * Sets the cm cache emptied by the commit of a release.
+	 *
+	 * @param cmCache the cm cache
+	 */
+	public void setCmCache(CmsCmCache cmCache) {
+		this.cmCache = cmCache;
+	}
 	
 	/**
 	 * Brush exec order.
@@ -176,6 +187,9 @@ public class CmsRfcProcessor {
 			}
 		}
 		djMapper.commitRelease(releaseId, setDfValue, ciState, delete4real, userId, desc);
+		if (cmCache != null) {
+			cmCache.invalidateAll();
+		}
 	}
 
 	private CmsCIRelation getRelationById(long relId) {
@@ -854,6 +868,19 @@ public class CmsRfcProcessor {
 		}
 		return rfcs;
 	}
+
+	/**
+	 * Gets the rfcs by rfc id list, without attributes.
+	 * @param rfcIds - List of the rfc id
+	 * @return the rfc cis
+	 */
+	public List<CmsRfcCI> getRfcCIByIdListNaked(List<Long> rfcIds) {
+		List<CmsRfcCI> rfcs = new ArrayList<CmsRfcCI>();
+		for (int i = 0; i < rfcIds.size(); i += CHUNK_SIZE) {
+			rfcs.addAll(djMapper.getRfcCIByIdList(rfcIds.subList(i, Math.min(i + CHUNK_SIZE, rfcIds.size()))));
+		}
+		return rfcs;
+	}
 	
 	/**
 	 * Gets the open rfcs by ci id list.
@@ -1273,6 +1300,32 @@ public class CmsRfcProcessor {
 		return relList;
 	}
 
+	/**
+	 * Gets the open rfc relations from or to any of the given ci ids, queried in chunks with an IN-list.
+	 *
+	 * @param ciIds the ci ids
+	 * @param from whether the ci ids are the from side of the relations, the to side otherwise
+	 * @param relName the rel name
+	 * @param shortRelName the short rel name
+	 * @param targetClassName the class of the other side of the relations, may be null
+	 * @param populateAttrs whether to populate the relation attributes
+	 * @return the open rfc relations
+	 */
+	public List<CmsRfcRelation> getOpenRfcRelationsByCiIds(List<Long> ciIds, boolean from, String relName,
+			String shortRelName, String targetClassName, boolean populateAttrs) {
+		List<CmsRfcRelation> relList = new ArrayList<>();
+		for (int i = 0; i < ciIds.size(); i += CHUNK_SIZE) {
+			List<Long> chunkIds = ciIds.subList(i, Math.min(i + CHUNK_SIZE, ciIds.size()));
+			List<CmsRfcRelation> chunk = from ? djMapper.getOpenRfcRelationsByCiIds(chunkIds, null, relName, shortRelName, targetClassName)
+					: djMapper.getOpenRfcRelationsByCiIds(null, chunkIds, relName, shortRelName, targetClassName);
+			if (populateAttrs) {
+				populateRfcRelationAttributesSimple(chunk);
+			}
+			relList.addAll(chunk);
+		}
+		return relList;
+	}
+
 	/**
 	 * Gets the open from rfc relation by target clazz.
 	 *
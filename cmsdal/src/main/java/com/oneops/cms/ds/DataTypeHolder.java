@@ -12,6 +12,10 @@ public class DataTypeHolder {
         dataType.set(DataType.DEFAULT);
     }
 
+    public static void set(DataType type) {
+        dataType.set(type);
+    }
+
     public static DataType get() {
         return dataType.get();
     }
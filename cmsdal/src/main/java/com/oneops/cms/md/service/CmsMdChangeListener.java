@@ -0,0 +1,228 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.md.service;
+
+import org.apache.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.oneops.cms.md.service.CmsMdProcessor.CLASS_CHANGE;
+import static com.oneops.cms.md.service.CmsMdProcessor.MD_CHANGES_CHANNEL;
+import static com.oneops.cms.md.service.CmsMdProcessor.RELATION_CHANGE;
+
+/**
+ * Listens to the md change notifications of the other processes on a connection of its own, drops the
+ * classes and relations named in them from the md cache and loads them back in the background. The
+ * notifications sent while the connection is down are lost, the whole cache is dropped when it is back.
+ * The <code>MD_UPDATE_TIMESTAMP</code> var is still polled and drops the whole cache when it changes, it is
+ * the only way to flush md changed outside of {@link CmsMdProcessor} (sql updates, processes without the
+ * util mapper).
+ * <p>
+ * The connection is opened with {@link DriverManager} and not borrowed from the request pool, it is held
+ * for the life of the process. The url must point to the primary, a standby does not deliver notifications.
+ */
+public class CmsMdChangeListener {
+
+    private static final Logger logger = Logger.getLogger(CmsMdChangeListener.class);
+    private static final long MAX_RETRY_MS = 30000;
+
+    private String url;
+    private String username;
+    private String password;
+    private CmsMdProcessor mdProcessor;
+    private boolean enabled = true;
+    private long pollIntervalMs = 500;
+
+    private volatile boolean running;
+    private volatile boolean listening;
+    private Thread thread;
+    private ExecutorService reloader;
+    private final AtomicLong notifications = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public void setMdProcessor(CmsMdProcessor mdProcessor) {
+        this.mdProcessor = mdProcessor;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets how often the connection is checked for notifications.
+     *
+     * @param pollIntervalMs the poll interval in ms
+     */
+    public void setPollIntervalMs(long pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    /**
+     * Starts listening if the md cache is enabled.
+     */
+    public void start() {
+        if (!enabled || !mdProcessor.isCacheEnabled()) {
+            logger.info("Md change listener is disabled.");
+            return;
+        }
+        running = true;
+        reloader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "md-cache-reloader");
+            t.setDaemon(true);
+            return t;
+        });
+        thread = new Thread(this::listen, "md-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+            reloader.shutdownNow();
+        }
+        logger.info("Md change listener stopped, notifications: " + notifications.get() + ", reloads: " + reloads.get());
+    }
+
+    private void listen() {
+        long retryMs = pollIntervalMs;
+        boolean connected = false;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(url, username, password)) {
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + MD_CHANGES_CHANNEL);
+                    listening = true;
+                    if (connected) {
+                        logger.warn("Md change listener reconnected, invalidating the md cache.");
+                        mdProcessor.invalidateCache();
+                    }
+                    connected = true;
+                    retryMs = pollIntervalMs;
+                    logger.info("Listening to md changes.");
+                    while (running) {
+                        // the driver reads the notifications with the result of a query
+                        statement.execute("SELECT 1");
+                        PGNotification[] received = pgConnection.getNotifications();
+                        if (received != null && received.length > 0) {
+                            onNotifications(received);
+                        }
+                        Thread.sleep(pollIntervalMs);
+                    }
+                } finally {
+                    listening = false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.warn("Md change listener failed, retrying in " + retryMs + "ms: " + e.getMessage());
+                try {
+                    Thread.sleep(retryMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                retryMs = Math.min(retryMs * 2, MAX_RETRY_MS);
+            }
+        }
+    }
+
+    private void onNotifications(PGNotification[] received) {
+        Set<Integer> clazzIds = new HashSet<>();
+        Set<Integer> relationIds = new HashSet<>();
+        for (PGNotification notification : received) {
+            notifications.incrementAndGet();
+            String[] change = notification.getParameter().split(":");
+            try {
+                if (CLASS_CHANGE.equals(change[0])) {
+                    // only the cached classes are loaded back
+                    clazzIds.addAll(mdProcessor.invalidateClazz(Integer.parseInt(change[1])));
+                } else if (RELATION_CHANGE.equals(change[0])) {
+                    int relationId = Integer.parseInt(change[1]);
+                    relationIds.add(relationId);
+                    clazzIds.addAll(mdProcessor.invalidateRelation(relationId));
+                } else {
+                    logger.warn("Unknown md change: " + notification.getParameter());
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Invalid md change: " + notification.getParameter(), e);
+            }
+        }
+        logger.info("Md changed, classes: " + clazzIds + ", relations: " + relationIds);
+        reloader.execute(() -> reload(clazzIds, relationIds));
+    }
+
+    private void reload(Set<Integer> clazzIds, Set<Integer> relationIds) {
+        try {
+            for (int relationId : relationIds) {
+                reloads.incrementAndGet();
+                clazzIds.addAll(mdProcessor.reloadRelation(relationId));
+            }
+            for (int clazzId : clazzIds) {
+                reloads.incrementAndGet();
+                mdProcessor.getClazz(clazzId);
+            }
+        } catch (RuntimeException e) {
+            // loaded again on the next use
+            logger.warn("Could not reload the md cache", e);
+        }
+    }
+
+    /**
+     * @return true if the connection is up, the changes of the other processes are seen without polling
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    public long getNotifications() {
+        return notifications.get();
+    }
+
+    public long getReloads() {
+        return reloads.get();
+    }
+}
@@ -25,6 +25,7 @@ import com.oneops.cms.util.CIValidationResult;
 import com.oneops.cms.util.CmsError;
 import com.oneops.cms.util.CmsMdValidator;
 import com.oneops.cms.util.CmsUtil;
+import com.oneops.cms.util.dal.UtilMapper;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,6 +33,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import javax.annotation.PostConstruct;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toMap;
@@ -45,8 +47,16 @@ public class CmsMdProcessor {
     private RelationMapper relationMapper;
     private CmsMdValidator mdValidator;
     private CmsUtil cmsUtil;
+    private UtilMapper utilMapper;
     private boolean cacheEnabled = false;
     public static int BASE_CLASS_ID = 100;
+    /**
+     * The channel of the md change notifications, the payload is <code>class:&lt;id&gt;</code> or
+     * <code>relation:&lt;id&gt;</code>.
+     */
+    public static final String MD_CHANGES_CHANNEL = "md_changes";
+    static final String CLASS_CHANGE = "class";
+    static final String RELATION_CHANGE = "relation";
 
     static final Logger logger = Logger.getLogger(CmsMdProcessor.class);
     private final AttrComparator attrComparator = new AttrComparator();
@@ -55,6 +65,10 @@ public class CmsMdProcessor {
     final private Map<String, CmsRelation> mdRelationCache = new ConcurrentHashMap<>();
     final private Map<Long, CmsRelation> mdRelationCacheById = new ConcurrentHashMap<>();
     final private Map<Integer, List<CmsClazzRelation>> clazzRelCache = new ConcurrentHashMap<>();
+    // the super classes of the cached classes, they inherit the attributes
+    final private Map<Integer, List<Integer>> superClazzIdCache = new ConcurrentHashMap<>();
+    // bumped by the invalidations, a class or relation read before one is not cached
+    final private AtomicLong cacheVersion = new AtomicLong();
 
     static {
         logger.warn(">>> Initializing CmsMdProcessor");
@@ -133,6 +147,15 @@ public class CmsMdProcessor {
         this.cmsUtil = cmsUtil;
     }
 
+    /**
+     * Sets the util mapper, the changes to the classes and relations are notified to the other processes with it.
+     *
+     * @param utilMapper the new util mapper
+     */
+    public void setUtilMapper(UtilMapper utilMapper) {
+        this.utilMapper = utilMapper;
+    }
+
     /**
      * Gets the clazzes.
      *
@@ -197,9 +220,11 @@ public class CmsMdProcessor {
             }
         }
 
+        long version = cacheVersion.get();
         clazz = clazzMapper.getClazzById(clazzId);
         if (clazz == null) return null;
-        List<CmsClazzAttribute> attrs = getAllClazzAttrs(clazz, false);
+        List<Integer> superClazzIds = new ArrayList<>();
+        List<CmsClazzAttribute> attrs = getAllClazzAttrs(clazz, false, superClazzIds);
         Collections.sort(attrs, attrComparator);
         clazz.setMdAttributes(attrs);
         clazz.setFromRelations(clazzMapper.getFromClazzRelations(clazz.getClassId()));
@@ -207,14 +232,23 @@ public class CmsMdProcessor {
         if (includeActions) {
             clazz.setActions(getAllClazzActions(clazz, false));
         } else {
-            if (cacheEnabled) {
-                mdClazzCacheById.put(clazz.getClassId(), clazz);
-                mdClazzCache.put(clazz.getClassName(), clazz);
-            }
+            cacheClazz(clazz, superClazzIds, version);
         }
         return clazz;
     }
 
+    private void cacheClazz(CmsClazz clazz, List<Integer> superClazzIds, long version) {
+        if (cacheEnabled) {
+            superClazzIdCache.put(clazz.getClassId(), superClazzIds);
+            mdClazzCacheById.put(clazz.getClassId(), clazz);
+            mdClazzCache.put(clazz.getClassName(), clazz);
+            if (cacheVersion.get() != version) {
+                // invalidated while it was read
+                uncacheClazz(clazz.getClassId());
+            }
+        }
+    }
+
 
     /**
      * Gets the clazz by name.
@@ -232,12 +266,14 @@ public class CmsMdProcessor {
             }
         }
 
+        long version = cacheVersion.get();
         clazz = clazzMapper.getClazz(clazzName);
         if (clazz == null) {
             logger.error("Can't find class definition for " + clazzName);
             return null;
         }
-        List<CmsClazzAttribute> attrs = getAllClazzAttrs(clazz, false);
+        List<Integer> superClazzIds = new ArrayList<>();
+        List<CmsClazzAttribute> attrs = getAllClazzAttrs(clazz, false, superClazzIds);
         Collections.sort(attrs, attrComparator);
         clazz.setMdAttributes(attrs);
         clazz.setFromRelations(clazzMapper.getFromClazzRelations(clazz.getClassId()));
@@ -245,10 +281,7 @@ public class CmsMdProcessor {
         if (includeActions) {
             clazz.setActions(getAllClazzActions(clazz, false));
         } else {
-            if (cacheEnabled) {
-                mdClazzCache.put(clazzName, clazz);
-                mdClazzCacheById.put(clazz.getClassId(), clazz);
-            }
+            cacheClazz(clazz, superClazzIds, version);
         }
 
         return clazz;
@@ -269,7 +302,7 @@ public class CmsMdProcessor {
         }
         List<CmsClazz> clazzes = clazzMapper.getClazzesByPackage(pattern);
         for (CmsClazz clazz : clazzes) {
-            List<CmsClazzAttribute> attrs = getAllClazzAttrs(clazz, false);
+            List<CmsClazzAttribute> attrs = getAllClazzAttrs(clazz, false, new ArrayList<>());
             Collections.sort(attrs, attrComparator);
             clazz.setMdAttributes(attrs);
         }
@@ -309,14 +342,15 @@ public class CmsMdProcessor {
         return new ArrayList<>(actionsMap.values());
     }
 
-    private List<CmsClazzAttribute> getAllClazzAttrs(CmsClazz clazz, boolean isSuperClass) {
+    private List<CmsClazzAttribute> getAllClazzAttrs(CmsClazz clazz, boolean isSuperClass, List<Integer> superClazzIds) {
 
         List<CmsClazzAttribute> superAttrs = null;
 
         if (clazz.getSuperClassId() > 0) {
+            superClazzIds.add(clazz.getSuperClassId());
             CmsClazz superClazz = clazzMapper.getClazzById(clazz.getSuperClassId());
             if (superClazz != null) {
-                superAttrs = getAllClazzAttrs(superClazz, true);
+                superAttrs = getAllClazzAttrs(superClazz, true, superClazzIds);
             }
         }
 
@@ -404,15 +438,12 @@ public class CmsMdProcessor {
             }
         }
 
+        long version = cacheVersion.get();
         relation = relationMapper.getRelation(relationName);
         // Skip cache if relation is null.
         if (relation != null) {
             relation.setMdAttributes(relationMapper.getRelationAttrs(relation.getRelationId()));
-            if (cacheEnabled) {
-                mdRelationCache.put(relationName, relation);
-                Integer relId = relation.getRelationId();
-                mdRelationCacheById.put(relId.longValue(), relation);
-            }
+            cacheRelation(relation, version);
         }
         return relation;
     }
@@ -432,19 +463,28 @@ public class CmsMdProcessor {
             }
         }
 
+        long version = cacheVersion.get();
         relation = relationMapper.getRelationById(relationId);
         // Skip cache if relation is null.
         if (relation != null) {
             relation.setMdAttributes(relationMapper.getRelationAttrs(relation.getRelationId()));
-            if (cacheEnabled) {
-                Integer relId = relation.getRelationId();
-                mdRelationCacheById.put(relId.longValue(), relation);
-                mdRelationCache.put(relation.getRelationName(), relation);
-            }
+            cacheRelation(relation, version);
         }
         return relation;
     }
 
+    private void cacheRelation(CmsRelation relation, long version) {
+        if (cacheEnabled) {
+            Integer relId = relation.getRelationId();
+            mdRelationCacheById.put(relId.longValue(), relation);
+            mdRelationCache.put(relation.getRelationName(), relation);
+            if (cacheVersion.get() != version) {
+                // invalidated while it was read
+                uncacheRelation(relId);
+            }
+        }
+    }
+
 
     /**
      * Gets the targets.
@@ -528,6 +568,7 @@ public class CmsMdProcessor {
             act.setClassId(clazz.getClassId());
             clazzMapper.addClazzAction(act);
         }
+        clazzChanged(clazz.getClassId());
 
         return getClazz(clazz.getClassId());
     }
@@ -602,6 +643,7 @@ public class CmsMdProcessor {
                 clazzMapper.deleteClazzAction(act.getActionId());
             }
         }
+        clazzChanged(clazz.getClassId());
 
         return getClazz(clazz.getClassId());
     }
@@ -688,6 +730,7 @@ public class CmsMdProcessor {
             throw new MDException(CmsError.MD_NO_DELETE_HAS_CI_ERROR, "Could not delete class Id: " + clazzId + " because of it has some ci.");
         }
         clazzMapper.deleteClazz(clazzId, deleteAll);
+        clazzChanged(clazzId);
 
     }
 
@@ -722,6 +765,7 @@ public class CmsMdProcessor {
                 relationMapper.addRelationTarget(target);
             }
         }
+        relationChanged(relation.getRelationId());
 
         return getRelation(relation.getRelationName());
     }
@@ -785,6 +829,7 @@ public class CmsMdProcessor {
                 relationMapper.addRelationTarget(target);
             }
         }
+        relationChanged(existingRelation.getRelationId());
 
         return getRelation(relation.getRelationName());
     }
@@ -812,6 +857,7 @@ public class CmsMdProcessor {
             throw new MDException(CmsError.MD_NO_DELETE_HAS_CI_ERROR, "Could not delete relation Id: " + relationId + " because of it has some ci.");
         }
         relationMapper.deleteRelation(relationId, deleteAll);
+        relationChanged(relationId);
     }
 
     private List<CmsClazzRelation> parseTargets(CmsClazzRelation link) {
@@ -863,8 +909,10 @@ public class CmsMdProcessor {
     }
 
     public void invalidateCache() {
+        cacheVersion.incrementAndGet();
         this.mdClazzCache.clear();
         this.mdClazzCacheById.clear();
+        this.superClazzIdCache.clear();
         this.mdRelationCache.clear();
         this.mdRelationCacheById.clear();
         // Clear and init cache.
@@ -872,4 +920,100 @@ public class CmsMdProcessor {
         initCache();
     }
 
+    private void clazzChanged(int clazzId) {
+        invalidateClazz(clazzId);
+        if (utilMapper != null) {
+            // sent when the transaction commits
+            utilMapper.pgNotify(MD_CHANGES_CHANNEL, CLASS_CHANGE + ":" + clazzId);
+        }
+    }
+
+    private void relationChanged(int relationId) {
+        invalidateRelation(relationId);
+        if (utilMapper != null) {
+            utilMapper.pgNotify(MD_CHANGES_CHANNEL, RELATION_CHANGE + ":" + relationId);
+        }
+    }
+
+    /**
+     * Drops a class and the cached classes inheriting from it.
+     *
+     * @param clazzId the class id
+     * @return the ids of the classes dropped
+     */
+    public Set<Integer> invalidateClazz(int clazzId) {
+        cacheVersion.incrementAndGet();
+        Set<Integer> clazzIds = new HashSet<>();
+        for (Map.Entry<Integer, List<Integer>> entry : superClazzIdCache.entrySet()) {
+            if (entry.getKey() == clazzId || entry.getValue().contains(clazzId)) {
+                clazzIds.add(entry.getKey());
+            }
+        }
+        clazzIds.forEach(this::uncacheClazz);
+        uncacheClazz(clazzId);
+        return clazzIds;
+    }
+
+    /**
+     * Drops a relation, its targets and the cached classes it is from or to.
+     *
+     * @param relationId the relation id
+     * @return the ids of the classes dropped
+     */
+    public Set<Integer> invalidateRelation(int relationId) {
+        cacheVersion.incrementAndGet();
+        Set<Integer> clazzIds = new HashSet<>();
+        for (CmsClazz clazz : mdClazzCacheById.values()) {
+            if (clazz.getFromRelations().stream().anyMatch(r -> r.getRelationId() == relationId)
+                    || clazz.getToRelations().stream().anyMatch(r -> r.getRelationId() == relationId)) {
+                clazzIds.add(clazz.getClassId());
+            }
+        }
+        clazzIds.forEach(this::uncacheClazz);
+        uncacheRelation(relationId);
+        clazzRelCache.remove(relationId);
+        return clazzIds;
+    }
+
+    /**
+     * Loads a relation and its targets back in the cache after an invalidation, with the cached classes it
+     * now has targets from or to.
+     *
+     * @param relationId the relation id
+     * @return the ids of the classes dropped for the new targets
+     */
+    public Set<Integer> reloadRelation(int relationId) {
+        Set<Integer> clazzIds = new HashSet<>();
+        if (!cacheEnabled || getRelation((long) relationId) == null) {
+            return clazzIds;
+        }
+        for (CmsClazzRelation target : getTargets(relationId)) {
+            CmsClazz from = mdClazzCacheById.get(target.getFromClassId());
+            if (from != null && from.getFromRelations().stream().noneMatch(r -> r.getLinkId() == target.getLinkId())) {
+                clazzIds.add(from.getClassId());
+            }
+            CmsClazz to = mdClazzCacheById.get(target.getToClassId());
+            if (to != null && to.getToRelations().stream().noneMatch(r -> r.getLinkId() == target.getLinkId())) {
+                clazzIds.add(to.getClassId());
+            }
+        }
+        if (!clazzIds.isEmpty()) {
+            cacheVersion.incrementAndGet();
+            clazzIds.forEach(this::uncacheClazz);
+        }
+        return clazzIds;
+    }
+
+    private void uncacheClazz(int clazzId) {
+        superClazzIdCache.remove(clazzId);
+        mdClazzCacheById.remove(clazzId);
+        // by the id, the name may have changed
+        mdClazzCache.values().removeIf(c -> c.getClassId() == clazzId);
+    }
+
+    private void uncacheRelation(int relationId) {
+        mdRelationCacheById.remove((long) relationId);
+        mdRelationCache.values().removeIf(r -> r.getRelationId() == relationId);
+    }
+
 }
@@ -30,6 +30,7 @@ public interface UtilMapper {
 	void updateCmSimpleVar(@Param("name") String varName, @Param("value") String varValue, 
 			@Param("criteria") String criteria, @Param("updatedBy") String updatedBy);
 	CmsVar getCmSimpleVar(@Param("name") String varName);
+	void pgNotify(@Param("channel") String channel, @Param("payload") String payload);
 	List<CmsVar> getCmVarByLongestMatchingCriteria(@Param("name") String varNameLike, @Param("criteria") String criteria);
 	List<CmsStuckDpmt> getCmsStuckDpmts();
 	List<CmsStuckDpmt> getInProgressStuckDpmts();
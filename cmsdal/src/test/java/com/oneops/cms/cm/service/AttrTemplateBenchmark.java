@@ -0,0 +1,69 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.cm.service;
+
+import java.util.List;
+
+import com.oneops.cms.cm.domain.CmsCI;
+
+/**
+ * Time and heap of the attributes of the cis of one class, populated one by one and from the class template:
+ * <pre>
+ * java -cp ... com.oneops.cms.cm.service.AttrTemplateBenchmark [cis]
+ * </pre>
+ */
+public class AttrTemplateBenchmark {
+
+    public static void main(String[] args) {
+        int cis = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        AttrTemplateTest fixture = new AttrTemplateTest();
+        fixture.setUp();
+        List<Long> ids = AttrTemplateTest.ids(cis);
+        // warm up
+        fixture.populateOneByOne(AttrTemplateTest.ids(5000));
+        fixture.cmProcessor.getCiByIdList(AttrTemplateTest.ids(5000));
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        List<CmsCI> oneByOne = fixture.populateOneByOne(ids);
+        long oneByOneMs = (System.nanoTime() - start) / 1000000;
+        long oneByOneHeap = usedHeap() - before;
+        System.out.println(oneByOne.size() + " cis populated one by one");
+        oneByOne = null;
+
+        before = usedHeap();
+        start = System.nanoTime();
+        List<CmsCI> templated = fixture.cmProcessor.getCiByIdList(ids);
+        long templatedMs = (System.nanoTime() - start) / 1000000;
+        long templatedHeap = usedHeap() - before;
+        System.out.println(templated.size() + " cis populated from the template");
+
+        System.out.println(String.format("%d cis of a class with %d attributes, %d set: one by one %dms %dMB,"
+                        + " class template %dms %dMB",
+                cis, AttrTemplateTest.ATTRS, AttrTemplateTest.SET_ATTRS, oneByOneMs, oneByOneHeap >> 20,
+                templatedMs, templatedHeap >> 20));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,231 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.cm.service;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.oneops.cms.cm.dal.CIMapper;
+import com.oneops.cms.cm.domain.CmsCI;
+import com.oneops.cms.cm.domain.CmsCIAttribute;
+import com.oneops.cms.md.domain.CmsClazz;
+import com.oneops.cms.md.domain.CmsClazzAttribute;
+import com.oneops.cms.md.service.CmsMdProcessor;
+
+/**
+ * Populates the attributes of the cis of one class from the shared class template and compares them with
+ * the attributes populated one by one the way it was done before, {@link AttrTemplateBenchmark} measures both.
+ */
+public class AttrTemplateTest {
+
+    private static final int CLAZZ_ID = 100;
+    static final int ATTRS = 30;
+    // the attributes with a value in the db, the rest have the class default
+    static final int SET_ATTRS = 5;
+
+    private CIMapper ciMapper;
+    private CmsClazz clazz;
+    CmsCmProcessor cmProcessor;
+
+    @BeforeClass
+    public void setUp() {
+        clazz = new CmsClazz();
+        clazz.setClassId(CLAZZ_ID);
+        clazz.setClassName("bom.Compute");
+        List<CmsClazzAttribute> mdAttrs = new ArrayList<>();
+        for (int i = 1; i <= ATTRS; i++) {
+            CmsClazzAttribute mdAttr = new CmsClazzAttribute();
+            mdAttr.setAttributeId(i);
+            mdAttr.setAttributeName("attr" + i);
+            mdAttr.setDefaultValue("default" + i);
+            mdAttrs.add(mdAttr);
+        }
+        clazz.setMdAttributes(mdAttrs);
+        CmsMdProcessor mdProcessor = mock(CmsMdProcessor.class);
+        when(mdProcessor.getClazz(CLAZZ_ID)).thenReturn(clazz);
+
+        ciMapper = mock(CIMapper.class);
+        doAnswer(i -> ((List<?>) i.getArguments()[0]).stream().map(id -> ci((Long) id)).collect(Collectors.toList()))
+                .when(ciMapper).getCIByIdList(anyListOf(Long.class));
+        doAnswer(i -> {
+            List<CmsCIAttribute> attrs = new ArrayList<>();
+            for (Object id : (List<?>) i.getArguments()[0]) {
+                for (int a = 1; a <= SET_ATTRS; a++) {
+                    attrs.add(dbAttr((Long) id, a));
+                }
+            }
+            return attrs;
+        }).when(ciMapper).getCIAttrsNakedByCiIdList(anyListOf(Long.class));
+
+        cmProcessor = new CmsCmProcessor();
+        cmProcessor.setCiMapper(ciMapper);
+        cmProcessor.setMdProcessor(mdProcessor);
+    }
+
+    @Test
+    public void sameAttributesAsPopulatedOneByOne() {
+        List<Long> ids = ids(1000);
+        List<CmsCI> cis = cmProcessor.getCiByIdList(ids);
+        List<CmsCI> expected = populateOneByOne(ids);
+        Gson gson = new Gson();
+        JsonParser parser = new JsonParser();
+        for (int c = 0; c < cis.size(); c++) {
+            Map<String, CmsCIAttribute> attrs = cis.get(c).getAttributes();
+            Map<String, CmsCIAttribute> expectedAttrs = expected.get(c).getAttributes();
+            assertEquals(attrs.size(), ATTRS);
+            assertEquals(attrs.keySet(), expectedAttrs.keySet());
+            for (String name : expectedAttrs.keySet()) {
+                CmsCIAttribute attr = cis.get(c).getAttribute(name);
+                CmsCIAttribute expectedAttr = expectedAttrs.get(name);
+                assertEquals(attr.getAttributeId(), expectedAttr.getAttributeId());
+                assertEquals(attr.getAttributeName(), expectedAttr.getAttributeName());
+                assertEquals(attr.getCiId(), expectedAttr.getCiId());
+                assertEquals(attr.getCiAttributeId(), expectedAttr.getCiAttributeId());
+                assertEquals(attr.getDfValue(), expectedAttr.getDfValue());
+                assertEquals(attr.getDjValue(), expectedAttr.getDjValue());
+                assertEquals(attr.getOwner(), expectedAttr.getOwner());
+                assertEquals(attr.getComments(), expectedAttr.getComments());
+                assertEquals(attr.getCreated(), expectedAttr.getCreated());
+            }
+            assertEquals(parser.parse(gson.toJson(cis.get(c))), parser.parse(gson.toJson(expected.get(c))));
+        }
+    }
+
+    @Test
+    public void defaultsAreCopiedForEachCi() throws Exception {
+        List<CmsCI> cis = cmProcessor.getCiByIdList(ids(2));
+        CmsCI ci = cis.get(0);
+        CmsCI other = cis.get(1);
+
+        CmsCIAttribute attr = ci.getAttribute("attr10");
+        assertSame(ci.getAttribute("attr10"), attr);
+        assertNotSame(other.getAttribute("attr10"), attr);
+        attr.setDjValue("changed");
+        assertEquals(ci.getAttribute("attr10").getDjValue(), "changed");
+        assertEquals(other.getAttribute("attr10").getDjValue(), "default10");
+
+        assertEquals(ci.getAttributes().remove("attr11").getDjValue(), "default11");
+        assertFalse(ci.getAttributes().containsKey("attr11"));
+        assertNull(ci.getAttribute("attr11"));
+        assertEquals(ci.getAttributes().size(), ATTRS - 1);
+        assertTrue(other.getAttributes().containsKey("attr11"));
+
+        CmsCIAttribute custom = new CmsCIAttribute();
+        custom.setAttributeName("custom");
+        custom.setDjValue("custom");
+        ci.addAttribute(custom);
+        assertEquals(ci.getAttributes().size(), ATTRS);
+        assertEquals(ci.getAttribute("custom").getDjValue(), "custom");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(ci);
+        }
+        CmsCI copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (CmsCI) in.readObject();
+        }
+        assertTrue(copy.getAttributes() instanceof HashMap);
+        assertEquals(copy.getAttributes().keySet(), ci.getAttributes().keySet());
+        assertEquals(copy.getAttribute("attr10").getDjValue(), "changed");
+    }
+
+    /**
+     * The attributes populated the way it was done before the class templates: a map of the class attributes
+     * and a copy of each default for every ci.
+     */
+    List<CmsCI> populateOneByOne(List<Long> ids) {
+        List<CmsCI> cis = ciMapper.getCIByIdList(ids);
+        Map<Long, List<CmsCIAttribute>> attrMap = new HashMap<>();
+        for (CmsCIAttribute attr : ciMapper.getCIAttrsNakedByCiIdList(ids)) {
+            attrMap.computeIfAbsent(attr.getCiId(), id -> new ArrayList<>()).add(attr);
+        }
+        for (CmsCI ci : cis) {
+            Map<Integer, CmsClazzAttribute> clazzAttrs = new HashMap<>();
+            for (CmsClazzAttribute clazzAttr : clazz.getMdAttributes()) {
+                clazzAttrs.put(clazzAttr.getAttributeId(), clazzAttr);
+            }
+            for (CmsCIAttribute attr : attrMap.get(ci.getCiId())) {
+                attr.setAttributeName(clazzAttrs.get(attr.getAttributeId()).getAttributeName());
+                ci.addAttribute(attr);
+                clazzAttrs.remove(attr.getAttributeId());
+            }
+            for (CmsClazzAttribute clazzAttr : clazzAttrs.values()) {
+                CmsCIAttribute attr = new CmsCIAttribute();
+                attr.setAttributeId(clazzAttr.getAttributeId());
+                attr.setAttributeName(clazzAttr.getAttributeName());
+                attr.setCiId(ci.getCiId());
+                attr.setDfValue(clazzAttr.getDefaultValue());
+                attr.setDjValue(clazzAttr.getDefaultValue());
+                ci.addAttribute(attr);
+            }
+        }
+        return cis;
+    }
+
+    static List<Long> ids(int count) {
+        return LongStream.rangeClosed(1, count).boxed().collect(Collectors.toList());
+    }
+
+    private static CmsCI ci(long ciId) {
+        CmsCI ci = new CmsCI();
+        ci.setCiId(ciId);
+        ci.setCiClassId(CLAZZ_ID);
+        ci.setCiClassName("bom.Compute");
+        ci.setCiName("compute-" + ciId);
+        ci.setNsPath("/org/assembly/env/bom/platform/1");
+        return ci;
+    }
+
+    private static CmsCIAttribute dbAttr(long ciId, int attributeId) {
+        CmsCIAttribute attr = new CmsCIAttribute();
+        attr.setCiAttributeId(ciId * 100 + attributeId);
+        attr.setCiId(ciId);
+        attr.setAttributeId(attributeId);
+        attr.setDfValue("value" + ciId);
+        attr.setDjValue("value" + ciId);
+        attr.setOwner("manifest");
+        attr.setCreated(new Date(1500000000000L));
+        return attr;
+    }
+}
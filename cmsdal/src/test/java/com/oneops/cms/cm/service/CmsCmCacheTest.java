@@ -0,0 +1,344 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.cm.service;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.mockito.stubbing.Answer;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.oneops.cms.cm.dal.CIMapper;
+import com.oneops.cms.cm.domain.CmsCI;
+import com.oneops.cms.cm.domain.CmsCIAttribute;
+import com.oneops.cms.cm.domain.CmsCIRelation;
+import com.oneops.cms.md.domain.CmsClazz;
+import com.oneops.cms.md.domain.CmsClazzAttribute;
+import com.oneops.cms.md.domain.CmsRelation;
+import com.oneops.cms.md.service.CmsMdProcessor;
+import com.oneops.cms.util.CIValidationResult;
+import com.oneops.cms.util.CmsCmValidator;
+
+/**
+ * Reads and writes the cis of a mocked cms through the cm cache: the readers never see a ci older than the
+ * last write completed before the read, a transaction that wrote reads past the cache. Then measures the
+ * assembly of work orders with and without the cache.
+ */
+public class CmsCmCacheTest {
+
+    private static final int CLAZZ_ID = 100;
+    private static final int RELATION_ID = 200;
+    private static final String RELATION = "manifest.Requires";
+    // the parent ci is related to all the others
+    private static final long PARENT_ID = 1;
+    private static final int CIS = 20;
+
+    // the version attribute of the cis in the db
+    private final Map<Long, Long> db = new ConcurrentHashMap<>();
+    private final AtomicLong queries = new AtomicLong();
+    private volatile long queryMicros;
+    private CIMapper ciMapper;
+    private CmsMdProcessor mdProcessor;
+    private CmsCmValidator cmValidator;
+
+    @BeforeMethod
+    public void setUp() {
+        db.clear();
+        for (long id = PARENT_ID; id <= CIS; id++) {
+            db.put(id, 0L);
+        }
+        queries.set(0);
+        queryMicros = 0;
+
+        CmsClazz clazz = new CmsClazz();
+        clazz.setClassId(CLAZZ_ID);
+        clazz.setClassName("manifest.Compute");
+        CmsClazzAttribute mdAttr = new CmsClazzAttribute();
+        mdAttr.setAttributeId(1);
+        mdAttr.setAttributeName("version");
+        mdAttr.setDefaultValue("0");
+        clazz.setMdAttributes(Collections.singletonList(mdAttr));
+        CmsRelation mdRelation = new CmsRelation();
+        mdRelation.setRelationId(RELATION_ID);
+        mdRelation.setRelationName(RELATION);
+        mdRelation.setMdAttributes(new ArrayList<>());
+        mdProcessor = mock(CmsMdProcessor.class);
+        when(mdProcessor.getClazz(CLAZZ_ID)).thenReturn(clazz);
+        when(mdProcessor.getRelation(RELATION_ID)).thenReturn(mdRelation);
+
+        CIValidationResult validated = new CIValidationResult();
+        validated.setValidated(true);
+        cmValidator = spy(new CmsCmValidator());
+        doReturn(validated).when(cmValidator).validateUpdateCI(any(CmsCI.class));
+
+        ciMapper = mock(CIMapper.class, (Answer<Object>) i -> {
+            Object[] args = i.getArguments();
+            switch (i.getMethod().getName()) {
+                case "getCIById":
+                    return query(ci((Long) args[0]));
+                case "getCIAttrsNaked":
+                    return query(Collections.singletonList(attr((Long) args[0])));
+                case "getCIByIdList": {
+                    List<CmsCI> cis = new ArrayList<>();
+                    ((List<?>) args[0]).forEach(id -> cis.add(ci((Long) id)));
+                    return query(cis);
+                }
+                case "getCIAttrsNakedByCiIdList": {
+                    List<CmsCIAttribute> attrs = new ArrayList<>();
+                    ((List<?>) args[0]).forEach(id -> attrs.add(attr((Long) id)));
+                    return query(attrs);
+                }
+                case "getFromCIRelations": {
+                    List<CmsCIRelation> rels = new ArrayList<>();
+                    if ((Long) args[0] == PARENT_ID) {
+                        for (long id = PARENT_ID + 1; id <= CIS; id++) {
+                            rels.add(relation(PARENT_ID, id));
+                        }
+                    }
+                    return query(rels);
+                }
+                case "getToCIRelations":
+                    return query((Long) args[0] == PARENT_ID
+                            ? new ArrayList<>() : Collections.singletonList(relation(PARENT_ID, (Long) args[0])));
+                case "updateCIAttribute": {
+                    CmsCIAttribute attr = (CmsCIAttribute) args[0];
+                    query(db.put(attr.getCiId(), Long.valueOf(attr.getDjValue())));
+                    return null;
+                }
+                default:
+                    break;
+            }
+            return i.getMethod().getReturnType() == List.class ? query(new ArrayList<>()) : null;
+        });
+    }
+
+    @Test
+    public void readsItsOwnWrites() {
+        CmsCmCache cache = new CmsCmCache();
+        CmsCmProcessor cmProcessor = cmProcessor(cache);
+
+        assertEquals(version(cmProcessor.getCiById(2)), 0);
+        assertEquals(version(cmProcessor.getCiById(2)), 0);
+        assertEquals(cache.getHits(), 1);
+        cmProcessor.getCiById(2).getAttribute("version").setDjValue("changed");
+        assertEquals(version(cmProcessor.getCiById(2)), 0);
+        assertEquals(version(cmProcessor.getFromCIRelations(PARENT_ID, RELATION, null).get(0).getToCi()), 0);
+
+        assertEquals(version(update(cmProcessor, 2, 1)), 1);
+        assertEquals(version(cmProcessor.getCiById(2)), 1);
+        assertEquals(version(cmProcessor.getCiByIdList(Collections.singletonList(2L)).get(0)), 1);
+        assertEquals(version(cmProcessor.getFromCIRelations(PARENT_ID, RELATION, null).get(0).getToCi()), 1);
+        assertTrue(cache.getInvalidations() > 0);
+    }
+
+    @Test
+    public void transactionReadsPastTheCacheAfterItsWrite() {
+        CmsCmCache cache = new CmsCmCache();
+        CmsCmProcessor cmProcessor = cmProcessor(cache);
+        cmProcessor.getCiById(2);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cmProcessor.getCiById(2);
+            assertEquals(cache.getHits(), 1);
+            update(cmProcessor, 2, 1);
+            long hits = cache.getHits();
+            assertEquals(version(cmProcessor.getCiById(2)), 1);
+            assertEquals(version(cmProcessor.getCiById(3)), 0);
+            assertEquals(cache.getHits(), hits);
+
+            // a reader outside of the transaction caches the ci before the commit
+            db.put(2L, 0L);
+            cache.putCi(cmProcessor.getCiById(2), cache.stamp());
+            db.put(2L, 1L);
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(cache.getSize(), 0);
+        assertEquals(version(cmProcessor.getCiById(2)), 1);
+    }
+
+    @Test
+    public void readersSeeTheCompletedWrites() throws Exception {
+        queryMicros = 20;
+        CmsCmCache cache = new CmsCmCache();
+        CmsCmProcessor cmProcessor = cmProcessor(cache);
+        // the last version written by a completed update, by ci
+        Map<Long, Long> completed = new ConcurrentHashMap<>();
+        db.keySet().forEach(id -> completed.put(id, 0L));
+        List<String> errors = new CopyOnWriteArrayList<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                readers.add(executor.submit(() -> {
+                    int read = 0;
+                    while (writing.get() || read < 100) {
+                        long id = PARENT_ID + 1 + read++ % (CIS - 1);
+                        long before = completed.get(id);
+                        long version = read % 2 == 0 ? version(cmProcessor.getCiById(id))
+                                : version(cmProcessor.getFromCIRelations(PARENT_ID, RELATION, null).get((int) (id - PARENT_ID - 1)).getToCi());
+                        if (version < before) {
+                            errors.add("ci " + id + " read at version " + version + " after version " + before + " was written");
+                        }
+                    }
+                }));
+            }
+            for (long version = 1; version <= 50; version++) {
+                for (long id = PARENT_ID + 1; id <= CIS; id += 3) {
+                    update(cmProcessor, id, version);
+                    completed.put(id, version);
+                    long read = version(cmProcessor.getCiById(id));
+                    if (read != version) {
+                        errors.add("ci " + id + " read at version " + read + " after its own write of " + version);
+                    }
+                }
+            }
+            writing.set(false);
+            for (Future<?> reader : readers) {
+                reader.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(errors, Collections.emptyList());
+        assertTrue(cache.getHits() > 0);
+    }
+
+    @Test
+    public void workOrderAssembly() {
+        List<String> uncached = assemble(cmProcessor(null), 100);
+        long uncachedQueries = queries.getAndSet(0);
+
+        List<String> cached = assemble(cmProcessor(new CmsCmCache()), 100);
+        long cachedQueries = queries.get();
+
+        assertEquals(cached, uncached);
+        assertTrue(cachedQueries < uncachedQueries / 4, cachedQueries + " queries cached, " + uncachedQueries + " uncached");
+    }
+
+    /**
+     * Reads what a work order of each ci is made of: the ci, its parent and the parent's other cis.
+     *
+     * @return the work orders as json
+     */
+    private List<String> assemble(CmsCmProcessor cmProcessor, int count) {
+        Gson gson = new Gson();
+        List<String> workOrders = new ArrayList<>();
+        for (int w = 0; w < count; w++) {
+            long id = PARENT_ID + 1 + w % (CIS - 1);
+            List<Object> workOrder = new ArrayList<>();
+            workOrder.add(cmProcessor.getCiById(id));
+            workOrder.add(cmProcessor.getToCIRelations(id, RELATION, null));
+            workOrder.add(cmProcessor.getCiById(PARENT_ID));
+            workOrder.add(cmProcessor.getFromCIRelations(PARENT_ID, RELATION, null));
+            workOrders.add(gson.toJson(workOrder));
+        }
+        return workOrders;
+    }
+
+    private CmsCmProcessor cmProcessor(CmsCmCache cache) {
+        CmsCmProcessor cmProcessor = new CmsCmProcessor();
+        cmProcessor.setCiMapper(ciMapper);
+        cmProcessor.setMdProcessor(mdProcessor);
+        cmProcessor.setCmValidator(cmValidator);
+        cmProcessor.setCmCache(cache);
+        return cmProcessor;
+    }
+
+    private CmsCI update(CmsCmProcessor cmProcessor, long ciId, long version) {
+        CmsCI ci = ci(ciId);
+        CmsCIAttribute attr = new CmsCIAttribute();
+        attr.setAttributeName("version");
+        attr.setDfValue(String.valueOf(version));
+        attr.setDjValue(String.valueOf(version));
+        ci.addAttribute(attr);
+        return cmProcessor.updateCI(ci);
+    }
+
+    private <T> T query(T result) {
+        queries.incrementAndGet();
+        if (queryMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(queryMicros));
+        }
+        return result;
+    }
+
+    private static long version(CmsCI ci) {
+        return Long.parseLong(ci.getAttribute("version").getDjValue());
+    }
+
+    private static CmsCI ci(long ciId) {
+        CmsCI ci = new CmsCI();
+        ci.setCiId(ciId);
+        ci.setCiClassId(CLAZZ_ID);
+        ci.setCiClassName("manifest.Compute");
+        ci.setCiName("compute-" + ciId);
+        ci.setCiStateId(100);
+        ci.setComments("");
+        return ci;
+    }
+
+    private CmsCIAttribute attr(long ciId) {
+        CmsCIAttribute attr = new CmsCIAttribute();
+        attr.setCiAttributeId(ciId * 10 + 1);
+        attr.setCiId(ciId);
+        attr.setAttributeId(1);
+        attr.setDfValue(String.valueOf(db.get(ciId)));
+        attr.setDjValue(String.valueOf(db.get(ciId)));
+        return attr;
+    }
+
+    private static CmsCIRelation relation(long fromCiId, long toCiId) {
+        CmsCIRelation rel = new CmsCIRelation();
+        rel.setCiRelationId(fromCiId * 1000 + toCiId);
+        rel.setRelationId(RELATION_ID);
+        rel.setRelationName(RELATION);
+        rel.setFromCiId(fromCiId);
+        rel.setToCiId(toCiId);
+        return rel;
+    }
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.cm.service;
+
+import java.util.List;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import com.oneops.cms.cm.dal.CIMapper;
+import com.oneops.cms.cm.domain.CmsCI;
+
+/**
+ * Time of the sequential and parallel reads of long ci id lists against an embedded postgres, run as a user
+ * that can run initdb:
+ * <pre>
+ * java -cp ... com.oneops.cms.cm.service.CmsCmProcessorFetchBenchmark [cis]
+ * </pre>
+ */
+public class CmsCmProcessorFetchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int cis = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        CmsCmProcessorFetchTest fixture = new CmsCmProcessorFetchTest();
+        fixture.setUpExecutor();
+        fixture.setUp();
+        try (EmbeddedPostgres postgres = EmbeddedPostgres.builder().start()) {
+            CIMapper pgMapper = CmsCmProcessorFetchTest.pgMapper(postgres, cis, 1000);
+            CmsCmProcessor sequential = fixture.cmProcessor(pgMapper, null);
+            CmsCmProcessor parallel = fixture.cmProcessor(pgMapper, fixture.executor);
+
+            // warm up
+            sequential.getCiByIdList(CmsCmProcessorFetchTest.shuffledIds(1000));
+            parallel.getCiByIdList(CmsCmProcessorFetchTest.shuffledIds(1000));
+            for (int size = 1000; size <= cis; size *= 10) {
+                List<Long> ids = CmsCmProcessorFetchTest.shuffledIds(size);
+                long start = System.nanoTime();
+                List<CmsCI> sequentialCis = sequential.getCiByIdList(ids);
+                long sequentialMs = (System.nanoTime() - start) / 1000000;
+                start = System.nanoTime();
+                List<CmsCI> parallelCis = parallel.getCiByIdList(ids);
+                long parallelMs = (System.nanoTime() - start) / 1000000;
+
+                if (!CmsCmProcessorFetchTest.ciIds(parallelCis).equals(CmsCmProcessorFetchTest.ciIds(sequentialCis))) {
+                    throw new IllegalStateException("parallel read differs from the sequential one for " + size + " ids");
+                }
+                System.out.println(String.format("%d ids in %d chunks: sequential %d ms, parallel on %d threads %d ms",
+                        size, (size + 99) / 100, sequentialMs, CmsCmProcessorFetchTest.THREADS, parallelMs));
+            }
+        } finally {
+            fixture.tearDownExecutor();
+        }
+    }
+}
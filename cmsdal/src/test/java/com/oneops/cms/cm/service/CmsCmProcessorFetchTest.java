@@ -0,0 +1,405 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.cm.service;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.mockito.stubbing.Answer;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import com.oneops.cms.cm.dal.CIMapper;
+import com.oneops.cms.cm.domain.CmsCI;
+import com.oneops.cms.cm.domain.CmsCIAttribute;
+import com.oneops.cms.ds.DataType;
+import com.oneops.cms.ds.DataTypeHolder;
+import com.oneops.cms.ds.RoutingDataSource;
+import com.oneops.cms.md.domain.CmsClazz;
+import com.oneops.cms.md.domain.CmsClazzAttribute;
+import com.oneops.cms.md.service.CmsMdProcessor;
+
+/**
+ * Reads long ci id lists in chunks, in parallel on the fetch executor: the cis come back in the order of the ids,
+ * on the data source the calling thread is routed to, and on the calling thread only in a transaction that may
+ * have written. Callers waiting in a transaction do not starve the readers of their chunks of connections. Then
+ * reads against an embedded postgres, see {@link CmsCmProcessorFetchBenchmark} for the timing.
+ */
+public class CmsCmProcessorFetchTest {
+
+    private static final int CLAZZ_ID = 100;
+    private static final int ATTRS = 3;
+    static final int THREADS = 4;
+
+    private final Set<String> queryThreads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<DataType> queryDataTypes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    ExecutorService executor;
+    private CmsMdProcessor mdProcessor;
+    private CIMapper ciMapper;
+
+    @BeforeClass
+    public void setUpExecutor() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        queryThreads.clear();
+        queryDataTypes.clear();
+        CmsClazz clazz = new CmsClazz();
+        clazz.setClassId(CLAZZ_ID);
+        clazz.setClassName("bom.Compute");
+        List<CmsClazzAttribute> mdAttrs = new ArrayList<>();
+        for (int a = 1; a <= ATTRS; a++) {
+            CmsClazzAttribute mdAttr = new CmsClazzAttribute();
+            mdAttr.setAttributeId(a);
+            mdAttr.setAttributeName("attr" + a);
+            mdAttrs.add(mdAttr);
+        }
+        clazz.setMdAttributes(mdAttrs);
+        mdProcessor = mock(CmsMdProcessor.class);
+        when(mdProcessor.getClazz(CLAZZ_ID)).thenReturn(clazz);
+
+        ciMapper = mock(CIMapper.class, (Answer<Object>) i -> {
+            if (i.getMethod().getDeclaringClass() != CIMapper.class) {
+                // finalize of the mocks of the earlier tests
+                return null;
+            }
+            queryThreads.add(Thread.currentThread().getName());
+            queryDataTypes.add(DataTypeHolder.get() == null ? DataType.DEFAULT : DataTypeHolder.get());
+            Thread.sleep(1);
+            List<?> ids = (List<?>) i.getArguments()[0];
+            switch (i.getMethod().getName()) {
+                case "getCIByIdList":
+                    // in the order of the index, without the ones not found
+                    return ids.stream().map(id -> (Long) id).filter(id -> id % 10 != 0).sorted().map(CmsCmProcessorFetchTest::ci)
+                            .collect(Collectors.toList());
+                case "getCIAttrsNakedByCiIdList": {
+                    List<CmsCIAttribute> attrs = new ArrayList<>();
+                    ids.forEach(id -> attrs.add(attr((Long) id, 1)));
+                    return attrs;
+                }
+                default:
+                    return null;
+            }
+        });
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        DataTypeHolder.clear();
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    public void readsTheChunksInParallelInTheOrderOfTheIds() {
+        List<Long> ids = shuffledIds(1050);
+        List<CmsCI> sequential = cmProcessor(ciMapper, null).getCiByIdList(ids);
+        assertEquals(queryThreads, Collections.singleton(Thread.currentThread().getName()));
+
+        queryThreads.clear();
+        List<CmsCI> parallel = cmProcessor(ciMapper, executor).getCiByIdList(ids);
+        assertTrue(queryThreads.size() > 1, "queries on " + queryThreads);
+        assertEquals(ciIds(parallel), ids.stream().filter(id -> id % 10 != 0).collect(Collectors.toList()));
+        assertEquals(ciIds(parallel), ciIds(sequential));
+        for (CmsCI ci : parallel) {
+            assertEquals(ci.getAttribute("attr1").getDfValue(), "v" + ci.getCiId());
+            assertEquals(ci.getAttributes().size(), ATTRS);
+        }
+    }
+
+    @Test
+    public void readsOnTheDataSourceOfTheCallingThread() {
+        CmsCmProcessor cmProcessor = cmProcessor(ciMapper, executor);
+        DataTypeHolder.setReadOnlyData();
+        cmProcessor.getCiByIdList(shuffledIds(1000));
+        assertTrue(queryThreads.size() > 1);
+        assertEquals(queryDataTypes, Collections.singleton(DataType.READ_ONLY));
+
+        // the executor threads don't keep it
+        queryDataTypes.clear();
+        DataTypeHolder.clear();
+        cmProcessor.getCiByIdListNaked(shuffledIds(1000));
+        assertEquals(queryDataTypes, Collections.singleton(DataType.DEFAULT));
+    }
+
+    @Test
+    public void readsOnTheCallingThreadInATransactionThatMayHaveWritten() {
+        CmsCmProcessor cmProcessor = cmProcessor(ciMapper, executor);
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        cmProcessor.getCiByIdList(shuffledIds(1000));
+        assertEquals(queryThreads, Collections.singleton(Thread.currentThread().getName()));
+
+        queryThreads.clear();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        cmProcessor.getCiByIdList(shuffledIds(1000));
+        assertTrue(queryThreads.size() > 1);
+
+        queryThreads.clear();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        DataTypeHolder.setReadOnlyData();
+        cmProcessor.getCiByIdList(shuffledIds(1000));
+        assertTrue(queryThreads.size() > 1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failsWithTheFailedChunk() {
+        CIMapper failing = mock(CIMapper.class, (Answer<Object>) i -> {
+            if (((List<?>) i.getArguments()[0]).contains(555L)) {
+                throw new IllegalStateException("chunk failed");
+            }
+            return ciMapper.getCIByIdList((List<Long>) i.getArguments()[0]);
+        });
+        try {
+            cmProcessor(failing, executor).getCiByIdListNaked(shuffledIds(1000));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "chunk failed");
+        }
+        // the executor is still there for the next ones
+        assertEquals(cmProcessor(ciMapper, executor).getCiByIdListNaked(shuffledIds(1000)).size(), 900);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void moreCallersInTransactionsThanConnections() throws Exception {
+        // a pool of 2 connections without a max wait, the callers keep theirs while they wait for their chunks
+        Semaphore pool = new Semaphore(2);
+        ThreadLocal<Boolean> inTransaction = ThreadLocal.withInitial(() -> false);
+        CIMapper pooled = mock(CIMapper.class, (Answer<Object>) i -> {
+            List<Long> ids = (List<Long>) i.getArguments()[0];
+            boolean borrow = !inTransaction.get();
+            if (borrow) {
+                pool.acquire();
+            }
+            try {
+                return "getCIByIdList".equals(i.getMethod().getName()) ? ciMapper.getCIByIdList(ids)
+                        : ciMapper.getCIAttrsNakedByCiIdList(ids);
+            } finally {
+                if (borrow) {
+                    pool.release();
+                }
+            }
+        });
+        CmsCmProcessor cmProcessor = cmProcessor(pooled, executor);
+        cmProcessor.setFetchConnections(1);
+
+        ExecutorService callers = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<List<CmsCI>>> results = new ArrayList<>();
+            for (int c = 0; c < 6; c++) {
+                results.add(callers.submit(() -> {
+                    pool.acquire();
+                    inTransaction.set(true);
+                    TransactionSynchronizationManager.setActualTransactionActive(true);
+                    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+                    try {
+                        return cmProcessor.getCiByIdList(shuffledIds(1000));
+                    } finally {
+                        TransactionSynchronizationManager.setActualTransactionActive(false);
+                        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+                        inTransaction.set(false);
+                        pool.release();
+                    }
+                }));
+            }
+            for (Future<List<CmsCI>> result : results) {
+                try {
+                    assertEquals(result.get(30, TimeUnit.SECONDS).size(), 900);
+                } catch (TimeoutException e) {
+                    fail("the callers and the readers of their chunks wait for each other's connections");
+                }
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void readsAgainstPostgres() throws Exception {
+        EmbeddedPostgres postgres;
+        try {
+            postgres = EmbeddedPostgres.builder().start();
+        } catch (Exception e) {
+            throw new SkipException("Could not start postgres, initdb does not run as root", e);
+        }
+        try {
+            int[] sizes = {1000, 10000};
+            CIMapper pgMapper = pgMapper(postgres, sizes[sizes.length - 1], sizes[0]);
+            CmsCmProcessor sequential = cmProcessor(pgMapper, null);
+            CmsCmProcessor parallel = cmProcessor(pgMapper, executor);
+
+            DataTypeHolder.setReadOnlyData();
+            List<CmsCI> standbyCis = parallel.getCiByIdList(shuffledIds(sizes[0]));
+            assertEquals(standbyCis.size(), sizes[0]);
+            assertTrue(standbyCis.stream().allMatch(ci -> ci.getCiName().startsWith("standby-")));
+            DataTypeHolder.clear();
+
+            for (int size : sizes) {
+                List<Long> ids = shuffledIds(size);
+                List<CmsCI> sequentialCis = sequential.getCiByIdList(ids);
+                List<CmsCI> parallelCis = parallel.getCiByIdList(ids);
+                assertEquals(ciIds(parallelCis), ids);
+                assertEquals(ciIds(sequentialCis), ids);
+                assertEquals(parallelCis.get(size - 1).getAttribute("attr" + ATTRS).getDfValue(), "v" + ids.get(size - 1));
+            }
+        } finally {
+            postgres.close();
+        }
+    }
+
+    /**
+     * Creates the cis in postgres and a standby database with fewer of them.
+     *
+     * @return a mapper routed like oneopsCMSDS with the standby enabled
+     */
+    static CIMapper pgMapper(EmbeddedPostgres postgres, int cis, int standbyCis) throws Exception {
+        try (Connection connection = postgres.getPostgresDatabase().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE DATABASE standby");
+        }
+        createCis(postgres.getDatabase("postgres", "postgres"), "", cis);
+        createCis(postgres.getDatabase("postgres", "standby"), "standby-", standbyCis);
+
+        RoutingDataSource dataSource = new RoutingDataSource();
+        Map<Object, Object> dataSources = new HashMap<>();
+        dataSources.put(DataType.DEFAULT, pool(postgres, "postgres"));
+        dataSources.put(DataType.READ_ONLY, pool(postgres, "standby"));
+        dataSource.setTargetDataSources(dataSources);
+        dataSource.setDefaultTargetDataSource(dataSources.get(DataType.DEFAULT));
+        dataSource.afterPropertiesSet();
+        Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.addMapper(CIMapper.class);
+        return SqlSessionManager.newInstance(new SqlSessionFactoryBuilder().build(configuration)).getMapper(CIMapper.class);
+    }
+
+    CmsCmProcessor cmProcessor(CIMapper mapper, ExecutorService fetchExecutor) {
+        CmsCmProcessor cmProcessor = new CmsCmProcessor();
+        cmProcessor.setCiMapper(mapper);
+        cmProcessor.setMdProcessor(mdProcessor);
+        cmProcessor.setFetchExecutor(fetchExecutor);
+        return cmProcessor;
+    }
+
+    private static void createCis(DataSource dataSource, String prefix, int count) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            // the columns read by getCIByIdList and getCIAttrsNakedByCiIdList
+            statement.execute("CREATE TABLE md_classes (class_id INTEGER PRIMARY KEY, class_name VARCHAR(200), impl VARCHAR(200))");
+            statement.execute("CREATE TABLE ns_namespaces (ns_id BIGINT PRIMARY KEY, ns_path VARCHAR(200))");
+            statement.execute("CREATE TABLE cm_ci_state (ci_state_id INTEGER PRIMARY KEY, state_name VARCHAR(64))");
+            statement.execute("CREATE TABLE cm_ci (ci_id BIGINT PRIMARY KEY, ci_name VARCHAR(200), class_id INTEGER, ns_id BIGINT,"
+                    + " ci_goid VARCHAR(256), comments VARCHAR(2000), ci_state_id INTEGER, last_applied_rfc_id BIGINT,"
+                    + " created_by VARCHAR(200), updated_by VARCHAR(200), created TIMESTAMP DEFAULT now(), updated TIMESTAMP DEFAULT now())");
+            statement.execute("CREATE TABLE cm_ci_attributes (ci_attribute_id BIGINT PRIMARY KEY, ci_id BIGINT, attribute_id INTEGER,"
+                    + " df_attribute_value TEXT, dj_attribute_value TEXT, owner VARCHAR(32), comments VARCHAR(2000),"
+                    + " created TIMESTAMP DEFAULT now(), updated TIMESTAMP DEFAULT now())");
+            statement.execute("CREATE INDEX cm_ci_attributes_ci_idx ON cm_ci_attributes (ci_id)");
+            statement.execute("INSERT INTO md_classes VALUES (" + CLAZZ_ID + ", 'bom.Compute', 'oo::chef-11.18.12')");
+            statement.execute("INSERT INTO ns_namespaces VALUES (1, '/org/assembly/env/bom')");
+            statement.execute("INSERT INTO cm_ci_state VALUES (100, 'default')");
+            statement.execute("INSERT INTO cm_ci (ci_id, ci_name, class_id, ns_id, ci_goid, ci_state_id)"
+                    + " SELECT id, '" + prefix + "compute-' || id, " + CLAZZ_ID + ", 1, '1-' || id, 100 FROM generate_series(1, " + count + ") id");
+            statement.execute("INSERT INTO cm_ci_attributes (ci_attribute_id, ci_id, attribute_id, df_attribute_value, dj_attribute_value)"
+                    + " SELECT id * " + ATTRS + " + a, id, a, 'v' || id, 'v' || id FROM generate_series(1, " + count + ") id,"
+                    + " generate_series(1, " + ATTRS + ") a");
+            statement.execute("ANALYZE");
+        }
+    }
+
+    private static BasicDataSource pool(EmbeddedPostgres postgres, String database) {
+        BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.postgresql.Driver");
+        dataSource.setUrl("jdbc:postgresql://localhost:" + postgres.getPort() + "/" + database);
+        dataSource.setUsername("postgres");
+        dataSource.setDefaultAutoCommit(false);
+        dataSource.setMaxActive(THREADS + 2);
+        return dataSource;
+    }
+
+    static List<Long> shuffledIds(int count) {
+        List<Long> ids = LongStream.rangeClosed(1, count).boxed().collect(Collectors.toList());
+        Collections.shuffle(ids, new Random(count));
+        return ids;
+    }
+
+    static List<Long> ciIds(List<CmsCI> cis) {
+        return cis.stream().map(CmsCI::getCiId).collect(Collectors.toList());
+    }
+
+    private static CmsCI ci(long ciId) {
+        CmsCI ci = new CmsCI();
+        ci.setCiId(ciId);
+        ci.setCiName("compute-" + ciId);
+        ci.setCiClassId(CLAZZ_ID);
+        return ci;
+    }
+
+    private static CmsCIAttribute attr(long ciId, int attributeId) {
+        CmsCIAttribute attr = new CmsCIAttribute();
+        attr.setCiId(ciId);
+        attr.setAttributeId(attributeId);
+        attr.setAttributeName("attr" + attributeId);
+        attr.setDfValue("v" + ciId);
+        attr.setDjValue("v" + ciId);
+        return attr;
+    }
+}
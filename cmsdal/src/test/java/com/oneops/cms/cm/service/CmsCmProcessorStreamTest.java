@@ -0,0 +1,262 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.cm.service;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.ibatis.executor.result.DefaultResultContext;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSession;
+import org.mockito.stubbing.Answer;
+import org.mybatis.spring.SqlSessionHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.oneops.cms.cm.dal.CIMapper;
+import com.oneops.cms.cm.domain.CmsCI;
+import com.oneops.cms.cm.domain.CmsCIAttribute;
+import com.oneops.cms.cm.domain.CmsCIRelation;
+import com.oneops.cms.cm.domain.CmsCIRelationAttribute;
+import com.oneops.cms.md.domain.CmsClazz;
+import com.oneops.cms.md.domain.CmsClazzAttribute;
+import com.oneops.cms.md.domain.CmsRelation;
+import com.oneops.cms.md.domain.CmsRelationAttribute;
+import com.oneops.cms.md.service.CmsMdProcessor;
+
+/**
+ * Streams the rows of the relation and ci queries in batches while they are read: the batches come in the read
+ * order with their attributes and cis, no more than a batch is held, and the session cache is cleared after each.
+ */
+public class CmsCmProcessorStreamTest {
+
+    private static final int CLAZZ_ID = 100;
+    private static final int RELATION_ID = 200;
+    private static final int BATCH = 100;
+
+    private CmsCmProcessor processor;
+    private List<Object[]> queries;
+    private int rows;
+    private int read;
+    private int delivered;
+    private int maxPending;
+
+    @BeforeMethod
+    public void setUp() {
+        queries = new ArrayList<>();
+        read = 0;
+        delivered = 0;
+        maxPending = 0;
+
+        CmsClazz clazz = new CmsClazz();
+        clazz.setClassId(CLAZZ_ID);
+        clazz.setClassName("bom.Compute");
+        CmsClazzAttribute clazzAttr = new CmsClazzAttribute();
+        clazzAttr.setAttributeId(1);
+        clazzAttr.setAttributeName("attr1");
+        clazz.setMdAttributes(Collections.singletonList(clazzAttr));
+        CmsRelation relation = new CmsRelation();
+        relation.setRelationId(RELATION_ID);
+        relation.setRelationName("bom.DependsOn");
+        CmsRelationAttribute relationAttr = new CmsRelationAttribute();
+        relationAttr.setAttributeId(1);
+        relationAttr.setAttributeName("attr1");
+        relation.setMdAttributes(Collections.singletonList(relationAttr));
+        CmsMdProcessor mdProcessor = mock(CmsMdProcessor.class);
+        when(mdProcessor.getClazz(CLAZZ_ID)).thenReturn(clazz);
+        when(mdProcessor.getRelation(RELATION_ID)).thenReturn(relation);
+
+        CIMapper ciMapper = mock(CIMapper.class, (Answer<Object>) i -> {
+            Object[] args = i.getArguments();
+            switch (i.getMethod().getName()) {
+                case "getCIRelations":
+                case "getCIRelationsNsLike":
+                case "getCIby3":
+                case "getCIby3NsLike": {
+                    queries.add(args);
+                    ResultHandler handler = (ResultHandler) args[args.length - 1];
+                    boolean cis = i.getMethod().getName().startsWith("getCIby3");
+                    DefaultResultContext context = new DefaultResultContext();
+                    for (long id = 1; id <= rows; id++) {
+                        read++;
+                        maxPending = Math.max(maxPending, read - delivered);
+                        context.nextResultObject(cis ? ci(id) : relation(id));
+                        handler.handleResult(context);
+                    }
+                    return null;
+                }
+                case "getCIRelationAttrsNakedByRelIdList": {
+                    List<CmsCIRelationAttribute> attrs = new ArrayList<>();
+                    for (Object id : (List<?>) args[0]) {
+                        CmsCIRelationAttribute attr = new CmsCIRelationAttribute();
+                        attr.setCiRelationId((Long) id);
+                        attr.setAttributeId(1);
+                        attr.setAttributeName("attr1");
+                        attr.setDfValue("rel" + id);
+                        attrs.add(attr);
+                    }
+                    return attrs;
+                }
+                case "getCIAttrsNakedByCiIdList": {
+                    List<CmsCIAttribute> attrs = new ArrayList<>();
+                    for (Object id : (List<?>) args[0]) {
+                        CmsCIAttribute attr = new CmsCIAttribute();
+                        attr.setCiId((Long) id);
+                        attr.setAttributeId(1);
+                        attr.setAttributeName("attr1");
+                        attr.setDfValue("ci" + id);
+                        attrs.add(attr);
+                    }
+                    return attrs;
+                }
+                case "getCIByIdList":
+                    return ((List<?>) args[0]).stream().map(id -> ci((Long) id)).collect(Collectors.toList());
+                default:
+                    return null;
+            }
+        });
+
+        processor = new CmsCmProcessor();
+        processor.setCiMapper(ciMapper);
+        processor.setMdProcessor(mdProcessor);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        for (Object key : new ArrayList<>(TransactionSynchronizationManager.getResourceMap().keySet())) {
+            TransactionSynchronizationManager.unbindResource(key);
+        }
+    }
+
+    @Test
+    public void relationsInBatches() {
+        rows = 2 * BATCH + 50;
+        List<List<CmsCIRelation>> batches = new ArrayList<>();
+        processor.streamCIRelations("/org/assembly", "bom.DependsOn", null, "bom.Compute", "Fqdn", false, true, false,
+                relList -> {
+                    batches.add(relList);
+                    delivered += relList.size();
+                });
+
+        assertEquals(batches.stream().map(List::size).collect(Collectors.toList()), Arrays.asList(BATCH, BATCH, 50));
+        assertTrue(maxPending <= BATCH, "rows held: " + maxPending);
+        long expectedId = 1;
+        for (List<CmsCIRelation> batch : batches) {
+            for (CmsCIRelation rel : batch) {
+                assertEquals(rel.getCiRelationId(), expectedId);
+                assertEquals(rel.getAttribute("attr1").getDfValue(), "rel" + expectedId);
+                assertNotNull(rel.getFromCi());
+                assertEquals(rel.getFromCi().getCiId(), rel.getFromCiId());
+                assertEquals(rel.getToCi(), null);
+                expectedId++;
+            }
+        }
+
+        Object[] args = queries.get(0);
+        assertEquals(args.length, 8);
+        assertEquals(args[0], "/org/assembly");
+        assertEquals(args[3], "bom.Compute");
+        assertEquals(args[6], "Fqdn");
+    }
+
+    @Test
+    public void recursiveRelations() {
+        rows = 10;
+        List<CmsCIRelation> streamed = new ArrayList<>();
+        processor.streamCIRelations("/org", null, "DependsOn", null, null, true, false, true, streamed::addAll);
+
+        assertEquals(streamed.size(), 10);
+        assertNotNull(streamed.get(9).getToCi());
+        Object[] args = queries.get(0);
+        assertEquals(args.length, 9);
+        assertEquals(args[1], "/org/%");
+    }
+
+    @Test
+    public void cisInBatches() {
+        rows = BATCH + 1;
+        List<List<CmsCI>> batches = new ArrayList<>();
+        processor.streamCiBy3("/org/assembly", "Compute", null, true, ciList -> {
+            batches.add(ciList);
+            delivered += ciList.size();
+        });
+
+        assertEquals(batches.size(), 2);
+        assertEquals(batches.get(1).size(), 1);
+        assertEquals(batches.get(1).get(0).getAttribute("attr1").getDfValue(), "ci" + (BATCH + 1));
+        assertTrue(maxPending <= BATCH, "rows held: " + maxPending);
+        assertEquals(queries.get(0)[1], "/org/assembly/%");
+    }
+
+    @Test
+    public void noRows() {
+        rows = 0;
+        List<List<CmsCI>> batches = new ArrayList<>();
+        processor.streamCiBy3("/org/assembly", null, null, false, batches::add);
+
+        assertTrue(batches.isEmpty());
+        assertEquals(queries.get(0).length, 5);
+    }
+
+    @Test
+    public void sessionCacheClearedPerBatch() {
+        rows = 3 * BATCH;
+        SqlSession session = mock(SqlSession.class);
+        TransactionSynchronizationManager.initSynchronization();
+        TransactionSynchronizationManager.bindResource(new Object(), new SqlSessionHolder(session, ExecutorType.SIMPLE, null));
+
+        processor.streamCIRelations("/org/assembly", null, null, null, null, false, true, true, relList -> {});
+
+        verify(session, times(3)).clearCache();
+    }
+
+    private static CmsCIRelation relation(long id) {
+        CmsCIRelation rel = new CmsCIRelation();
+        rel.setCiRelationId(id);
+        rel.setRelationId(RELATION_ID);
+        rel.setNsPath("/org/assembly");
+        rel.setFromCiId(id * 10);
+        rel.setToCiId(id * 10 + 1);
+        return rel;
+    }
+
+    private static CmsCI ci(long id) {
+        CmsCI ci = new CmsCI();
+        ci.setCiId(id);
+        ci.setCiClassId(CLAZZ_ID);
+        ci.setNsPath("/org/assembly");
+        return ci;
+    }
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.md.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time it takes the other processes to drop and load back a changed class and relation, and their md queries
+ * against dropping the whole cache, on the fixture of {@link CmsMdChangeListenerTest}. Run as a user that can
+ * run initdb:
+ * <pre>
+ * java -cp ... com.oneops.cms.md.service.CmsMdChangeListenerBenchmark [rounds]
+ * </pre>
+ */
+public class CmsMdChangeListenerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        CmsMdChangeListenerTest fixture = new CmsMdChangeListenerTest();
+        fixture.setUp();
+        try {
+            fixture.warm();
+            List<Integer> changedClasses = fixture.changedClasses();
+            for (int round = 0; round < rounds; round++) {
+                long[] queries = fixture.queries();
+                long[] reloads = fixture.reloads();
+                long start = System.nanoTime();
+                fixture.updateClass("v" + (round + 2));
+                long[] latencies = fixture.awaitReloads(reloads, changedClasses.size(), start);
+                System.out.println(String.format("class %d changed, %d classes reloaded: latency %s ms, md queries %s",
+                        CmsMdChangeListenerTest.CHANGED_CLASS, changedClasses.size(), Arrays.toString(latencies),
+                        Arrays.toString(CmsMdChangeListenerTest.delta(fixture.queries(), queries))));
+
+                queries = fixture.queries();
+                reloads = fixture.reloads();
+                start = System.nanoTime();
+                fixture.addRelationTarget(50 + round, 60 + round);
+                // the relation and the classes it was and is now from and to
+                latencies = fixture.awaitReloads(reloads, 1 + 2 + 2 * (round + 1), start);
+                System.out.println(String.format("relation %d changed: latency %s ms, md queries %s",
+                        CmsMdChangeListenerTest.CHANGED_RELATION, Arrays.toString(latencies),
+                        Arrays.toString(CmsMdChangeListenerTest.delta(fixture.queries(), queries))));
+            }
+
+            // dropping the whole cache like the MD_UPDATE_TIMESTAMP var does
+            CmsMdChangeListenerTest.Node node = fixture.nodes.get(1);
+            long nodeQueries = node.queries.get();
+            long start = System.nanoTime();
+            node.mdProcessor.invalidateCache();
+            node.warm();
+            System.out.println(String.format("whole md cache of %d classes dropped: %d ms, %d md queries",
+                    CmsMdChangeListenerTest.CLASSES, (System.nanoTime() - start) / 1000000, node.queries.get() - nodeQueries));
+        } finally {
+            fixture.tearDown();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.md.service;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.mockito.stubbing.Answer;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import com.oneops.cms.md.dal.ClazzMapper;
+import com.oneops.cms.md.dal.RelationMapper;
+import com.oneops.cms.md.domain.CmsClazz;
+import com.oneops.cms.md.domain.CmsClazzAttribute;
+import com.oneops.cms.md.domain.CmsClazzRelation;
+import com.oneops.cms.md.domain.CmsRelation;
+import com.oneops.cms.util.CIValidationResult;
+import com.oneops.cms.util.CmsMdValidator;
+import com.oneops.cms.util.dal.UtilMapper;
+
+/**
+ * Three processes with the md cache on one embedded postgres: the first one changes a class and a relation,
+ * the others drop and load back only what changed, with fewer md queries than dropping the whole cache. The
+ * md tables are mocked, shared by the processes. See {@link CmsMdChangeListenerBenchmark} for the latency.
+ */
+public class CmsMdChangeListenerTest {
+
+    static final int NODES = 3;
+    static final int CLASSES = 200;
+    private static final int RELATIONS = 20;
+    // the classes 2-10 extend 1, the others extend one of 2-10
+    static final int CHANGED_CLASS = 3;
+    static final int CHANGED_RELATION = 7;
+
+    private EmbeddedPostgres postgres;
+    final List<Node> nodes = new ArrayList<>();
+    // the md tables
+    private final Map<Integer, String> descriptions = new ConcurrentHashMap<>();
+    private final List<CmsClazzRelation> targets = new CopyOnWriteArrayList<>();
+    private final AtomicInteger linkIds = new AtomicInteger();
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        try {
+            postgres = EmbeddedPostgres.builder().start();
+        } catch (Exception e) {
+            throw new SkipException("Could not start postgres, initdb does not run as root", e);
+        }
+        for (int classId = 1; classId <= CLASSES; classId++) {
+            descriptions.put(classId, "v1");
+        }
+        for (int relationId = 1; relationId <= RELATIONS; relationId++) {
+            targets.add(target(relationId, 10 + relationId, 20 + relationId));
+        }
+        for (int n = 0; n < NODES; n++) {
+            nodes.add(new Node());
+        }
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        for (Node node : nodes) {
+            node.listener.stop();
+        }
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Test
+    public void reloadsOnlyTheChangedClassesAndRelations() throws Exception {
+        warm();
+        Map<Integer, CmsClazz> before = nodes.get(1).cached();
+
+        List<Integer> changedClasses = changedClasses();
+        long[] queries = queries();
+        long[] reloads = reloads();
+        updateClass("v2");
+        awaitReloads(reloads, changedClasses.size(), System.nanoTime());
+        long[] clazzQueries = delta(queries(), queries);
+
+        for (Node node : nodes.subList(1, NODES)) {
+            long nodeQueries = node.queries.get();
+            for (int classId = 1; classId <= CLASSES; classId++) {
+                CmsClazz clazz = node.mdProcessor.getClazz(classId);
+                assertEquals(clazz.getDescription(), descriptions.get(classId));
+                if (changedClasses.contains(classId)) {
+                    assertEquals(clazz.getMdAttributes().stream()
+                            .filter(a -> a.getAttributeName().equals("attr" + CHANGED_CLASS)).findFirst().get().getDescription(), "v2");
+                } else if (node == nodes.get(1)) {
+                    assertSame(clazz, before.get(classId));
+                }
+            }
+            assertEquals(node.queries.get(), nodeQueries, "md queries after the reload");
+        }
+
+        // a new target of the relation changes the classes it is from and to
+        reloads = reloads();
+        addRelationTarget(50, 60);
+        // the relation and the classes it was and is now from and to
+        awaitReloads(reloads, 1 + 4, System.nanoTime());
+        for (Node node : nodes.subList(1, NODES)) {
+            long nodeQueries = node.queries.get();
+            List<Integer> toClassIds = node.mdProcessor.getClazz(50).getFromRelations().stream()
+                    .map(CmsClazzRelation::getToClassId).collect(Collectors.toList());
+            assertEquals(toClassIds, Collections.singletonList(60));
+            assertEquals(node.mdProcessor.getClazz(10 + CHANGED_RELATION).getFromRelations().size(), 1);
+            assertEquals(node.mdProcessor.getTargets(CHANGED_RELATION).size(), 2);
+            assertEquals(node.queries.get(), nodeQueries, "md queries after the reload");
+        }
+
+        // dropping the whole cache like the MD_UPDATE_TIMESTAMP var does
+        Node node = nodes.get(1);
+        long nodeQueries = node.queries.get();
+        node.mdProcessor.invalidateCache();
+        node.warm();
+        long fullQueries = node.queries.get() - nodeQueries;
+        assertNotSame(node.mdProcessor.getClazz(CLASSES), before.get(CLASSES));
+        assertTrue(clazzQueries[1] * 5 < fullQueries, clazzQueries[1] + " md queries for a class, " + fullQueries + " for all");
+    }
+
+    /**
+     * Warms the md cache of the nodes and waits for them to listen, on connections outside of their pools.
+     */
+    void warm() throws InterruptedException {
+        for (Node node : nodes) {
+            node.warm();
+            await(node.listener::isListening);
+            assertEquals(node.dataSource.getNumActive(), 0, "pool connections held by the listener");
+        }
+    }
+
+    /**
+     * @return the changed class and the classes inheriting from it
+     */
+    List<Integer> changedClasses() {
+        List<Integer> changedClasses = new ArrayList<>();
+        for (int classId = 1; classId <= CLASSES; classId++) {
+            if (superClassIds(classId).contains(CHANGED_CLASS) || classId == CHANGED_CLASS) {
+                changedClasses.add(classId);
+            }
+        }
+        return changedClasses;
+    }
+
+    /**
+     * Updates the description of the changed class on the first node.
+     */
+    void updateClass(String description) {
+        CmsClazz update = clazz(CHANGED_CLASS);
+        update.setDescription(description);
+        update.setMdAttributes(new ArrayList<>());
+        nodes.get(0).mdProcessor.updateClazz(update);
+    }
+
+    /**
+     * Adds a target to the changed relation on the first node.
+     */
+    void addRelationTarget(int fromClassId, int toClassId) {
+        CmsRelation relation = nodes.get(0).mdProcessor.getRelationWithTargets("test.Relation" + CHANGED_RELATION);
+        relation.getTargets().add(target(CHANGED_RELATION, fromClassId, toClassId));
+        nodes.get(0).mdProcessor.updateRelation(relation);
+    }
+
+    /**
+     * Waits for each of the other nodes to load back the changes, the writer dropped them before the notification.
+     *
+     * @return the time in ms from <code>start</code> it took each of the other nodes
+     */
+    long[] awaitReloads(long[] before, int count, long start) throws InterruptedException {
+        long[] latencies = new long[NODES - 1];
+        for (int n = 1; n < NODES; n++) {
+            Node node = nodes.get(n);
+            long reloads = before[n] + count;
+            await(() -> node.listener.getReloads() >= reloads);
+            latencies[n - 1] = (System.nanoTime() - start) / 1000000;
+        }
+        return latencies;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(1);
+        }
+    }
+
+    long[] queries() {
+        return nodes.stream().mapToLong(n -> n.queries.get()).toArray();
+    }
+
+    long[] reloads() {
+        return nodes.stream().mapToLong(n -> n.listener.getReloads()).toArray();
+    }
+
+    static long[] delta(long[] after, long[] before) {
+        long[] delta = new long[after.length];
+        for (int i = 0; i < after.length; i++) {
+            delta[i] = after[i] - before[i];
+        }
+        return delta;
+    }
+
+    private static List<Integer> superClassIds(int classId) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = superClassId(classId); id > 0; id = superClassId(id)) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static int superClassId(int classId) {
+        return classId == 1 ? 0 : classId <= 10 ? 1 : classId % 9 + 2;
+    }
+
+    private CmsClazz clazz(int classId) {
+        CmsClazz clazz = new CmsClazz();
+        clazz.setClassId(classId);
+        clazz.setClassName("test.Class" + classId);
+        clazz.setSuperClassId(superClassId(classId));
+        clazz.setDescription(descriptions.get(classId));
+        return clazz;
+    }
+
+    private CmsClazzRelation target(int relationId, int fromClassId, int toClassId) {
+        CmsClazzRelation target = new CmsClazzRelation();
+        target.setLinkId(linkIds.incrementAndGet());
+        target.setRelationId(relationId);
+        target.setRelationName("test.Relation" + relationId);
+        target.setFromClassId(fromClassId);
+        target.setFromClassName("test.Class" + fromClassId);
+        target.setToClassId(toClassId);
+        target.setToClassName("test.Class" + toClassId);
+        return target;
+    }
+
+    /**
+     * A process with the md cache, listening to the md changes.
+     */
+    class Node {
+        final AtomicLong queries = new AtomicLong();
+        final CmsMdProcessor mdProcessor = new CmsMdProcessor();
+        private final CmsMdChangeListener listener = new CmsMdChangeListener();
+        // pooled like oneopsCMSDS
+        private final BasicDataSource dataSource = new BasicDataSource();
+
+        private Node() {
+            dataSource.setDriverClassName("org.postgresql.Driver");
+            dataSource.setUrl("jdbc:postgresql://localhost:" + postgres.getPort() + "/postgres");
+            dataSource.setUsername("postgres");
+            dataSource.setDefaultAutoCommit(false);
+            Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+            configuration.addMapper(UtilMapper.class);
+            SqlSessionManager sessions = SqlSessionManager.newInstance(new SqlSessionFactoryBuilder().build(configuration));
+
+            CIValidationResult validated = new CIValidationResult();
+            validated.setValidated(true);
+            CmsMdValidator mdValidator = mock(CmsMdValidator.class);
+            when(mdValidator.validateUpdateClazz(any(CmsClazz.class))).thenReturn(validated);
+            when(mdValidator.validateUpdateRelation(any(CmsRelation.class))).thenReturn(validated);
+
+            mdProcessor.setClazzMapper(mock(ClazzMapper.class, (Answer<Object>) i -> {
+                queries.incrementAndGet();
+                Object[] args = i.getArguments();
+                switch (i.getMethod().getName()) {
+                    case "getClazzById":
+                        return descriptions.containsKey(args[0]) ? clazz((Integer) args[0]) : null;
+                    case "getClazz":
+                        return clazz(Integer.parseInt(((String) args[0]).substring("test.Class".length())));
+                    case "getClazzAttrs":
+                    case "getInheritableClazzAttrs": {
+                        CmsClazzAttribute attr = new CmsClazzAttribute();
+                        attr.setAttributeName("attr" + args[0]);
+                        attr.setDescription(descriptions.get(args[0]));
+                        return new ArrayList<>(Collections.singletonList(attr));
+                    }
+                    case "getFromClazzRelations":
+                        return targets.stream().filter(t -> t.getFromClassId() == (Integer) args[0]).collect(Collectors.toList());
+                    case "getToClazzRelations":
+                        return targets.stream().filter(t -> t.getToClassId() == (Integer) args[0]).collect(Collectors.toList());
+                    case "updateClazz": {
+                        CmsClazz clazz = (CmsClazz) args[0];
+                        descriptions.put(clazz.getClassId(), clazz.getDescription());
+                        return 1;
+                    }
+                    default:
+                        return defaultAnswer(i.getMethod().getReturnType());
+                }
+            }));
+            mdProcessor.setRelationMapper(mock(RelationMapper.class, (Answer<Object>) i -> {
+                queries.incrementAndGet();
+                Object[] args = i.getArguments();
+                switch (i.getMethod().getName()) {
+                    case "getRelation":
+                        return relation(Integer.parseInt(((String) args[0]).substring("test.Relation".length())));
+                    case "getRelationById":
+                        return relation(((Long) args[0]).intValue());
+                    case "getTargets":
+                        return targets.stream().filter(t -> t.getRelationId() == (Integer) args[0]).collect(Collectors.toList());
+                    case "getAllTargets":
+                        return new ArrayList<>(targets);
+                    case "deleteRelationTarget":
+                        targets.removeIf(t -> t.getLinkId() == (Integer) args[0]);
+                        return null;
+                    case "addRelationTarget": {
+                        CmsClazzRelation target = (CmsClazzRelation) args[0];
+                        targets.add(target(target.getRelationId(), target.getFromClassId(), target.getToClassId()));
+                        return 1;
+                    }
+                    default:
+                        return defaultAnswer(i.getMethod().getReturnType());
+                }
+            }));
+            mdProcessor.setMdValidator(mdValidator);
+            mdProcessor.setUtilMapper(sessions.getMapper(UtilMapper.class));
+            mdProcessor.setCacheEnabled(true);
+            mdProcessor.initCache();
+
+            listener.setUrl(dataSource.getUrl());
+            listener.setUsername(dataSource.getUsername());
+            listener.setMdProcessor(mdProcessor);
+            listener.setPollIntervalMs(10);
+            listener.start();
+        }
+
+        void warm() {
+            for (int classId = 1; classId <= CLASSES; classId++) {
+                mdProcessor.getClazz(classId);
+            }
+            for (int relationId = 1; relationId <= RELATIONS; relationId++) {
+                mdProcessor.getRelation((long) relationId);
+                mdProcessor.getTargets(relationId);
+            }
+        }
+
+        private Map<Integer, CmsClazz> cached() {
+            Map<Integer, CmsClazz> cached = new ConcurrentHashMap<>();
+            for (int classId = 1; classId <= CLASSES; classId++) {
+                cached.put(classId, mdProcessor.getClazz(classId));
+            }
+            return cached;
+        }
+    }
+
+    private static CmsRelation relation(int relationId) {
+        CmsRelation relation = new CmsRelation();
+        relation.setRelationId(relationId);
+        relation.setRelationName("test.Relation" + relationId);
+        return relation;
+    }
+
+    private static Object defaultAnswer(Class<?> type) {
+        if (type == List.class) {
+            return new ArrayList<>();
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -305,6 +305,26 @@ public class CMSClient {
         return null;
     }
 
+    /**
+     * Reads the per work order records of a step in bulk, the returned context is then shared by
+     * the {@link #getWorkOrder(CmsDeployment, WorkOrderContext)} calls of the step.
+     *
+     * @param recList the deployment records of the step
+     * @return the context, an empty one if the prefetch failed
+     */
+    public WoAssemblyContext prefetchWorkOrders(List<CmsWorkOrderSimple> recList) {
+        WoAssemblyContext assemblyContext = new WoAssemblyContext();
+        long startTime = System.currentTimeMillis();
+        try {
+            cmsWoProvider.prefetch(assemblyContext, recList);
+            logger.info("Time taken to prefetch " + recList.size() + " wos - " + (System.currentTimeMillis() - startTime) + "ms");
+        } catch (Exception e) {
+            // the work orders are still assembled one by one
+            logger.error("Failed to prefetch " + recList.size() + " wos", e);
+        }
+        return assemblyContext;
+    }
+
     public CmsWorkOrderSimple getWorkOrder(CmsDeployment dpmt, WorkOrderContext woContext) {
         CmsWorkOrderSimple dpmtRec = woContext.getWoSimple();
         int execOrder = woContext.getExecOrder();
@@ -312,7 +332,8 @@ public class CMSClient {
         long startTime = System.currentTimeMillis();
         try {
 
-            CmsWorkOrderSimple wo  = cmsWoProvider.getWorkOrderSimple(dpmtRec.getDpmtRecordId(), null, execOrder);
+            WoAssemblyContext assemblyContext = woContext.getAssemblyContext() != null ? woContext.getAssemblyContext() : new WoAssemblyContext();
+            CmsWorkOrderSimple wo  = cmsWoProvider.getWorkOrderSimple(dpmtRec.getDpmtRecordId(), null, execOrder, assemblyContext);
             final long woCreationtime = System.currentTimeMillis() - startTime;
             wo.getSearchTags().put("woCrtTime",String.valueOf(woCreationtime));
             wo.getSearchTags().put(CmsConstants.DEPLOYMENT_MODEL, CmsConstants.DEPLOYMENT_MODEL_DEPLOYER);
@@ -67,12 +67,17 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.springframework.beans.BeanUtils;
 
 
 /**
@@ -87,6 +92,7 @@ public class CmsWoProvider {
     private static final String IS_PLATFORM_ENABLED_REL_ATTR = "enabled";
     private static final String EXTRA_RUNLIST_PAYLOAD_NAME = "ExtraRunList";
     private static final boolean OFFERING_ENABLED = "true".equals(System.getProperty("controller.offerings.on", "true"));
+    private static final int PREFETCH_CHUNK_SIZE = 100;
     private DJDpmtMapper dpmtMapper;
     private OpsMapper opsMapper;
     private CmsCmRfcMrgProcessor cmrfcProcessor;
@@ -199,7 +205,7 @@ public class CmsWoProvider {
                 CmsCI ci = cmProcessor.getCiById(ao.getCiId());
                 ao.setCi(ci);
             });
-            populateWoBase(aorders);
+            populateWoBase(aorders, new WoAssemblyContext());
             // this is a special case for the cloud.Service usecase
             actionOrders = aorders.stream().
                 filter(ao -> !isCloudServiceAction(ao)).collect(Collectors.toList());
@@ -208,7 +214,7 @@ public class CmsWoProvider {
 
 
             if (!actionOrders.isEmpty()) {
-              List<CmsCI> envs = Collections.singletonList(getEnvAndPopulatePlatEnable(actionOrders.get(0).getBox()));
+              List<CmsCI> envs = Collections.singletonList(getEnvAndPopulatePlatEnable(actionOrders.get(0).getBox(), new WoAssemblyContext()));
               actionOrders.forEach(ao -> ao.putPayLoadEntry("Environment", envs));
             }
           actionOrders.addAll(cloudServiceOrders);
@@ -387,8 +393,15 @@ public class CmsWoProvider {
     }
 
     public CmsWorkOrderSimple getWorkOrderSimple(long dpmtRecordId, String state, Integer execOrder) {
+        return getWorkOrderSimple(dpmtRecordId, state, execOrder, new WoAssemblyContext());
+    }
+
+    /**
+     * Assembles a work order of a deployment step, see {@link #getWorkOrder(long, String, Integer, WoAssemblyContext)}.
+     */
+    public CmsWorkOrderSimple getWorkOrderSimple(long dpmtRecordId, String state, Integer execOrder, WoAssemblyContext ctx) {
         checkControllerCache();
-        CmsWorkOrder wo = getWorkOrder(dpmtRecordId, state, execOrder);
+        CmsWorkOrder wo = getWorkOrder(dpmtRecordId, state, execOrder, ctx);
         CmsWorkOrderSimple returnObj = null;
         if (wo != null) {
             return cmsUtil.custWorkOrder2Simple(wo);
@@ -404,6 +417,21 @@ public class CmsWoProvider {
 	}
 
     public CmsWorkOrder getWorkOrder(long dpmtRecordId, String state, Integer execOrder) {
+        return getWorkOrder(dpmtRecordId, state, execOrder, new WoAssemblyContext());
+    }
+
+    /**
+     * Assembles a work order. The environment, cloud and platform level lookups are taken from
+     * the context, shared by the work orders of the deployment step, so they are read once per
+     * step instead of once per work order.
+     *
+     * @param dpmtRecordId the deployment record id
+     * @param state        the deployment record state
+     * @param execOrder    the step
+     * @param ctx          lookups of the step, prefetched with {@link #prefetch(WoAssemblyContext, List)}
+     * @return the work order, null if there is no such record
+     */
+    public CmsWorkOrder getWorkOrder(long dpmtRecordId, String state, Integer execOrder, WoAssemblyContext ctx) {
 
         CmsWorkOrder workOrder = dpmtMapper.getWorkOrder(dpmtRecordId, state, execOrder);
 
@@ -411,39 +439,43 @@ public class CmsWoProvider {
             return null;
         }
 
-        CmsRfcCI rfcNaked = djMapper.getRfcCIById(workOrder.getRfcId());
-        CmsRfcCI rfcCimerged = cmrfcProcessor.getCiById(rfcNaked.getCiId(), "df");
+        CmsRfcCI rfcNaked = ctx.take("rfc:" + workOrder.getRfcId(), () -> djMapper.getRfcCIById(workOrder.getRfcId()));
+        CmsRfcCI rfcCimerged = ctx.take("ci:" + rfcNaked.getCiId(), () -> cmrfcProcessor.getCiById(rfcNaked.getCiId(), "df"));
 
         workOrder.setRfcCi(rfcCimerged);
-        populateWoBase(workOrder);
+        populateWoBase(workOrder, ctx);
 
 
-        Map<Long, CmsCI> manifestToTemplateMap = new HashMap<>();
+        Map<Long, CmsCI> manifestToTemplateMap = ctx.get("templates", ConcurrentHashMap::new);
 
-        CmsCI env = getEnvAndPopulatePlatEnable(workOrder.getBox());
+        CmsCI env = getEnvAndPopulatePlatEnable(workOrder.getBox(), ctx);
+        CmsCI cloud = workOrder.getCloud();
+        CmsCI box = workOrder.getBox();
 
-        Map<String, String> globalVars = cmsUtil.getGlobalVars(env);
-        Map<String, String> cloudVars = cmsUtil.getCloudVars(workOrder.getCloud());
-        Map<String, String> localVars = cmsUtil.getLocalVars(workOrder.getBox());
+        Map<String, String> globalVars = ctx.get("globalVars:" + ciId(env), () -> cmsUtil.getGlobalVars(env));
+        Map<String, String> cloudVars = ctx.get("cloudVars:" + ciId(cloud), () -> cmsUtil.getCloudVars(cloud));
+        Map<String, String> localVars = ctx.get("localVars:" + ciId(box), () -> cmsUtil.getLocalVars(box));
 
-        workOrder.putPayLoadEntry(CmsUtil.CLOUD_VARS_PAYLOAD_NAME, cmsUtil.getCloudVarsRfcs(workOrder.getCloud()));
-        workOrder.putPayLoadEntry(CmsUtil.GLOBAL_VARS_PAYLOAD_NAME, cmsUtil.getGlobalVarsRfcs(env));
-        workOrder.putPayLoadEntry(CmsUtil.LOCAL_VARS_PAYLOAD_NAME, cmsUtil.getLocalVarsRfcs(workOrder.getBox()));
+        workOrder.putPayLoadEntry(CmsUtil.CLOUD_VARS_PAYLOAD_NAME, shared(ctx.get("cloudVarsRfcs:" + ciId(cloud), () -> cmsUtil.getCloudVarsRfcs(cloud))));
+        workOrder.putPayLoadEntry(CmsUtil.GLOBAL_VARS_PAYLOAD_NAME, shared(ctx.get("globalVarsRfcs:" + ciId(env), () -> cmsUtil.getGlobalVarsRfcs(env))));
+        workOrder.putPayLoadEntry(CmsUtil.LOCAL_VARS_PAYLOAD_NAME, shared(ctx.get("localVarsRfcs:" + ciId(box), () -> cmsUtil.getLocalVarsRfcs(box))));
 
         //basic staff
         //put realized as
-        workOrder.putPayLoadEntry("RealizedAs", getRfcCIRelatives(workOrder.getRfcCi(), "base.RealizedAs", "to", null, "df"));
+        workOrder.putPayLoadEntry("RealizedAs", getRfcCIRelatives(workOrder.getRfcCi().getCiId(), "base.RealizedAs", "to", ctx));
 
         //put env
-        List<CmsRfcCI> envs = getRfcCIRelatives(workOrder.getBox().getCiId(), "manifest.ComposedOf", "to", null, "df");
+        List<CmsRfcCI> envs = shared(ctx.get("envRfcs:" + box.getCiId(), () -> getRfcCIRelatives(box.getCiId(), "manifest.ComposedOf", "to", null, "df")));
         workOrder.putPayLoadEntry("Environment", envs);
 
         //put assembly
-        List<CmsRfcCI> assemblys = getRfcCIRelatives(workOrder.getPayLoad().get("Environment").get(0), "base.RealizedIn", "to", null, "df");
+        long envId = workOrder.getPayLoad().get("Environment").get(0).getCiId();
+        List<CmsRfcCI> assemblys = shared(ctx.get("assembly:" + envId, () -> getRfcCIRelatives(envId, "base.RealizedIn", "to", null, "df")));
         workOrder.putPayLoadEntry("Assembly", assemblys);
 
         //put Organization
-        List<CmsRfcCI> orgs = getRfcCIRelatives(workOrder.getPayLoad().get("Assembly").get(0), "base.Manages", "to", null, "df");
+        long assemblyId = workOrder.getPayLoad().get("Assembly").get(0).getCiId();
+        List<CmsRfcCI> orgs = shared(ctx.get("org:" + assemblyId, () -> getRfcCIRelatives(assemblyId, "base.Manages", "to", null, "df")));
         workOrder.putPayLoadEntry("Organization", orgs);
 
         //put watchedBy and loggedBy
@@ -455,32 +487,32 @@ public class CmsWoProvider {
 
         // now lets process the custom payloads and this will override the default ones as well
 
-        processCustomPayloads(workOrder, manifestToTemplateMap, env, globalVars, localVars, cloudVars);
+        processCustomPayloads(workOrder, manifestToTemplateMap, env, globalVars, localVars, cloudVars, ctx);
         //from here all payloads are default ones unless overriden by the custom payload definitions
         //put depends on
         if (!workOrder.getPayLoad().containsKey(DEPENDS_ON)) {
-            workOrder.putPayLoadEntry(DEPENDS_ON, getRfcCIRelatives(workOrder.getRfcCi(), "bom.DependsOn", "from", null, "df"));
+            workOrder.putPayLoadEntry(DEPENDS_ON, getRfcCIRelatives(workOrder.getRfcCi().getCiId(), "bom.DependsOn", "from", ctx));
         }
 
         //put Entrypoint
         if (!workOrder.getPayLoad().containsKey(ENTRYPOINT)) {
-            workOrder.putPayLoadEntry(ENTRYPOINT, getRfcCIRelatives(workOrder.getRfcCi(), "base.Entrypoint", "to", null, "df"));
+            workOrder.putPayLoadEntry(ENTRYPOINT, getRfcCIRelatives(workOrder.getRfcCi().getCiId(), "base.Entrypoint", "to", ctx));
         }
         //put mgmt key pairs
         if (!workOrder.getPayLoad().containsKey(SECURED_BY)) {
-            workOrder.putPayLoadEntry(SECURED_BY, getKeyPairsRfc(workOrder.getRfcCi(), workOrder.getPayLoad().get("ManagedVia")));
+            workOrder.putPayLoadEntry(SECURED_BY, getKeyPairsRfc(workOrder.getRfcCi(), workOrder.getPayLoad().get("ManagedVia"), ctx));
         }
         //put serviecedBy
         if (!workOrder.getPayLoad().containsKey(SERVICED_BY)) {
-            workOrder.putPayLoadEntry(SERVICED_BY, getServicedBy(workOrder.getRfcCi()));
+            workOrder.putPayLoadEntry(SERVICED_BY, shared(ctx.get("servicedBy:" + box.getCiId(), () -> getServicedBy(box))));
         }
         //put RequiresComputes
         if (!workOrder.getPayLoad().containsKey(REQUIRES_COMPUTES_PAYLOAD_NAME)) {
-            workOrder.putPayLoadEntry(REQUIRES_COMPUTES_PAYLOAD_NAME, getRequiresComputes(workOrder.getRfcCi()));
+            workOrder.putPayLoadEntry(REQUIRES_COMPUTES_PAYLOAD_NAME, shared(ctx.get("requiresComputes:" + box.getCiId(), () -> getRequiresComputes(box))));
         }
 
         //add the managed-via ci's compute cloud service and then read env_vars of that cloud-service. set those env_vars to wo.config
-        setEnvVars(workOrder, workOrder.getPayLoad().get(MANAGED_VIA));
+        setEnvVars(workOrder, workOrder.getPayLoad().get(MANAGED_VIA), ctx);
 	
         //fetch and update offerings
         List<CmsRfcCI> offerings = new ArrayList<>();
@@ -495,14 +527,71 @@ public class CmsWoProvider {
         workOrder.putPayLoadEntry(OFFERING, offerings);
 
         //add matching compliance objects
-        workOrder.putPayLoadEntry(EXTRA_RUNLIST_PAYLOAD_NAME, getMatchingCloudCompliance(workOrder));
+        workOrder.putPayLoadEntry(EXTRA_RUNLIST_PAYLOAD_NAME, getMatchingCloudCompliance(workOrder, ctx));
 
-        addVarsForConfig(workOrder);
+        addVarsForConfig(workOrder, ctx);
         return workOrder;
     }
 
+    /**
+     * Reads the per work order records and relations of the deployment step in bulk, with IN-list
+     * queries, into the context the work orders are then assembled with.
+     *
+     * @param ctx the context of the step
+     * @param wos the deployment records of the step
+     */
+    public void prefetch(WoAssemblyContext ctx, List<CmsWorkOrderSimple> wos) {
+        List<Long> rfcIds = wos.stream().map(CmsWorkOrderSimple::getRfcId).distinct().collect(Collectors.toList());
+        List<Long> ciIds = new ArrayList<>();
+        for (int i = 0; i < rfcIds.size(); i += PREFETCH_CHUNK_SIZE) {
+            for (CmsRfcCI rfc : djMapper.getRfcCIByIdList(rfcIds.subList(i, Math.min(i + PREFETCH_CHUNK_SIZE, rfcIds.size())))) {
+                ctx.put("rfc:" + rfc.getRfcId(), rfc);
+                ciIds.add(rfc.getCiId());
+            }
+        }
+        if (ciIds.isEmpty()) {
+            return;
+        }
+        for (CmsRfcCI ci : cmrfcProcessor.getCiByIdList(ciIds, "df")) {
+            ctx.put("ci:" + ci.getCiId(), ci);
+        }
+        Map<Long, List<CmsRfcRelation>> realizedAs = prefetchRelatives(ctx, ciIds, "base.RealizedAs", "to");
+        realizedAs.forEach((ciId, rels) -> ctx.put("realizedAs:" + ciId, rels));
+        cmrfcProcessor.getFromCIRelationsNakedByFromCiIds(ciIds, "base.DeployedTo", "account.Cloud", false)
+                .forEach((ciId, rels) -> ctx.put("deployedTo:" + ciId, rels));
+        prefetchRelatives(ctx, ciIds, "bom.ManagedVia", "from");
+        prefetchRelatives(ctx, ciIds, "bom.DependsOn", "from");
+        prefetchRelatives(ctx, ciIds, "base.Entrypoint", "to");
+    }
+
+    private Map<Long, List<CmsRfcRelation>> prefetchRelatives(WoAssemblyContext ctx, List<Long> ciIds, String relName, String direction) {
+        boolean from = "from".equalsIgnoreCase(direction);
+        Map<Long, List<CmsRfcRelation>> rels = from
+                ? cmrfcProcessor.getFromCIRelationsNakedByFromCiIds(ciIds, relName, null, true)
+                : cmrfcProcessor.getToCIRelationsNakedByToCiIds(ciIds, relName, null, true);
+        Set<Long> relativeIds = new LinkedHashSet<>();
+        rels.values().forEach(list -> list.forEach(rel -> relativeIds.add(from ? rel.getToCiId() : rel.getFromCiId())));
+        Map<Long, CmsRfcCI> relatives = new HashMap<>();
+        if (!relativeIds.isEmpty()) {
+            for (CmsRfcCI ci : cmrfcProcessor.getCiByIdList(new ArrayList<>(relativeIds), "df")) {
+                relatives.put(ci.getCiId(), ci);
+            }
+        }
+        rels.forEach((ciId, list) -> ctx.put(relativesKey(ciId, relName, direction), list.stream()
+                .map(rel -> relatives.get(from ? rel.getToCiId() : rel.getFromCiId()))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())));
+        return rels;
+    }
+
     protected void processCustomPayloads(CmsWorkOrder workOrder, Map<Long, CmsCI> manifestToTemplateMap, CmsCI env,
                                          Map<String, String> globalVars, Map<String, String> localVars, Map<String, String> cloudVars) {
+        processCustomPayloads(workOrder, manifestToTemplateMap, env, globalVars, localVars, cloudVars, new WoAssemblyContext());
+    }
+
+    private void processCustomPayloads(CmsWorkOrder workOrder, Map<Long, CmsCI> manifestToTemplateMap, CmsCI env,
+                                       Map<String, String> globalVars, Map<String, String> localVars, Map<String, String> cloudVars,
+                                       WoAssemblyContext ctx) {
         //lets get the payload def from the template
         long manifestCiId = workOrder.getPayLoad().get("RealizedAs").get(0).getCiId();
         if (!manifestToTemplateMap.containsKey(manifestCiId)) {
@@ -515,8 +604,7 @@ public class CmsWoProvider {
             }
         }
 
-        List<CmsRfcCI> managedVia = getRfcCIRelatives(workOrder.getRfcCi(), "bom.ManagedVia",
-                "from", null, "df");
+        List<CmsRfcCI> managedVia = getRfcCIRelatives(workOrder.getRfcCi().getCiId(), "bom.ManagedVia", "from", ctx);
 
         if (!manifestToTemplateMap.containsKey(manifestCiId)) {
             //throw new DJException(CmsError.CMS_CANT_FIGURE_OUT_TEMPLATE_FOR_MANIFEST_ERROR,
@@ -530,17 +618,19 @@ public class CmsWoProvider {
             if (managedVia != null && managedVia.size() > 0) {
                 CmsRfcCI managedViaEntity = managedVia.get(0);
                 managedViaBomCid = managedViaEntity.getCiId();
-                CmsCI managedViaManifestCi = new CmsCI();
-                long managedViaManifestCiId = getRealizedAs(managedViaEntity.getCiId());
-                managedViaManifestCi.setCiId(managedViaManifestCiId);
-                managedViaManifestCi.setCiClassName(managedViaEntity.getCiClassName().replace("bom.", "manifest."));
-
-                managedViaTemplateCi = cmProcessor.getTemplateObjForManifestObj(managedViaManifestCi, env);
-                if (managedViaTemplateCi == null) {
-                    logger.warn("template ci not found for ci id: " +  managedViaManifestCi.getCiId());
-                }
+                long managedViaManifestCiId = ctx.get("cmRealizedAs:" + managedViaBomCid, () -> getRealizedAs(managedViaEntity.getCiId()));
+                managedViaTemplateCi = ctx.get("managedViaTemplate:" + managedViaManifestCiId, () -> {
+                    CmsCI managedViaManifestCi = new CmsCI();
+                    managedViaManifestCi.setCiId(managedViaManifestCiId);
+                    managedViaManifestCi.setCiClassName(managedViaEntity.getCiClassName().replace("bom.", "manifest."));
+                    CmsCI templateCi = cmProcessor.getTemplateObjForManifestObj(managedViaManifestCi, env);
+                    if (templateCi == null) {
+                        logger.warn("template ci not found for ci id: " +  managedViaManifestCi.getCiId());
+                    }
+                    return templateCi;
+                });
             }
-            processPayLoadDef(workOrder, manifestToTemplateMap.get(manifestCiId), managedViaTemplateCi, managedViaBomCid, cloudVars, globalVars, localVars);
+            processPayLoadDef(workOrder, manifestToTemplateMap.get(manifestCiId), managedViaTemplateCi, managedViaBomCid, cloudVars, globalVars, localVars, ctx);
         }
 
         //put proxy
@@ -549,11 +639,11 @@ public class CmsWoProvider {
         }
     }
 
-    private void setEnvVars(CmsWorkOrder workOrder, List<CmsRfcCI> managedVia) {
+    private void setEnvVars(CmsWorkOrder workOrder, List<CmsRfcCI> managedVia, WoAssemblyContext ctx) {
         if (managedVia != null && managedVia.size() > 0) {
             long managedViaCiId = managedVia.get(0).getCiId();
             if (managedViaCiId > 0) {
-                Map<String, Map<String, CmsCI>> cloudServices = getServices(managedViaCiId, workOrder.getCloud());
+                Map<String, Map<String, CmsCI>> cloudServices = getServices(managedViaCiId, workOrder.getCloud(), ctx);
                 Map<String, CmsCI> cloudService = cloudServices.get("compute");
                 if (cloudService != null) {
                     CmsCI cloudServiceCi = cloudService.get(workOrder.getCloud().getCiName());
@@ -573,9 +663,10 @@ public class CmsWoProvider {
         }
     }
 
-    private void addVarsForConfig(CmsWorkOrder workOrder) {
+    private void addVarsForConfig(CmsWorkOrder workOrder, WoAssemblyContext ctx) {
         String clazz = cmsUtil.getShortClazzName(workOrder.getRfcCi().getCiClassName());
-        List<CmsVar> vars = cmProcessor.getCmVarByLongestMatchingCriteria(clazz + ".%", workOrder.getRfcCi().getNsPath());
+        String nsPath = workOrder.getRfcCi().getNsPath();
+        List<CmsVar> vars = ctx.get("cmVars:" + clazz + ":" + nsPath, () -> cmProcessor.getCmVarByLongestMatchingCriteria(clazz + ".%", nsPath));
         if (vars != null && !vars.isEmpty()) {
             Map<String, String> varMap = vars.stream().collect(Collectors.toMap(var -> {
                     return StringUtils.substringAfter(var.getName(), clazz + ".");
@@ -620,13 +711,17 @@ public class CmsWoProvider {
     }
 
     List<CmsRfcCI> getMatchingCloudCompliance(CmsWorkOrder wo) {
+        return getMatchingCloudCompliance(wo, new WoAssemblyContext());
+    }
+
+    private List<CmsRfcCI> getMatchingCloudCompliance(CmsWorkOrder wo, WoAssemblyContext ctx) {
         CmsCI platformCi = wo.getBox();
         CmsCIAttribute autoComplyAttr = platformCi.getAttribute(ATTR_NAME_AUTO_COMPLY);
         if (!Boolean.valueOf(autoComplyAttr.getDfValue())) {
             return Collections.emptyList();
         }
 
-        List<CmsCIRelation> complianceRelations = getComplianceRelations(wo);
+        List<CmsCIRelation> complianceRelations = ctx.get("compliance:" + wo.getCloud().getCiId(), () -> getComplianceRelations(wo));
         List<CmsRfcCI> list = complianceRelations.stream()
                 .map(complianceRel -> complianceRel.getToCi())
                 .filter(complianceCi -> (isComplianceEnabled(complianceCi)) && expressionEvaluator.isExpressionMatching(complianceCi, wo))
@@ -657,9 +752,15 @@ public class CmsWoProvider {
 
     private void processPayLoadDef(CmsWorkOrderBase wo, CmsCI templateCi, CmsCI managedViaTemplateCi,
                                    long managedViaBomCid, Map<String, String> cloudVars, Map<String, String> globalVars, Map<String, String> localVars) {
+        processPayLoadDef(wo, templateCi, managedViaTemplateCi, managedViaBomCid, cloudVars, globalVars, localVars, new WoAssemblyContext());
+    }
 
-        List<CmsCIRelation> payloadRels = cmProcessor.getFromCIRelations(templateCi.getCiId(),
-                "mgmt.manifest.Payload", "mgmt.manifest.Qpath");
+    private void processPayLoadDef(CmsWorkOrderBase wo, CmsCI templateCi, CmsCI managedViaTemplateCi,
+                                   long managedViaBomCid, Map<String, String> cloudVars, Map<String, String> globalVars, Map<String, String> localVars,
+                                   WoAssemblyContext ctx) {
+
+        List<CmsCIRelation> payloadRels = ctx.get("payloadRels:" + templateCi.getCiId(), () -> cmProcessor.getFromCIRelations(templateCi.getCiId(),
+                "mgmt.manifest.Payload", "mgmt.manifest.Qpath"));
         long anchorId = 0;
         if (wo instanceof CmsWorkOrder) {
             anchorId = ((CmsWorkOrder) wo).getRfcCi().getCiId();
@@ -669,8 +770,8 @@ public class CmsWoProvider {
         populatePayloads(wo, payloadRels, anchorId, cloudVars, globalVars, localVars, true);
 
         if (managedViaTemplateCi != null) {
-            List<CmsCIRelation> managedViasPayloadRels = cmProcessor.getFromCIRelations(managedViaTemplateCi.getCiId(),
-                    "mgmt.manifest.Payload", "mgmt.manifest.Qpath");
+            List<CmsCIRelation> managedViasPayloadRels = ctx.get("payloadRels:" + managedViaTemplateCi.getCiId(), () -> cmProcessor.getFromCIRelations(managedViaTemplateCi.getCiId(),
+                    "mgmt.manifest.Payload", "mgmt.manifest.Qpath"));
             populatePayloads(wo, managedViasPayloadRels, managedViaBomCid, cloudVars, globalVars, localVars, false);
         } else {
             logger.info("managedViaTemplateCi null for : " + templateCi.getCiClassName());
@@ -736,13 +837,13 @@ public class CmsWoProvider {
     }
 
 
-    private void populateWoBase(List<? extends CmsWorkOrderBase> wos) {
+    private void populateWoBase(List<? extends CmsWorkOrderBase> wos, WoAssemblyContext ctx) {
         for (CmsWorkOrderBase wo : wos) {
-            populateWoBase(wo);
+            populateWoBase(wo, ctx);
         }
     }
 
-    private void populateWoBase(CmsWorkOrderBase wo) {
+    private void populateWoBase(CmsWorkOrderBase wo, WoAssemblyContext ctx) {
         long anchorCiId = 0;
         String targetClassName = null;
         if (wo instanceof CmsWorkOrder) {
@@ -758,22 +859,30 @@ public class CmsWoProvider {
         if (targetClassName != null && targetClassName.startsWith(CLOUDSERVICEPREFIX)) {
             wo.setCloud(getCloudForCloudService(anchorCiId));
         } else {
-            wo.setBox(getBox(anchorCiId));
-            wo.setCloud(getCloud(anchorCiId,wo.getBox()));
-            wo.setServices(getServices(anchorCiId, wo.getCloud()));
+            wo.setBox(getBox(anchorCiId, ctx));
+            wo.setCloud(getCloud(anchorCiId, wo.getBox(), ctx));
+            wo.setServices(getServices(anchorCiId, wo.getCloud(), ctx));
         }
     }
 
 
-    private Map<String, Map<String, CmsCI>> getServices(long ciId, CmsCI cloud) {
+    private Map<String, Map<String, CmsCI>> getServices(long ciId, CmsCI cloud, WoAssemblyContext ctx) {
+        List<CmsRfcRelation> realizedAsRels = getRealizedAsRels(ciId, ctx);
+        if (realizedAsRels.size() > 0) {
+            long manifestCiId = realizedAsRels.get(0).getFromCiId();
+            return ctx.get("services:" + manifestCiId + ":" + cloud.getCiId(), () -> getServices(manifestCiId, cloud, realizedAsRels, ctx));
+        }
+        return getServices(ciId, cloud, realizedAsRels, ctx);
+    }
+
+    private Map<String, Map<String, CmsCI>> getServices(long ciId, CmsCI cloud, List<CmsRfcRelation> realizedAsRels, WoAssemblyContext ctx) {
 
         Map<String, Map<String, CmsCI>> services = new HashMap<>();
-        List<CmsRfcRelation> realizedAsRels = cmrfcProcessor.getToCIRelationsNaked(ciId, "base.RealizedAs", null, null);
-        List<CmsCI> zones = cmProcessor.getCiBy3NsLike(getCloudNsPath(cloud), ZONE_CLASS, null);
+        List<CmsCI> zones = ctx.get("zones:" + cloud.getCiId(), () -> cmProcessor.getCiBy3NsLike(getCloudNsPath(cloud), ZONE_CLASS, null));
 
         if (realizedAsRels.size() > 0) {
             CmsRfcRelation realizedRel = realizedAsRels.get(0);
-            List<CmsCIRelation> requiresList = cmProcessor.getToCIRelationsNaked(realizedRel.getFromCiId(), "manifest.Requires", null);
+            List<CmsCIRelation> requiresList = ctx.get("requires:" + realizedRel.getFromCiId(), () -> cmProcessor.getToCIRelationsNaked(realizedRel.getFromCiId(), "manifest.Requires", null));
             if (requiresList.size() > 0) {
                 CmsCIRelation requiresRel = requiresList.get(0);
                 CmsCIRelationAttribute servicesAttr = requiresRel.getAttribute("services");
@@ -795,12 +904,12 @@ public class CmsWoProvider {
                         attrsQuery.add(attrCondition);
 
                         //get cloud level service
-                        List<CmsCIRelation> cloudServiceRels = getServiceRelations(cloud, attrsQuery);
+                        List<CmsCIRelation> cloudServiceRels = ctx.get("serviceRels:" + cloud.getCiId() + ":" + requredService, () -> getServiceRelations(cloud, attrsQuery));
                         addToServices(services, requredService, cloud.getCiName(), cloudServiceRels);
 
                         //get zone level service
                         for (CmsCI zone : zones) {
-                            List<CmsCIRelation> zoneServiceRels = getServiceRelations(zone, attrsQuery);
+                            List<CmsCIRelation> zoneServiceRels = ctx.get("serviceRels:" + zone.getCiId() + ":" + requredService, () -> getServiceRelations(zone, attrsQuery));
                             addToServices(services, requredService, cloud.getCiName() + "/" + zone.getCiName(), zoneServiceRels);
                         }
                     }
@@ -836,24 +945,29 @@ public class CmsWoProvider {
         }
     }
 
-    private CmsCI getBox(long ciId) {
+    private CmsCI getBox(long ciId, WoAssemblyContext ctx) {
 
         CmsCI box = null;
-        List<CmsRfcRelation> realizedAsRels = cmrfcProcessor.getToCIRelationsNakedNoAttrs(ciId, "base.RealizedAs", null, null);
+        List<CmsRfcRelation> realizedAsRels = getRealizedAsRels(ciId, ctx);
         if (realizedAsRels.size() > 0) {
-            List<CmsCIRelation> boxList = cmProcessor.getToCIRelations(realizedAsRels.get(0).getFromCiId(), "manifest.Requires", null);
-            if (boxList.size() > 0) {
-                box = boxList.get(0).getFromCi();
-            }
+            long manifestCiId = realizedAsRels.get(0).getFromCiId();
+            // platform enabled attribute is added to the box later on, each work order gets its own copy
+            box = copy(ctx.get("box:" + manifestCiId, () -> {
+                List<CmsCIRelation> boxList = cmProcessor.getToCIRelations(manifestCiId, "manifest.Requires", null);
+                return boxList.size() > 0 ? boxList.get(0).getFromCi() : null;
+            }));
         }
 
         return box;
     }
 
-    private List<CmsRfcCI> getRequiresComputes(CmsRfcCI rfc) {
+    private List<CmsRfcRelation> getRealizedAsRels(long ciId, WoAssemblyContext ctx) {
+        return ctx.get("realizedAs:" + ciId, () -> cmrfcProcessor.getToCIRelationsNaked(ciId, "base.RealizedAs", null, null));
+    }
+
+    private List<CmsRfcCI> getRequiresComputes(CmsCI platform) {
 
         List<CmsRfcCI> computes = new ArrayList<>();
-        CmsCI platform = getBox(rfc.getCiId());
 
         List<CmsCIRelation> manifestComputeList = cmProcessor.getFromCIRelationsNakedNoAttrs(platform.getCiId(), "manifest.Requires", null, "Compute");
 
@@ -867,12 +981,10 @@ public class CmsWoProvider {
     }
 
 
-    private List<CmsRfcCI> getServicedBy(CmsRfcCI rfc) {
+    private List<CmsRfcCI> getServicedBy(CmsCI box) {
 
         List<CmsRfcCI> iaases = new ArrayList<>();
 
-        CmsCI box = getBox(rfc.getCiId());
-
         List<CmsCIRelation> iaasList = cmProcessor.getFromCIRelations(box.getCiId(), "manifest.ServicedBy", "manifest.Iaas");
         for (CmsCIRelation rel : iaasList) {
             CmsRfcCI iaas = rfcUtil.mergeRfcAndCi(null, rel.getToCi(), "dj");
@@ -930,12 +1042,13 @@ public class CmsWoProvider {
 
 
 
-    private List<CmsRfcCI> getKeyPairsRfc(CmsRfcCI rfc, List<CmsRfcCI> managedVia) {
+    private List<CmsRfcCI> getKeyPairsRfc(CmsRfcCI rfc, List<CmsRfcCI> managedVia, WoAssemblyContext ctx) {
 
         List<CmsRfcCI> keys = new ArrayList<>();
         List<CmsRfcRelation> secRels = null;
         if (managedVia != null && managedVia.size() > 0) {
-            secRels = cmrfcProcessor.getFromCIRelations(managedVia.get(0).getCiId(), "bom.SecuredBy", null, "df");
+            long managedViaCiId = managedVia.get(0).getCiId();
+            secRels = ctx.get("securedBy:" + managedViaCiId, () -> cmrfcProcessor.getFromCIRelations(managedViaCiId, "bom.SecuredBy", null, "df"));
         } else {
             secRels = cmrfcProcessor.getFromCIRelations(rfc.getCiId(), "bom.SecuredBy", null, "df");
         }
@@ -960,9 +1073,9 @@ public class CmsWoProvider {
         return keys;
     }
 
-    private CmsCI getEnvAndPopulatePlatEnable(CmsCI box) {
+    private CmsCI getEnvAndPopulatePlatEnable(CmsCI box, WoAssemblyContext ctx) {
         if (box != null) {
-            List<CmsCIRelation> envRels = cmProcessor.getToCIRelations(box.getCiId(), "manifest.ComposedOf", "manifest.Environment");
+            List<CmsCIRelation> envRels = ctx.get("composedOf:" + box.getCiId(), () -> cmProcessor.getToCIRelations(box.getCiId(), "manifest.ComposedOf", "manifest.Environment"));
             if (envRels.size() > 0) {
                 CmsCIRelation composedOf = envRels.get(0);
                 if (composedOf.getAttribute(IS_PLATFORM_ENABLED_REL_ATTR) != null) {
@@ -978,8 +1091,15 @@ public class CmsWoProvider {
         return null;
     }
 
-    private List<CmsRfcCI> getRfcCIRelatives(CmsRfcCI rfc, String relName, String direction, String className, String attrValue) {
-        return getRfcCIRelatives(rfc.getCiId(), relName, direction, className, attrValue);
+    /**
+     * The "df" relatives of a work order ci, prefetched for the step or read on the first use.
+     */
+    private List<CmsRfcCI> getRfcCIRelatives(long ciId, String relName, String direction, WoAssemblyContext ctx) {
+        return ctx.take(relativesKey(ciId, relName, direction), () -> getRfcCIRelatives(ciId, relName, direction, null, "df"));
+    }
+
+    private static String relativesKey(long ciId, String relName, String direction) {
+        return "relatives:" + relName + ":" + direction + ":" + ciId;
     }
 
     List<CmsRfcCI> getRfcCIRelatives(long ciId, String relName, String direction, String className, String attrValue) {
@@ -1016,15 +1136,18 @@ public class CmsWoProvider {
     }
 
 
-    private CmsCI getCloud(long ciId, CmsCI box) {
-        List<CmsRfcRelation> cloudRels = cmrfcProcessor.getFromCIRelationsNakedNoAttrs(ciId, "base.DeployedTo", null, "account.Cloud");
+    private CmsCI getCloud(long ciId, CmsCI box, WoAssemblyContext ctx) {
+        List<CmsRfcRelation> cloudRels = ctx.get("deployedTo:" + ciId, () -> cmrfcProcessor.getFromCIRelationsNakedNoAttrs(ciId, "base.DeployedTo", null, "account.Cloud"));
         //Add other attributes as CI attributes for work order, viz deploymentOrder, percentage
 
         if (cloudRels.size() > 0) {
-            CmsCI cloud = cmProcessor.getCiById(cloudRels.get(0).getToCiId());
+            long cloudId = cloudRels.get(0).getToCiId();
+            // the attributes below differ by work order, each gets its own copy of the cloud
+            CmsCI cloud = copy(ctx.get("cloud:" + cloudId, () -> cmProcessor.getCiById(cloudId)));
             //Get Clouds from
-          List<CmsCIRelation> platformCloudRels = cmProcessor.getFromCIRelationsByToCiIds(box.getCiId(), "base.Consumes", null,Collections.singletonList(cloud.getCiId()));
-          List<CmsRfcRelation> realizedAsRels = cmrfcProcessor.getToCIRelationsNaked(ciId, "base.RealizedAs", null, null);
+          List<CmsCIRelation> platformCloudRels = ctx.get("consumes:" + box.getCiId() + ":" + cloud.getCiId(),
+              () -> cmProcessor.getFromCIRelationsByToCiIds(box.getCiId(), "base.Consumes", null,Collections.singletonList(cloud.getCiId())));
+          List<CmsRfcRelation> realizedAsRels = getRealizedAsRels(ciId, ctx);
             if (realizedAsRels.size() > 0 && realizedAsRels.get(0).getAttribute("priority") != null) {
                 String priority = realizedAsRels.get(0).getAttribute("priority").getNewValue();
                 CmsCIAttribute prAttr = new CmsCIAttribute();
@@ -1056,6 +1179,57 @@ public class CmsWoProvider {
         return null;
     }
 
+    /**
+     * Copy of a ci shared by the work orders of the step, with copies of its attributes.
+     */
+    private static CmsCI copy(CmsCI ci) {
+        if (ci == null) {
+            return null;
+        }
+        CmsCI copy = new CmsCI();
+        BeanUtils.copyProperties(ci, copy, "attributes");
+        Map<String, CmsCIAttribute> attributes = new HashMap<>();
+        for (Entry<String, CmsCIAttribute> entry : ci.getAttributes().entrySet()) {
+            CmsCIAttribute attribute = new CmsCIAttribute();
+            BeanUtils.copyProperties(entry.getValue(), attribute);
+            attributes.put(entry.getKey(), attribute);
+        }
+        copy.setAttributes(attributes);
+        return copy;
+    }
+
+    private static CmsRfcCI copy(CmsRfcCI rfc) {
+        if (rfc == null) {
+            return null;
+        }
+        CmsRfcCI copy = new CmsRfcCI();
+        // the release ns path is copied as is, setting a null ns path would fail to derive it
+        BeanUtils.copyProperties(rfc, copy, "attributes", "nsPath");
+        if (rfc.getNsPath() != null) {
+            copy.setNsPath(rfc.getNsPath());
+        }
+        Map<String, CmsRfcAttribute> attributes = new HashMap<>();
+        for (Entry<String, CmsRfcAttribute> entry : rfc.getAttributes().entrySet()) {
+            CmsRfcAttribute attribute = new CmsRfcAttribute();
+            BeanUtils.copyProperties(entry.getValue(), attribute);
+            attributes.put(entry.getKey(), attribute);
+        }
+        copy.setAttributes(attributes);
+        return copy;
+    }
+
+    private static long ciId(CmsCI ci) {
+        return ci == null ? 0 : ci.getCiId();
+    }
+
+    /**
+     * Copy of a payload list shared by the work orders of the step, the payload rfcs are changed
+     * per work order (eg variables resolved), so each one gets its own copies.
+     */
+    private static List<CmsRfcCI> shared(List<CmsRfcCI> list) {
+        return list == null ? null : list.stream().map(CmsWoProvider::copy).collect(Collectors.toList());
+    }
+
     private CmsCI getCloudForCloudService(long ciId) {
         List<CmsRfcRelation> cloudRels = cmrfcProcessor.getToCIRelationsNakedNoAttrs(ciId, "base.Provides", null, "account.Cloud");
         if (cloudRels.size() > 0) {
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.controller.cms;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lookups shared by the work orders of one deployment step: environment, assembly, organization,
+ * variables, cloud services, compliance, pack templates and the per ci relations prefetched by
+ * {@link CmsWoProvider#prefetch(WoAssemblyContext, java.util.List)}.
+ * <p>
+ * Lives for one step only, so it does not see changes made in the cms while the step is
+ * dispatched. The work orders of a step are assembled concurrently, a value may be loaded
+ * twice by racing threads, the first one stored wins.
+ */
+public class WoAssemblyContext {
+
+    private static final Object NULL = new Object();
+
+    private final ConcurrentMap<String, Object> values = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the cached value for the key, loading it on the first access.
+     *
+     * @param key    cache key, the kind of lookup and its ids
+     * @param loader loads the value, may return null
+     * @return the value
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String key, Supplier<T> loader) {
+        Object value = values.get(key);
+        if (value == null) {
+            misses.incrementAndGet();
+            T loaded = loader.get();
+            value = values.putIfAbsent(key, loaded == null ? NULL : loaded);
+            if (value == null) {
+                return loaded;
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+        return value == NULL ? null : (T) value;
+    }
+
+    /**
+     * Removes and returns a prefetched value used by one work order only, loads it without
+     * caching if it was not prefetched.
+     *
+     * @param key    cache key
+     * @param loader loads the value, may return null
+     * @return the value
+     */
+    @SuppressWarnings("unchecked")
+    <T> T take(String key, Supplier<T> loader) {
+        Object value = values.remove(key);
+        if (value == null) {
+            misses.incrementAndGet();
+            return loader.get();
+        }
+        hits.incrementAndGet();
+        return value == NULL ? null : (T) value;
+    }
+
+    void put(String key, Object value) {
+        values.put(key, value == null ? NULL : value);
+    }
+
+    boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return values.size();
+    }
+}
@@ -19,6 +19,7 @@ import com.oneops.cms.exceptions.CmsBaseException;
 import com.oneops.cms.simple.domain.CmsWorkOrderSimple;
 import com.oneops.cms.util.CmsConstants;
 import com.oneops.controller.cms.CMSClient;
+import com.oneops.controller.cms.WoAssemblyContext;
 import com.oneops.workflow.WorkflowMessage;
 import java.util.Date;
 import java.util.List;
@@ -51,6 +52,9 @@ public class DeployerImpl extends Execution<CmsWorkOrderSimple> implements Deplo
   @Value("${oo.controller.wo.async.threshold:300}")
   private int woAsyncDispatchThreshold;
 
+  @Value("${oo.controller.wo.batch.assembly:true}")
+  private boolean woBatchAssembly;
+
   @Autowired
   private WoDispatcher woDispatcher;
 
@@ -204,6 +208,9 @@ public class DeployerImpl extends Execution<CmsWorkOrderSimple> implements Deplo
 
 
   private void dispatchOrders(DeploymentContext context, List<CmsWorkOrderSimple> ordersList) {
+    if (woBatchAssembly) {
+      context.assemblyContext = cmsClient.prefetchWorkOrders(ordersList);
+    }
     CountDownLatch latch = new CountDownLatch(ordersList.size());
     ordersList.forEach(o -> {
       dispatch(context, o, latch);
@@ -219,6 +226,9 @@ public class DeployerImpl extends Execution<CmsWorkOrderSimple> implements Deplo
   private void assembleAndDispatchAsync(ExecutionContext context, CmsWorkOrderSimple wo, CountDownLatch latch) {
     CmsDeployment dpmt = deployment(context);
     WorkOrderContext woContext = new WorkOrderContext(wo, dpmt.getCurrentStep());
+    if (context instanceof DeploymentContext) {
+      woContext.setAssemblyContext(((DeploymentContext) context).assemblyContext);
+    }
     CmsDpmtRecord dpmtRecord = dpmtProcessor.getDeploymentRecord(wo.getDpmtRecordId());
     if (isPending(dpmtRecord)) {
       logger.info(">>>>>>>>>>> dispatching workorder dpmtId : " + dpmt.getDeploymentId() + " rfc : "
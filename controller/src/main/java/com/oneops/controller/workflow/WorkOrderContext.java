@@ -1,12 +1,14 @@
 package com.oneops.controller.workflow;
 
 import com.oneops.cms.simple.domain.CmsWorkOrderSimple;
+import com.oneops.controller.cms.WoAssemblyContext;
 
 public class WorkOrderContext {
 
   private int execOrder;
   private CmsWorkOrderSimple woSimple;
   private String woDispatchError;
+  private WoAssemblyContext assemblyContext;
 
   public WorkOrderContext(CmsWorkOrderSimple woSimple, int execOrder) {
     this.woSimple = woSimple;
@@ -37,4 +39,12 @@ public class WorkOrderContext {
   public void setWoDispatchError(String woDispatchError) {
     this.woDispatchError = woDispatchError;
   }
+
+  public WoAssemblyContext getAssemblyContext() {
+    return assemblyContext;
+  }
+
+  public void setAssemblyContext(WoAssemblyContext assemblyContext) {
+    this.assemblyContext = assemblyContext;
+  }
 }
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.controller.cms;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.oneops.cms.cm.service.CmsCmProcessor;
+import com.oneops.cms.md.service.CmsMdProcessor;
+import com.oneops.cms.util.domain.CmsVar;
+
+public class ControllerCacheTest {
+
+	private CmsCmProcessor cmProcessor;
+	private CmsMdProcessor mdProcessor;
+	private ControllerCache controllerCache;
+
+	@BeforeMethod
+	public void setUp() {
+		cmProcessor = mock(CmsCmProcessor.class);
+		mdProcessor = mock(CmsMdProcessor.class);
+		when(mdProcessor.isCacheEnabled()).thenReturn(true);
+		controllerCache = new ControllerCache();
+		controllerCache.setCmsCmProcessor(cmProcessor);
+		controllerCache.setMdProcessor(mdProcessor);
+	}
+
+	@Test
+	public void changeInvalidatesTheCache() {
+		updateTimestamp(1);
+		controllerCache.invalidateMdCacheIfRequired();
+		controllerCache.invalidateMdCacheIfRequired();
+		verify(mdProcessor, times(1)).invalidateCache();
+
+		updateTimestamp(2);
+		controllerCache.invalidateMdCacheIfRequired();
+		verify(mdProcessor, times(2)).invalidateCache();
+	}
+
+	private void updateTimestamp(long ts) {
+		CmsVar var = new CmsVar();
+		var.setValue(String.valueOf(ts));
+		when(cmProcessor.getCmSimpleVar("MD_UPDATE_TIMESTAMP")).thenReturn(var);
+	}
+}
@@ -0,0 +1,406 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.controller.cms;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.listeners.InvocationListener;
+import org.mockito.stubbing.Answer;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.oneops.cms.cm.domain.CmsCI;
+import com.oneops.cms.cm.domain.CmsCIAttribute;
+import com.oneops.cms.cm.domain.CmsCIRelation;
+import com.oneops.cms.cm.domain.CmsCIRelationAttribute;
+import com.oneops.cms.cm.ops.dal.OpsMapper;
+import com.oneops.cms.cm.service.CmsCmProcessor;
+import com.oneops.cms.collections.CollectionProcessor;
+import com.oneops.cms.dj.dal.DJDpmtMapper;
+import com.oneops.cms.dj.dal.DJMapper;
+import com.oneops.cms.dj.domain.CmsRfcCI;
+import com.oneops.cms.dj.domain.CmsRfcRelation;
+import com.oneops.cms.dj.domain.CmsWorkOrder;
+import com.oneops.cms.dj.service.CmsCmRfcMrgProcessor;
+import com.oneops.cms.dj.service.CmsRfcUtil;
+import com.oneops.cms.simple.domain.CmsWorkOrderSimple;
+import com.oneops.cms.util.CmsConstants;
+import com.oneops.cms.util.CmsUtil;
+
+/**
+ * Assembles the work orders of a 500 work order step over an in-memory cms, every call to the
+ * dal mocks counted as a db round trip and delayed by a simulated db latency.
+ */
+public class WoBatchAssemblyTest {
+
+	private static final int STEP_SIZE = 500;
+	private static final int PLATFORMS = 5;
+	private static final int COMPONENTS = 10;
+	private static final long LATENCY_NANOS = 200_000;
+
+	private static final long ENV_ID = 10;
+	private static final long ASSEMBLY_ID = 11;
+	private static final long ORG_ID = 12;
+	private static final long CLOUD_ID = 50;
+	private static final long BOX_ID = 100;
+	private static final long MANIFEST_ID = 1000;
+	private static final long TEMPLATE_ID = 5000;
+	private static final long COMPUTE_MANIFEST_ID = 9000;
+	private static final long BOM_ID = 10000;
+	private static final long RFC_ID = 20000;
+	private static final long DPMT_RECORD_ID = 30000;
+	private static final long COMPUTE_BOM_ID = 90000;
+
+	private final AtomicLong roundTrips = new AtomicLong();
+	private volatile boolean recording;
+
+	private CmsWoProvider woProvider;
+	private List<CmsWorkOrderSimple> step;
+
+	private Gson gson = new Gson();
+
+	@BeforeClass
+	public void setUp() {
+		InvocationListener listener = report -> {
+			if (recording) {
+				roundTrips.incrementAndGet();
+				LockSupport.parkNanos(LATENCY_NANOS);
+			}
+		};
+		DJDpmtMapper dpmtMapper = mock(DJDpmtMapper.class, withSettings().invocationListeners(listener));
+		DJMapper djMapper = mock(DJMapper.class, withSettings().invocationListeners(listener));
+		CmsCmProcessor cmProcessor = mock(CmsCmProcessor.class, withSettings().invocationListeners(listener));
+		CmsCmRfcMrgProcessor cmrfcProcessor = mock(CmsCmRfcMrgProcessor.class, withSettings().invocationListeners(listener));
+
+		when(dpmtMapper.getWorkOrder(anyLong(), anyString(), anyInt())).thenAnswer(invocation -> {
+			CmsWorkOrder wo = new CmsWorkOrder();
+			wo.setDpmtRecordId((Long) invocation.getArguments()[0]);
+			wo.setRfcId(wo.getDpmtRecordId() - DPMT_RECORD_ID + RFC_ID);
+			wo.setDeploymentId(1);
+			return wo;
+		});
+		when(djMapper.getRfcCIById(anyLong())).thenAnswer(invocation -> rfc((Long) invocation.getArguments()[0]));
+		when(djMapper.getRfcCIByIdList(anyList())).thenAnswer(invocation -> {
+			List<CmsRfcCI> rfcs = new ArrayList<>();
+			for (Object rfcId : (List<?>) invocation.getArguments()[0]) {
+				rfcs.add(rfc((Long) rfcId));
+			}
+			return rfcs;
+		});
+
+		when(cmrfcProcessor.getCiById(anyLong(), anyString())).thenAnswer(invocation -> rfcCi((Long) invocation.getArguments()[0]));
+		when(cmrfcProcessor.getCiByIdList(anyList(), anyString())).thenAnswer(invocation -> {
+			List<CmsRfcCI> cis = new ArrayList<>();
+			for (Object ciId : (List<?>) invocation.getArguments()[0]) {
+				cis.add(rfcCi((Long) ciId));
+			}
+			return cis;
+		});
+
+		// per ci relations, the single and the IN-list versions
+		LongFunction<List<CmsRfcRelation>> realizedAs = ciId -> ciId >= COMPUTE_BOM_ID
+				? rels(rfcRelation(COMPUTE_MANIFEST_ID + ciId % PLATFORMS, ciId))
+				: rels(rfcRelation(manifestId(ciId), ciId));
+		LongFunction<List<CmsRfcRelation>> deployedTo = ciId -> rels(rfcRelation(ciId, CLOUD_ID + ciId % 2));
+		LongFunction<List<CmsRfcRelation>> managedVia = ciId -> ciId >= COMPUTE_BOM_ID
+				? rels() : rels(rfcRelation(ciId, COMPUTE_BOM_ID + platform(ciId)));
+		LongFunction<List<CmsRfcRelation>> none = ciId -> rels();
+
+		when(cmrfcProcessor.getToCIRelationsNaked(anyLong(), eq("base.RealizedAs"), (String) isNull(), (String) isNull()))
+				.thenAnswer(single(realizedAs));
+		when(cmrfcProcessor.getToCIRelationsNakedByToCiIds(anyList(), eq("base.RealizedAs"), (String) isNull(), anyBoolean()))
+				.thenAnswer(batch(realizedAs));
+		when(cmrfcProcessor.getToCIRelations(anyLong(), eq("base.RealizedAs"), (String) isNull(), eq("df")))
+				.thenAnswer(relatives(realizedAs));
+		when(cmrfcProcessor.getFromCIRelationsNakedNoAttrs(anyLong(), eq("base.DeployedTo"), (String) isNull(), eq("account.Cloud")))
+				.thenAnswer(single(deployedTo));
+		when(cmrfcProcessor.getFromCIRelationsNakedByFromCiIds(anyList(), eq("base.DeployedTo"), eq("account.Cloud"), anyBoolean()))
+				.thenAnswer(batch(deployedTo));
+		when(cmrfcProcessor.getFromCIRelations(anyLong(), eq("bom.ManagedVia"), (String) isNull(), eq("df")))
+				.thenAnswer(relatives(managedVia));
+		when(cmrfcProcessor.getFromCIRelationsNakedByFromCiIds(anyList(), eq("bom.ManagedVia"), (String) isNull(), anyBoolean()))
+				.thenAnswer(batch(managedVia));
+		when(cmrfcProcessor.getFromCIRelations(anyLong(), eq("bom.DependsOn"), (String) isNull(), eq("df")))
+				.thenAnswer(relatives(none));
+		when(cmrfcProcessor.getFromCIRelationsNakedByFromCiIds(anyList(), eq("bom.DependsOn"), (String) isNull(), anyBoolean()))
+				.thenAnswer(batch(none));
+		when(cmrfcProcessor.getToCIRelations(anyLong(), eq("base.Entrypoint"), (String) isNull(), eq("df")))
+				.thenAnswer(relatives(none));
+		when(cmrfcProcessor.getToCIRelationsNakedByToCiIds(anyList(), eq("base.Entrypoint"), (String) isNull(), anyBoolean()))
+				.thenAnswer(batch(none));
+
+		// environment, assembly and organization
+		when(cmrfcProcessor.getToCIRelations(anyLong(), eq("manifest.ComposedOf"), (String) isNull(), eq("df")))
+				.thenAnswer(invocation -> rels(rfcRelation(ENV_ID, (Long) invocation.getArguments()[0], rfcCi(ENV_ID), null)));
+		when(cmrfcProcessor.getToCIRelations(eq(ENV_ID), eq("base.RealizedIn"), (String) isNull(), eq("df")))
+				.thenReturn(rels(rfcRelation(ASSEMBLY_ID, ENV_ID, rfcCi(ASSEMBLY_ID), null)));
+		when(cmrfcProcessor.getToCIRelations(eq(ASSEMBLY_ID), eq("base.Manages"), (String) isNull(), eq("df")))
+				.thenReturn(rels(rfcRelation(ORG_ID, ASSEMBLY_ID, rfcCi(ORG_ID), null)));
+		when(cmProcessor.getToCIRelations(anyLong(), eq("manifest.ComposedOf"), eq("manifest.Environment"))).thenAnswer(invocation -> {
+			CmsCIRelation composedOf = ciRelation(ENV_ID, (Long) invocation.getArguments()[0]);
+			composedOf.setFromCi(ci(ENV_ID, "manifest.Environment"));
+			CmsCIRelationAttribute enabled = new CmsCIRelationAttribute();
+			enabled.setAttributeName("enabled");
+			enabled.setDfValue("true");
+			composedOf.addAttribute(enabled);
+			return Collections.singletonList(composedOf);
+		});
+
+		// platform, cloud and services
+		when(cmProcessor.getToCIRelations(anyLong(), eq("manifest.Requires"), (String) isNull())).thenAnswer(invocation -> {
+			long manifestId = (Long) invocation.getArguments()[0];
+			CmsCIRelation requires = ciRelation(BOX_ID + manifestId % PLATFORMS, manifestId);
+			CmsCI box = ci(requires.getFromCiId(), "manifest.Platform");
+			box.addAttribute(ciAttribute(CmsConstants.ATTR_NAME_AUTO_COMPLY, "false"));
+			requires.setFromCi(box);
+			return Collections.singletonList(requires);
+		});
+		when(cmProcessor.getToCIRelationsNaked(anyLong(), eq("manifest.Requires"), (String) isNull())).thenAnswer(invocation -> {
+			long manifestId = (Long) invocation.getArguments()[0];
+			CmsCIRelation requires = ciRelation(BOX_ID + manifestId % PLATFORMS, manifestId);
+			CmsCIRelationAttribute services = new CmsCIRelationAttribute();
+			services.setAttributeName("services");
+			services.setDjValue("compute,*dns");
+			requires.addAttribute(services);
+			return Collections.singletonList(requires);
+		});
+		when(cmProcessor.getCiById(anyLong())).thenAnswer(invocation -> {
+			long ciId = (Long) invocation.getArguments()[0];
+			return ci(ciId, ciId < BOX_ID ? "account.Cloud" : "manifest.Component");
+		});
+		when(cmProcessor.getFromCIRelationsByAttrs(anyLong(), eq(CmsConstants.BASE_PROVIDES), (String) isNull(), (String) isNull(), anyList()))
+				.thenAnswer(invocation -> {
+					long cloudId = (Long) invocation.getArguments()[0];
+					CmsCIRelation provides = ciRelation(cloudId, cloudId + 100);
+					provides.setToCi(ci(cloudId + 100, "cloud.service.Openstack"));
+					return Collections.singletonList(provides);
+				});
+
+		// pack templates
+		when(cmProcessor.getTemplateObjForManifestObj(any(CmsCI.class), any(CmsCI.class))).thenAnswer(invocation -> {
+			CmsCI manifest = (CmsCI) invocation.getArguments()[0];
+			return ci(TEMPLATE_ID + manifest.getCiId() % 100, "mgmt.manifest.Component");
+		});
+		when(cmProcessor.getToCIRelationsNakedNoAttrs(anyLong(), eq("base.RealizedAs"), (String) isNull(), (String) isNull()))
+				.thenAnswer(invocation -> Collections.singletonList(
+						ciRelation(COMPUTE_MANIFEST_ID + (Long) invocation.getArguments()[0] % PLATFORMS, (Long) invocation.getArguments()[0])));
+
+		CmsRfcUtil rfcUtil = new CmsRfcUtil();
+		CmsUtil cmsUtil = new CmsUtil();
+		cmsUtil.setCmProcessor(cmProcessor);
+		cmsUtil.setRfcUtil(rfcUtil);
+
+		woProvider = new CmsWoProvider();
+		woProvider.setDpmtMapper(dpmtMapper);
+		woProvider.setDjMapper(djMapper);
+		woProvider.setCmProcessor(cmProcessor);
+		woProvider.setCmrfcProcessor(cmrfcProcessor);
+		woProvider.setRfcUtil(rfcUtil);
+		woProvider.setCmsUtil(cmsUtil);
+		woProvider.setOpsMapper(mock(OpsMapper.class));
+		woProvider.setColProcessor(mock(CollectionProcessor.class));
+		woProvider.setOfferingMatcher(mock(OfferingsMatcher.class));
+
+		step = new ArrayList<>();
+		for (int i = 0; i < STEP_SIZE; i++) {
+			CmsWorkOrderSimple rec = new CmsWorkOrderSimple();
+			rec.setDpmtRecordId(DPMT_RECORD_ID + i);
+			rec.setRfcId(RFC_ID + i);
+			rec.setDeploymentId(1);
+			step.add(rec);
+		}
+	}
+
+	@Test
+	public void batchAssemblyMatchesSingleAssembly() {
+		WoAssemblyContext ctx = new WoAssemblyContext();
+		woProvider.prefetch(ctx, step);
+		for (CmsWorkOrderSimple rec : step) {
+			CmsWorkOrderSimple single = woProvider.getWorkOrderSimple(rec.getDpmtRecordId(), null, 1);
+			CmsWorkOrderSimple batched = woProvider.getWorkOrderSimple(rec.getDpmtRecordId(), null, 1, ctx);
+			Assert.assertEquals(gson.toJson(batched), gson.toJson(single));
+		}
+		Assert.assertTrue(ctx.getHits() > ctx.getMisses());
+	}
+
+	@Test
+	public void sharedRecordsAreCopied() {
+		WoAssemblyContext ctx = new WoAssemblyContext();
+		woProvider.prefetch(ctx, step);
+		for (CmsWorkOrderSimple rec : step) {
+			CmsWorkOrder batched = woProvider.getWorkOrder(rec.getDpmtRecordId(), null, 1, ctx);
+			// changes of a work order don't show up in the next ones assembled from the same lookups
+			for (List<CmsRfcCI> entries : batched.getPayLoad().values()) {
+				for (CmsRfcCI entry : entries) {
+					entry.getAttributes().values().forEach(attr -> attr.setNewValue("changed"));
+					entry.addOrUpdateAttribute("added", "changed");
+				}
+			}
+			batched.getCloud().getAttributes().values().forEach(attr -> attr.setDfValue("changed"));
+			batched.getBox().getAttributes().values().forEach(attr -> attr.setDfValue("changed"));
+		}
+		for (CmsWorkOrderSimple rec : step) {
+			CmsWorkOrderSimple single = woProvider.getWorkOrderSimple(rec.getDpmtRecordId(), null, 1);
+			CmsWorkOrderSimple batched = woProvider.getWorkOrderSimple(rec.getDpmtRecordId(), null, 1, ctx);
+			Assert.assertEquals(gson.toJson(batched), gson.toJson(single));
+		}
+	}
+
+	@Test
+	public void batchAssemblySavesRoundTrips() {
+		roundTrips.set(0);
+		recording = true;
+		for (CmsWorkOrderSimple rec : step) {
+			woProvider.getWorkOrderSimple(rec.getDpmtRecordId(), null, 1);
+		}
+		long singleRoundTrips = roundTrips.getAndSet(0);
+
+		WoAssemblyContext ctx = new WoAssemblyContext();
+		woProvider.prefetch(ctx, step);
+		for (CmsWorkOrderSimple rec : step) {
+			woProvider.getWorkOrderSimple(rec.getDpmtRecordId(), null, 1, ctx);
+		}
+		long batchRoundTrips = roundTrips.getAndSet(0);
+		recording = false;
+
+		Assert.assertTrue(batchRoundTrips * 5 < singleRoundTrips, batchRoundTrips + " vs " + singleRoundTrips);
+	}
+
+	private static int platform(long bomId) {
+		return (int) ((bomId - BOM_ID) % PLATFORMS);
+	}
+
+	private static long manifestId(long bomId) {
+		// manifest component ids keep the platform in the last digit, see the Requires answers
+		return MANIFEST_ID + ((bomId - BOM_ID) / PLATFORMS % COMPONENTS) * PLATFORMS + platform(bomId);
+	}
+
+	private static CmsRfcCI rfc(long rfcId) {
+		CmsRfcCI rfc = rfcCi(rfcId - RFC_ID + BOM_ID);
+		rfc.setRfcId(rfcId);
+		return rfc;
+	}
+
+	private static CmsRfcCI rfcCi(long ciId) {
+		CmsRfcCI ci = new CmsRfcCI();
+		ci.setCiId(ciId);
+		ci.setRfcAction("add");
+		if (ciId >= COMPUTE_BOM_ID) {
+			ci.setCiClassName("bom.Compute");
+			ci.setCiName("compute-" + ciId);
+		} else if (ciId >= BOM_ID) {
+			ci.setCiClassName("bom.Component");
+			ci.setCiName("component-" + ciId);
+			ci.setNsPath("/org/assembly/env/bom/platform-" + platform(ciId) + "/1");
+		} else {
+			ci.setCiClassName("manifest.Component");
+			ci.setCiName("manifest-" + ciId);
+		}
+		return ci;
+	}
+
+	private static CmsCI ci(long ciId, String className) {
+		CmsCI ci = new CmsCI();
+		ci.setCiId(ciId);
+		ci.setCiClassName(className);
+		ci.setCiName("ci-" + ciId);
+		ci.setNsPath("/org/_clouds");
+		return ci;
+	}
+
+	private static CmsCIAttribute ciAttribute(String name, String value) {
+		CmsCIAttribute attribute = new CmsCIAttribute();
+		attribute.setAttributeName(name);
+		attribute.setDfValue(value);
+		attribute.setDjValue(value);
+		return attribute;
+	}
+
+	private static CmsCIRelation ciRelation(long fromCiId, long toCiId) {
+		CmsCIRelation relation = new CmsCIRelation();
+		relation.setFromCiId(fromCiId);
+		relation.setToCiId(toCiId);
+		return relation;
+	}
+
+	private static CmsRfcRelation rfcRelation(long fromCiId, long toCiId) {
+		return rfcRelation(fromCiId, toCiId, null, null);
+	}
+
+	private static CmsRfcRelation rfcRelation(long fromCiId, long toCiId, CmsRfcCI fromCi, CmsRfcCI toCi) {
+		CmsRfcRelation relation = new CmsRfcRelation();
+		relation.setFromCiId(fromCiId);
+		relation.setToCiId(toCiId);
+		relation.setFromRfcCi(fromCi);
+		relation.setToRfcCi(toCi);
+		return relation;
+	}
+
+	private static List<CmsRfcRelation> rels(CmsRfcRelation... rels) {
+		List<CmsRfcRelation> list = new ArrayList<>();
+		Collections.addAll(list, rels);
+		return list;
+	}
+
+	private static Answer<List<CmsRfcRelation>> single(LongFunction<List<CmsRfcRelation>> rels) {
+		return invocation -> rels.apply((Long) invocation.getArguments()[0]);
+	}
+
+	private static Answer<List<CmsRfcRelation>> relatives(LongFunction<List<CmsRfcRelation>> rels) {
+		return (InvocationOnMock invocation) -> {
+			List<CmsRfcRelation> relations = rels.apply((Long) invocation.getArguments()[0]);
+			for (CmsRfcRelation relation : relations) {
+				relation.setFromRfcCi(rfcCi(relation.getFromCiId()));
+				relation.setToRfcCi(rfcCi(relation.getToCiId()));
+			}
+			return relations;
+		};
+	}
+
+	private static Answer<Map<Long, List<CmsRfcRelation>>> batch(LongFunction<List<CmsRfcRelation>> rels) {
+		return invocation -> {
+			Map<Long, List<CmsRfcRelation>> result = new HashMap<>();
+			for (Object ciId : (List<?>) invocation.getArguments()[0]) {
+				result.put((Long) ciId, rels.apply((Long) ciId));
+			}
+			return result;
+		};
+	}
+}
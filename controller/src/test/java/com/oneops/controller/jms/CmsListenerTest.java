@@ -21,8 +21,8 @@ import static org.mockito.Mockito.when;
 import javax.jms.JMSException;
 import javax.jms.TextMessage;
 
-import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
@@ -35,7 +35,7 @@ import com.oneops.controller.workflow.WorkflowController;
 
 public class CmsListenerTest {
 	
-	private static ApplicationContext context ;
+	private static ClassPathXmlApplicationContext context;
 	private CmsListener listener;
 	private Gson gson = new Gson();
 
@@ -53,6 +53,14 @@ public class CmsListenerTest {
 		listener.getConnectionStats(); //exercise the Util class here
 
 	}
+
+	@AfterClass(alwaysRun = true)
+	public void tearDown() {
+		// releases the search sender journal for the next test context
+		if (context != null) {
+			context.close();
+		}
+	}
 	//test for source=deployment opsprocedure release and-eac time some other//
 	//--------------------------------------------------------------//
 	@Test 
@@ -24,15 +24,15 @@ import com.oneops.controller.util.ControllerUtil;
 import com.oneops.controller.workflow.WorkflowController;
 import javax.jms.JMSException;
 import javax.jms.TextMessage;
-import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 
 public class InductorListenerTest {
 
-	private static ApplicationContext context;
+	private static ClassPathXmlApplicationContext context;
 	private InductorListener listener;
 
 	@BeforeClass
@@ -52,6 +52,14 @@ public class InductorListenerTest {
 
 	}
 
+	@AfterClass(alwaysRun = true)
+	public void tearDown() {
+		// releases the search sender journal for the next test context
+		if (context != null) {
+			context.close();
+		}
+	}
+
 	@Test
 	/** test the message impl */
 	public void testListening() throws JMSException {
@@ -21,9 +21,9 @@ import com.oneops.cms.simple.domain.CmsWorkOrderSimple;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.testng.Assert;
+import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
@@ -32,7 +32,7 @@ import com.oneops.cms.simple.domain.CmsCISimple;
 
 public class InductorPublisherTest {
 
-	private static ApplicationContext context ;
+	private static ClassPathXmlApplicationContext context;
 	private InductorPublisher publisher;
 
 	@BeforeClass
@@ -62,6 +62,14 @@ public class InductorPublisherTest {
 		
 	}
 
+	@AfterClass(alwaysRun = true)
+	public void tearDown() {
+		// releases the search sender journal for the next test context
+		if (context != null) {
+			context.close();
+		}
+	}
+
 	@Test
   public void getCtxtId(){
     CmsActionOrderSimple ao = new CmsActionOrderSimple();
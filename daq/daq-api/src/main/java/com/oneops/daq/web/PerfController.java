@@ -23,6 +23,7 @@ import com.oneops.daq.dao.PerfDao;
 import com.oneops.daq.domain.*;
 import com.oneops.ops.PerfDataRequest;
 import com.oneops.ops.dao.PerfDataAccessor;
+import com.oneops.ops.dao.PerfSeriesCache;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.ServletRequestUtils;
@@ -32,6 +33,10 @@ import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 import static org.springframework.web.bind.annotation.RequestMethod.*;
 
@@ -71,7 +76,8 @@ public class PerfController {
     /**
      * Gets the perf data.
      *
-     * @param request  the request, contains json array of {@link PerfDataRequest}
+     * @param request  the request, contains json array of {@link PerfDataRequest} and an optional
+     *                 maxPoints, the series are downsampled to at most maxPoints points
      * @param response the response, contains json array of tabled results.
      * @return the perf data
      * @throws Exception the exception
@@ -81,23 +87,53 @@ public class PerfController {
 
         String reqSet = ServletRequestUtils.getStringParameter(request, "reqSet");
         PerfDataRequest[] reqs = gson.fromJson(reqSet, PerfDataRequest[].class);
+        // chart width in points, applies to the requests that don't set their own
+        int maxPoints = ServletRequestUtils.getIntParameter(request, "maxPoints", 0);
 
         long startTime = System.currentTimeMillis();
-        StringBuilder bu = new StringBuilder("[ ");
-        for (int i = 0; i < reqs.length; i++) {
-            PerfDataRequest req = reqs[i];
-            if (i > 0) {
-                bu.append(",");
+        // ServletOutputStream.print writes each char as a single byte, so does latin-1 for the json
+        Writer out = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.ISO_8859_1));
+        try {
+            out.write("[ ");
+            for (int i = 0; i < reqs.length; i++) {
+                PerfDataRequest req = reqs[i];
+                if (req.getMaxPoints() == 0) {
+                    req.setMaxPoints(maxPoints);
+                }
+                if (i > 0) {
+                    out.write(",");
+                }
+                perfDataAccessor.writePerfDataSeries(req, out);
+            }
+            out.write("\n]");
+            out.flush();
+        } catch (Exception e) {
+            logger.error("Failed to write the perf data of " + reqSet, e);
+            if (!response.isCommitted()) {
+                // nothing is sent yet, the error status goes out instead of the partial json
+                response.resetBuffer();
             }
-            bu.append(perfDataAccessor.getPerfDataSeries(req));
+            // once committed the container aborts the response, the client gets a truncated array, not a success
+            throw e;
         }
-        bu.append("\n]");
 
         long endTime = System.currentTimeMillis();
         long duration = endTime - startTime;
         logger.debug(request.getRemoteAddr() + " took " + duration + " ms");
+    }
 
-        response.getOutputStream().print(bu.toString());
+    /**
+     * Perf series cache metrics, hit rate and memory.
+     *
+     * @param request  the request
+     * @param response the response, json of the cache metrics or {} if the cache is off
+     * @throws Exception the exception
+     */
+    @RequestMapping("/getCacheStats")
+    public void getCacheStats(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        PerfSeriesCache cache = perfDataAccessor.getSeriesCache();
+        String stats = (cache == null) ? "{}" : gson.toJson(cache.getStats());
+        response.getOutputStream().print(stats);
         response.setStatus(200);
     }
 
@@ -23,6 +23,7 @@ import com.oneops.daq.jms.SensorPublisher;
 import com.oneops.ops.dao.PerfDataAccessor;
 import com.oneops.sensor.events.PerfEvent;
 import com.oneops.sensor.thresholds.ThresholdsDao;
+import me.prettyprint.hector.api.exceptions.HectorException;
 import org.apache.log4j.Logger;
 
 import java.util.concurrent.*;
@@ -40,6 +41,15 @@ public class PerfEventProcessor {
 	private static int threadPoolSize = Integer.parseInt(System.getProperty("threads", "40")); 
 	private static long threadKeepAliveSec = Long.parseLong(System.getProperty("thread_keepalive_sec", "600")); 
 	private static String stateFile = System.getProperty("state_file", "/opt/oneops/log/lsperfcollector.state"); 	
+	// batched aggregate bucket writes, when the pipeline is full the workers block and the executor queue
+	// fills up, so the caller runs policy pushes back on the event source
+	private static boolean writeBatching = Boolean.parseBoolean(System.getProperty("write_batching", "false"));
+	private static int writeBatchSize = Integer.parseInt(System.getProperty("write_batch_size", "500"));
+	private static long writeBatchLingerMs = Long.parseLong(System.getProperty("write_batch_linger_ms", "50"));
+	private static int writeMaxPending = Integer.parseInt(System.getProperty("write_max_pending", "100000"));
+	private static int writeThreads = Integer.parseInt(System.getProperty("write_threads", "2"));
+	private static long shutdownTimeoutSec = Long.parseLong(System.getProperty("shutdown_timeout_sec", "30"));
+	private PerfDataAccessor perfDataAccessor;
 	private BlockingQueue<Runnable> linkedBlockingDeque = new LinkedBlockingDeque<Runnable>(queueSize);
 	
 	private	ExecutorService executor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 
@@ -97,7 +107,7 @@ public class PerfEventProcessor {
 			System.exit(1);
 		}				
 		
-		PerfDataAccessor perfDataAccessor = new PerfDataAccessor();
+		perfDataAccessor = new PerfDataAccessor();
 		perfDataAccessor.setClusterBootstrap(daqCluster);
 		perfDataAccessor.setClusterName(this.clusterName);
 		perfDataAccessor.setKeyspaceName(this.keyspaceName);
@@ -109,11 +119,22 @@ public class PerfEventProcessor {
 			System.exit(1);
 		}
 
-
 		perfDao = new PerfWriter();
 		perfDao.setSensorPublisher(sensorPub);
 		perfDao.setPerfDataAccessor(perfDataAccessor);
 		perfDao.setStateFilename(stateFile);
+
+		if (writeBatching) {
+			perfDataAccessor.startWritePipeline(writeBatchSize, writeBatchLingerMs, writeMaxPending, writeThreads);
+			// the batches are written off the worker threads, count their failures as the workers do
+			perfDataAccessor.getWritePipeline().setFailureListener((cf, columns, e) -> {
+				if (e instanceof HectorException) {
+					long heCount = perfDao.hectorExceptionCount.incrementAndGet();
+					logger.warn("total hector exceptions: " + heCount);
+				}
+			});
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "perf-event-processor-shutdown"));
 	}
 
 	public void process(String event, String ip) {
@@ -128,6 +149,22 @@ public class PerfEventProcessor {
 	}
 	
 	
+	/**
+	 * Finishes the queued events and flushes the pending writes.
+	 */
+	public void shutdown() {
+		logger.info("Shutting down PerfEventProcessor");
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(shutdownTimeoutSec, TimeUnit.SECONDS)) {
+				logger.warn("Timed out waiting for the perf workers, queued events: " + linkedBlockingDeque.size());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		perfDataAccessor.closeWritePipeline(TimeUnit.SECONDS.toMillis(shutdownTimeoutSec));
+	}
+
 	public static void main1(String[] a) {
 		new PerfEventProcessor("daq:9160", "PerfAndLogCluster", "mdb", "sensor_ksp", "sensor_ksp","opsdb:9160")
 		.process("1425524559	03-05-2015 12:48:00	401114:401114-zk-compute-load	"
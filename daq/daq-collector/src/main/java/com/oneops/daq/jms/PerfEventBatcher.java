@@ -0,0 +1,93 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+
+package com.oneops.daq.jms;
+
+import com.oneops.sensor.events.BasicEvent;
+import com.oneops.sensor.events.PerfEventCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Accumulates the perf events of one sensor queue shard until the batch is full (by event count
+ * or estimated encoded size) or the oldest event has been waiting longer than the linger time.
+ * The batches are sent under the batcher lock, so the batches of a shard go out in order whichever
+ * thread (publisher or linger flush) takes them.
+ */
+class PerfEventBatcher {
+
+    private final int maxEvents;
+    private final int maxBytes;
+    private final long lingerMs;
+    private final Consumer<List<BasicEvent>> sender;
+
+    private List<BasicEvent> events;
+    private int bytes;
+    private long firstEventTime;
+
+    PerfEventBatcher(int maxEvents, int maxBytes, long lingerMs, Consumer<List<BasicEvent>> sender) {
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.lingerMs = lingerMs;
+        this.sender = sender;
+        this.events = new ArrayList<>(maxEvents);
+    }
+
+    /**
+     * Adds the event to the batch and sends the batch if it's full.
+     *
+     * @param event perf event
+     */
+    synchronized void add(BasicEvent event) {
+        if (events.isEmpty()) {
+            firstEventTime = System.currentTimeMillis();
+        }
+        events.add(event);
+        bytes += PerfEventCodec.estimateSize(event);
+        if (events.size() >= maxEvents || bytes >= maxBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends the batch if the oldest event waited longer than the linger time.
+     *
+     * @param now current time
+     */
+    synchronized void flushExpired(long now) {
+        if (events.isEmpty() || now - firstEventTime < lingerMs) {
+            return;
+        }
+        flush();
+    }
+
+    /**
+     * Sends the current batch, if any.
+     */
+    synchronized void flush() {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<BasicEvent> batch = events;
+        events = new ArrayList<>(maxEvents);
+        bytes = 0;
+        sender.accept(batch);
+    }
+}
@@ -23,6 +23,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.oneops.sensor.events.BasicEvent;
 import com.oneops.sensor.events.PerfEvent;
+import com.oneops.sensor.events.PerfEventCodec;
 import com.oneops.sensor.thresholds.Threshold;
 import com.oneops.sensor.thresholds.ThresholdsDao;
 import com.oneops.util.AMQConnectorURI;
@@ -33,15 +34,19 @@ import org.apache.log4j.Logger;
 import org.springframework.jms.JmsException;
 import org.springframework.jms.core.JmsTemplate;
 
+import javax.jms.BytesMessage;
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.ObjectMessage;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -64,6 +69,8 @@ public class SensorPublisher {
     private final AtomicLong missingManifestCounter = new AtomicLong();
     private final AtomicLong failedThresholdLoadCounter = new AtomicLong();
     private final AtomicLong publishedCounter = new AtomicLong();
+    private final AtomicLong publishedBatchCounter = new AtomicLong();
+    private final AtomicLong droppedCounter = new AtomicLong();
     private int amqConnectionPoolSize = Integer.parseInt(System.getProperty("daq.amq.connection.pool.size", "8"));
 
     private static final Threshold NO_OP_THRESHOLD = new Threshold();
@@ -115,7 +122,7 @@ public class SensorPublisher {
     private static int mqConnectionThreshold = Integer.parseInt(System.getProperty("mqRetryTimeout", "10000"));  // discard all the published messages for mqRetryTimeout milliseconds before attempting to send message again
     private static Long manifestIdLookupThreshold = Long.parseLong(System.getProperty("manifestIdLookupThreshold", "20"));
 
-    private long lastFailureTimestamp = -1;
+    private volatile long lastFailureTimestamp = -1;
 
     private LoadingCache<String, ThresholdHolderWithExpiration> thresholdCache = CacheBuilder.newBuilder()
             .refreshAfterWrite(thresholdTTL, TimeUnit.MINUTES)
@@ -125,6 +132,16 @@ public class SensorPublisher {
 
     private JmsTemplate[] producers = new JmsTemplate[poolsize];
 
+    // -Ddaq.sensor.codec=binary sends batches of binary encoded events (see PerfEventCodec) instead of
+    // one serialized object message per event. Sensors need to be able to decode it before it is turned on.
+    private boolean binaryCodec = "binary".equals(System.getProperty("daq.sensor.codec", "java"));
+    private int batchSize = Integer.parseInt(System.getProperty("daq.sensor.batch.size", "100"));
+    private int batchMaxBytes = Integer.parseInt(System.getProperty("daq.sensor.batch.bytes", "65536"));
+    private long batchLingerMs = Long.parseLong(System.getProperty("daq.sensor.batch.linger", "100"));
+
+    private PerfEventBatcher[] batchers = new PerfEventBatcher[poolsize];
+    private ScheduledExecutorService lingerExecutor;
+
     private ThresholdsDao thresholdsDao = null;
 
 
@@ -141,6 +158,8 @@ public class SensorPublisher {
         logger.info("Connecting to URL: " + url);
         logger.info("Base queue name : " + queueBase);
         logger.info("poolsize : " + poolsize);
+        logger.info("codec : " + (binaryCodec ? "binary, batch size: " + batchSize + ", max bytes: " + batchMaxBytes
+                + ", linger: " + batchLingerMs + " ms" : "java"));
     }
 
     /**
@@ -197,8 +216,26 @@ public class SensorPublisher {
             producerTemplate.setDeliveryPersistent(false);
             producers[i] = producerTemplate;
         }
+        startBatching();
+    }
 
-
+    /**
+     * Creates the per shard batchers and starts the linger flush, no-op unless the binary codec is on.
+     */
+    void startBatching() {
+        if (!binaryCodec) {
+            return;
+        }
+        for (int i = 0; i < poolsize; i++) {
+            int shard = i;
+            batchers[i] = new PerfEventBatcher(batchSize, batchMaxBytes, batchLingerMs, batch -> publishBatch(shard, batch));
+        }
+        lingerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sensor-publisher-linger");
+            t.setDaemon(true);
+            return t;
+        });
+        lingerExecutor.scheduleWithFixedDelay(this::flushExpired, batchLingerMs, batchLingerMs, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -214,7 +251,8 @@ public class SensorPublisher {
         if (eventCounter.incrementAndGet() % 1000 == 0)
             logger.info("Publish event count: " + eventCounter.get() +
                     " manifest miss: " + missingManifestCounter.get() +
-                    " failed threshold load count: " + failedThresholdLoadCounter.get());
+                    " failed threshold load count: " + failedThresholdLoadCounter.get() +
+                    " dropped: " + droppedCounter.get());
 
         // negative value in manifestId cache represents number of failed attempts to retrieve it from cassandra. We exponentially backoff after manifestIdLookupThreshold 
         Long manifestId = null;
@@ -275,6 +313,10 @@ public class SensorPublisher {
         if (System.currentTimeMillis() > lastFailureTimestamp) {
             publishedCounter.incrementAndGet();
             int shard = (int) (event.getManifestId() % poolsize);
+            if (binaryCodec) {
+                batchers[shard].add(event);
+                return;
+            }
             try {
                 producers[shard].send(session -> {
                     ObjectMessage message = session.createObjectMessage(event);
@@ -291,11 +333,64 @@ public class SensorPublisher {
             } catch (JmsException exception) {
                 logger.warn("There was an error sending a message. Discarding messages for " + mqConnectionThreshold + " ms");
                 lastFailureTimestamp = System.currentTimeMillis() + mqConnectionThreshold;
+                droppedCounter.incrementAndGet();
             }
+        } else {
+            droppedCounter.incrementAndGet();
         }
     }
 
 
+    private void publishBatch(int shard, final List<BasicEvent> batch) {
+        if (System.currentTimeMillis() <= lastFailureTimestamp) {
+            droppedCounter.addAndGet(batch.size());
+            return;
+        }
+        final byte[] data = PerfEventCodec.encode(batch);
+        try {
+            producers[shard].send(session -> {
+                BytesMessage message = session.createBytesMessage();
+                message.writeBytes(data);
+                message.setJMSDeliveryMode(DeliveryMode.NON_PERSISTENT);
+                message.setStringProperty(PerfEventCodec.FORMAT_PROPERTY, PerfEventCodec.FORMAT);
+                message.setIntProperty("count", batch.size());
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Published batch: shard:" + shard + "; events:" + batch.size() + "; bytes:" + data.length);
+                }
+                return message;
+            });
+            publishedBatchCounter.incrementAndGet();
+            lastFailureTimestamp = -1;
+        } catch (JmsException exception) {
+            logger.warn("There was an error sending a message. Discarding messages for " + mqConnectionThreshold + " ms");
+            lastFailureTimestamp = System.currentTimeMillis() + mqConnectionThreshold;
+            droppedCounter.addAndGet(batch.size());
+        }
+    }
+
+    private void flushExpired() {
+        try {
+            long now = System.currentTimeMillis();
+            for (PerfEventBatcher batcher : batchers) {
+                batcher.flushExpired(now);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to flush perf event batches", e);
+        }
+    }
+
+    /**
+     * Sends all the pending batches.
+     */
+    void flush() {
+        if (!binaryCodec) {
+            return;
+        }
+        for (PerfEventBatcher batcher : batchers) {
+            batcher.flush();
+        }
+    }
+
     void setProducers(JmsTemplate[] producers) {
         this.producers = producers;
     }
@@ -304,6 +399,10 @@ public class SensorPublisher {
      * Cleanup.
      */
     public void cleanup() {
+        if (lingerExecutor != null) {
+            lingerExecutor.shutdownNow();
+        }
+        flush();
         logger.info("Closing AMQ connection");
         closeConnection();
     }
@@ -329,4 +428,17 @@ public class SensorPublisher {
     public long getPublishedCounter() {
         return publishedCounter.get();
     }
+
+    public long getPublishedBatchCounter() {
+        return publishedBatchCounter.get();
+    }
+
+    /**
+     * Number of events discarded because the broker could not be reached, sent alone or in a batch.
+     *
+     * @return dropped event count
+     */
+    public long getDroppedCounter() {
+        return droppedCounter.get();
+    }
 }
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.daq.jms;
+
+import com.oneops.sensor.events.PerfEvent;
+import com.oneops.sensor.events.PerfEventCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encode/decode cost and bytes per event of java serialization (one event per message) vs the
+ * binary codec (batches of events per message). Warms up, then reports the average over the
+ * measured iterations:
+ * <pre>
+ * java -cp ... com.oneops.daq.jms.PerfEventCodecBenchmark [batchSize] [iterations]
+ * </pre>
+ */
+public class PerfEventCodecBenchmark {
+
+    private static final int WARMUP = 200;
+
+    public static void main(String[] args) throws Exception {
+        int batchSize = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        List<PerfEvent> events = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            events.add(perfEvent(i));
+        }
+
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += javaRoundTrip(events) + binaryRoundTrip(events);
+        }
+
+        long javaBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            javaBytes += javaRoundTrip(events);
+        }
+        long javaNanos = System.nanoTime() - start;
+
+        long binaryBytes = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            binaryBytes += binaryRoundTrip(events);
+        }
+        long binaryNanos = System.nanoTime() - start;
+
+        long total = (long) batchSize * iterations;
+        System.out.println(String.format("codec=java   ns/event=%-6d bytes/event=%d", javaNanos / total, javaBytes / total));
+        System.out.println(String.format("codec=binary ns/event=%-6d bytes/event=%d (batch of %d)", binaryNanos / total, binaryBytes / total, batchSize));
+        System.out.println("(" + sink + ")");
+    }
+
+    private static long javaRoundTrip(List<PerfEvent> events) throws IOException, ClassNotFoundException {
+        long bytes = 0;
+        for (PerfEvent event : events) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                oos.writeObject(event);
+            }
+            byte[] data = out.toByteArray();
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                ois.readObject();
+            }
+            bytes += data.length;
+        }
+        return bytes;
+    }
+
+    private static long binaryRoundTrip(List<PerfEvent> events) throws IOException {
+        byte[] data = PerfEventCodec.encode(events);
+        PerfEventCodec.decode(data);
+        return data.length;
+    }
+
+    private static PerfEvent perfEvent(int i) {
+        PerfEvent event = new PerfEvent();
+        event.setCiId(10000000L + i);
+        event.setManifestId(5000000L + i % 20);
+        event.setTimestamp(System.currentTimeMillis());
+        event.setChecksum(1414141410L + i % 20);
+        event.setSource("compute-cpu");
+        event.setBucket("1m");
+        event.getMetrics().addAvg("CpuIdle", 90.0 + i % 10);
+        event.getMetrics().addAvg("CpuUser", 6.0);
+        event.getMetrics().addAvg("CpuSystem", 4.0);
+        event.getMetrics().addAvg("CpuNice", 0.0);
+        event.getMetrics().addAvg("CpuIowait", 0.5);
+        return event;
+    }
+}
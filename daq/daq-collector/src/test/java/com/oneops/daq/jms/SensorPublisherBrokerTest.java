@@ -0,0 +1,196 @@
+/*******************************************************************************
+ *  
+ *   Copyright 2015 Walmart, Inc.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  
+ *******************************************************************************/
+package com.oneops.daq.jms;
+
+import com.oneops.sensor.events.PerfEvent;
+import com.oneops.sensor.events.PerfEventCodec;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.pool.PooledConnectionFactory;
+import org.springframework.jms.UncategorizedJmsException;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Publishes perf events through an embedded broker to a consumer decoding them the way the
+ * sensor does, with java serialized object messages and with binary encoded batches.
+ */
+public class SensorPublisherBrokerTest {
+
+    private static final String BROKER_URL = "vm://sensor-publisher-test";
+    private static final String QUEUE = "perf-in-q-1";
+    private static final int EVENTS = 20000;
+    private static final int BATCH_SIZE = 100;
+
+    private BrokerService broker;
+
+    @BeforeClass
+    public void startBroker() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName("sensor-publisher-test");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        broker.waitUntilStarted();
+    }
+
+    @AfterClass
+    public void stopBroker() throws Exception {
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+    @AfterMethod
+    public void clearProperties() {
+        System.clearProperty("daq.sensor.codec");
+        System.clearProperty("daq.sensor.batch.size");
+        System.clearProperty("daq.sensor.batch.linger");
+    }
+
+    @Test
+    public void objectMessagesInOrder() throws Exception {
+        assertEquals(publish("java"), EVENTS);
+    }
+
+    @Test
+    public void batchesInOrder() throws Exception {
+        // a short linger has the flush thread taking batches while the publisher fills them
+        System.setProperty("daq.sensor.batch.linger", "1");
+        long messages = publish("binary");
+        assertTrue(messages < EVENTS / 10, "messages: " + messages);
+    }
+
+    @Test
+    public void countsDroppedBatches() throws Exception {
+        System.setProperty("daq.sensor.codec", "binary");
+        System.setProperty("daq.sensor.batch.size", String.valueOf(BATCH_SIZE));
+        System.setProperty("daq.sensor.batch.linger", "60000");
+        SensorPublisher publisher = new SensorPublisher();
+        JmsTemplate template = mock(JmsTemplate.class);
+        doThrow(new UncategorizedJmsException("broker down")).when(template).send(any(MessageCreator.class));
+        publisher.setProducers(new JmsTemplate[]{template});
+        publisher.startBatching();
+
+        // the first batch fails, the next events are discarded during the failure window
+        for (int i = 0; i < 2 * BATCH_SIZE + 50; i++) {
+            publisher.publishMessage(perfEvent(i));
+        }
+        publisher.flush();
+
+        assertEquals(publisher.getPublishedCounter(), BATCH_SIZE);
+        assertEquals(publisher.getPublishedBatchCounter(), 0);
+        assertEquals(publisher.getDroppedCounter(), 2 * BATCH_SIZE + 50);
+    }
+
+    /**
+     * Publishes the events, checks they are all received in the publish order.
+     *
+     * @return number of messages received
+     */
+    private long publish(String codec) throws Exception {
+        System.setProperty("daq.sensor.codec", codec);
+        SensorPublisher publisher = new SensorPublisher();
+
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(BROKER_URL);
+        PooledConnectionFactory pooledFactory = new PooledConnectionFactory(factory);
+        JmsTemplate template = new JmsTemplate(pooledFactory);
+        template.setDefaultDestination(new ActiveMQQueue(QUEUE));
+        template.setDeliveryPersistent(false);
+        publisher.setProducers(new JmsTemplate[]{template});
+        publisher.startBatching();
+
+        CountDownLatch received = new CountDownLatch(EVENTS);
+        AtomicLong messages = new AtomicLong();
+        List<Long> ciIds = Collections.synchronizedList(new ArrayList<>());
+        Connection connection = factory.createConnection();
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageConsumer consumer = session.createConsumer(new ActiveMQQueue(QUEUE));
+        consumer.setMessageListener(msg -> {
+            try {
+                messages.incrementAndGet();
+                if (msg instanceof ObjectMessage) {
+                    ciIds.add(((PerfEvent) ((ObjectMessage) msg).getObject()).getCiId());
+                    received.countDown();
+                } else if (msg instanceof BytesMessage) {
+                    BytesMessage bytesMsg = (BytesMessage) msg;
+                    byte[] data = new byte[(int) bytesMsg.getBodyLength()];
+                    bytesMsg.readBytes(data);
+                    for (PerfEvent event : PerfEventCodec.decode(data)) {
+                        ciIds.add(event.getCiId());
+                        received.countDown();
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        connection.start();
+
+        for (int i = 0; i < EVENTS; i++) {
+            publisher.publishMessage(perfEvent(i));
+        }
+        publisher.flush();
+        assertTrue(received.await(60, TimeUnit.SECONDS), "Not all the events were received");
+
+        assertEquals(publisher.getPublishedCounter(), EVENTS);
+        assertEquals(publisher.getDroppedCounter(), 0);
+        for (int i = 0; i < EVENTS; i++) {
+            assertEquals((long) ciIds.get(i), i, "event out of order");
+        }
+        connection.close();
+        publisher.cleanup();
+        return messages.get();
+    }
+
+    private static PerfEvent perfEvent(int i) {
+        PerfEvent event = new PerfEvent();
+        event.setCiId(i);
+        event.setManifestId(100 + i % 50);
+        event.setTimestamp(System.currentTimeMillis());
+        event.setChecksum(i % 50);
+        event.setSource("compute-cpu");
+        event.setBucket("1m");
+        event.getMetrics().addAvg("CpuIdle", 90.0);
+        event.getMetrics().addAvg("CpuUser", 6.0);
+        event.getMetrics().addAvg("CpuSystem", 4.0);
+        return event;
+    }
+}
@@ -18,3 +18,20 @@ CREATE TABLE kloopzcm.cms_lock (
 CREATE UNIQUE INDEX cms_lock_uln
  ON kloopzcm.cms_lock
  ( lock_name );
+
+CREATE TABLE kloopzcm.cms_event_reader (
+                lock_name VARCHAR(64) NOT NULL,
+                process_id VARCHAR(200) NOT NULL,
+                heartbeat TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL,
+                CONSTRAINT cms_event_reader_pk PRIMARY KEY (lock_name, process_id)
+);
+
+
+CREATE TABLE kloopzcm.cms_event_lease (
+                lock_name VARCHAR(64) NOT NULL,
+                partition_id INTEGER NOT NULL,
+                locked_by VARCHAR(200),
+                updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL,
+                CONSTRAINT cms_event_lease_pk PRIMARY KEY (lock_name, partition_id)
+);
+
@@ -168,6 +168,26 @@ public class Config {
   @Value("${chef_timeout:7200}")
   private long chefTimeout;
 
+  /**
+   * Number of long-lived local chef executors kept warm between work-orders. Default is 0, local
+   * chef-solo runs are forked for every work-order.
+   */
+  @Value("${warm_executors:0}")
+  private int warmExecutors;
+
+  /**
+   * Command starting a warm executor, see {@link WarmExecutorPool} for the protocol. Default is
+   * the bundled chef/warm-executor.rb run by the ruby on the path.
+   */
+  @Value("${warm_executor_cmd:}")
+  private String warmExecutorCmd;
+
+  /**
+   * Number of runs after which a warm executor is replaced by a fresh one.
+   */
+  @Value("${warm_executor_max_runs:100}")
+  private int warmExecutorMaxRuns;
+
   /**
    * Additional env variables to be used for work-order exec. The value can be file location or a
    * string containing multiple ENV_NAME=VALUE entries. Entries are separated by newline (file) or
@@ -697,6 +717,30 @@ public class Config {
     this.verifyExcludePaths = verifyExcludePaths;
   }
 
+  public int getWarmExecutors() {
+    return warmExecutors;
+  }
+
+  public void setWarmExecutors(int warmExecutors) {
+    this.warmExecutors = warmExecutors;
+  }
+
+  public String getWarmExecutorCmd() {
+    return warmExecutorCmd;
+  }
+
+  public void setWarmExecutorCmd(String warmExecutorCmd) {
+    this.warmExecutorCmd = warmExecutorCmd;
+  }
+
+  public int getWarmExecutorMaxRuns() {
+    return warmExecutorMaxRuns;
+  }
+
+  public void setWarmExecutorMaxRuns(int warmExecutorMaxRuns) {
+    this.warmExecutorMaxRuns = warmExecutorMaxRuns;
+  }
+
   public void setChefTimeout(long chefTimeout) {
     this.chefTimeout = chefTimeout;
   }
@@ -732,6 +776,9 @@ public class Config {
         ", rfcActions=" + rfcActions +
         ", cmdTimeout=" + cmdTimeout +
         ", chefTimeout=" + chefTimeout +
+        ", warmExecutors=" + warmExecutors +
+        ", warmExecutorCmd='" + warmExecutorCmd + '\'' +
+        ", warmExecutorMaxRuns=" + warmExecutorMaxRuns +
         ", env='" + env + '\'' +
         ", rebootLimit=" + rebootLimit +
         ", verifyMode=" + verifyMode +
@@ -17,15 +17,24 @@
  *******************************************************************************/
 package com.oneops.inductor;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.gson.Gson;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.util.Map;
 
+/**
+ * Logs the output of a command and picks up the results, faults and tags the recipes print.
+ * The bytes of a line are buffered and decoded once the line is complete, a line longer than
+ * {@link #maxLineLength} bytes is truncated.
+ */
 public class OutputHandler extends OutputStream {
     private Logger logger;
     private Level level;
-    private String line;
     private String logKey;
     private static String REBOOT_FLAG = "***REBOOT_FLAG***";
     private static String RESULT_KEY = "***RESULT:";
@@ -35,6 +44,12 @@ public class OutputHandler extends OutputStream {
 
     private static String ADDITIONAL_INFO_KEY = "***ADDITIONAL_INFO:";
 
+    private static final byte[] KEY_PREFIX = "***".getBytes(UTF_8);
+    private static final byte[] RESULT_BYTES = RESULT_KEY.getBytes(UTF_8);
+    private static final byte[] FAULT_BYTES = FAULT_KEY.getBytes(UTF_8);
+    private static final byte[] TAG_BYTES = TAG_KEY.getBytes(UTF_8);
+    private static final byte[] RESULTJSON_BYTES = RESULTJSON_KEY.getBytes(UTF_8);
+
     private ProcessResult result;
 
     final private Gson gson = new Gson();
@@ -43,12 +58,20 @@ public class OutputHandler extends OutputStream {
     private int rowCount = 0;
     private static int maxRowCount = 2000;
 
+    // bytes of the current line
+    private static final int INITIAL_LINE_SIZE = 1024;
+    private static final int MAX_IDLE_LINE_SIZE = 64 * 1024;
+    private static int maxLineLength = 16 * 1024 * 1024;
+    private byte[] line = new byte[INITIAL_LINE_SIZE];
+    private int lineLength = 0;
+    private boolean truncated = false;
+    private final byte[] oneByte = new byte[1];
+
     public OutputHandler(Logger logger, String logKey, ProcessResult result) {
         setLogger(logger);
         setLevel(Level.ALL);
         setLogKey(logKey);
         this.result = result;
-        line = "";
     }
 
     public void setLogger(Logger logger) {
@@ -76,109 +99,205 @@ public class OutputHandler extends OutputStream {
     }
 
     public void write(int b) {
-        byte[] bytes = new byte[1];
-        bytes[0] = (byte) (b & 0xff);
-        line = line + new String(bytes);
-
-        if (line.endsWith("\n")) {
-            line = line.substring(0, line.length() - 1);
+        if (b == '\n') {
             flush();
+        } else {
+            oneByte[0] = (byte) b;
+            append(oneByte, 0, 1);
         }
     }
 
-    public void flush() {
-        if (rowCount < maxRowCount && line.length() > 0) {
-            if (!line.contains("PRIVATE KEY")) {
-                logger.info(logKey + "cmd out: " + line);
-                result.appendStdOut(line + "\n");
+    public void write(byte[] b, int off, int len) {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (b[i] == '\n') {
+                append(b, start, i - start);
+                flush();
+                start = i + 1;
             }
+        }
+        append(b, start, end - start);
+    }
 
-            if (line.indexOf(REBOOT_FLAG) > -1)
-                result.setRebooting(true);
-
-            int keyIndex = line.indexOf(RESULT_KEY);
-            if (keyIndex == 0) {
-                String withOutResultKey = line.substring(keyIndex + 10,
-                        line.length());
-                String k = withOutResultKey.substring(0,
-                        withOutResultKey.indexOf("="));
-                String v = withOutResultKey.substring(
-                        withOutResultKey.indexOf("=") + 1,
-                        withOutResultKey.length());
-                result.getResultMap().put(k, v);
-                logger.debug(logKey + " resultCi " + k + ": " + v);
-            }
+    private void append(byte[] b, int off, int len) {
+        if (len == 0 || rowCount >= maxRowCount) {
+            // the line won't be logged
+            return;
+        }
+        int room = maxLineLength - lineLength;
+        if (len > room) {
+            truncated = true;
+            len = room;
+        }
+        if (lineLength + len > line.length) {
+            byte[] grown = new byte[Math.min(maxLineLength, Math.max(lineLength + len, line.length * 2))];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        System.arraycopy(b, off, line, lineLength, len);
+        lineLength += len;
+    }
 
-            keyIndex = line.indexOf(FAULT_KEY);
-            if (keyIndex == 0) {
-                String withOutResultKey = line.substring(keyIndex + 9,
-                        line.length());
-                String k = withOutResultKey.substring(0,
-                        withOutResultKey.indexOf("="));
-                String v = withOutResultKey.substring(
-                        withOutResultKey.indexOf("=") + 1,
-                        withOutResultKey.length());
-                result.getFaultMap().put(k, v);
-                logger.info(logKey + " fault: " + k + ": " + v);
+    public void flush() {
+        if (rowCount < maxRowCount && lineLength > 0) {
+            if (truncated) {
+                logger.warn(logKey + " cmd out line is longer than " + maxLineLength + " bytes, it's truncated");
             }
+            handleLine();
+        } else if (rowCount == maxRowCount) {
+            logger.warn(logKey
+                    + " hit max amount of output per process of "
+                    + maxRowCount
+                    + " lines. Please run the workorder on the box: chef-solo -c /home/oneops/cookbooks/chef.rb -j /opt/oneops/workorder/someworkorder ");
+        }
+        rowCount++;
+        lineLength = 0;
+        truncated = false;
+        if (line.length > MAX_IDLE_LINE_SIZE) {
+            line = new byte[INITIAL_LINE_SIZE];
+        }
+    }
 
-            keyIndex = line.indexOf(TAG_KEY);
-            if (keyIndex == 0) {
-                String withOutResultKey = line.substring(keyIndex + 7,
-                        line.length());
-                String k = withOutResultKey.substring(0,
-                        withOutResultKey.indexOf("="));
-                String v = withOutResultKey.substring(
-                        withOutResultKey.indexOf("=") + 1,
-                        withOutResultKey.length());
-                result.getTagMap().put(k, v);
-                logger.info(logKey + " tag: " + k + ": " + v);
-            }
+    private void handleLine() {
+        String text = new String(line, 0, lineLength, UTF_8);
+        if (!text.contains("PRIVATE KEY")) {
+            logger.info(logKey + "cmd out: " + text);
+            result.appendStdOut(text);
+            result.appendStdOut("\n");
+        }
 
+        if (text.contains(REBOOT_FLAG))
+            result.setRebooting(true);
+
+        byte[] key = matchKey();
+        if (key == RESULT_BYTES) {
+            String[] kv = keyValue(text, RESULT_KEY, result.getResultMap());
+            if (kv != null && logger.isDebugEnabled()) {
+                logger.debug(logKey + " resultCi " + kv[0] + ": " + kv[1]);
+            }
+        } else if (key == FAULT_BYTES) {
+            String[] kv = keyValue(text, FAULT_KEY, result.getFaultMap());
+            if (kv != null) {
+                logger.info(logKey + " fault: " + kv[0] + ": " + kv[1]);
+            }
+        } else if (key == TAG_BYTES) {
+            String[] kv = keyValue(text, TAG_KEY, result.getTagMap());
+            if (kv != null) {
+                logger.info(logKey + " tag: " + kv[0] + ": " + kv[1]);
+            }
+        } else if (key == RESULTJSON_BYTES) {
             // multi-line attributes encoded w/ json
-            keyIndex = line.indexOf(RESULTJSON_KEY);
-            if (keyIndex == 0) {
-                int firstEquals = line.indexOf("=");
-                String key = line.substring(keyIndex + 14, firstEquals);
-                String val = line.substring(firstEquals + 1,
-                        line.length());
+            resultJson(text);
+        }
 
-                MultiLineValue value = gson.fromJson(val,
-                        MultiLineValue.class);
+        int keyIndex = text.indexOf(ADDITIONAL_INFO_KEY);
+        if (keyIndex > -1) {
+            int firstEquals = text.indexOf("=", keyIndex);
+            if (firstEquals > -1) {
+                String infoKey = text.substring(keyIndex + ADDITIONAL_INFO_KEY.length(), firstEquals).trim();
+                String value = text.substring(firstEquals + 1);
+                logger.info(ADDITIONAL_INFO_KEY + " key: " + infoKey + ", value: " + value);
+                result.getAdditionInfoMap().put(infoKey, value);
+            }
+        }
 
-                result.getResultMap().put(key, value.getValue());
-                if (!value.getValue().contains("PRIVATE KEY"))
-                    logger.debug(logKey + " resultCi " + key + ": "
-                            + val);
+        // set last error to use if faults are empty
+        keyIndex = text.indexOf("ERROR:");
+        if (keyIndex > -1) {
+            result.setLastError(text.substring(keyIndex + 6));
+        }
+    }
 
-            }
+    /**
+     * Matches the start of the line against the result, fault, tag and result json keys in one
+     * pass, they all start with *** and differ from the 4th byte on.
+     *
+     * @return the matching key, <code>null</code> if none.
+     */
+    private byte[] matchKey() {
+        if (!startsWith(KEY_PREFIX) || lineLength <= KEY_PREFIX.length) {
+            return null;
+        }
+        byte[] key;
+        switch (line[KEY_PREFIX.length]) {
+            case 'R':
+                key = lineLength > RESULT_BYTES.length - 1 && line[RESULT_BYTES.length - 1] == ':'
+                        ? RESULT_BYTES : RESULTJSON_BYTES;
+                break;
+            case 'F':
+                key = FAULT_BYTES;
+                break;
+            case 'T':
+                key = TAG_BYTES;
+                break;
+            default:
+                return null;
+        }
+        return startsWith(key) ? key : null;
+    }
 
-            keyIndex = line.indexOf(ADDITIONAL_INFO_KEY);
-            if (keyIndex > -1) {
-                int firstEquals = line.indexOf("=", keyIndex);
-                if (firstEquals > -1) {
-                    String key = line.substring(keyIndex + ADDITIONAL_INFO_KEY.length(), firstEquals).trim();
-                    String value = line.substring(firstEquals + 1);
-                    logger.info(ADDITIONAL_INFO_KEY + " key: " + key + ", value: " + value);
-                    result.getAdditionInfoMap().put(key, value);
-                }
+    private boolean startsWith(byte[] prefix) {
+        if (lineLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[i] != prefix[i]) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            // set last error to use if faults are empty
-            keyIndex = line.indexOf("ERROR:");
-            if (keyIndex > -1) {
-                result.setLastError(line.substring(keyIndex + 6, line.length()));
-            }
+    /**
+     * Puts the key=value following the line key in the map.
+     *
+     * @return the key and value, <code>null</code> if there is no =.
+     */
+    private String[] keyValue(String text, String lineKey, Map<String, String> map) {
+        int equals = text.indexOf('=', lineKey.length());
+        if (equals < 0) {
+            logger.warn(logKey + " no value in cmd out: " + lineKey);
+            return null;
+        }
+        String k = text.substring(lineKey.length(), equals);
+        String v = text.substring(equals + 1);
+        map.put(k, v);
+        return new String[]{k, v};
+    }
 
+    /**
+     * Parses the json value of a result json line straight from the line bytes.
+     */
+    private void resultJson(String text) {
+        int firstEquals = text.indexOf('=');
+        int valueStart = indexOf((byte) '=') + 1;
+        if (firstEquals < 0) {
+            logger.warn(logKey + " no value in cmd out: " + RESULTJSON_KEY);
+            return;
+        }
+        String key = text.substring(RESULTJSON_KEY.length(), firstEquals);
+        MultiLineValue value = gson.fromJson(
+                new InputStreamReader(new ByteArrayInputStream(line, valueStart, lineLength - valueStart), UTF_8),
+                MultiLineValue.class);
+        if (value == null || value.getValue() == null) {
+            logger.warn(logKey + " no value in cmd out: " + RESULTJSON_KEY + key);
+            return;
+        }
 
-        } else if (rowCount == maxRowCount) {
-            logger.warn(logKey
-                    + " hit max amount of output per process of "
-                    + maxRowCount
-                    + " lines. Please run the workorder on the box: chef-solo -c /home/oneops/cookbooks/chef.rb -j /opt/oneops/workorder/someworkorder ");
+        result.getResultMap().put(key, value.getValue());
+        if (logger.isDebugEnabled() && !value.getValue().contains("PRIVATE KEY"))
+            logger.debug(logKey + " resultCi " + key + ": "
+                    + text.substring(firstEquals + 1));
+    }
+
+    private int indexOf(byte b) {
+        for (int i = 0; i < lineLength; i++) {
+            if (line[i] == b) {
+                return i;
+            }
         }
-        rowCount++;
-        line = "";
+        return -1;
     }
 
-}
\ No newline at end of file
+}
@@ -25,6 +25,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import com.oneops.cms.util.CmsConstants;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
@@ -41,12 +42,31 @@ public class ProcessRunner {
 
   private int timeoutInSeconds = 7200; // 2hr
 
+  // retries back off exponentially from the base, with jitter
+  private long retryBackoffBaseMs = 2000;
+
+  private long retryBackoffMaxMs = 60000;
+
   private Config config;
 
+  private WarmExecutorPool warmExecutorPool;
+
   ProcessRunner(Config config) {
     this.config = config;
   }
 
+  public void setWarmExecutorPool(WarmExecutorPool warmExecutorPool) {
+    this.warmExecutorPool = warmExecutorPool;
+  }
+
+  public void setRetryBackoffBaseMs(long retryBackoffBaseMs) {
+    this.retryBackoffBaseMs = retryBackoffBaseMs;
+  }
+
+  public void setRetryBackoffMaxMs(long retryBackoffMaxMs) {
+    this.retryBackoffMaxMs = retryBackoffMaxMs;
+  }
+
   public int getTimeoutInSeconds() {
     return timeoutInSeconds;
   }
@@ -153,10 +173,9 @@ public class ProcessRunner {
       count++;
       try {
         if (result.getResultCode() != 0 && count - 1 < max_retries) {
-          // retry quick (1 sec) then decay
-          long sleepSec = count * 7 - 6;
-          logger.info("sleeping " + sleepSec + " sec...");
-          Thread.sleep(sleepSec * 1000L);
+          long sleepMs = retryBackoff(count);
+          logger.info("sleeping " + sleepMs + " ms...");
+          Thread.sleep(sleepMs);
         }
       } catch(InterruptedException ie) {
         ie.printStackTrace();
@@ -170,7 +189,20 @@ public class ProcessRunner {
   }
 
   /**
-   * Creates a process and logs the output
+   * Backoff before a retry, half of it random so the retries of the work-orders that failed
+   * together spread out.
+   *
+   * @param retry retry number, from 1
+   * @return sleep time in ms, the base doubled for every retry up to the max.
+   */
+  long retryBackoff(int retry) {
+    long backoff = Math.min(retryBackoffMaxMs, retryBackoffBaseMs << Math.min(retry - 1, 20));
+    return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+  }
+
+  /**
+   * Creates a process and logs the output. Local chef-solo runs go to a warm executor when
+   * there is one available.
    */
   public void executeProcess(String[] cmd, String logKey, ProcessResult result,
       Map<String, String> additionalEnvVars, File workingDir) {
@@ -179,6 +211,17 @@ public class ProcessRunner {
     logger.info(format("%s Cmd: %s, Additional Env Vars: %s", logKey,
         String.join(" ", cmd), additionalEnvVars));
 
+    if (warmExecutorPool != null && warmExecutorPool.handles(cmd)) {
+      setTimeoutInSeconds((int)config.getChefTimeout());
+      if (warmExecutorPool.execute(cmd, env, workingDir, logKey, result, timeoutInSeconds)) {
+        // set fault to last error if fault map is empty
+        if (result.getResultCode() != 0 && result.getFaultMap().keySet().size() < 1) {
+          result.getFaultMap().put("ERROR", result.getLastError());
+        }
+        return;
+      }
+    }
+
     try {
       CommandLine cmdLine = new CommandLine(cmd[0]);
       // add rest of cmd string[] as arguments
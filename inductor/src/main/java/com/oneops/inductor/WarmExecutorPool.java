@@ -0,0 +1,489 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.inductor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.oneops.inductor.util.ResourceUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * A pool of long-lived local executor processes running chef-solo for the inductor, so the
+ * ruby startup and the loading of the chef libraries are paid once per executor instead of once
+ * per work-order. Every run is still a full chef-solo run, it loads and compiles the cookbooks
+ * of its work-order. An executor talks to the inductor over its stdin and stdout:
+ * <ul>
+ * <li>the executor writes a line <code>***EXECUTOR_READY</code> once it is loaded</li>
+ * <li>the inductor writes a run as a json line: the chef-solo command line <code>cmd</code>,
+ * the environment <code>env</code> of the run and its working dir <code>dir</code></li>
+ * <li>the executor writes the output of the run on stdout, then a new line, as the output may
+ * not end with one, and a line <code>***EXECUTOR_EXIT:&lt;exit code&gt;</code>, and waits for
+ * the next run</li>
+ * <li>the stderr of the executor goes to the run in progress</li>
+ * <li>the executor exits when its stdin is closed</li>
+ * </ul>
+ * The bundled <code>chef/warm-executor.rb</code> is run with the ruby on the path unless
+ * {@link Config#getWarmExecutorCmd()} is set, it forks every run from the loaded chef.
+ * An executor is replaced after {@link Config#getWarmExecutorMaxRuns()} runs, when it dies and
+ * when a run times out. A run falls back to a forked chef-solo when all the executors are busy or
+ * none can be started, after a failed start no executor is started for a minute.
+ */
+public class WarmExecutorPool {
+
+  private static final Logger logger = Logger.getLogger(WarmExecutorPool.class);
+
+  private static final String CHEF_SOLO = "chef-solo";
+  private static final String BUNDLED_EXECUTOR = "/chef/warm-executor.rb";
+  private static final String READY_KEY = "***EXECUTOR_READY";
+  private static final String EXIT_KEY = "***EXECUTOR_EXIT:";
+  private static final byte[] EXIT_BYTES = EXIT_KEY.getBytes(UTF_8);
+  private static final int READY_TIMEOUT_SECONDS = 120;
+  private static final long START_RETRY_DELAY_MS = 60000;
+  private static final int READ_BUFFER_SIZE = 8192;
+  // exit code of a run killed on timeout, same as the forked process killed by the watchdog
+  private static final int TIMEOUT_EXIT_CODE = 143;
+
+  private final Config config;
+  private final Gson gson = new Gson();
+
+  private final LinkedBlockingQueue<Executor> idle = new LinkedBlockingQueue<>();
+  private final Set<Executor> executors = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger live = new AtomicInteger();
+  private final AtomicInteger started = new AtomicInteger();
+  private ScheduledExecutorService watchdog;
+  private List<String> command;
+  private volatile boolean running;
+  private volatile long noStartUntil;
+
+  public WarmExecutorPool(Config config) {
+    this.config = config;
+  }
+
+  public void init() throws IOException {
+    if (!isEnabled()) {
+      logger.info("Warm executors are disabled, local chef-solo runs are forked.");
+      return;
+    }
+    command = executorCommand();
+    watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "warm-executor-watchdog");
+      t.setDaemon(true);
+      return t;
+    });
+    running = true;
+    // the executors load in parallel
+    List<Executor> starting = new ArrayList<>();
+    for (int i = 0; i < config.getWarmExecutors(); i++) {
+      Executor executor = launch();
+      if (executor != null) {
+        starting.add(executor);
+      }
+    }
+    for (Executor executor : starting) {
+      if (ready(executor)) {
+        idle.add(executor);
+      }
+    }
+    logger.info("Started " + live.get() + " warm executors: " + String.join(" ", command));
+  }
+
+  public void destroy() {
+    running = false;
+    for (Executor executor : executors) {
+      executor.stop();
+    }
+    if (watchdog != null) {
+      watchdog.shutdownNow();
+    }
+  }
+
+  private boolean isEnabled() {
+    return config.getWarmExecutors() > 0;
+  }
+
+  /**
+   * The configured executor command, the bundled executor run by ruby if there is none.
+   */
+  private List<String> executorCommand() throws IOException {
+    String cmd = config.getWarmExecutorCmd();
+    if (cmd != null && !cmd.trim().isEmpty()) {
+      return Arrays.asList(cmd.trim().split("\\s+"));
+    }
+    Path script = Files.createTempFile("warm-executor", ".rb");
+    script.toFile().deleteOnExit();
+    Files.write(script, ResourceUtils.readResourceAsBytes(BUNDLED_EXECUTOR));
+    return Arrays.asList("ruby", script.toString());
+  }
+
+  /**
+   * @return <code>true</code> if the command is a local chef-solo run the pool can take.
+   */
+  public boolean handles(String[] cmd) {
+    return running && cmd.length > 0 && CHEF_SOLO.equals(new File(cmd[0]).getName());
+  }
+
+  /**
+   * Runs the command on a warm executor.
+   *
+   * @param cmd chef-solo command line
+   * @param env environment of the run
+   * @param workingDir working dir of the run, <code>null</code> for the one of the executor
+   * @param logKey log key
+   * @param result process result
+   * @param timeoutInSeconds run timeout
+   * @return <code>false</code> if no executor could take the run, it should be forked.
+   */
+  public boolean execute(String[] cmd, Map<String, String> env, File workingDir, String logKey,
+      ProcessResult result, int timeoutInSeconds) {
+    Executor executor = acquire();
+    if (executor == null) {
+      logger.info(logKey + "no warm executor available, forking the process");
+      return false;
+    }
+    logger.info(logKey + "running on warm executor " + executor.id);
+    executor.run(cmd, env, workingDir, logKey, result, timeoutInSeconds);
+    release(executor);
+    return true;
+  }
+
+  private Executor acquire() {
+    Executor executor;
+    while ((executor = idle.poll()) != null) {
+      if (executor.isAlive()) {
+        return executor;
+      }
+      retire(executor);
+    }
+    // replace the executors that were retired
+    if (live.get() < config.getWarmExecutors() && System.currentTimeMillis() >= noStartUntil) {
+      executor = launch();
+      if (executor != null && ready(executor)) {
+        return executor;
+      }
+    }
+    return null;
+  }
+
+  private void release(Executor executor) {
+    if (running && !executor.broken && executor.isAlive()
+        && executor.runs < config.getWarmExecutorMaxRuns()) {
+      idle.add(executor);
+    } else {
+      retire(executor);
+    }
+  }
+
+  private Executor launch() {
+    if (live.incrementAndGet() > config.getWarmExecutors()) {
+      live.decrementAndGet();
+      return null;
+    }
+    int id = started.incrementAndGet();
+    try {
+      ProcessBuilder builder = new ProcessBuilder(command);
+      if (config.getEnvVars() != null) {
+        builder.environment().putAll(config.getEnvVars());
+      }
+      Executor executor = new Executor(id, builder.start());
+      executors.add(executor);
+      return executor;
+    } catch (IOException e) {
+      live.decrementAndGet();
+      startFailed();
+      logger.error("Can't start warm executor " + id + ": " + String.join(" ", command), e);
+      return null;
+    }
+  }
+
+  /**
+   * Waits for the executor to be loaded, retires it if it fails to.
+   */
+  private boolean ready(Executor executor) {
+    if (executor.awaitReady()) {
+      return true;
+    }
+    logger.error("Warm executor " + executor.id + " did not get ready, see its err output");
+    startFailed();
+    retire(executor);
+    return false;
+  }
+
+  private void startFailed() {
+    noStartUntil = System.currentTimeMillis() + START_RETRY_DELAY_MS;
+  }
+
+  private void retire(Executor executor) {
+    if (executors.remove(executor)) {
+      live.decrementAndGet();
+      executor.stop();
+      logger.info("Retired warm executor " + executor.id + " after " + executor.runs + " runs");
+    }
+  }
+
+  /**
+   * @return number of executor processes started so far
+   */
+  public int getStarted() {
+    return started.get();
+  }
+
+  /**
+   * An executor process.
+   */
+  private class Executor {
+
+    private final int id;
+    private final Process process;
+    private final OutputStream in;
+    private final InputStream out;
+    private byte[] buf = new byte[READ_BUFFER_SIZE];
+    // the bytes read but not handled yet are buf[start, end)
+    private int start;
+    private int end;
+    private volatile ErrorHandler stderr;
+    private int runs;
+    // the last run did not end with its exit line
+    private boolean broken;
+
+    Executor(int id, Process process) {
+      this.id = id;
+      this.process = process;
+      this.in = process.getOutputStream();
+      this.out = process.getInputStream();
+      Thread stderr = new Thread(this::readStderr, "warm-executor-" + id + "-stderr");
+      stderr.setDaemon(true);
+      stderr.start();
+    }
+
+    boolean isAlive() {
+      return process.isAlive();
+    }
+
+    /**
+     * Reads the output of the executor up to its ready line.
+     */
+    boolean awaitReady() {
+      ScheduledFuture<?> timeout = watchdog.schedule(process::destroy, READY_TIMEOUT_SECONDS,
+          TimeUnit.SECONDS);
+      try {
+        String line;
+        while ((line = readLine()) != null) {
+          if (line.equals(READY_KEY)) {
+            return true;
+          }
+          logger.info("warm executor " + id + ": " + line);
+        }
+      } catch (IOException e) {
+        logger.error("warm executor " + id + " failed", e);
+      } finally {
+        timeout.cancel(false);
+      }
+      return false;
+    }
+
+    void run(String[] cmd, Map<String, String> env, File workingDir, String logKey,
+        ProcessResult result, int timeoutInSeconds) {
+      runs++;
+      AtomicBoolean timedOut = new AtomicBoolean();
+      ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+        timedOut.set(true);
+        logger.warn(logKey + "warm executor " + id + " timed out after " + timeoutInSeconds + " sec");
+        process.destroy();
+      }, timeoutInSeconds, TimeUnit.SECONDS);
+      OutputHandler handler = new OutputHandler(logger, logKey, result);
+      stderr = new ErrorHandler(logger, logKey, result);
+      try {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("cmd", cmd);
+        request.put("env", env);
+        if (workingDir != null) {
+          request.put("dir", workingDir.getAbsolutePath());
+        }
+        in.write((gson.toJson(request) + "\n").getBytes(UTF_8));
+        in.flush();
+        Integer exitCode = pipeOutput(handler);
+        handler.flush();
+        if (exitCode != null) {
+          result.setResultCode(exitCode);
+          return;
+        }
+        logger.error(logKey + "warm executor " + id + " exited during the run");
+        broken = true;
+        result.setResultCode(timedOut.get() ? TIMEOUT_EXIT_CODE : 1);
+      } catch (IOException | NumberFormatException e) {
+        logger.error(logKey + "warm executor " + id + " failed", e);
+        broken = true;
+        process.destroy();
+        result.setResultCode(timedOut.get() ? TIMEOUT_EXIT_CODE : 1);
+      } finally {
+        stderr = null;
+        timeout.cancel(false);
+      }
+    }
+
+    /**
+     * Hands the output of the run over to the handler straight from the read buffer, up to the
+     * exit line. Only the start of a line that may be the exit line is held back until it is
+     * complete.
+     *
+     * @return exit code of the run, <code>null</code> if the executor exited
+     */
+    private Integer pipeOutput(OutputHandler handler) throws IOException {
+      boolean lineStart = true;
+      while (true) {
+        while (start < end) {
+          int newline = indexOf('\n', start, end);
+          if (lineStart) {
+            int length = (newline < 0 ? end : newline) - start;
+            if (regionMatches(start, Math.min(length, EXIT_BYTES.length))
+                && (newline < 0 || length >= EXIT_BYTES.length)) {
+              if (newline < 0) {
+                // need the rest of the line
+                break;
+              }
+              String code = new String(buf, start + EXIT_BYTES.length, length - EXIT_BYTES.length, UTF_8);
+              start = newline + 1;
+              return Integer.parseInt(code.trim());
+            }
+          }
+          int to = newline < 0 ? end : newline + 1;
+          handler.write(buf, start, to - start);
+          start = to;
+          lineStart = newline >= 0;
+        }
+        if (!fill()) {
+          handler.write(buf, start, end - start);
+          start = end;
+          return null;
+        }
+      }
+    }
+
+    private String readLine() throws IOException {
+      while (true) {
+        int newline = indexOf('\n', start, end);
+        if (newline >= 0) {
+          String line = new String(buf, start, newline - start, UTF_8);
+          start = newline + 1;
+          return line;
+        }
+        if (!fill()) {
+          return null;
+        }
+      }
+    }
+
+    /**
+     * Reads more output after the unhandled bytes.
+     *
+     * @return false at the end of the output
+     */
+    private boolean fill() throws IOException {
+      if (start > 0) {
+        System.arraycopy(buf, start, buf, 0, end - start);
+        end -= start;
+        start = 0;
+      }
+      if (end == buf.length) {
+        buf = Arrays.copyOf(buf, buf.length * 2);
+      }
+      int n = out.read(buf, end, buf.length - end);
+      if (n < 0) {
+        return false;
+      }
+      end += n;
+      return true;
+    }
+
+    private int indexOf(char c, int from, int to) {
+      for (int i = from; i < to; i++) {
+        if (buf[i] == c) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private boolean regionMatches(int offset, int length) {
+      for (int i = 0; i < length; i++) {
+        if (buf[offset + i] != EXIT_BYTES[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void stop() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // it's stopping anyway
+      }
+      try {
+        if (!process.waitFor(5, TimeUnit.SECONDS)) {
+          process.destroyForcibly();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        process.destroyForcibly();
+      }
+    }
+
+    /**
+     * Passes the err output to the run in progress, logs it between the runs.
+     */
+    private void readStderr() {
+      try (BufferedReader err = new BufferedReader(new InputStreamReader(process.getErrorStream(), UTF_8))) {
+        String line;
+        while ((line = err.readLine()) != null) {
+          ErrorHandler handler = stderr;
+          if (handler == null) {
+            logger.info("warm executor " + id + " err: " + line);
+          } else {
+            handler.write((line + "\n").getBytes(UTF_8));
+          }
+        }
+      } catch (IOException e) {
+        // the executor is gone
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+#
+# Warm chef-solo executor of the inductor, see com.oneops.inductor.WarmExecutorPool.
+#
+# Loads the chef libraries once, then forks a full chef-solo run for every request read on stdin,
+# so a run pays the fork instead of the ruby startup and the chef loading. Every run still loads
+# and compiles its cookbooks. A request is a json line:
+#   {"cmd": ["chef-solo", "-l", "info", ...], "env": {"NAME": "value"}, "dir": "/some/dir"}
+# The run gets exactly the given environment and working dir. Its output goes to stdout, its
+# errors to stderr. Then the executor writes a new line, so the exit line starts a line even if
+# the run didn't end its last one, then ***EXECUTOR_EXIT:<exit code>, and waits for the next
+# request. The executor exits when its stdin is closed, and kills the run in progress when it
+# is killed.
+#
+require 'json'
+require 'chef'
+require 'chef/application/solo'
+
+$stdout.sync = true
+$stderr.sync = true
+$run_pid = nil
+
+%w(TERM INT).each do |signal|
+  trap(signal) do
+    Process.kill('TERM', $run_pid) rescue nil if $run_pid
+    exit!(143)
+  end
+end
+
+puts '***EXECUTOR_READY'
+
+while (line = $stdin.gets)
+  request = JSON.parse(line)
+  $run_pid = fork do
+    %w(TERM INT).each { |signal| trap(signal, 'DEFAULT') }
+    $stdin.reopen('/dev/null')
+    ENV.replace(request['env']) if request['env']
+    Dir.chdir(request['dir']) if request['dir']
+    $PROGRAM_NAME = request['cmd'].first
+    ARGV.replace(request['cmd'].drop(1))
+    Chef::Application::Solo.new.run
+  end
+  _, status = Process.wait2($run_pid)
+  $run_pid = nil
+  puts "\n***EXECUTOR_EXIT:#{status.exitstatus || 128 + status.termsig.to_i}"
+end
@@ -0,0 +1,39 @@
+package com.oneops.inductor;
+
+import static com.oneops.inductor.OutputHandlerTest.MB;
+
+import com.google.gson.Gson;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Throughput of the {@link OutputHandler} on the chef output of {@link OutputHandlerTest}, with
+ * result json lines of 1MB, written the way the stream pumper does:
+ * <pre>
+ * java -cp ... com.oneops.inductor.OutputHandlerBenchmark [megabytes]
+ * </pre>
+ */
+public class OutputHandlerBenchmark {
+
+  public static void main(String[] args) {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    MultiLineValue value = OutputHandlerTest.certificate();
+    String json = new Gson().toJson(value);
+    ByteArrayOutputStream out = new ByteArrayOutputStream((megabytes + 2) * MB);
+    int results = OutputHandlerTest.output(out, json, megabytes * MB);
+    byte[] bytes = out.toByteArray();
+
+    OutputHandlerTest fixture = new OutputHandlerTest();
+    fixture.setup();
+    long start = System.nanoTime();
+    fixture.pump(bytes);
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    if (fixture.result.getResultMap().size() != results
+        || !value.getValue().equals(fixture.result.getResultMap().get("cert0"))) {
+      throw new IllegalStateException("got " + fixture.result.getResultMap().size()
+          + " results of " + results);
+    }
+    System.out.println(String.format("%dMB of output, %d result json lines of %dKB: %.2fs, %.0fMB/s",
+        bytes.length / MB, results, json.length() / 1024, seconds, bytes.length / MB / seconds));
+  }
+}
@@ -0,0 +1,58 @@
+package com.oneops.inductor;
+
+/**
+ * Overhead per work-order of the stand-in chef-solo of {@link WarmExecutorPoolTest}, forked for
+ * every run and on warm executors, for sequential and concurrent runs:
+ * <pre>
+ * java -cp ... com.oneops.inductor.WarmExecutorPoolBenchmark [sequential] [concurrent]
+ * </pre>
+ */
+public class WarmExecutorPoolBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int sequential = args.length > 0 ? Integer.parseInt(args[0]) : WarmExecutorPoolTest.SEQUENTIAL;
+    int concurrent = args.length > 1 ? Integer.parseInt(args[1]) : WarmExecutorPoolTest.CONCURRENT;
+    WarmExecutorPoolTest fixture = new WarmExecutorPoolTest();
+    fixture.folder.create();
+    try {
+      fixture.setup();
+      ProcessRunner forked = new ProcessRunner(fixture.config);
+      double forkedSequential = sequential(fixture, forked, sequential);
+      double forkedConcurrent = concurrent(fixture, forked, concurrent);
+
+      fixture.config.setWarmExecutors(concurrent);
+      fixture.pool = fixture.newPool();
+      ProcessRunner warm = new ProcessRunner(fixture.config);
+      warm.setWarmExecutorPool(fixture.pool);
+      double warmSequential = sequential(fixture, warm, sequential);
+      double warmConcurrent = concurrent(fixture, warm, concurrent);
+
+      System.out.println(String.format("Per work-order: %d sequential %.1fms forked, %.1fms warm;"
+              + " %d concurrent %.1fms forked, %.1fms warm; %d executors started",
+          sequential, forkedSequential, warmSequential, concurrent, forkedConcurrent, warmConcurrent,
+          fixture.pool.getStarted()));
+    } finally {
+      fixture.tearDown();
+      fixture.folder.delete();
+    }
+  }
+
+  /**
+   * @return ms per work-order
+   */
+  private static double sequential(WarmExecutorPoolTest fixture, ProcessRunner runner, int runs) {
+    long start = System.nanoTime();
+    fixture.sequential(runner, runs);
+    return (System.nanoTime() - start) / 1e6 / runs;
+  }
+
+  /**
+   * @return ms per work-order
+   */
+  private static double concurrent(WarmExecutorPoolTest fixture, ProcessRunner runner, int runs)
+      throws Exception {
+    long start = System.nanoTime();
+    fixture.concurrent(runner, runs);
+    return (System.nanoTime() - start) / 1e6 / runs;
+  }
+}
@@ -0,0 +1,258 @@
+package com.oneops.inductor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs work-orders on a stand-in chef-solo, forked for every run and on warm executors. The
+ * stand-in takes 100ms to start, like ruby loading the chef libraries, and prints a result of the
+ * run. The stand-in executor prints the request of the run as its result. See
+ * {@link WarmExecutorPoolBenchmark} for the overhead per work-order.
+ */
+public class WarmExecutorPoolTest {
+
+  private static final String STARTUP = "sleep 0.1";
+  static final int SEQUENTIAL = 200;
+  static final int CONCURRENT = 50;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File chefSolo;
+  private final Map<String, String> envVars = new HashMap<>();
+  Config config;
+  WarmExecutorPool pool;
+
+  @Before
+  public void setup() throws IOException {
+    chefSolo = script("chef-solo",
+        STARTUP,
+        "if [ \"$4\" = hang.json ]; then sleep 30; fi",
+        "echo Starting Chef Client",
+        "echo \"***RESULT:run=$4\"");
+    File executor = script("executor",
+        STARTUP,
+        "echo '***EXECUTOR_READY'",
+        "while read -r req; do",
+        "  case \"$req\" in *hang.json*) exec sleep 30;; esac",
+        "  case \"$req\" in *long.json*) head -c 20000 /dev/zero | tr '\\0' x; echo;; esac",
+        "  case \"$req\" in *stderr.json*) echo 'cookbook not found' >&2; sleep 0.2;; esac",
+        "  echo Starting Chef Client",
+        "  echo \"***RESULT:run=$req\"",
+        "  case \"$req\" in *unterminated.json*) printf 'converged';; esac",
+        "  case \"$req\" in *fail.json*) printf '\\n***EXECUTOR_EXIT:3\\n'; continue;; esac",
+        "  printf '\\n***EXECUTOR_EXIT:0\\n'",
+        "done");
+    // the env vars are read from the file or the string at init
+    config = new Config() {
+      @Override
+      public Map<String, String> getEnvVars() {
+        return envVars;
+      }
+    };
+    config.setChefTimeout(60);
+    config.setWarmExecutorCmd(executor.getAbsolutePath());
+    config.setWarmExecutorMaxRuns(100);
+  }
+
+  @After
+  public void tearDown() {
+    if (pool != null) {
+      pool.destroy();
+    }
+  }
+
+  @Test
+  public void runsOnWarmExecutors() throws Exception {
+    config.setWarmExecutors(CONCURRENT);
+    pool = newPool();
+    ProcessRunner warm = new ProcessRunner(config);
+    warm.setWarmExecutorPool(pool);
+    sequential(warm, SEQUENTIAL);
+    concurrent(warm, CONCURRENT);
+
+    // the executors are replaced after max runs
+    assertTrue(pool.getStarted() <= CONCURRENT + (SEQUENTIAL + CONCURRENT) / 100 + 1);
+  }
+
+  @Test
+  public void runGetsItsEnvAndWorkingDir() throws Exception {
+    config.setWarmExecutors(1);
+    pool = newPool();
+    ProcessRunner warm = new ProcessRunner(config);
+    warm.setWarmExecutorPool(pool);
+    File dir = folder.newFolder("wo");
+
+    envVars.put("WO_VAR", "first");
+    ProcessResult result = new ProcessResult();
+    warm.executeProcess(new String[]{"chef-solo", "-j", "wo.json"}, "", result,
+        Collections.singletonMap("EXTRA_VAR", "extra"), dir);
+    String run = result.getResultMap().get("run");
+    assertTrue(run, run.contains("\"WO_VAR\":\"first\""));
+    assertTrue(run, run.contains("\"EXTRA_VAR\":\"extra\""));
+    assertTrue(run, run.contains("\"dir\":\"" + dir.getAbsolutePath() + "\""));
+
+    // not the env of the executor start
+    envVars.put("WO_VAR", "second");
+    result = new ProcessResult();
+    warm.executeProcess(new String[]{"chef-solo", "-j", "wo.json"}, "", result, null, null);
+    assertTrue(result.getResultMap().get("run").contains("\"WO_VAR\":\"second\""));
+    assertEquals(1, pool.getStarted());
+  }
+
+  @Test
+  public void outputAndExitCodeOfTheRun() throws Exception {
+    config.setWarmExecutors(1);
+    pool = newPool();
+    ProcessRunner warm = new ProcessRunner(config);
+    warm.setWarmExecutorPool(pool);
+
+    ProcessResult result = warm.executeProcessRetry(cmd("fail"), "", 0);
+    assertEquals(3, result.getResultCode());
+    assertTrue(result.getResultMap().get("run").contains("fail.json"));
+
+    // longer than the read buffer
+    result = warm.executeProcessRetry(cmd("long"), "", 0);
+    assertEquals(0, result.getResultCode());
+    assertTrue(result.getStdOut().contains(new String(new char[20000]).replace('\0', 'x')));
+
+    result = warm.executeProcessRetry(cmd("stderr"), "", 0);
+    assertEquals(0, result.getResultCode());
+    assertEquals("cookbook not found\n", result.getStdErr());
+
+    // the last line of the output has no new line
+    result = warm.executeProcessRetry(cmd("unterminated"), "", 0);
+    assertEquals(0, result.getResultCode());
+    assertTrue(result.getStdOut().contains("converged"));
+    assertEquals(1, pool.getStarted());
+  }
+
+  @Test
+  public void forksWhenTheExecutorDoesNotStart() throws Exception {
+    config.setWarmExecutorCmd(script("broken", "echo 'cannot load chef' >&2", "exit 1").getAbsolutePath());
+    config.setWarmExecutors(1);
+    pool = newPool();
+    ProcessRunner warm = new ProcessRunner(config);
+    warm.setWarmExecutorPool(pool);
+
+    for (int i = 0; i < 3; i++) {
+      ProcessResult result = warm.executeProcessRetry(cmd("wo-" + i), "", 0);
+      assertEquals(0, result.getResultCode());
+      // the stand-in chef-solo prints its json arg
+      assertEquals("wo-" + i + ".json", result.getResultMap().get("run"));
+    }
+    // not started again right away
+    assertEquals(1, pool.getStarted());
+  }
+
+  @Test
+  public void timedOutRunIsKilledAndReplaced() throws Exception {
+    config.setChefTimeout(1);
+    config.setWarmExecutors(1);
+    pool = newPool();
+    ProcessRunner warm = new ProcessRunner(config);
+    warm.setWarmExecutorPool(pool);
+
+    ProcessResult result = warm.executeProcessRetry(cmd("hang"), "", 0);
+    assertEquals(143, result.getResultCode());
+    result = warm.executeProcessRetry(cmd("next"), "", 0);
+    assertEquals(0, result.getResultCode());
+    assertTrue(result.getResultMap().get("run").contains("next.json"));
+    assertEquals(2, pool.getStarted());
+  }
+
+  @Test
+  public void forksWhenTheExecutorsAreBusy() throws Exception {
+    config.setWarmExecutors(1);
+    pool = newPool();
+    ProcessRunner warm = new ProcessRunner(config);
+    warm.setWarmExecutorPool(pool);
+
+    ExecutorService threads = Executors.newFixedThreadPool(4);
+    List<Future<ProcessResult>> results = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      String name = "wo-" + i;
+      results.add(threads.submit(() -> warm.executeProcessRetry(cmd(name), "", 0)));
+    }
+    for (int i = 0; i < 4; i++) {
+      ProcessResult result = results.get(i).get();
+      assertEquals(0, result.getResultCode());
+      assertTrue(result.getResultMap().get("run").contains("wo-" + i + ".json"));
+    }
+    threads.shutdown();
+    assertEquals(1, pool.getStarted());
+  }
+
+  @Test
+  public void retryBackoffIsJittered() {
+    ProcessRunner runner = new ProcessRunner(config);
+    for (int i = 0; i < 100; i++) {
+      long first = runner.retryBackoff(1);
+      assertTrue(first >= 1000 && first <= 2000);
+      long third = runner.retryBackoff(3);
+      assertTrue(third >= 4000 && third <= 8000);
+      long capped = runner.retryBackoff(30);
+      assertTrue(capped >= 30000 && capped <= 60000);
+    }
+  }
+
+  WarmExecutorPool newPool() throws IOException {
+    WarmExecutorPool pool = new WarmExecutorPool(config);
+    pool.init();
+    return pool;
+  }
+
+  void sequential(ProcessRunner runner, int runs) {
+    for (int i = 0; i < runs; i++) {
+      ProcessResult result = runner.executeProcessRetry(cmd("wo-" + i), "", 0);
+      assertEquals(0, result.getResultCode());
+      assertTrue(result.getResultMap().get("run").contains("wo-" + i + ".json"));
+    }
+  }
+
+  void concurrent(ProcessRunner runner, int runs) throws Exception {
+    ExecutorService threads = Executors.newFixedThreadPool(runs);
+    List<Future<ProcessResult>> results = new ArrayList<>();
+    for (int i = 0; i < runs; i++) {
+      String name = "wo-" + i;
+      results.add(threads.submit(() -> runner.executeProcessRetry(cmd(name), "", 0)));
+    }
+    for (Future<ProcessResult> result : results) {
+      assertEquals(0, result.get().getResultCode());
+    }
+    threads.shutdown();
+  }
+
+  private String[] cmd(String name) {
+    return new String[]{chefSolo.getAbsolutePath(), "-c", "chef.rb", "-j", name + ".json"};
+  }
+
+  private File script(String name, String... lines) throws IOException {
+    File script = folder.newFile(name);
+    List<String> content = new ArrayList<>();
+    content.add("#!/bin/bash");
+    for (String line : lines) {
+      content.add(line);
+    }
+    Files.write(script.toPath(), content);
+    assertTrue(script.setExecutable(true));
+    return script;
+  }
+}
@@ -21,8 +21,12 @@ import static me.prettyprint.hector.api.factory.HFactory.createKeyspace;
 import static me.prettyprint.hector.api.factory.HFactory.createMutator;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -37,10 +41,13 @@ import com.oneops.sensor.events.PerfEventPayload;
 
 import me.prettyprint.cassandra.model.BasicColumnFamilyDefinition;
 import me.prettyprint.cassandra.model.ConfigurableConsistencyLevel;
+import me.prettyprint.cassandra.model.ExecutingKeyspace;
+import me.prettyprint.cassandra.model.KeyspaceOperationCallback;
 import me.prettyprint.cassandra.serializers.BytesArraySerializer;
 import me.prettyprint.cassandra.serializers.DoubleSerializer;
 import me.prettyprint.cassandra.serializers.LongSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.cassandra.service.KeyspaceService;
 import me.prettyprint.cassandra.service.ThriftCfDef;
 import me.prettyprint.cassandra.service.ThriftKsDef;
 import me.prettyprint.hector.api.Cluster;
@@ -54,6 +61,10 @@ import me.prettyprint.hector.api.exceptions.HectorException;
 import me.prettyprint.hector.api.factory.HFactory;
 import me.prettyprint.hector.api.mutation.Mutator;
 import me.prettyprint.hector.api.query.*;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
 
 /**
  * PerfDataAccessor - encapsulates cassandra data access for performance.
@@ -92,6 +103,14 @@ public class PerfDataAccessor implements CassandraConstants {
     // Default time seconds for hector to connect to cassandra.
     private static final int TIMEOUT_IN_SECONDS = Integer.valueOf(System.getProperty("dao.timeToWaitForCassandra", "7"));
 
+    private final Map<String, BucketTarget> bucketTargets = new ConcurrentHashMap<>();
+    private volatile PerfWritePipeline writePipeline;
+    private boolean rollups = false;
+    private volatile PerfSeriesCache seriesCache;
+    private int seriesCacheMb = 0;
+    private int seriesCachePoints = 1440;
+    private long seriesCacheStaleMs = 15000;
+
     /**
      * Sets the cluster name.
      *
@@ -110,6 +129,43 @@ public class PerfDataAccessor implements CassandraConstants {
         keyspaceName = name;
     }
 
+    /**
+     * Enables the 6h/1d rollups, missing coarse buckets are computed from the 1h rra on read
+     * and written back.
+     *
+     * @param rollups true to enable the rollups
+     */
+    public void setRollups(boolean rollups) {
+        this.rollups = rollups;
+    }
+
+    /**
+     * Sets the memory of the series cache, 0 (the default) disables it.
+     *
+     * @param seriesCacheMb max cache size in MB
+     */
+    public void setSeriesCacheMb(int seriesCacheMb) {
+        this.seriesCacheMb = seriesCacheMb;
+    }
+
+    /**
+     * Sets the max points cached per row.
+     *
+     * @param seriesCachePoints max points per row
+     */
+    public void setSeriesCachePoints(int seriesCachePoints) {
+        this.seriesCachePoints = seriesCachePoints;
+    }
+
+    /**
+     * Sets the max age of the cached rows that are not kept current by the writes of this accessor.
+     *
+     * @param seriesCacheStaleMs max age in ms
+     */
+    public void setSeriesCacheStaleMs(long seriesCacheStaleMs) {
+        this.seriesCacheStaleMs = seriesCacheStaleMs;
+    }
+
     /**
      * Sets the cluster bootstrap
      *
@@ -153,6 +209,9 @@ public class PerfDataAccessor implements CassandraConstants {
 
         executor.shutdownNow();
         initCluster();
+        if (seriesCacheMb > 0) {
+            startSeriesCache(seriesCacheMb * 1024L * 1024L, seriesCachePoints, seriesCacheStaleMs);
+        }
     }
 
     public void initSync() {
@@ -304,11 +363,28 @@ public class PerfDataAccessor implements CassandraConstants {
      * @return the perf data series
      */
     public String getPerfDataSeries(PerfDataRequest req) {
+        StringWriter jsonOut = new StringWriter();
+        try {
+            writePerfDataSeries(req, jsonOut);
+        } catch (IOException e) {
+            // Can't happen with a StringWriter
+            logger.error("Failed to write perf data series", e);
+        }
+        return jsonOut.toString();
+    }
+
+    /**
+     * Streams the perf data series json for the request, same output as {@link #getPerfDataSeries(PerfDataRequest)}.
+     *
+     * @param req the request object
+     * @param out where the json goes
+     * @throws IOException on write failure
+     */
+    public void writePerfDataSeries(PerfDataRequest req, Writer out) throws IOException {
 
         Long start = Long.valueOf(req.getStart());
         Long end = Long.valueOf(req.getEnd());
         int maxColumns = (int) (end - start);
-        StringBuilder jsonOut = new StringBuilder("");
 
         try {
             long startTime = System.currentTimeMillis();
@@ -319,125 +395,215 @@ public class PerfDataAccessor implements CassandraConstants {
 
             String rra = getRraByStat(stat, req.getStep());
             int step = alignRraStep(req.getStep());
-            List<byte[]> keys = new ArrayList<byte[]>();
+            List<ByteBuffer> keys = new ArrayList<>();
             StringBuilder sb = new StringBuilder("");
             long adjustedStart = start - start % step;
             String dataCF = DATA_CF + "_" + getShard(step);
             if (isTestMode) dataCF += "_test";
 
-            MultigetSliceQuery<byte[], Long, Double> multigetSliceQuery = HFactory.createMultigetSliceQuery(keyspace, bytesSerializer, longSerializer, doubleSerializer);
-            multigetSliceQuery.setColumnFamily(dataCF);
-            keys = new ArrayList<>();
-            sb = new StringBuilder("");
             for (int i = 0; i < req.getMetrics().length; i++) {
                 String metricDs = req.getMetrics()[i];
                 String key = Long.valueOf(req.getCi_id()).toString() + ":" + metricDs + ":" + rra;
-                keys.add(key.getBytes());
+                keys.add(ByteBuffer.wrap(key.getBytes()));
                 sb.append(" " + key);
             }
-            multigetSliceQuery.setKeys(keys);
-            multigetSliceQuery.setRange(adjustedStart, end, false, maxColumns);
-
             logger.info("start:" + start + " end:" + end + " for: " + sb);
             long cassStart = System.currentTimeMillis();
-
-            QueryResult<Rows<byte[], Long, Double>> result = multigetSliceQuery.execute();
-            Rows<byte[], Long, Double> rows = result.get();
-
+            PerfSeriesCache cache = seriesCache;
+            Map<String, PerfDataSeriesWriter.Series> seriesMap = (cache == null)
+                    ? PerfDataSeriesWriter.decode(multigetSlice(keys, dataCF, adjustedStart, end, maxColumns))
+                    : readCached(cache, keys, dataCF, adjustedStart, end);
+            if (rollups && step >= 21600) {
+                rollup(seriesMap, keys, stat, step, adjustedStart, end);
+            }
             long cassEnd = System.currentTimeMillis();
             long cassDuration = cassEnd - cassStart;
 
-            // put the by-metric results into 1 csv-like table
-            // (time,metric1,metric2,etc)
-            // ... should find faster way to do this, but still 10x faster than
-            // gwt DataTable serialization
-            int rowCount = 0;
-            int totalSampleCount = 0;
-            HashMap<String, HashMap<Long, Double>> resultMap = new HashMap<String, HashMap<Long, Double>>();
-
-            for (Row<byte[], Long, Double> row : rows) {
-
-                String rowKey = new String(row.getKey());
-                HashMap<Long, Double> results = null;
-                if (resultMap.containsKey(rowKey)) {
-                    results = resultMap.get(rowKey);
-                } else {
-                    results = new HashMap<>();
-                    resultMap.put(rowKey, results);
-                }
+            // downsample to maxPoints buckets of a whole number of steps, aggregated with the rra stat
+            int outStep = PerfDataSeriesWriter.outputStep(step, adjustedStart, end, req.getMaxPoints());
+            long outStart = bucketize(adjustedStart, outStep);
 
-                List<HColumn<Long, Double>> cols = row.getColumnSlice().getColumns();
-                Iterator<HColumn<Long, Double>> listIter = cols.listIterator();
-
-                while (listIter.hasNext()) {
-                    HColumn<Long, Double> c = (HColumn<Long, Double>) listIter.next();
-                    results.put(c.getName(), c.getValue());
+            PerfDataSeriesWriter seriesWriter = new PerfDataSeriesWriter(out);
+            for (Map.Entry<String, PerfDataSeriesWriter.Series> series : seriesMap.entrySet()) {
+                PerfDataSeriesWriter.Series data = series.getValue();
+                if (outStep != step) {
+                    data = PerfDataSeriesWriter.aggregate(data, outStart, outStep, stat);
                 }
+                seriesWriter.write(series.getKey(), data, outStep, outStart);
             }
+            seriesWriter.flush();
 
-            for (String rowKey : resultMap.keySet()) {
+            long endTime = System.currentTimeMillis();
+            long duration = endTime - startTime;
 
-                HashMap<Long, Double> results = resultMap.get(rowKey);
+            logger.debug("getPerfData took: " + duration + " ms (cass query: "
+                    + cassDuration + " ms) returning: " + seriesWriter.getSampleCount()
+                    + " rows of " + seriesWriter.getSeriesCount() + " metrics at step " + outStep);
 
-                if (rowCount > 0) {
-                    jsonOut.append(",\n");
-                }
+        } catch (HectorException he) {
+            he.printStackTrace();
+        }
+    }
 
-                String[] keyParts = rowKey.split(":");
-                String ciId = keyParts[0];
-                String metric = keyParts[1] + ":" + keyParts[2];
+    /**
+     * Reads the rows through the series cache, only the columns missing from it are queried.
+     * The rows needing the same column range share a multiget.
+     */
+    private Map<String, PerfDataSeriesWriter.Series> readCached(PerfSeriesCache cache, List<ByteBuffer> keys, String dataCF,
+                                                               long start, long end) {
+        long now = System.currentTimeMillis();
+        Map<ByteBuffer, PerfDataSeriesWriter.Series> result = new HashMap<>();
+        Map<ByteBuffer, PerfSeriesCache.Read> reads = new HashMap<>();
+        Map<String, List<ByteBuffer>> queries = new LinkedHashMap<>();
+        for (ByteBuffer key : keys) {
+            PerfSeriesCache.Read read = cache.read(stringSerializer.fromByteBuffer(key.duplicate()), start, end, now);
+            if (read.type == PerfSeriesCache.Read.Type.HIT || read.queryFrom > read.queryTo) {
+                result.put(key, read.cached);
+                continue;
+            }
+            reads.put(key, read);
+            queries.computeIfAbsent(read.queryFrom + ":" + read.queryTo, k -> new ArrayList<>()).add(key);
+        }
 
-                jsonOut.append("{ \"header\":{\"ci_id\":" + ciId
-                        + ", \"metric\":\"" + metric + "\", \"step\":" + step
-                        + ", \"start\":" + adjustedStart + "},\n ");
-                jsonOut.append("\"data\":[");
+        for (List<ByteBuffer> queryKeys : queries.values()) {
+            PerfSeriesCache.Read first = reads.get(queryKeys.get(0));
+            long from = first.queryFrom;
+            long to = first.queryTo;
+            Map<String, PerfDataSeriesWriter.Series> rows = PerfDataSeriesWriter.decode(
+                    multigetSlice(queryKeys, dataCF, from, to, (int) (to - from + 1)));
+            for (ByteBuffer key : queryKeys) {
+                String rowKey = stringSerializer.fromByteBuffer(key.duplicate());
+                PerfSeriesCache.Read read = reads.get(key);
+                PerfDataSeriesWriter.Series series = rows.get(rowKey);
+                if (series == null) {
+                    series = new PerfDataSeriesWriter.Series(0);
+                }
+                switch (read.type) {
+                    case MISS:
+                        cache.put(rowKey, series, from, to, now);
+                        break;
+                    case STALE:
+                        cache.append(rowKey, series, now);
+                        series = PerfDataSeriesWriter.merge(read.cached, series);
+                        break;
+                    default:
+                        series = PerfDataSeriesWriter.merge(series, read.cached);
+                }
+                result.put(key, series);
+            }
+        }
 
-                long currentBucket = adjustedStart;
-                int sampleCount = 0;
-                int emptyCount = 0;
-
-                SortedSet<Long> sortedKeys = new TreeSet<>(results.keySet());
-
-                for (long sampleBucket : sortedKeys) {
-                    double value = results.get(sampleBucket);
-                    if (sampleBucket != currentBucket) {
-                        while (sampleBucket > currentBucket) {
-                            if (sampleCount > 0) {
-                                jsonOut.append(",");
-                            }
-                            jsonOut.append("null");
-                            currentBucket += step;
-                            emptyCount++;
-                            sampleCount++;
-                        }
-                    }
+        // keyed by row key string in the iteration order of a map by row key buffer, as decode does with
+        // the multiget result, so the series come out in the same order with the cache on or off
+        Map<String, PerfDataSeriesWriter.Series> series = new HashMap<>();
+        for (Map.Entry<ByteBuffer, PerfDataSeriesWriter.Series> row : result.entrySet()) {
+            series.put(stringSerializer.fromByteBuffer(row.getKey().duplicate()), row.getValue());
+        }
+        return series;
+    }
 
-                    if (sampleCount > 0) {
-                        jsonOut.append(",");
+    Map<ByteBuffer, List<Column>> multigetSlice(List<ByteBuffer> keys, String dataCF, long from, long to, int maxColumns) {
+        ColumnParent columnParent = new ColumnParent(dataCF);
+        SlicePredicate predicate = new SlicePredicate();
+        predicate.setSlice_range(new SliceRange(longSerializer.toByteBuffer(from),
+                longSerializer.toByteBuffer(to), false, maxColumns));
+        // straight thrift multiget, the hector query would box every column into its own maps
+        return ((ExecutingKeyspace) keyspace).doExecute(
+                new KeyspaceOperationCallback<Map<ByteBuffer, List<Column>>>() {
+                    @Override
+                    public Map<ByteBuffer, List<Column>> doInKeyspace(KeyspaceService ks) throws HectorException {
+                        return ks.multigetSlice(keys, columnParent, predicate);
                     }
-                    jsonOut.append((Math.round(value * 1000.0) / 1000.0));
+                }).get();
+    }
 
-                    currentBucket += step;
-                    totalSampleCount++;
-                    sampleCount++;
+    /**
+     * Fills in the completed 6h/1d buckets missing from the series with a rollup of the 1h rra,
+     * and writes the rollups back so the next reads of the range find the coarse columns.
+     */
+    private void rollup(Map<String, PerfDataSeriesWriter.Series> seriesMap, List<ByteBuffer> keys, String stat,
+                        int step, long adjustedStart, long end) {
+        long lastComplete = Math.min(bucketize(end, step), bucketize(System.currentTimeMillis() / 1000, step) - step);
+        long firstMissing = Long.MAX_VALUE;
+        long lastMissing = Long.MIN_VALUE;
+        for (ByteBuffer key : keys) {
+            PerfDataSeriesWriter.Series series = seriesMap.get(stringSerializer.fromByteBuffer(key.duplicate()));
+            int i = 0;
+            for (long bucket = adjustedStart; bucket <= lastComplete; bucket += step) {
+                while (series != null && i < series.size && series.times[i] < bucket) {
+                    i++;
+                }
+                if (series == null || i == series.size || series.times[i] != bucket) {
+                    firstMissing = Math.min(firstMissing, bucket);
+                    lastMissing = Math.max(lastMissing, bucket);
                 }
-
-                jsonOut.append("]}");
-                rowCount++;
-                logger.debug("got samples:" + sampleCount + " gaps:"
-                        + emptyCount);
             }
-            long endTime = System.currentTimeMillis();
-            long duration = endTime - startTime;
+        }
+        if (firstMissing > lastMissing) {
+            return;
+        }
 
-            logger.debug("getPerfData took: " + duration + " ms (cass query: "
-                    + cassDuration + " ms) returning: " + totalSampleCount
-                    + " rows of " + rowCount + " metrics");
+        String shard = getShard(step);
+        String hourlyCF = DATA_CF + "_1h" + (isTestMode ? "_test" : "");
+        String dataCF = DATA_CF + "_" + shard + (isTestMode ? "_test" : "");
+        Map<ByteBuffer, String> hourlyKeys = new HashMap<>();
+        for (ByteBuffer key : keys) {
+            String rowKey = stringSerializer.fromByteBuffer(key.duplicate());
+            String hourlyKey = rowKey.substring(0, rowKey.length() - shard.length()) + "1h";
+            hourlyKeys.put(ByteBuffer.wrap(hourlyKey.getBytes()), rowKey);
+        }
+        // the columns are named by the bucket end, a bucket has the 1h columns in (bucket - step, bucket]
+        long from = firstMissing - step + 1;
+        int maxColumns = (int) ((lastMissing - from) / 3600 + 1);
+        Map<String, PerfDataSeriesWriter.Series> hourly = PerfDataSeriesWriter.decode(
+                multigetSlice(new ArrayList<>(hourlyKeys.keySet()), hourlyCF, from, lastMissing, maxColumns));
 
-        } catch (HectorException he) {
-            he.printStackTrace();
+        int ttl = getTTL(shard);
+        Mutator<byte[]> mutator = createMutator(keyspace, bytesSerializer);
+        int rollupCount = 0;
+        for (Map.Entry<ByteBuffer, String> key : hourlyKeys.entrySet()) {
+            PerfDataSeriesWriter.Series hourlySeries = hourly.get(stringSerializer.fromByteBuffer(key.getKey().duplicate()));
+            if (hourlySeries == null || hourlySeries.size == 0) {
+                continue;
+            }
+            String rowKey = key.getValue();
+            PerfDataSeriesWriter.Series series = seriesMap.get(rowKey);
+            PerfDataSeriesWriter.Series rolled = PerfDataSeriesWriter.rollup(hourlySeries, firstMissing, step, stat);
+            PerfDataSeriesWriter.Series missing = new PerfDataSeriesWriter.Series(rolled.size);
+            for (int i = 0, j = 0; i < rolled.size; i++) {
+                long bucket = rolled.times[i];
+                if (bucket > lastComplete) {
+                    break;
+                }
+                while (series != null && j < series.size && series.times[j] < bucket) {
+                    j++;
+                }
+                if (series != null && j < series.size && series.times[j] == bucket) {
+                    continue;
+                }
+                missing.times[missing.size] = bucket;
+                missing.values[missing.size++] = rolled.values[i];
+                if (seriesCache != null) {
+                    seriesCache.update(rowKey, bucket, rolled.values[i]);
+                }
+                HColumn<Long, Double> column = createDataColumn(bucket, rolled.values[i]);
+                column.setTtl(ttl);
+                mutator.addInsertion(rowKey.getBytes(), dataCF, column);
+                rollupCount++;
+            }
+            if (missing.size > 0) {
+                seriesMap.put(rowKey, series == null ? missing : PerfDataSeriesWriter.merge(series, missing));
+            }
+        }
+        if (rollupCount > 0) {
+            try {
+                mutator.execute();
+            } catch (HectorException e) {
+                // the response already has the rollups, they are recomputed on the next read
+                logger.warn("Failed to write " + rollupCount + " rollup columns to " + dataCF, e);
+            }
+            logger.debug("Rolled up " + rollupCount + " " + shard + " buckets from " + hourlyCF);
         }
-        return jsonOut.toString();
     }
 
 
@@ -703,56 +869,137 @@ public class PerfDataAccessor implements CassandraConstants {
 
 
     public void writeBucket(PerfEvent perfEvent) throws IOException {
-        Mutator<byte[]> mutator = createMutator(keyspace, bytesSerializer);
+        BucketTarget target = bucketTargets.computeIfAbsent(perfEvent.getBucket(), this::newBucketTarget);
+        String keyPrefix = perfEvent.getCiId() + ":" + perfEvent.getGrouping() + ":";
+        long bucketEndTime = perfEvent.getTimestamp();
+        // avg, min and max of a metric share the row key
+        Map<String, byte[]> rowKeys = new HashMap<>();
+        PerfEventPayload metrics = perfEvent.getMetrics();
+
+        PerfWritePipeline pipeline = writePipeline;
+        Mutator<byte[]> mutator = (pipeline == null) ? createMutator(keyspace, bytesSerializer) : null;
+        try {
+            writeMetrics(metrics.getAvg(), keyPrefix, target, bucketEndTime, rowKeys, pipeline, mutator);
+            writeMetrics(metrics.getMin(), keyPrefix, target, bucketEndTime, rowKeys, pipeline, mutator);
+            writeMetrics(metrics.getMax(), keyPrefix, target, bucketEndTime, rowKeys, pipeline, mutator);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing perf data writes for " + keyPrefix);
+        }
+
+        // perform the insert/updates
+        if (mutator != null) {
+            mutator.execute();
+        }
+    }
+
+    private void writeMetrics(Map<String, Double> metrics, String keyPrefix, BucketTarget target, long bucketEndTime,
+                              Map<String, byte[]> rowKeys, PerfWritePipeline pipeline, Mutator<byte[]> mutator) throws InterruptedException {
+        if (metrics == null) {
+            return;
+        }
+        for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+            byte[] rowKey = rowKeys.get(metric.getKey());
+            if (rowKey == null) {
+                rowKey = (keyPrefix + metric.getKey() + target.keySuffix).getBytes();
+                rowKeys.put(metric.getKey(), rowKey);
+            }
+            double value = metric.getValue();
+            if (logger.isDebugEnabled()) {
+                logger.debug("write " + target.dataCF + ' ' + new String(rowKey) + " " + bucketEndTime + ":" + value);
+            }
+            if (seriesCache != null) {
+                seriesCache.update(new String(rowKey), bucketEndTime, value);
+            }
+            if (pipeline != null) {
+                pipeline.add(target.dataCF, target.ttl, rowKey, bucketEndTime, value);
+            } else {
+                HColumn<Long, Double> column = createDataColumn(bucketEndTime, value);
+                column.setTtl(target.ttl);
+                mutator.addInsertion(rowKey, target.dataCF, column);
+            }
+        }
+    }
 
-        String columnKey = perfEvent.getCiId() + ":" + perfEvent.getGrouping();
-        String aggregate = translateBucket(perfEvent.getBucket());
+    private BucketTarget newBucketTarget(String bucket) {
+        String aggregate = translateBucket(bucket);
         String shard = aggregate.substring(aggregate.length() - 3).replace("-", "");
-        int ttl = getTTL(shard);
         String dataCF = DATA_CF + "_" + shard;
         if (isTestMode)
             dataCF += "_test";
+        return new BucketTarget(":" + aggregate, dataCF, getTTL(shard));
+    }
 
-        if (perfEvent.getMetrics().getAvg() != null) {
-            for (String key : perfEvent.getMetrics().getAvg().keySet()) {
-                Double value = perfEvent.getMetrics().getAvg().get(key);
-                String bucketKey = columnKey + ":" + key + ":" + aggregate;
-                long bucketEndTime = perfEvent.getTimestamp();
-
-                logger.debug("write " + dataCF + ' ' + bucketKey + " " + bucketEndTime + ":" + value);
-                HColumn<Long, Double> column = createDataColumn(bucketEndTime, value.doubleValue());
-                column.setTtl(ttl);
-                mutator.addInsertion(bucketKey.getBytes(), dataCF, column);
-            }
+    /**
+     * Row key suffix, column family and ttl of an aggregate bucket (eg 1m-avg).
+     */
+    private static class BucketTarget {
+        private final String keySuffix;
+        private final String dataCF;
+        private final int ttl;
+
+        BucketTarget(String keySuffix, String dataCF, int ttl) {
+            this.keySuffix = keySuffix;
+            this.dataCF = dataCF;
+            this.ttl = ttl;
         }
+    }
 
-        if (perfEvent.getMetrics().getMin() != null) {
-            for (String key : perfEvent.getMetrics().getMin().keySet()) {
-                Double value = perfEvent.getMetrics().getMin().get(key);
-                String bucketKey = columnKey + ":" + key + ":" + aggregate;
-                long bucketEndTime = perfEvent.getTimestamp();
+    /**
+     * Starts batching the {@link #writeBucket(PerfEvent)} writes through a {@link PerfWritePipeline}.
+     *
+     * @param batchSize     max columns per batch mutation
+     * @param lingerMs      max time a write waits for its batch to fill up
+     * @param maxPending    max queued column writes, writers block beyond it
+     * @param threadsPerCf  concurrent batch mutations per column family
+     */
+    public void startWritePipeline(int batchSize, long lingerMs, int maxPending, int threadsPerCf) {
+        logger.info("Starting perf write pipeline, batch size: " + batchSize + " linger: " + lingerMs
+                + " ms max pending: " + maxPending + " threads per cf: " + threadsPerCf);
+        writePipeline = new PerfWritePipeline(this::writeBatch, batchSize, lingerMs, maxPending, threadsPerCf);
+    }
 
-                logger.debug("write " + dataCF + ' ' + bucketKey + " " + bucketEndTime + ":" + value);
-                HColumn<Long, Double> column = createDataColumn(bucketEndTime, value.doubleValue());
-                column.setTtl(ttl);
-                mutator.addInsertion(bucketKey.getBytes(), dataCF, column);
-            }
+    /**
+     * Flushes the pending writes and goes back to synchronous writes.
+     *
+     * @param timeoutMs max time to wait for the pipeline writer threads
+     */
+    public void closeWritePipeline(long timeoutMs) {
+        PerfWritePipeline pipeline = writePipeline;
+        if (pipeline != null) {
+            writePipeline = null;
+            pipeline.close(timeoutMs);
         }
+    }
 
-        if (perfEvent.getMetrics().getMax() != null) {
-            for (String key : perfEvent.getMetrics().getMax().keySet()) {
-                Double value = perfEvent.getMetrics().getMax().get(key);
-                String bucketKey = columnKey + ":" + key + ":" + aggregate;
-                long bucketEndTime = perfEvent.getTimestamp();
+    public PerfWritePipeline getWritePipeline() {
+        return writePipeline;
+    }
 
-                logger.debug("write " + dataCF + ' ' + bucketKey + " " + bucketEndTime + ":" + value);
-                HColumn<Long, Double> column = createDataColumn(bucketEndTime, value.doubleValue());
-                column.setTtl(ttl);
-                mutator.addInsertion(bucketKey.getBytes(), dataCF, column);
-            }
-        }
+    /**
+     * Starts caching the recent points of the rows read by {@link #writePerfDataSeries}, see {@link PerfSeriesCache}.
+     *
+     * @param maxBytes   max estimated memory of the cache
+     * @param maxPoints  max points per row
+     * @param maxStaleMs max age of the rows not kept current by {@link #writeBucket(PerfEvent)}
+     */
+    public void startSeriesCache(long maxBytes, int maxPoints, long maxStaleMs) {
+        logger.info("Starting perf series cache, max bytes: " + maxBytes + " max points: " + maxPoints
+                + " max stale: " + maxStaleMs + " ms");
+        seriesCache = new PerfSeriesCache(maxBytes, maxPoints, maxStaleMs);
+    }
 
-        // perform the insert/updates
+    public PerfSeriesCache getSeriesCache() {
+        return seriesCache;
+    }
+
+    void writeBatch(String dataCF, int ttl, List<PerfWritePipeline.PendingColumn> batch) {
+        Mutator<byte[]> mutator = createMutator(keyspace, bytesSerializer);
+        for (PerfWritePipeline.PendingColumn pendingColumn : batch) {
+            HColumn<Long, Double> column = createDataColumn(pendingColumn.getName(), pendingColumn.getValue());
+            column.setTtl(ttl);
+            mutator.addInsertion(pendingColumn.getRowKey(), dataCF, column);
+        }
         mutator.execute();
     }
 
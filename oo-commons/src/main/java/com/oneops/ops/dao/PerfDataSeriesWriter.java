@@ -0,0 +1,327 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.ops.dao;
+
+import org.apache.cassandra.thrift.Column;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes perf data series json (as returned by {@link PerfDataAccessor#getPerfDataSeries}) straight
+ * from the thrift columns. Each row is decoded into primitive timestamp/value arrays and the json
+ * goes out through a small reusable buffer, so there is no per sample boxing or whole result string.
+ */
+class PerfDataSeriesWriter {
+
+    private static final int FLUSH_SIZE = 8192;
+
+    private final Writer out;
+    private final StringBuilder buf = new StringBuilder(FLUSH_SIZE + 256);
+    private final char[] chars = new char[FLUSH_SIZE + 256];
+
+    private int seriesCount = 0;
+    private long sampleCount = 0;
+
+    PerfDataSeriesWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Samples of one row, sorted by timestamp.
+     */
+    static final class Series {
+        long[] times;
+        double[] values;
+        int size;
+
+        Series(int capacity) {
+            times = new long[capacity];
+            values = new double[capacity];
+        }
+    }
+
+    /**
+     * Decodes the multiget result rows. Rows are keyed by row key string in a HashMap to keep
+     * the series order of the original map based implementation.
+     *
+     * @param rows thrift multiget slice result
+     * @return series by row key
+     */
+    static Map<String, Series> decode(Map<ByteBuffer, List<Column>> rows) {
+        Map<String, Series> result = new HashMap<>();
+        for (Map.Entry<ByteBuffer, List<Column>> row : rows.entrySet()) {
+            ByteBuffer keyBuffer = row.getKey().duplicate();
+            byte[] key = new byte[keyBuffer.remaining()];
+            keyBuffer.get(key);
+            String rowKey = new String(key);
+            Series series = decode(row.getValue());
+            Series existing = result.get(rowKey);
+            result.put(rowKey, existing == null ? series : merge(existing, series));
+        }
+        return result;
+    }
+
+    static Series decode(List<Column> columns) {
+        Series series = new Series(columns.size());
+        boolean sorted = true;
+        for (Column column : columns) {
+            long time = column.name.getLong(column.name.position());
+            double value = column.value.getDouble(column.value.position());
+            int i = series.size;
+            if (i > 0 && series.times[i - 1] >= time) {
+                sorted = false;
+            }
+            series.times[i] = time;
+            series.values[i] = value;
+            series.size++;
+        }
+        return sorted ? series : sort(series);
+    }
+
+    /**
+     * Insertion sort and dedupe (last value wins), only for rows that don't come back in
+     * timestamp order.
+     */
+    private static Series sort(Series series) {
+        Series sorted = new Series(series.size);
+        for (int i = 0; i < series.size; i++) {
+            put(sorted, series.times[i], series.values[i]);
+        }
+        return sorted;
+    }
+
+    private static void put(Series series, long time, double value) {
+        int i = series.size;
+        while (i > 0 && series.times[i - 1] > time) {
+            i--;
+        }
+        if (i > 0 && series.times[i - 1] == time) {
+            series.values[i - 1] = value;
+            return;
+        }
+        System.arraycopy(series.times, i, series.times, i + 1, series.size - i);
+        System.arraycopy(series.values, i, series.values, i + 1, series.size - i);
+        series.times[i] = time;
+        series.values[i] = value;
+        series.size++;
+    }
+
+    /**
+     * Merges two sorted series, the second one wins for the same timestamp.
+     */
+    static Series merge(Series a, Series b) {
+        Series merged = new Series(a.size + b.size);
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            int n = merged.size;
+            if (j == b.size || (i < a.size && a.times[i] < b.times[j])) {
+                merged.times[n] = a.times[i];
+                merged.values[n] = a.values[i++];
+            } else {
+                if (i < a.size && a.times[i] == b.times[j]) {
+                    i++;
+                }
+                merged.times[n] = b.times[j];
+                merged.values[n] = b.values[j++];
+            }
+            merged.size++;
+        }
+        return merged;
+    }
+
+    /**
+     * Aggregates the samples into <code>step</code> buckets starting at <code>start</code>, used to
+     * downsample series. Samples before <code>start</code> are ignored.
+     *
+     * @param series samples, sorted by timestamp
+     * @param start  step aligned start
+     * @param step   bucket size in seconds
+     * @param stat   rra stat function (eg rra-average, rra-max)
+     * @return one sample per bucket with data, named by the bucket start
+     */
+    static Series aggregate(Series series, long start, int step, String stat) {
+        return aggregate(series, start, step, stat, false);
+    }
+
+    /**
+     * Rolls the samples of a finer rra up into <code>step</code> buckets named by their end, the way
+     * the collector names the columns of the coarse rras: bucket <code>b</code> has the samples in
+     * (<code>b - step</code>, <code>b</code>]. Samples at or before <code>first - step</code> are ignored.
+     *
+     * @param series samples, sorted by timestamp
+     * @param first  step aligned end of the first bucket
+     * @param step   bucket size in seconds
+     * @param stat   rra stat function (eg rra-average, rra-max)
+     * @return one sample per bucket with data, named by the bucket end
+     */
+    static Series rollup(Series series, long first, int step, String stat) {
+        return aggregate(series, first, step, stat, true);
+    }
+
+    private static Series aggregate(Series series, long start, int step, String stat, boolean byEnd) {
+        Series result = new Series(Math.max(1, series.size / 2));
+        boolean min = stat.endsWith(CassandraConstants.MIN);
+        boolean max = stat.endsWith(CassandraConstants.MAX);
+        boolean sum = stat.endsWith(CassandraConstants.SUM) || stat.endsWith(CassandraConstants.COUNT);
+        long bucket = Long.MIN_VALUE;
+        double acc = 0;
+        int count = 0;
+        for (int i = 0; i < series.size; i++) {
+            long time = series.times[i];
+            if (byEnd ? time <= start - step : time < start) {
+                continue;
+            }
+            long sampleBucket = byEnd ? time + Math.floorMod(start - time, (long) step) : time - (time - start) % step;
+            if (sampleBucket != bucket) {
+                if (count > 0) {
+                    add(result, bucket, (min || max || sum) ? acc : acc / count);
+                }
+                bucket = sampleBucket;
+                acc = series.values[i];
+                count = 1;
+                continue;
+            }
+            double value = series.values[i];
+            if (min) {
+                acc = Math.min(acc, value);
+            } else if (max) {
+                acc = Math.max(acc, value);
+            } else {
+                acc += value;
+            }
+            count++;
+        }
+        if (count > 0) {
+            add(result, bucket, (min || max || sum) ? acc : acc / count);
+        }
+        return result;
+    }
+
+    /**
+     * Output step for at most <code>maxPoints</code> points from <code>start</code> to <code>end</code>,
+     * a whole number of <code>step</code>s.
+     *
+     * @param step      rra step in seconds
+     * @param start     step aligned start
+     * @param end       end
+     * @param maxPoints max points, 0 for no limit
+     * @return output step in seconds
+     */
+    static int outputStep(int step, long start, long end, int maxPoints) {
+        long points = (end - start) / step + 1;
+        if (maxPoints <= 0 || points <= maxPoints) {
+            return step;
+        }
+        return step * (int) ((points + maxPoints - 1) / maxPoints);
+    }
+
+    private static void add(Series series, long time, double value) {
+        if (series.size == series.times.length) {
+            int capacity = series.size * 2;
+            series.times = Arrays.copyOf(series.times, capacity);
+            series.values = Arrays.copyOf(series.values, capacity);
+        }
+        series.times[series.size] = time;
+        series.values[series.size] = value;
+        series.size++;
+    }
+
+    /**
+     * Writes the series json, gap filling missing steps with nulls.
+     *
+     * @param rowKey ciId:metric:rra row key
+     * @param series samples
+     * @param step   step in seconds
+     * @param start  step aligned start
+     * @throws IOException on write failure
+     */
+    void write(String rowKey, Series series, int step, long start) throws IOException {
+        if (seriesCount > 0) {
+            buf.append(",\n");
+        }
+        String[] keyParts = rowKey.split(":");
+        buf.append("{ \"header\":{\"ci_id\":").append(keyParts[0])
+                .append(", \"metric\":\"").append(keyParts[1]).append(':').append(keyParts[2])
+                .append("\", \"step\":").append(step)
+                .append(", \"start\":").append(start).append("},\n ")
+                .append("\"data\":[");
+
+        long currentBucket = start;
+        int count = 0;
+        for (int i = 0; i < series.size; i++) {
+            long sampleBucket = series.times[i];
+            while (sampleBucket > currentBucket) {
+                if (count > 0) {
+                    buf.append(',');
+                }
+                buf.append("null");
+                currentBucket += step;
+                count++;
+                flushIfFull();
+            }
+            if (count > 0) {
+                buf.append(',');
+            }
+            buf.append(Math.round(series.values[i] * 1000.0) / 1000.0);
+            currentBucket += step;
+            count++;
+            flushIfFull();
+        }
+        buf.append("]}");
+        seriesCount++;
+        sampleCount += series.size;
+    }
+
+    private void flushIfFull() throws IOException {
+        if (buf.length() >= FLUSH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes out the buffered json.
+     *
+     * @throws IOException on write failure
+     */
+    void flush() throws IOException {
+        int length = buf.length();
+        int offset = 0;
+        while (offset < length) {
+            int n = Math.min(chars.length, length - offset);
+            buf.getChars(offset, offset + n, chars, 0);
+            out.write(chars, 0, n);
+            offset += n;
+        }
+        buf.setLength(0);
+    }
+
+    int getSeriesCount() {
+        return seriesCount;
+    }
+
+    long getSampleCount() {
+        return sampleCount;
+    }
+}
@@ -0,0 +1,410 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.ops.dao;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recent points of the perf data rows (ciId:metric:rra) read by the dashboards, so that polls of
+ * a recent window are served from memory and only older history is read from Cassandra.
+ * <p>
+ * An entry holds up to <code>maxPoints</code> newest points of a row, as int offsets and double
+ * values (12 bytes a point), and is complete from its first point on. Entries are filled on read
+ * and kept current by {@link PerfDataAccessor#writeBucket} when the writes go through the same
+ * accessor. Otherwise an entry older than <code>maxStaleMs</code> is refreshed with a read of
+ * the columns since the last one read. A freshly loaded entry always gets that refresh once, for
+ * the writes that were still on their way to Cassandra while it was read.
+ * <p>
+ * The memory is bounded by <code>maxBytes</code>, least recently used rows are evicted first.
+ */
+public class PerfSeriesCache {
+
+    // only reads of a recent window fill the cache, history charts go to Cassandra
+    static final long RECENT_SECONDS = 3600;
+
+    private static final int SEGMENTS = 16;
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int POINT_SIZE = 12;
+
+    private final long maxBytes;
+    private final int maxPoints;
+    private final long maxStaleMs;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong partialHitCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxBytes   max estimated memory of the cached rows
+     * @param maxPoints  max points per row, the oldest are dropped beyond it
+     * @param maxStaleMs max age of the rows not kept current by the writes
+     */
+    public PerfSeriesCache(long maxBytes, int maxPoints, long maxStaleMs) {
+        this.maxBytes = maxBytes;
+        this.maxPoints = maxPoints;
+        this.maxStaleMs = maxStaleMs;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxBytes / SEGMENTS);
+        }
+    }
+
+    /**
+     * How to read a row range: the cached points and the columns still to query, if any.
+     */
+    static final class Read {
+        enum Type {HIT, PARTIAL, STALE, MISS}
+
+        final Type type;
+        final PerfDataSeriesWriter.Series cached;
+        final long queryFrom;
+        final long queryTo;
+
+        Read(Type type, PerfDataSeriesWriter.Series cached, long queryFrom, long queryTo) {
+            this.type = type;
+            this.cached = cached;
+            this.queryFrom = queryFrom;
+            this.queryTo = queryTo;
+        }
+    }
+
+    /**
+     * Looks up the [start, end] points of a row.
+     *
+     * @param rowKey row key
+     * @param start  first column
+     * @param end    last column
+     * @param nowMs  current time
+     * @return the cached points and the column range to read from Cassandra
+     */
+    Read read(String rowKey, long start, long end, long nowMs) {
+        Segment segment = segment(rowKey);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(rowKey);
+            if (entry != null) {
+                // buckets are written once, nothing new up to the last one read. The tail past it is
+                // served from memory once the row was refreshed and while it's kept current
+                boolean current = entry.verifiedTo >= end
+                        || (entry.settled && nowMs - entry.checkedAt <= maxStaleMs);
+                if (entry.from <= start) {
+                    if (current) {
+                        hitCount.incrementAndGet();
+                        return new Read(Read.Type.HIT, entry.slice(start, end), -1, -1);
+                    }
+                    refreshCount.incrementAndGet();
+                    return new Read(Read.Type.STALE, entry.slice(start, end), Math.max(start, entry.verifiedTo), end);
+                }
+                if (current) {
+                    partialHitCount.incrementAndGet();
+                    return new Read(Read.Type.PARTIAL, entry.slice(start, end), start, entry.from - 1);
+                }
+            }
+        }
+        missCount.incrementAndGet();
+        return new Read(Read.Type.MISS, null, start, end);
+    }
+
+    /**
+     * Caches the points of a row read from Cassandra, if the read is of a recent window.
+     *
+     * @param rowKey row key
+     * @param series all the points of the row from <code>from</code> to <code>to</code>
+     * @param from   first column read
+     * @param to     last column read
+     * @param nowMs  time of the read
+     */
+    void put(String rowKey, PerfDataSeriesWriter.Series series, long from, long to, long nowMs) {
+        if (to < nowMs / 1000 - RECENT_SECONDS) {
+            return;
+        }
+        Entry entry = new Entry(rowKey, from, series);
+        entry.trim(maxPoints);
+        entry.checkedAt = nowMs;
+        entry.verifiedTo = entry.last();
+        Segment segment = segment(rowKey);
+        synchronized (segment) {
+            segment.replace(rowKey, entry);
+        }
+    }
+
+    /**
+     * Adds the points read since the last column read of a row.
+     *
+     * @param rowKey row key
+     * @param tail   points since the last column read
+     * @param nowMs  time of the read
+     */
+    void append(String rowKey, PerfDataSeriesWriter.Series tail, long nowMs) {
+        Segment segment = segment(rowKey);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(rowKey);
+            if (entry == null) {
+                return;
+            }
+            int bytes = entry.bytes();
+            for (int i = 0; i < tail.size; i++) {
+                entry.put(tail.times[i], tail.values[i]);
+            }
+            entry.trim(maxPoints);
+            entry.checkedAt = Math.max(entry.checkedAt, nowMs);
+            entry.verifiedTo = Math.max(entry.verifiedTo, tail.size == 0 ? entry.verifiedTo : tail.times[tail.size - 1]);
+            entry.settled = true;
+            segment.resized(entry, bytes);
+        }
+    }
+
+    /**
+     * Adds a point written to a cached row, other rows are left alone.
+     *
+     * @param rowKey row key
+     * @param time   column name
+     * @param value  column value
+     */
+    void update(String rowKey, long time, double value) {
+        Segment segment = segment(rowKey);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(rowKey);
+            if (entry == null || time < entry.from) {
+                return;
+            }
+            int bytes = entry.bytes();
+            entry.put(time, value);
+            entry.trim(maxPoints);
+            if (entry.settled) {
+                entry.checkedAt = System.currentTimeMillis();
+            }
+            segment.resized(entry, bytes);
+        }
+    }
+
+    private Segment segment(String rowKey) {
+        int h = rowKey.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getPartialHitCount() {
+        return partialHitCount.get();
+    }
+
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Share of the row reads served from memory only.
+     *
+     * @return hit rate, 0 before any read
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + partialHitCount.get() + refreshCount.get() + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getEntryCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.entries.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Estimated memory of the cached rows.
+     *
+     * @return size in bytes
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Cache metrics, for the stats endpoints and logs.
+     *
+     * @return metric values by name
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hitRate", getHitRate());
+        stats.put("hits", getHitCount());
+        stats.put("partialHits", getPartialHitCount());
+        stats.put("refreshes", getRefreshCount());
+        stats.put("misses", getMissCount());
+        stats.put("evictions", getEvictionCount());
+        stats.put("entries", getEntryCount());
+        stats.put("bytes", getBytes());
+        stats.put("maxBytes", getMaxBytes());
+        return stats;
+    }
+
+    private class Segment {
+        private final long maxBytes;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long bytes;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        void replace(String rowKey, Entry entry) {
+            Entry old = entries.put(rowKey, entry);
+            if (old != null) {
+                bytes -= old.bytes();
+            }
+            bytes += entry.bytes();
+            evict();
+        }
+
+        void resized(Entry entry, int oldBytes) {
+            bytes += entry.bytes() - oldBytes;
+            evict();
+        }
+
+        private void evict() {
+            Iterator<Entry> it = entries.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().bytes();
+                it.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Points of a row, times as offsets from <code>base</code>.
+     */
+    private static final class Entry {
+        private final int keySize;
+        private final long base;
+        private long from;
+        private long checkedAt;
+        // last column known to be in cassandra, refreshes read from there
+        private long verifiedTo;
+        private boolean settled;
+        private int[] offsets;
+        private double[] values;
+        private int size;
+
+        Entry(String rowKey, long from, PerfDataSeriesWriter.Series series) {
+            this.keySize = rowKey.length() * 2;
+            this.base = from;
+            this.from = from;
+            this.offsets = new int[Math.max(4, series.size)];
+            this.values = new double[offsets.length];
+            for (int i = 0; i < series.size; i++) {
+                if (series.times[i] >= from) {
+                    offsets[size] = (int) (series.times[i] - base);
+                    values[size++] = series.values[i];
+                }
+            }
+        }
+
+        int bytes() {
+            return ENTRY_OVERHEAD + keySize + offsets.length * POINT_SIZE;
+        }
+
+        long last() {
+            return size == 0 ? from : base + offsets[size - 1];
+        }
+
+        void put(long time, double value) {
+            int offset = (int) (time - base);
+            int i = size;
+            while (i > 0 && offsets[i - 1] > offset) {
+                i--;
+            }
+            if (i > 0 && offsets[i - 1] == offset) {
+                values[i - 1] = value;
+                return;
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            System.arraycopy(offsets, i, offsets, i + 1, size - i);
+            System.arraycopy(values, i, values, i + 1, size - i);
+            offsets[i] = offset;
+            values[i] = value;
+            size++;
+        }
+
+        /**
+         * Keeps the newest points, the entry is then complete from the oldest one kept.
+         */
+        void trim(int maxPoints) {
+            if (size > maxPoints) {
+                int drop = size - maxPoints;
+                System.arraycopy(offsets, drop, offsets, 0, maxPoints);
+                System.arraycopy(values, drop, values, 0, maxPoints);
+                size = maxPoints;
+                from = base + offsets[0];
+            }
+            if (offsets.length > Math.max(4, size * 2)) {
+                offsets = Arrays.copyOf(offsets, Math.max(4, size));
+                values = Arrays.copyOf(values, offsets.length);
+            }
+        }
+
+        PerfDataSeriesWriter.Series slice(long start, long end) {
+            int i = 0;
+            while (i < size && base + offsets[i] < start) {
+                i++;
+            }
+            int j = i;
+            while (j < size && base + offsets[j] <= end) {
+                j++;
+            }
+            PerfDataSeriesWriter.Series series = new PerfDataSeriesWriter.Series(j - i);
+            for (int k = i; k < j; k++) {
+                series.times[series.size] = base + offsets[k];
+                series.values[series.size++] = values[k];
+            }
+            return series;
+        }
+    }
+}
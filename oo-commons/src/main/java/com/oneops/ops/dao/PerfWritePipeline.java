@@ -0,0 +1,271 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.ops.dao;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Combines the perf data column writes of many threads into batches, one lane per column family
+ * (the TTL is per column family shard). A lane sends a batch once it has <code>batchSize</code>
+ * columns or its oldest column waited <code>lingerMs</code>.
+ * <p>
+ * The number of queued columns is bounded by <code>maxPending</code>, {@link #add} blocks when
+ * the bound is reached so slow writes push back on the callers. The batches that fail are counted,
+ * logged and passed to the {@link FailureListener}.
+ */
+public class PerfWritePipeline {
+
+    private static final Logger logger = Logger.getLogger(PerfWritePipeline.class);
+
+    /**
+     * Writes a batch of columns to a column family, in a single round trip.
+     */
+    public interface BatchWriter {
+        void write(String columnFamily, int ttl, List<PendingColumn> batch);
+    }
+
+    /**
+     * Notified of the batches that could not be written.
+     */
+    public interface FailureListener {
+        void failed(String columnFamily, int columns, RuntimeException e);
+    }
+
+    /**
+     * Data column waiting to be written.
+     */
+    public static final class PendingColumn {
+        private final byte[] rowKey;
+        private final long name;
+        private final double value;
+
+        PendingColumn(byte[] rowKey, long name, double value) {
+            this.rowKey = rowKey;
+            this.name = name;
+            this.value = value;
+        }
+
+        public byte[] getRowKey() {
+            return rowKey;
+        }
+
+        public long getName() {
+            return name;
+        }
+
+        public double getValue() {
+            return value;
+        }
+    }
+
+    private final BatchWriter writer;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final int maxPending;
+    private final int threadsPerLane;
+    private final Semaphore pending;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    // add holds the read lock from the closed check to the queueing, so close doesn't miss a column
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed = false;
+    private volatile FailureListener failureListener;
+
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param writer         batch writer
+     * @param batchSize      max columns per batch
+     * @param lingerMs       max time a column waits for its batch to fill up
+     * @param maxPending     max queued columns over all the lanes
+     * @param threadsPerLane concurrent batches per column family
+     */
+    public PerfWritePipeline(BatchWriter writer, int batchSize, long lingerMs, int maxPending, int threadsPerLane) {
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        this.maxPending = maxPending;
+        this.threadsPerLane = threadsPerLane;
+        this.pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * Queues the column write, blocks while the pipeline is full.
+     *
+     * @param columnFamily column family
+     * @param ttl          column ttl, same for all the columns of the column family
+     * @param rowKey       row key
+     * @param name         column name (bucket timestamp)
+     * @param value        column value
+     * @throws InterruptedException if interrupted while waiting for room in the pipeline
+     */
+    public void add(String columnFamily, int ttl, byte[] rowKey, long name, double value) throws InterruptedException {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Perf write pipeline is closed");
+            }
+            pending.acquire();
+            lane(columnFamily, ttl).queue.add(new PendingColumn(rowKey, name, value));
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    public void setFailureListener(FailureListener failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    private Lane lane(String columnFamily, int ttl) {
+        Lane lane = lanes.get(columnFamily);
+        if (lane == null) {
+            lane = lanes.computeIfAbsent(columnFamily, cf -> {
+                Lane newLane = new Lane(cf, ttl);
+                for (int i = 0; i < threadsPerLane; i++) {
+                    Thread t = new Thread(newLane, "perf-writer-" + cf + "-" + i);
+                    t.setDaemon(true);
+                    threads.add(t);
+                    t.start();
+                }
+                return newLane;
+            });
+        }
+        return lane;
+    }
+
+    /**
+     * Stops accepting writes and flushes everything queued.
+     *
+     * @param timeoutMs max time to wait for each writer thread to finish its batches
+     */
+    public void close(long timeoutMs) {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // whatever is left (writer threads that timed out)
+        for (Lane lane : lanes.values()) {
+            List<PendingColumn> batch = new ArrayList<>(batchSize);
+            while (lane.queue.drainTo(batch, batchSize) > 0) {
+                flush(lane, batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        logger.info("Closed perf write pipeline, written: " + writtenCount.get() + " batches: " + batchCount.get()
+                + " failed: " + failedCount.get());
+    }
+
+    private void flush(Lane lane, List<PendingColumn> batch) {
+        try {
+            writer.write(lane.columnFamily, lane.ttl, batch);
+            writtenCount.addAndGet(batch.size());
+            batchCount.incrementAndGet();
+        } catch (RuntimeException e) {
+            failedCount.addAndGet(batch.size());
+            logger.error("Failed to write batch of " + batch.size() + " columns to " + lane.columnFamily, e);
+            FailureListener listener = failureListener;
+            if (listener != null) {
+                listener.failed(lane.columnFamily, batch.size(), e);
+            }
+        } finally {
+            pending.release(batch.size());
+        }
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public int getPendingCount() {
+        return maxPending - pending.availablePermits();
+    }
+
+    private class Lane implements Runnable {
+        private final String columnFamily;
+        private final int ttl;
+        private final BlockingQueue<PendingColumn> queue = new LinkedBlockingQueue<>();
+
+        Lane(String columnFamily, int ttl) {
+            this.columnFamily = columnFamily;
+            this.ttl = ttl;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    PendingColumn first = queue.poll(lingerNanos, TimeUnit.NANOSECONDS);
+                    if (first == null) {
+                        if (closed) {
+                            return;
+                        }
+                        continue;
+                    }
+                    List<PendingColumn> batch = new ArrayList<>(batchSize);
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long deadline = System.nanoTime() + lingerNanos;
+                    while (batch.size() < batchSize && !closed) {
+                        PendingColumn next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, batchSize - batch.size());
+                    }
+                    flush(this, batch);
+                }
+            } catch (InterruptedException e) {
+                logger.warn(Thread.currentThread().getName() + " interrupted, pending writes are flushed on close");
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.sensor.events;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary codec for a batch of perf events, used on the daq to sensor queues
+ * in place of java serialization.
+ * <p>
+ * Layout (version 2):
+ * <pre>
+ * byte     version
+ * varint   number of strings, followed by the strings (modified UTF-8)
+ * varint   number of events, followed by the events:
+ *   varlong  ciId, manifestId, timestamp, checksum (zig-zag)
+ *   varint   source, bucket, grouping and channel string indexes + 1 (0 for null)
+ *   bool     aggregate
+ *   metrics and offsets payloads, each as:
+ *     bool     payload present
+ *     avg, min, max, sum and count maps, each as:
+ *       varint   number of entries + 1 (0 for null map)
+ *       entries  (metric name string index + 1) &lt;&lt; 1, low bit set when the value is not null (varint),
+ *                followed by the value (double) when not null
+ * </pre>
+ * All the strings of a batch (metric names, sources, buckets...) are written once in the
+ * string table and interned on decode.
+ */
+public class PerfEventCodec {
+
+    public static final byte VERSION = 2;
+
+    /**
+     * JMS message property carrying the encoding format of a perf event message.
+     */
+    public static final String FORMAT_PROPERTY = "perfFormat";
+    public static final String FORMAT = "perf-bin-" + VERSION;
+
+    private static final int NULL = -1;
+    private static final int EVENT_SIZE_BASE = 64;
+    private static final int METRIC_SIZE = 13;
+
+    private PerfEventCodec() {
+    }
+
+    /**
+     * Encodes the events.
+     *
+     * @param events perf events
+     * @return encoded batch
+     */
+    public static byte[] encode(List<? extends BasicEvent> events) {
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(events.size() * EVENT_SIZE_BASE * 2);
+        try {
+            DataOutputStream out = new DataOutputStream(body);
+            writeVarInt(out, events.size());
+            for (BasicEvent event : events) {
+                writeVarLong(out, event.getCiId());
+                writeVarLong(out, event.getManifestId());
+                writeVarLong(out, event.getTimestamp());
+                writeVarLong(out, event.getChecksum());
+                writeVarInt(out, strings.index(event.getSource()) + 1);
+                writeVarInt(out, strings.index(event.getBucket()) + 1);
+                writeVarInt(out, strings.index(event.getGrouping()) + 1);
+                writeVarInt(out, strings.index(event.getChannel()) + 1);
+                out.writeBoolean(event.isAggregate());
+                writePayload(out, strings, event.getMetrics());
+                writePayload(out, strings, event.getOffsets());
+            }
+            out.flush();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + strings.size() * 16 + 8);
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeByte(VERSION);
+            writeVarInt(header, strings.size());
+            for (String str : strings.list) {
+                header.writeUTF(str);
+            }
+            header.flush();
+            body.writeTo(bytes);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Can't happen with in-memory streams
+            throw new IllegalStateException("Failed to encode perf events", e);
+        }
+    }
+
+    /**
+     * Decodes the events.
+     *
+     * @param data encoded batch
+     * @return perf events
+     * @throws UnsupportedVersionException if the data is of an unknown version
+     * @throws IOException                 if the data is truncated
+     */
+    public static List<PerfEvent> decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new UnsupportedVersionException(version);
+        }
+        String[] strings = new String[readVarInt(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF().intern();
+        }
+        int count = readVarInt(in);
+        List<PerfEvent> events = new ArrayList<>(Math.min(count, data.length));
+        for (int i = 0; i < count; i++) {
+            PerfEvent event = new PerfEvent();
+            event.setCiId(readVarLong(in));
+            event.setManifestId(readVarLong(in));
+            event.setTimestamp(readVarLong(in));
+            event.setChecksum(readVarLong(in));
+            event.setSource(string(strings, readVarInt(in) - 1));
+            event.setBucket(string(strings, readVarInt(in) - 1));
+            event.setGrouping(string(strings, readVarInt(in) - 1));
+            event.setChannel(string(strings, readVarInt(in) - 1));
+            event.setAggregate(in.readBoolean());
+            event.setMetrics(readPayload(in, strings));
+            event.setOffsets(readPayload(in, strings));
+            events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * Rough upper bound of the encoded event size, used to bound the batch size in bytes.
+     *
+     * @param event perf event
+     * @return estimated size in bytes
+     */
+    public static int estimateSize(BasicEvent event) {
+        return EVENT_SIZE_BASE + (metricCount(event.getMetrics()) + metricCount(event.getOffsets())) * METRIC_SIZE;
+    }
+
+    private static int metricCount(PerfEventPayload payload) {
+        if (payload == null) {
+            return 0;
+        }
+        return size(payload.getAvg()) + size(payload.getMin()) + size(payload.getMax())
+                + size(payload.getSum()) + size(payload.getCount());
+    }
+
+    private static int size(Map<String, Double> metrics) {
+        return metrics == null ? 0 : metrics.size();
+    }
+
+    private static void writePayload(DataOutputStream out, StringTable strings, PerfEventPayload payload) throws IOException {
+        out.writeBoolean(payload != null);
+        if (payload == null) {
+            return;
+        }
+        writeMetrics(out, strings, payload.getAvg());
+        writeMetrics(out, strings, payload.getMin());
+        writeMetrics(out, strings, payload.getMax());
+        writeMetrics(out, strings, payload.getSum());
+        writeMetrics(out, strings, payload.getCount());
+    }
+
+    private static void writeMetrics(DataOutputStream out, StringTable strings, Map<String, Double> metrics) throws IOException {
+        if (metrics == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, metrics.size() + 1);
+        for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+            Double value = metric.getValue();
+            writeVarInt(out, (strings.index(metric.getKey()) + 1) << 1 | (value == null ? 0 : 1));
+            if (value != null) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    private static PerfEventPayload readPayload(DataInputStream in, String[] strings) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        PerfEventPayload payload = new PerfEventPayload();
+        payload.setAvg(readMetrics(in, strings));
+        payload.setMin(readMetrics(in, strings));
+        payload.setMax(readMetrics(in, strings));
+        payload.setSum(readMetrics(in, strings));
+        payload.setCount(readMetrics(in, strings));
+        return payload;
+    }
+
+    private static Map<String, Double> readMetrics(DataInputStream in, String[] strings) throws IOException {
+        int size = readVarInt(in) - 1;
+        if (size == NULL) {
+            return null;
+        }
+        Map<String, Double> metrics = new HashMap<>(Math.min(size, strings.length) * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            int entry = readVarInt(in);
+            String name = string(strings, (entry >>> 1) - 1);
+            metrics.put(name, (entry & 1) == 0 ? null : in.readDouble());
+        }
+        return metrics;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Malformed varlong");
+    }
+
+    private static String string(String[] strings, int index) throws IOException {
+        if (index == NULL) {
+            return null;
+        }
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Invalid string index: " + index);
+        }
+        return strings[index];
+    }
+
+    /**
+     * Thrown when decoding a batch of an unknown encoding version, e.g. from a newer publisher.
+     */
+    public static class UnsupportedVersionException extends IOException {
+
+        private final int version;
+
+        UnsupportedVersionException(int version) {
+            super("Unsupported perf event encoding version: " + version);
+            this.version = version;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * Per batch string table.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> list = new ArrayList<>();
+
+        int index(String str) {
+            if (str == null) {
+                return NULL;
+            }
+            Integer index = indexes.get(str);
+            if (index == null) {
+                index = list.size();
+                indexes.put(str, index);
+                list.add(str);
+            }
+            return index;
+        }
+
+        int size() {
+            return list.size();
+        }
+    }
+}
@@ -37,6 +37,7 @@ import org.apache.log4j.Logger;
 import rx.Observable;
 
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -485,6 +486,18 @@ public class ThresholdsDao {
      * @return Observable stream of Threshold
      */
     public Observable<Threshold> getAllThreshold(final int batchSize) {
+        return getAllThreshold(batchSize, manifestId -> true);
+    }
+
+    /**
+     * Creates a threshold stream by reading cassandra in batches. Rows are keyed by manifest id,
+     * so the rows not accepted by the manifest filter are skipped before decoding the thresholds.
+     *
+     * @param batchSize      cassandra row count size to read
+     * @param manifestFilter predicate on the manifest id (row key)
+     * @return Observable stream of Threshold
+     */
+    public Observable<Threshold> getAllThreshold(final int batchSize, final Predicate<Long> manifestFilter) {
         logger.info("Creating Threshold observable.");
         return Observable.create(sub -> {
             logger.info("Starting the threshold stream subscription with batchSize: " + batchSize);
@@ -515,6 +528,9 @@ public class ThresholdsDao {
                     while (rowIt.hasNext()) {
                         SuperRow<Long, String, String, byte[]> sRow = rowIt.next();
                         lastKey = sRow.getKey();
+                        if (!manifestFilter.test(lastKey)) {
+                            continue;
+                        }
                         sRow.getSuperSlice().getSuperColumns().stream()
                                 .map(sCol -> getThresholdFromCols(sCol.getColumns()))
                                 .forEach(sub::onNext);
@@ -22,10 +22,13 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 
 import java.io.*;
 import java.lang.reflect.ParameterizedType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Properties;
 import java.util.TreeSet;
 import java.util.concurrent.*;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -46,6 +49,7 @@ public abstract class ReliableExecutor <I> {
 	protected String scanFolder;
 
 	protected int backlogThreshold = 1000;
+	protected long segmentSize = 16 * 1024 * 1024;
 	protected String name;
 	protected String shortName;
 	protected int threadPoolSize;
@@ -56,6 +60,8 @@ public abstract class ReliableExecutor <I> {
 	private ThreadPoolExecutor executors;
 	
 	protected Gson gson = new Gson();
+
+	private SpillJournal journal;
 	
 	public ReliableExecutor() {
 		executors = (ThreadPoolExecutor) Executors.newCachedThreadPool();
@@ -87,10 +93,20 @@ public abstract class ReliableExecutor <I> {
 		this.scanFolder = scanFolder;
 	}
 
+	public void setSegmentSize( long segmentSize ) {
+		this.segmentSize = segmentSize;
+	}
+
 	@SuppressWarnings("unchecked")
 	public void init() {
 		this.checkAndCreateFolder();
 		this.clazz = (Class<I>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+		try {
+			this.journal = new SpillJournal(new File(scanFolder), getJournalName(), segmentSize);
+		} catch( IOException e ) {
+			throw new RuntimeException( "Journal in "+this.scanFolder+" cannot be opened", e );
+		}
+		this.importSpillFiles();
 		this.scheduler.scheduleWithFixedDelay( scanner, scanPeriod, scanPeriod, SECONDS );
 	}
 	
@@ -102,7 +118,7 @@ public abstract class ReliableExecutor <I> {
 			if (logExecutionErrors) {
 				logger.error("Exception while submitting task in ReliableExecutor ", e);
 			}
-			writeToFile(param);
+			writeToJournal(param);
 		}
 	}
 
@@ -112,6 +128,18 @@ public abstract class ReliableExecutor <I> {
 
 	public void destroy() {
 		scheduler.shutdown();
+		if (journal != null) {
+			journal.close();
+		}
+	}
+
+	/**
+	 * Number of failed messages waiting for a retry.
+	 *
+	 * @return retry backlog size
+	 */
+	public long getBacklog() {
+		return journal == null ? 0 : journal.size();
 	}
 
 	@SuppressWarnings("unused")
@@ -160,51 +188,80 @@ public abstract class ReliableExecutor <I> {
 
 	final Runnable scanner = new Runnable() {
         public void run() {
-        	logger.trace("Scanning folder ...");
-	        File folder = new File( scanFolder );
-	        for(String fileName: new TreeSet<String>( Arrays.asList(folder.list()))) {
-		        File file = new File(scanFolder + File.separator + fileName);
-		        logger.trace("Found file : {}",file);
-		        try {
-			        Reader reader = new FileReader(file);
-			        I param = gson.fromJson( reader , clazz );
-			        reader.close();
-			        if(process(param)) {
-			            if(!file.delete()) {
-				            logger.error( "File {} cannot be deleted.", file.getName() );
-		                }
+        	logger.trace("Scanning journal ...");
+	        try {
+		        byte[] record;
+		        while ((record = journal.peek()) != null) {
+			        I param = gson.fromJson( new String(record, StandardCharsets.UTF_8), clazz );
+			        if(param == null || process(param)) {
+				        journal.ack();
 			        } else {
 				        break;
 			        }
-		        } catch( FileNotFoundException e ) {
-			        logger.error(  "File {} not found.", file.getName() );
-		        } catch( IOException e ) {
-			        logger.error( e.getMessage());
 		        }
+	        } catch( IOException e ) {
+		        logger.error( e.getMessage());
 	        }
-	        logger.trace("Scanning folder finish.");
+	        logger.trace("Scanning journal finish.");
         }
     };
+
+	/**
+	 * Journal name, the short name or else the executor class name, so the executors sharing the
+	 * scan folder don't share a journal.
+	 */
+	private String getJournalName() {
+		return StringUtils.isEmpty(shortName) ? getClass().getName() : shortName;
+	}
+
+	/**
+	 * Moves the messages spilled one file each by the former implementation to the journal.
+	 */
+	private void importSpillFiles() {
+		Pattern spillFile = StringUtils.isEmpty(shortName) ? Pattern.compile("\\d+-?\\d+")
+				: Pattern.compile(Pattern.quote(shortName) + "-\\d+-?\\d+");
+		String[] files = new File(scanFolder).list();
+		if (files == null) {
+			return;
+		}
+		int count = 0;
+		for (String fileName : new TreeSet<String>(Arrays.asList(files))) {
+			if (!spillFile.matcher(fileName).matches()) {
+				continue;
+			}
+			File file = new File(scanFolder + File.separator + fileName);
+			try {
+				journal.append(Files.readAllBytes(file.toPath()));
+				if (!file.delete()) {
+					logger.error( "File {} cannot be deleted.", file.getName() );
+				}
+				count++;
+			} catch( IOException e ) {
+				logger.error( e.getMessage());
+			}
+		}
+		if (count > 0) {
+			logger.info("Moved {} spill files to the journal", count);
+		}
+	}
  
 	private boolean firstOneRun(I param) {
 		if( process( param ) ){
 		    return true;
 		}
-		writeToFile(param);
+		writeToJournal(param);
 		return false;
 	}
 	
-	private void writeToFile(I param) {
+	private void writeToJournal(I param) {
 		try {
 			if (name != null) {
-				logger.warn(name + " execution failed. storing data to a file.");
+				logger.warn(name + " execution failed. storing data to the journal.");
 				logger.warn(name + " - Active workers count : " + executors.getActiveCount());
 			}
 			
 			checkBacklog();
-			FileWriter wr  = new FileWriter( getFileName(param) );
-			gson.toJson(param,  wr );
-			wr.close();
+			journal.append( gson.toJson(param).getBytes(StandardCharsets.UTF_8) );
 		} catch( Exception e ) {
 			logger.error( e.getMessage() );
 			logger.debug( e.getMessage(), e );
@@ -212,25 +269,13 @@ public abstract class ReliableExecutor <I> {
 	}
 	
 	private void checkBacklog() {
-		File folder = new File(scanFolder);
-		String[] files = folder.list();
 		if (name != null) {
-			if (files.length > backlogThreshold) {
-				logger.warn(name + " - retry backlog is high : " + files.length);
+			long backlog = journal.size();
+			if (backlog > backlogThreshold) {
+				logger.warn(name + " - retry backlog is high : " + backlog);
 			}
 		}
 	}
-	
-	private String getFileName(I param) {
-		String fileName = null;
-		if (StringUtils.isEmpty(shortName)) {
-			fileName = scanFolder + File.separator + System.currentTimeMillis() + String.valueOf(param.hashCode());	
-		}
-		else {
-			fileName = scanFolder + File.separator + shortName + "-" + System.currentTimeMillis() + String.valueOf(param.hashCode());
-		}
-		return fileName;
-	}
 
 	class Task implements Runnable {
 
@@ -0,0 +1,382 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the messages a {@link ReliableExecutor} failed to process.
+ * <p>
+ * Records go to fixed-size segment files <code>name-&lt;segment&gt;.seg</code>, each record as
+ * its length, CRC32 and bytes. A read cursor (segment and offset, in <code>name.cursor</code>)
+ * is moved forward as the records are acked, and a segment is deleted once the cursor is past
+ * it. On open the records after the cursor are counted and checked, a torn record at the end
+ * of the last segment (crash in the middle of a write) is cut off. A corrupt record in the middle
+ * of a segment is skipped up to the next record with a valid length and CRC.
+ * <p>
+ * The cursor file is locked while the journal is open, a second journal of the same name in the
+ * same folder fails to open instead of reading and deleting the segments of the first one.
+ * <p>
+ * Delivery is at least once, a record acked right before a crash can be read again.
+ */
+class SpillJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(SpillJournal.class);
+
+	static final String SEGMENT_SUFFIX = ".seg";
+	private static final String CURSOR_SUFFIX = ".cursor";
+	private static final int HEADER_SIZE = 8;
+	private static final int CURSOR_SIZE = 24;
+
+	private final File folder;
+	private final String name;
+	private final long segmentSize;
+	private final int maxRecordSize;
+
+	private RandomAccessFile writeFile;
+	private long writeSegment;
+	private long writeOffset;
+
+	private RandomAccessFile readFile;
+	private long readSegment;
+	private long readOffset;
+	private byte[] peeked;
+	private long peekedNext;
+
+	private RandomAccessFile cursorFile;
+	private FileLock lock;
+	private long backlog;
+
+	private final CRC32 crc = new CRC32();
+	private final byte[] header = new byte[HEADER_SIZE];
+	private final ByteBuffer cursor = ByteBuffer.allocate(CURSOR_SIZE);
+
+	/**
+	 * @param folder      journal folder
+	 * @param name        journal name, segment and cursor file name prefix
+	 * @param segmentSize segment file size after which a new segment is started
+	 */
+	SpillJournal(File folder, String name, long segmentSize) throws IOException {
+		this.folder = folder;
+		this.name = name;
+		this.segmentSize = segmentSize;
+		this.maxRecordSize = (int) Math.min(Integer.MAX_VALUE - HEADER_SIZE, Math.max(segmentSize, 64 * 1024 * 1024));
+		open();
+	}
+
+	private void open() throws IOException {
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("Journal folder " + folder + " cannot be created");
+		}
+		TreeSet<Long> segments = segments();
+		cursorFile = new RandomAccessFile(new File(folder, name + CURSOR_SUFFIX), "rw");
+		try {
+			lock = cursorFile.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			closeQuietly(cursorFile);
+			throw new IOException("Journal " + name + " in " + folder + " is used by another executor");
+		}
+		readSegment = segments.isEmpty() ? 0 : segments.first();
+		readOffset = 0;
+		if (cursorFile.length() >= CURSOR_SIZE) {
+			long segment = cursorFile.readLong();
+			long offset = cursorFile.readLong();
+			if (cursorFile.readLong() == (segment ^ offset ^ 0x5EED5EED5EEDL) && segments.contains(segment)) {
+				readSegment = segment;
+				readOffset = offset;
+			} else {
+				logger.warn("Journal {} cursor is not valid, reading from segment {}", name, readSegment);
+			}
+		}
+		for (Long segment : segments.headSet(readSegment)) {
+			delete(segment);
+		}
+
+		backlog = 0;
+		writeSegment = readSegment;
+		writeOffset = 0;
+		for (Long segment : segments.tailSet(readSegment)) {
+			writeSegment = segment;
+			writeOffset = count(segment, segment == readSegment ? readOffset : 0, segment.equals(segments.last()));
+		}
+		writeFile = new RandomAccessFile(segmentFile(writeSegment), "rw");
+		writeFile.seek(writeOffset);
+		readFile = new RandomAccessFile(segmentFile(readSegment), "r");
+		if (backlog > 0) {
+			logger.info("Journal {} has {} records in {} segments", new Object[] {name, backlog, writeSegment - readSegment + 1});
+		}
+	}
+
+	/**
+	 * Counts the valid records of a segment from <code>offset</code>, skipping corrupt ones. The
+	 * last segment is cut after its last valid record.
+	 *
+	 * @return end offset of the valid records
+	 */
+	private long count(long segment, long offset, boolean last) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw")) {
+			long length = file.length();
+			offset = Math.min(offset, length);
+			while (offset < length) {
+				file.seek(offset);
+				byte[] record = read(file, offset, length);
+				if (record != null) {
+					offset += HEADER_SIZE + record.length;
+					backlog++;
+					continue;
+				}
+				long next = resync(file, offset, length);
+				if (next >= length) {
+					break;
+				}
+				logger.error("Journal {} segment {} has {} invalid bytes at {}, skipped", new Object[] {name, segment, next - offset, offset});
+				offset = next;
+			}
+			if (offset < length) {
+				logger.error("Journal {} segment {} has {} invalid bytes at {}", new Object[] {name, segment, length - offset, offset});
+				if (last) {
+					file.setLength(offset);
+				}
+			}
+			return offset;
+		}
+	}
+
+	/**
+	 * Reads the record at the current file position.
+	 *
+	 * @return the record, null at the end of the valid records
+	 */
+	private byte[] read(RandomAccessFile file, long offset, long length) throws IOException {
+		if (length - offset < HEADER_SIZE) {
+			return null;
+		}
+		file.readFully(header);
+		int size = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+		int checksum = ((header[4] & 0xFF) << 24) | ((header[5] & 0xFF) << 16) | ((header[6] & 0xFF) << 8) | (header[7] & 0xFF);
+		if (size < 0 || size > maxRecordSize || length - offset - HEADER_SIZE < size) {
+			return null;
+		}
+		byte[] record = new byte[size];
+		file.readFully(record);
+		crc.reset();
+		crc.update(record);
+		return ((int) crc.getValue() == checksum) ? record : null;
+	}
+
+	/**
+	 * Finds the next valid record after an invalid one at <code>offset</code>. Empty records are
+	 * not taken as a match, so a zero filled range is skipped as a whole.
+	 *
+	 * @return offset of the next valid record, <code>length</code> if there is none
+	 */
+	private long resync(RandomAccessFile file, long offset, long length) throws IOException {
+		byte[] bytes = new byte[(int) Math.min(length - offset, Integer.MAX_VALUE)];
+		file.seek(offset);
+		file.readFully(bytes);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		for (int i = 1; i + HEADER_SIZE <= bytes.length; i++) {
+			int size = buffer.getInt(i);
+			if (size <= 0 || size > maxRecordSize || size > bytes.length - i - HEADER_SIZE) {
+				continue;
+			}
+			crc.reset();
+			crc.update(bytes, i + HEADER_SIZE, size);
+			if ((int) crc.getValue() == buffer.getInt(i + 4)) {
+				return offset + i;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Appends a record.
+	 *
+	 * @param record record bytes
+	 */
+	synchronized void append(byte[] record) throws IOException {
+		if (record.length > maxRecordSize) {
+			throw new IOException("Record of " + record.length + " bytes is over the max of " + maxRecordSize);
+		}
+		checkFolder();
+		if (writeOffset > 0 && writeOffset + HEADER_SIZE + record.length > segmentSize) {
+			writeFile.close();
+			writeSegment++;
+			writeOffset = 0;
+			writeFile = new RandomAccessFile(segmentFile(writeSegment), "rw");
+		}
+		crc.reset();
+		crc.update(record);
+		byte[] bytes = new byte[HEADER_SIZE + record.length];
+		ByteBuffer.wrap(bytes).putInt(record.length).putInt((int) crc.getValue()).put(record);
+		writeFile.write(bytes);
+		writeOffset += bytes.length;
+		backlog++;
+	}
+
+	/**
+	 * Returns the record at the read cursor, the same one until it's acked.
+	 *
+	 * @return the record, null if the journal is empty
+	 */
+	synchronized byte[] peek() throws IOException {
+		if (peeked != null) {
+			return peeked;
+		}
+		checkFolder();
+		while (true) {
+			long length = (readSegment == writeSegment) ? writeOffset : readFile.length();
+			readFile.seek(readOffset);
+			byte[] record = read(readFile, readOffset, length);
+			if (record != null) {
+				peeked = record;
+				peekedNext = readOffset + HEADER_SIZE + record.length;
+				return record;
+			}
+			if (readOffset < length) {
+				// can't happen with the records checked on open, unless the segment was changed behind our back
+				long next = resync(readFile, readOffset, length);
+				logger.error("Journal {} segment {} has {} invalid bytes at {}, skipped", new Object[] {name, readSegment, next - readOffset, readOffset});
+				readOffset = next;
+				if (next < length) {
+					continue;
+				}
+			}
+			if (readSegment == writeSegment) {
+				backlog = 0;
+				return null;
+			}
+			nextReadSegment();
+		}
+	}
+
+	/**
+	 * Acks the record returned by {@link #peek()} and moves the read cursor past it.
+	 */
+	synchronized void ack() throws IOException {
+		if (peeked == null) {
+			return;
+		}
+		peeked = null;
+		readOffset = peekedNext;
+		if (backlog > 0) {
+			backlog--;
+		}
+		if (readSegment != writeSegment && readOffset >= readFile.length()) {
+			nextReadSegment();
+		} else {
+			writeCursor();
+		}
+	}
+
+	private void nextReadSegment() throws IOException {
+		readFile.close();
+		long done = readSegment;
+		readSegment++;
+		readOffset = 0;
+		readFile = new RandomAccessFile(segmentFile(readSegment), "r");
+		writeCursor();
+		delete(done);
+	}
+
+	private void writeCursor() throws IOException {
+		cursor.clear();
+		cursor.putLong(readSegment).putLong(readOffset).putLong(readSegment ^ readOffset ^ 0x5EED5EED5EEDL);
+		cursorFile.seek(0);
+		cursorFile.write(cursor.array());
+	}
+
+	/**
+	 * Starts over if the journal folder was removed.
+	 */
+	private void checkFolder() throws IOException {
+		if (!folder.isDirectory()) {
+			logger.warn("Journal {} folder {} is gone, starting a new journal", name, folder);
+			close();
+			peeked = null;
+			open();
+		}
+	}
+
+	/**
+	 * Number of records not acked yet.
+	 *
+	 * @return backlog size
+	 */
+	synchronized long size() {
+		return backlog;
+	}
+
+	synchronized void close() {
+		closeQuietly(writeFile);
+		closeQuietly(readFile);
+		closeQuietly(cursorFile);
+	}
+
+	private static void closeQuietly(RandomAccessFile file) {
+		try {
+			if (file != null) {
+				file.close();
+			}
+		} catch (IOException e) {
+			logger.warn("Failed to close journal file", e);
+		}
+	}
+
+	private TreeSet<Long> segments() {
+		TreeSet<Long> segments = new TreeSet<>();
+		String prefix = name + "-";
+		String[] files = folder.list();
+		if (files != null) {
+			for (String file : files) {
+				if (file.startsWith(prefix) && file.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						segments.add(Long.parseLong(file.substring(prefix.length(), file.length() - SEGMENT_SUFFIX.length())));
+					} catch (NumberFormatException e) {
+						// not a segment of this journal
+					}
+				}
+			}
+		}
+		return segments;
+	}
+
+	private File segmentFile(long segment) {
+		return new File(folder, String.format("%s-%020d%s", name, segment, SEGMENT_SUFFIX));
+	}
+
+	private void delete(long segment) {
+		File file = segmentFile(segment);
+		if (file.exists() && !file.delete()) {
+			logger.error("Journal segment {} cannot be deleted.", file.getName());
+		}
+	}
+}
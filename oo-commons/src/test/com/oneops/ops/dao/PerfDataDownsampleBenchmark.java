@@ -0,0 +1,146 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.ops.dao;
+
+import org.apache.cassandra.thrift.Column;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Latency and payload size of a 30 day chart query, from the thrift multiget result to the servlet
+ * output stream, with and without downsampling:
+ * <pre>
+ * java -cp ... com.oneops.ops.dao.PerfDataDownsampleBenchmark [series] [step] [maxPoints] [iterations]
+ * </pre>
+ * Defaults to 100 series of 15 minute data down to 400 points. It also reports the columns read
+ * for a 6h view from the 1h rra and from the 6h rollups.
+ */
+public class PerfDataDownsampleBenchmark {
+
+    private static final int DAYS = 30;
+
+    public static void main(String[] args) throws IOException {
+        int seriesCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int step = args.length > 1 ? Integer.parseInt(args[1]) : 900;
+        int maxPoints = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        long end = 1500000000L;
+        long start = PerfDataAccessor.bucketize(end - DAYS * 86400L, step);
+        Map<ByteBuffer, List<Column>> rows = rows(seriesCount, step, start, end);
+        CountingOutputStream sink = new CountingOutputStream();
+
+        for (int i = 0; i < iterations + 2; i++) {
+            boolean warmup = i < 2;
+
+            long t0 = System.nanoTime();
+            render(rows, step, start, end, 0, sink);
+            long fullNanos = System.nanoTime() - t0;
+            long fullBytes = sink.reset();
+
+            t0 = System.nanoTime();
+            int outStep = render(rows, step, start, end, maxPoints, sink);
+            long downsampledNanos = System.nanoTime() - t0;
+            long downsampledBytes = sink.reset();
+
+            if (!warmup) {
+                System.out.println(String.format("full:        %5d ms, %9d bytes out, step %d", fullNanos / 1000000,
+                        fullBytes, step));
+                System.out.println(String.format("downsampled: %5d ms, %9d bytes out, step %d", downsampledNanos / 1000000,
+                        downsampledBytes, outStep));
+            }
+        }
+
+        long hourlyColumns = 0;
+        long rollupColumns = 0;
+        for (List<Column> columns : rows(seriesCount, 3600, PerfDataAccessor.bucketize(end - DAYS * 86400L, 21600), end).values()) {
+            hourlyColumns += columns.size();
+            rollupColumns += PerfDataSeriesWriter.rollup(PerfDataSeriesWriter.decode(columns),
+                    PerfDataAccessor.bucketize(end - DAYS * 86400L, 21600) + 21600, 21600, "rra-average").size;
+        }
+        System.out.println("6h view columns read, from 1h rra: " + hourlyColumns + ", from 6h rollups: " + rollupColumns);
+    }
+
+    private static Map<ByteBuffer, List<Column>> rows(int seriesCount, int step, long start, long end) {
+        Random random = new Random(42);
+        Map<ByteBuffer, List<Column>> rows = new HashMap<>();
+        for (int s = 0; s < seriesCount; s++) {
+            List<Column> columns = new ArrayList<>();
+            for (long time = start; time <= end; time += step) {
+                // ~1% missing samples
+                if (random.nextInt(100) != 0) {
+                    columns.add(PerfDataSeriesWriterTest.column(time, random.nextDouble() * 100));
+                }
+            }
+            rows.put(ByteBuffer.wrap(("1001:compute-" + s + ":CpuIdle:rra-average-15m").getBytes()), columns);
+        }
+        return rows;
+    }
+
+    /**
+     * Same steps as {@link PerfDataAccessor#writePerfDataSeries} after the multiget.
+     */
+    private static int render(Map<ByteBuffer, List<Column>> rows, int step, long start, long end, int maxPoints,
+                              OutputStream sink) throws IOException {
+        int outStep = PerfDataSeriesWriter.outputStep(step, start, end, maxPoints);
+        long outStart = PerfDataAccessor.bucketize(start, outStep);
+        Writer out = new BufferedWriter(new OutputStreamWriter(sink, StandardCharsets.ISO_8859_1));
+        PerfDataSeriesWriter writer = new PerfDataSeriesWriter(out);
+        for (Map.Entry<String, PerfDataSeriesWriter.Series> series : PerfDataSeriesWriter.decode(rows).entrySet()) {
+            PerfDataSeriesWriter.Series data = series.getValue();
+            if (outStep != step) {
+                data = PerfDataSeriesWriter.aggregate(data, outStart, outStep, "rra-average");
+            }
+            writer.write(series.getKey(), data, outStep, outStart);
+        }
+        writer.flush();
+        out.flush();
+        return outStep;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        long reset() {
+            long c = count;
+            count = 0;
+            return c;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.ops.dao;
+
+import org.apache.cassandra.thrift.Column;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.BufferedWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Latency and allocation of the perf data series json, from the thrift multiget result to the
+ * servlet output stream:
+ * <pre>
+ * java -Xmx4g -cp ... com.oneops.ops.dao.PerfDataSeriesBenchmark [series] [points] [iterations]
+ * </pre>
+ * Defaults to 500 series of one week of 1 minute data.
+ */
+public class PerfDataSeriesBenchmark {
+
+    private static final int STEP = 60;
+
+    public static void main(String[] args) throws IOException {
+        int seriesCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int points = args.length > 1 ? Integer.parseInt(args[1]) : 7 * 24 * 60;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        long start = 1500000000L - 1500000000L % STEP;
+        Random random = new Random(42);
+        Map<ByteBuffer, List<Column>> rows = new HashMap<>();
+        for (int s = 0; s < seriesCount; s++) {
+            List<Column> columns = new ArrayList<>(points);
+            for (int i = 0; i < points; i++) {
+                // ~1% missing samples
+                if (random.nextInt(100) != 0) {
+                    columns.add(PerfDataSeriesWriterTest.column(start + (long) i * STEP, random.nextDouble() * 100));
+                }
+            }
+            rows.put(ByteBuffer.wrap(("1001:compute-" + s + ":CpuIdle:rra-average-1m").getBytes()), columns);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        CountingOutputStream sink = new CountingOutputStream();
+
+        for (int i = 0; i < iterations + 2; i++) {
+            boolean warmup = i < 2;
+
+            long allocated = threads.getThreadAllocatedBytes(threadId);
+            long t0 = System.nanoTime();
+            Writer out = new BufferedWriter(new OutputStreamWriter(sink, StandardCharsets.ISO_8859_1));
+            PerfDataSeriesWriter writer = new PerfDataSeriesWriter(out);
+            for (Map.Entry<String, PerfDataSeriesWriter.Series> series : PerfDataSeriesWriter.decode(rows).entrySet()) {
+                writer.write(series.getKey(), series.getValue(), STEP, start);
+            }
+            writer.flush();
+            out.flush();
+            long streamNanos = System.nanoTime() - t0;
+            long streamAllocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+            long streamBytes = sink.reset();
+
+            if (!warmup) {
+                System.out.println(String.format("streaming: %5d ms, allocated %5d MB, %d bytes out", streamNanos / 1000000,
+                        streamAllocated >> 20, streamBytes));
+            }
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        long reset() {
+            long c = count;
+            count = 0;
+            return c;
+        }
+    }
+}
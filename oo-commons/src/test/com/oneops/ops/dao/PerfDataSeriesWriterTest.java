@@ -0,0 +1,216 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.ops.dao;
+
+import me.prettyprint.cassandra.serializers.DoubleSerializer;
+import me.prettyprint.cassandra.serializers.LongSerializer;
+import org.apache.cassandra.thrift.Column;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.testng.Assert.assertEquals;
+
+public class PerfDataSeriesWriterTest {
+
+    private static final int STEP = 60;
+    private static final long START = 1500000000L - 1500000000L % STEP;
+    private static final String ROW_KEY = "1001:compute-cpu:CpuIdle:rra-average-1m";
+
+    @Test
+    public void gapsAndRounding() throws IOException {
+        assertJson(Arrays.asList(column(START, 1.23456), column(START + STEP, 2), column(START + 4 * STEP, 0.0005),
+                column(START + 5 * STEP, 1e7)),
+                "[1.235,2.0,null,null,0.001,1.0E7]");
+    }
+
+    @Test
+    public void misalignedSamples() throws IOException {
+        // a sample between buckets takes the next bucket, the buckets after it follow from there
+        assertJson(Arrays.asList(column(START + STEP + 7, 5), column(START + 3 * STEP, 6), column(START + 4 * STEP + 30, 7)),
+                "[null,null,5.0,6.0,null,7.0]");
+    }
+
+    @Test
+    public void unsortedColumns() throws IOException {
+        // the last of the repeated columns wins
+        assertJson(Arrays.asList(column(START + 3 * STEP, 3.0), column(START + STEP, 1.0), column(START + 3 * STEP, 3.5),
+                column(START, 0.12345)),
+                "[0.123,1.0,null,3.5]");
+    }
+
+    @Test
+    public void emptyRow() throws IOException {
+        assertJson(new ArrayList<>(), "[]");
+    }
+
+    @Test
+    public void seriesSeparator() throws IOException {
+        StringWriter out = new StringWriter();
+        PerfDataSeriesWriter writer = new PerfDataSeriesWriter(out);
+        writer.write(ROW_KEY, PerfDataSeriesWriter.decode(Arrays.asList(column(START, 1))), STEP, START);
+        writer.write("1002:compute-mem:MemFree:rra-average-1m", PerfDataSeriesWriter.decode(Arrays.asList(column(START, 2))),
+                STEP, START);
+        writer.flush();
+        assertEquals(out.toString(), header(STEP, START) + "[1.0]},\n"
+                + "{ \"header\":{\"ci_id\":1002, \"metric\":\"compute-mem:MemFree\", \"step\":" + STEP
+                + ", \"start\":" + START + "},\n \"data\":[2.0]}");
+    }
+
+    @Test
+    public void merge() {
+        PerfDataSeriesWriter.Series a = PerfDataSeriesWriter.decode(Arrays.asList(column(1, 1), column(3, 3), column(5, 5)));
+        PerfDataSeriesWriter.Series b = PerfDataSeriesWriter.decode(Arrays.asList(column(2, 2), column(3, 30), column(6, 6)));
+        PerfDataSeriesWriter.Series merged = PerfDataSeriesWriter.merge(a, b);
+        assertEquals(Arrays.copyOf(merged.times, merged.size), new long[]{1, 2, 3, 5, 6});
+        assertEquals(Arrays.copyOf(merged.values, merged.size), new double[]{1, 2, 30, 5, 6});
+    }
+
+    @Test
+    public void aggregate() {
+        PerfDataSeriesWriter.Series series = PerfDataSeriesWriter.decode(Arrays.asList(
+                column(START, 1), column(START + STEP, 5), column(START + 2 * STEP, 3),
+                column(START + 5 * STEP, 4), column(START + 7 * STEP, 8)));
+        int step = 3 * STEP;
+        assertSeries(PerfDataSeriesWriter.aggregate(series, START, step, "rra-average"),
+                new long[]{START, START + step, START + 2 * step}, new double[]{3, 4, 8});
+        assertSeries(PerfDataSeriesWriter.aggregate(series, START, step, "rra-min"),
+                new long[]{START, START + step, START + 2 * step}, new double[]{1, 4, 8});
+        assertSeries(PerfDataSeriesWriter.aggregate(series, START, step, "rra-max"),
+                new long[]{START, START + step, START + 2 * step}, new double[]{5, 4, 8});
+        assertSeries(PerfDataSeriesWriter.aggregate(series, START, step, "rra-count"),
+                new long[]{START, START + step, START + 2 * step}, new double[]{9, 4, 8});
+        // samples before the start are left out
+        assertSeries(PerfDataSeriesWriter.aggregate(series, START + step, step, "rra-sum"),
+                new long[]{START + step, START + 2 * step}, new double[]{4, 8});
+    }
+
+    @Test
+    public void rollupMatchesCollectorBuckets() {
+        // two days of 1m samples from a day boundary, consolidated into 1h, 6h and 1d columns the way the
+        // collector does it, the 6h and 1d rollups of the 1h columns have to come out as the collector's columns
+        long day = 86400;
+        long start = START - START % day;
+        for (String stat : new String[]{"rra-average", "rra-min", "rra-max", "rra-sum", "rra-count"}) {
+            PerfDataSeriesWriter.Series hourly = collectorColumns(start, 2 * day, 3600, stat);
+            for (int step : new int[]{21600, 86400}) {
+                PerfDataSeriesWriter.Series expected = collectorColumns(start, 2 * day, step, stat);
+                PerfDataSeriesWriter.Series rolled = PerfDataSeriesWriter.rollup(hourly, start + step, step, stat);
+                assertEquals(Arrays.copyOf(rolled.times, rolled.size), Arrays.copyOf(expected.times, expected.size), stat);
+                for (int i = 0; i < expected.size; i++) {
+                    assertEquals(rolled.values[i], expected.values[i], 1e-9, stat + " " + rolled.times[i]);
+                }
+            }
+        }
+        // a rollup starting later leaves out the 1h columns of the earlier buckets
+        PerfDataSeriesWriter.Series hourly = collectorColumns(start, day, 3600, "rra-count");
+        assertSeries(PerfDataSeriesWriter.rollup(hourly, start + 3 * 21600, 21600, "rra-count"),
+                new long[]{start + 3 * 21600, start + 4 * 21600}, new double[]{360, 360});
+    }
+
+    /**
+     * Columns of one rra as written by the collector for 1m samples after <code>start</code>: the
+     * samples up to and including the end of a period (<code>endTime % period == 0</code>) are
+     * consolidated into the column named by that end.
+     */
+    private static PerfDataSeriesWriter.Series collectorColumns(long start, long length, int period, String stat) {
+        List<Column> columns = new ArrayList<>();
+        double cdp = 0;
+        int count = 0;
+        for (long time = start + 60; time <= start + length; time += 60) {
+            double pdp = (time / 60 * 7) % 13;
+            if (count == 0) {
+                cdp = stat.equals("rra-count") ? 1 : pdp;
+            } else if (stat.equals("rra-min")) {
+                cdp = Math.min(cdp, pdp);
+            } else if (stat.equals("rra-max")) {
+                cdp = Math.max(cdp, pdp);
+            } else if (stat.equals("rra-sum")) {
+                cdp += pdp;
+            } else if (stat.equals("rra-count")) {
+                cdp++;
+            } else {
+                cdp = (cdp * count + pdp) / (count + 1);
+            }
+            count++;
+            if (time % period == 0) {
+                columns.add(column(time, cdp));
+                count = 0;
+            }
+        }
+        return PerfDataSeriesWriter.decode(columns);
+    }
+
+    @Test
+    public void downsampledOutput() throws IOException {
+        List<Column> columns = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            columns.add(column(START + i * STEP, i % 10));
+        }
+        int step = 10 * STEP;
+        PerfDataSeriesWriter.Series series = PerfDataSeriesWriter.aggregate(PerfDataSeriesWriter.decode(columns), START, step, "rra-average");
+        StringWriter out = new StringWriter();
+        PerfDataSeriesWriter writer = new PerfDataSeriesWriter(out);
+        writer.write("1:a:b:rra-average-1m", series, step, START);
+        writer.flush();
+        assertEquals(writer.getSampleCount(), 100);
+        String json = out.toString();
+        assertEquals(json.substring(0, json.indexOf("[")), "{ \"header\":{\"ci_id\":1, \"metric\":\"a:b\", \"step\":" + step
+                + ", \"start\":" + START + "},\n \"data\":");
+        assertEquals(json.split("4\\.5", -1).length - 1, 100);
+    }
+
+    private static void assertSeries(PerfDataSeriesWriter.Series series, long[] times, double[] values) {
+        assertEquals(Arrays.copyOf(series.times, series.size), times);
+        assertEquals(Arrays.copyOf(series.values, series.size), values);
+    }
+
+    private static void assertJson(List<Column> columns, String data) throws IOException {
+        Map<ByteBuffer, List<Column>> rows = new HashMap<>();
+        rows.put(key(ROW_KEY), columns);
+        assertEquals(json(rows), header(STEP, START) + data + "}");
+    }
+
+    private static String json(Map<ByteBuffer, List<Column>> rows) throws IOException {
+        StringWriter out = new StringWriter();
+        PerfDataSeriesWriter writer = new PerfDataSeriesWriter(out);
+        for (Map.Entry<String, PerfDataSeriesWriter.Series> series : PerfDataSeriesWriter.decode(rows).entrySet()) {
+            writer.write(series.getKey(), series.getValue(), STEP, START);
+        }
+        writer.flush();
+        return out.toString();
+    }
+
+    private static String header(int step, long start) {
+        return "{ \"header\":{\"ci_id\":1001, \"metric\":\"compute-cpu:CpuIdle\", \"step\":" + step
+                + ", \"start\":" + start + "},\n \"data\":";
+    }
+
+    private static ByteBuffer key(String key) {
+        return ByteBuffer.wrap(key.getBytes());
+    }
+
+    static Column column(long time, double value) {
+        return new Column(LongSerializer.get().toByteBuffer(time))
+                .setValue(DoubleSerializer.get().toByteBuffer(value))
+                .setTimestamp(time);
+    }
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.ops.dao;
+
+import com.oneops.ops.PerfDataRequest;
+import com.oneops.sensor.events.PerfEvent;
+import org.apache.cassandra.thrift.Column;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Dashboard polls of the last 6 hours of 1 minute data, while the aggregates keep being written,
+ * against an in-memory cassandra stand-in that pays a simulated round trip per query and per column.
+ * The series cache serves the same json with a fraction of the queries and columns read.
+ */
+public class PerfSeriesCacheLoadTest {
+
+    private static final int CIS = 100;
+    private static final String[] METRICS = {"CpuIdle", "CpuUser", "CpuSystem"};
+    private static final int STEP = 60;
+    private static final int READERS = 4;
+    private static final int READS_PER_READER = 750;
+    private static final long MAX_STALE_MS = 2000;
+
+    @Test
+    public void cacheLoadTest() throws Exception {
+        Result off = run(false);
+        Result on = run(true);
+        assertTrue(on.queries * 2 < off.queries, "queries, cache on: " + on.queries + ", off: " + off.queries);
+        assertTrue(on.columns * 10 < off.columns, "columns, cache on: " + on.columns + ", off: " + off.columns);
+    }
+
+    private Result run(boolean cache) throws Exception {
+        long now = System.currentTimeMillis() / 1000;
+        long seedEnd = PerfDataAccessor.bucketize(now, STEP);
+        Map<String, NavigableMap<Long, Double>> rows = new ConcurrentHashMap<>();
+        InMemoryPerfDataAccessor accessor = new InMemoryPerfDataAccessor(rows);
+        Random random = new Random(42);
+        for (int ci = 1; ci <= CIS; ci++) {
+            for (String metric : METRICS) {
+                NavigableMap<Long, Double> row = accessor.row(rowKey(ci, metric));
+                for (long time = seedEnd - 86400; time <= seedEnd; time += STEP) {
+                    row.put(time, (double) random.nextInt(100));
+                }
+            }
+        }
+        accessor.startWritePipeline(500, 5, 100000, 1);
+        if (cache) {
+            accessor.startSeriesCache(256L << 20, 1440, MAX_STALE_MS);
+        }
+
+        // aggregates of the next minutes keep coming in, through the same accessor
+        CountDownLatch readersDone = new CountDownLatch(READERS);
+        Thread writer = new Thread(() -> {
+            long bucket = seedEnd;
+            while (readersDone.getCount() > 0) {
+                bucket += STEP;
+                for (int ci = 1; ci <= CIS; ci++) {
+                    try {
+                        accessor.writeBucket(event(ci, bucket, random.nextInt(100)));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        });
+        writer.start();
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            Random readerRandom = new Random(r);
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; i < READS_PER_READER; i++) {
+                        // hot dashboards, a tenth of the cis get most of the polls
+                        int ci = 1 + (readerRandom.nextInt(10) < 8 ? readerRandom.nextInt(CIS / 10) : readerRandom.nextInt(CIS));
+                        accessor.writePerfDataSeries(request(ci, now - 6 * 3600, now + 3600), new StringWriter());
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    readersDone.countDown();
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        writer.join();
+        accessor.closeWritePipeline(10000);
+
+        // the cached series are the ones in cassandra at most max stale ms after the writes
+        if (cache) {
+            Thread.sleep(MAX_STALE_MS + 100);
+        }
+        InMemoryPerfDataAccessor direct = new InMemoryPerfDataAccessor(rows);
+        for (int ci = 1; ci <= CIS; ci++) {
+            StringWriter cached = new StringWriter();
+            StringWriter stored = new StringWriter();
+            accessor.writePerfDataSeries(request(ci, now - 6 * 3600, now + 3600), cached);
+            direct.writePerfDataSeries(request(ci, now - 6 * 3600, now + 3600), stored);
+            assertEquals(cached.toString(), stored.toString(), "ci " + ci);
+        }
+
+        Result result = new Result();
+        result.queries = accessor.queries.get();
+        result.columns = accessor.columns.get();
+        return result;
+    }
+
+    private static String rowKey(int ci, String metric) {
+        return ci + ":compute-cpu:" + metric + ":rra-average-1m";
+    }
+
+    private static PerfDataRequest request(int ci, long start, long end) {
+        PerfDataRequest req = new PerfDataRequest();
+        req.setCi_id(ci);
+        req.setStart(start);
+        req.setEnd(end);
+        req.setStep(STEP);
+        String[] metrics = new String[METRICS.length];
+        for (int i = 0; i < METRICS.length; i++) {
+            metrics[i] = "compute-cpu:" + METRICS[i];
+        }
+        req.setMetrics(metrics);
+        return req;
+    }
+
+    private static PerfEvent event(int ci, long bucket, double value) {
+        PerfEvent event = new PerfEvent();
+        event.setCiId(ci);
+        event.setGrouping("compute-cpu");
+        event.setBucket("1m-avg");
+        event.setTimestamp(bucket);
+        for (String metric : METRICS) {
+            event.getMetrics().addAvg(metric, value);
+        }
+        return event;
+    }
+
+    private static class Result {
+        long queries;
+        long columns;
+    }
+
+    /**
+     * Keeps the data rows in memory, each multiget pays 200us plus 1us per column returned.
+     */
+    private static class InMemoryPerfDataAccessor extends PerfDataAccessor {
+        private final Map<String, NavigableMap<Long, Double>> rows;
+        private final AtomicLong queries = new AtomicLong();
+        private final AtomicLong columns = new AtomicLong();
+
+        InMemoryPerfDataAccessor(Map<String, NavigableMap<Long, Double>> rows) {
+            this.rows = rows;
+        }
+
+        NavigableMap<Long, Double> row(String rowKey) {
+            return rows.computeIfAbsent(rowKey, k -> new ConcurrentSkipListMap<>());
+        }
+
+        @Override
+        Map<ByteBuffer, List<Column>> multigetSlice(List<ByteBuffer> keys, String dataCF, long from, long to, int maxColumns) {
+            Map<ByteBuffer, List<Column>> result = new HashMap<>();
+            int count = 0;
+            for (ByteBuffer key : keys) {
+                byte[] bytes = new byte[key.remaining()];
+                key.duplicate().get(bytes);
+                List<Column> columnList = new ArrayList<>();
+                for (Map.Entry<Long, Double> column : row(new String(bytes)).subMap(from, true, to, true).entrySet()) {
+                    columnList.add(PerfDataSeriesWriterTest.column(column.getKey(), column.getValue()));
+                }
+                count += columnList.size();
+                result.put(key, columnList);
+            }
+            queries.incrementAndGet();
+            columns.addAndGet(count);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200 + count));
+            return result;
+        }
+
+        @Override
+        void writeBatch(String dataCF, int ttl, List<PerfWritePipeline.PendingColumn> batch) {
+            for (PerfWritePipeline.PendingColumn column : batch) {
+                row(new String(column.getRowKey())).put(column.getName(), column.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.ops.dao;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class PerfSeriesCacheTest {
+
+    private static final String KEY = "1001:compute-cpu:CpuIdle:rra-average-1m";
+    private static final long NOW_MS = 1500000000000L;
+    private static final long NOW = NOW_MS / 1000;
+    private static final long START = NOW - 100 * 60;
+
+    @Test
+    public void readThroughAndWrites() {
+        PerfSeriesCache cache = new PerfSeriesCache(1 << 20, 1000, 10000);
+        PerfSeriesCache.Read read = cache.read(KEY, START, NOW, NOW_MS);
+        assertEquals(read.type, PerfSeriesCache.Read.Type.MISS);
+        assertNull(read.cached);
+        cache.put(KEY, series(START, 100), read.queryFrom, read.queryTo, NOW_MS);
+
+        // up to the last column read
+        read = cache.read(KEY, START + 600, NOW - 60, NOW_MS + 5000);
+        assertEquals(read.type, PerfSeriesCache.Read.Type.HIT);
+        assertEquals(read.cached.size, 90);
+        assertEquals(read.cached.times[0], START + 600);
+
+        // a loaded row is refreshed once for the writes in flight while it was read, even within max stale
+        cache.update(KEY, START + 100 * 60, 42);
+        read = cache.read(KEY, START, NOW + 60, NOW_MS + 5000);
+        assertEquals(read.type, PerfSeriesCache.Read.Type.STALE);
+        assertEquals(read.queryFrom, START + 99 * 60);
+        assertEquals(read.cached.size, 101);
+        assertEquals(read.cached.values[100], 42.0);
+        cache.append(KEY, series(START + 99 * 60, 2), NOW_MS + 5000);
+
+        // then the writes keep it current
+        cache.update(KEY, START + 101 * 60, 43);
+        read = cache.read(KEY, START, NOW + 120, System.currentTimeMillis());
+        assertEquals(read.type, PerfSeriesCache.Read.Type.HIT);
+        assertEquals(read.cached.size, 102);
+        assertEquals(read.cached.values[101], 43.0);
+
+        // older history comes from cassandra
+        read = cache.read(KEY, START - 600, NOW, System.currentTimeMillis());
+        assertEquals(read.type, PerfSeriesCache.Read.Type.PARTIAL);
+        assertEquals(read.queryFrom, START - 600);
+        assertEquals(read.queryTo, START - 1);
+        assertEquals(cache.getHitCount(), 2);
+        assertEquals(cache.getRefreshCount(), 1);
+        assertEquals(cache.getPartialHitCount(), 1);
+        assertEquals(cache.getMissCount(), 1);
+    }
+
+    @Test
+    public void staleRowsReadTheTail() {
+        PerfSeriesCache cache = new PerfSeriesCache(1 << 20, 1000, 10000);
+        cache.put(KEY, series(START, 100), START, NOW, NOW_MS);
+        PerfSeriesCache.Read read = cache.read(KEY, START, NOW + 120, NOW_MS + 20000);
+        assertEquals(read.type, PerfSeriesCache.Read.Type.STALE);
+        assertEquals(read.queryFrom, START + 99 * 60);
+        assertEquals(read.queryTo, NOW + 120);
+
+        cache.append(KEY, series(START + 99 * 60, 3), NOW_MS + 20000);
+        read = cache.read(KEY, START, NOW + 120, NOW_MS + 25000);
+        assertEquals(read.type, PerfSeriesCache.Read.Type.HIT);
+        assertEquals(read.cached.size, 102);
+        assertEquals(cache.getRefreshCount(), 1);
+    }
+
+    @Test
+    public void boundedPointsAndMemory() {
+        PerfSeriesCache cache = new PerfSeriesCache(1 << 20, 50, 10000);
+        cache.put(KEY, series(START, 100), START, NOW, NOW_MS);
+        PerfSeriesCache.Read read = cache.read(KEY, START, NOW - 60, NOW_MS);
+        assertEquals(read.type, PerfSeriesCache.Read.Type.PARTIAL);
+        assertEquals(read.queryTo, START + 50 * 60 - 1);
+        assertEquals(read.cached.size, 50);
+
+        // old reads are not cached
+        cache.put("1:old:row:rra-average-1m", series(START, 10), START - 86400, NOW - 86400, NOW_MS);
+        assertEquals(cache.getEntryCount(), 1);
+
+        PerfSeriesCache small = new PerfSeriesCache(16 * 4096, 1000, 10000);
+        for (int i = 0; i < 200; i++) {
+            small.put(i + ":compute-cpu:CpuIdle:rra-average-1m", series(START, 100), START, NOW, NOW_MS);
+        }
+        assertTrue(small.getBytes() <= small.getMaxBytes(), "bytes: " + small.getBytes());
+        assertTrue(small.getEvictionCount() > 0);
+        assertEquals(small.getEntryCount() + small.getEvictionCount(), 200);
+        // most recently used rows stay
+        assertEquals(small.read("199:compute-cpu:CpuIdle:rra-average-1m", START, NOW - 60, NOW_MS).type, PerfSeriesCache.Read.Type.HIT);
+    }
+
+    private static PerfDataSeriesWriter.Series series(long start, int points) {
+        PerfDataSeriesWriter.Series series = new PerfDataSeriesWriter.Series(points);
+        for (int i = 0; i < points; i++) {
+            series.times[i] = start + i * 60;
+            series.values[i] = i;
+        }
+        series.size = points;
+        return series;
+    }
+}
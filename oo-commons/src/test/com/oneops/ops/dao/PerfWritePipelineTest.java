@@ -0,0 +1,231 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.ops.dao;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.testng.Assert.*;
+
+/**
+ * Perf data writes against an in-memory cassandra stand-in where every batch mutation
+ * pays a round trip plus a small per column cost.
+ */
+public class PerfWritePipelineTest {
+
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final long COLUMN_NANOS = 200;
+    private static final int WRITERS = 40;
+    private static final int EVENTS_PER_WRITER = 500;
+    private static final int METRICS = 10;
+    private static final String[] SHARDS = {"data_1m", "data_5m", "data_1h"};
+
+    @Test
+    public void batchingTest() throws Exception {
+        CassandraStandIn direct = new CassandraStandIn();
+        run((cf, event) -> {
+            // one mutation per event, as PerfDataAccessor.writeBucket without the pipeline
+            direct.write(cf, 0, Arrays.asList(columns(event)));
+        });
+
+        CassandraStandIn batched = new CassandraStandIn();
+        PerfWritePipeline pipeline = new PerfWritePipeline(batched, 500, 20, 50000, 2);
+        run((cf, event) -> {
+            for (PerfWritePipeline.PendingColumn column : columns(event)) {
+                pipeline.add(cf, 0, column.getRowKey(), column.getName(), column.getValue());
+            }
+        });
+        pipeline.close(10000);
+
+        long columns = (long) WRITERS * EVENTS_PER_WRITER * METRICS;
+        assertEquals(direct.columns.get(), columns);
+        assertEquals(batched.columns.get(), columns);
+        assertEquals(batched.rows, direct.rows);
+        assertEquals(pipeline.getWrittenCount(), columns);
+        assertEquals(pipeline.getPendingCount(), 0);
+        assertTrue(batched.mutations.get() < direct.mutations.get() / 10,
+                "mutations, batched: " + batched.mutations.get() + ", direct: " + direct.mutations.get());
+    }
+
+    @Test
+    public void backpressureTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        PerfWritePipeline pipeline = new PerfWritePipeline((cf, ttl, batch) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 10, 1, 20, 1);
+
+        CountDownLatch added = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 100; i++) {
+                    pipeline.add("data_1m", 0, new byte[1], i, i);
+                }
+                added.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        // the producer blocks once 20 columns are queued
+        assertFalse(added.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(pipeline.getPendingCount(), 20);
+
+        release.countDown();
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+        pipeline.close(5000);
+        assertEquals(pipeline.getWrittenCount(), 100);
+    }
+
+    @Test
+    public void flushOnCloseTest() throws Exception {
+        CassandraStandIn cassandra = new CassandraStandIn();
+        // long linger, nothing is written before close
+        PerfWritePipeline pipeline = new PerfWritePipeline(cassandra, 1000, 60000, 1000, 1);
+        for (int i = 0; i < 10; i++) {
+            pipeline.add("data_1m", 0, new byte[1], i, i);
+        }
+        pipeline.close(5000);
+        assertEquals(cassandra.columns.get(), 10);
+        assertEquals(pipeline.getPendingCount(), 0);
+    }
+
+    @Test
+    public void failedBatchTest() throws Exception {
+        PerfWritePipeline pipeline = new PerfWritePipeline((cf, ttl, batch) -> {
+            throw new IllegalStateException("cassandra down");
+        }, 10, 1, 100, 1);
+        AtomicLong reported = new AtomicLong();
+        pipeline.setFailureListener((cf, columns, e) -> {
+            assertEquals(cf, "data_1m");
+            reported.addAndGet(columns);
+        });
+        for (int i = 0; i < 30; i++) {
+            pipeline.add("data_1m", 0, new byte[1], i, i);
+        }
+        pipeline.close(5000);
+        assertEquals(pipeline.getFailedCount(), 30);
+        assertEquals(reported.get(), 30);
+        assertEquals(pipeline.getPendingCount(), 0);
+    }
+
+    @Test
+    public void addRacingCloseTest() throws Exception {
+        CassandraStandIn cassandra = new CassandraStandIn();
+        PerfWritePipeline pipeline = new PerfWritePipeline(cassandra, 100, 1, 1000, 1);
+        AtomicLong accepted = new AtomicLong();
+        CountDownLatch started = new CountDownLatch(WRITERS);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        for (int w = 0; w < WRITERS; w++) {
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    for (int i = 0; ; i++) {
+                        pipeline.add("data_1m", 0, new byte[1], i, i);
+                        accepted.incrementAndGet();
+                    }
+                } catch (IllegalStateException e) {
+                    // closed
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        started.await();
+        pipeline.close(5000);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        // every accepted column is written, none is left queued after close
+        assertEquals(cassandra.columns.get(), accepted.get());
+        assertEquals(pipeline.getPendingCount(), 0);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void addAfterCloseTest() throws Exception {
+        PerfWritePipeline pipeline = new PerfWritePipeline(new CassandraStandIn(), 10, 1, 100, 1);
+        pipeline.close(5000);
+        pipeline.add("data_1m", 0, new byte[1], 1, 1);
+    }
+
+    private interface EventWriter {
+        void write(String cf, long event) throws Exception;
+    }
+
+    private void run(EventWriter writer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        CountDownLatch done = new CountDownLatch(WRITERS);
+        for (int w = 0; w < WRITERS; w++) {
+            final int writerId = w;
+            executor.execute(() -> {
+                try {
+                    for (int i = 0; i < EVENTS_PER_WRITER; i++) {
+                        long event = writerId * EVENTS_PER_WRITER + i;
+                        writer.write(SHARDS[(int) (event % SHARDS.length)], event);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        executor.shutdown();
+    }
+
+    private static PerfWritePipeline.PendingColumn[] columns(long event) {
+        PerfWritePipeline.PendingColumn[] columns = new PerfWritePipeline.PendingColumn[METRICS];
+        for (int m = 0; m < METRICS; m++) {
+            byte[] rowKey = (event + ":compute-cpu:metric" + m + ":rra-average-1m").getBytes();
+            columns[m] = new PerfWritePipeline.PendingColumn(rowKey, 1500000000L + event * 60, m);
+        }
+        return columns;
+    }
+
+    private static class CassandraStandIn implements PerfWritePipeline.BatchWriter {
+        private final Map<String, Map<Long, Double>> rows = new ConcurrentHashMap<>();
+        private final AtomicLong mutations = new AtomicLong();
+        private final AtomicLong columns = new AtomicLong();
+
+        @Override
+        public void write(String columnFamily, int ttl, List<PerfWritePipeline.PendingColumn> batch) {
+            LockSupport.parkNanos(ROUND_TRIP_NANOS + COLUMN_NANOS * batch.size());
+            for (PerfWritePipeline.PendingColumn column : batch) {
+                rows.computeIfAbsent(columnFamily + "/" + new String(column.getRowKey()), k -> new ConcurrentHashMap<>())
+                        .put(column.getName(), column.getValue());
+            }
+            mutations.incrementAndGet();
+            columns.addAndGet(batch.size());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.sensor.events;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class PerfEventCodecTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        PerfEvent event = perfEvent(42);
+        event.setGrouping("compute");
+        event.setChannel("inductor-1");
+        event.getOffsets().addAvg("CpuIdle", 1.5);
+
+        PerfEvent empty = new PerfEvent();
+        empty.setCiId(7);
+        empty.setMetrics(null);
+
+        List<PerfEvent> decoded = PerfEventCodec.decode(PerfEventCodec.encode(Arrays.asList(event, empty)));
+        assertEquals(decoded.size(), 2);
+
+        PerfEvent first = decoded.get(0);
+        assertEquals(first.getCiId(), 42);
+        assertEquals(first.getManifestId(), 420);
+        assertEquals(first.getTimestamp(), event.getTimestamp());
+        assertEquals(first.getChecksum(), 4242);
+        assertEquals(first.getSource(), "compute-cpu");
+        assertEquals(first.getBucket(), "5m");
+        assertEquals(first.getGrouping(), "compute");
+        assertEquals(first.getChannel(), "inductor-1");
+        assertEquals(first.getMetrics().getAvg(), event.getMetrics().getAvg());
+        assertEquals(first.getMetrics().getCount(), event.getMetrics().getCount());
+        assertEquals(first.getOffsets().getAvg(), event.getOffsets().getAvg());
+        assertFalse(first.isAggregate());
+
+        PerfEvent second = decoded.get(1);
+        assertEquals(second.getCiId(), 7);
+        assertNull(second.getSource());
+        assertNull(second.getBucket());
+        assertEquals(second.getChannel(), PerfEvent.DEFAULT_CHANNEL);
+        assertNull(second.getMetrics());
+        assertNull(second.getOffsets().getAvg());
+    }
+
+    @Test
+    public void nullAndNaNValues() throws IOException {
+        PerfEvent event = perfEvent(1);
+        event.getMetrics().addAvg("CpuIdle", null);
+        event.getMetrics().addAvg("CpuUser", Double.NaN);
+
+        PerfEvent decoded = PerfEventCodec.decode(PerfEventCodec.encode(Arrays.asList(event))).get(0);
+        assertTrue(decoded.getMetrics().getAvg().containsKey("CpuIdle"));
+        assertNull(decoded.getMetrics().getAvg().get("CpuIdle"));
+        assertTrue(decoded.getMetrics().getAvg().get("CpuUser").isNaN());
+        assertEquals(decoded.getMetrics().getAvg().get("CpuSystem"), 4.25);
+    }
+
+    @Test
+    public void smallerThanJavaSerialization() throws IOException {
+        List<PerfEvent> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(perfEvent(i));
+        }
+        // one serialized object per message, as sent today
+        int java = 0;
+        for (PerfEvent event : events) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(event);
+            }
+            java += bytes.size();
+        }
+        byte[] binary = PerfEventCodec.encode(events);
+        assertTrue(binary.length * 5 < java, "binary: " + binary.length + ", java: " + java);
+
+        int estimate = 0;
+        for (PerfEvent event : events) {
+            estimate += PerfEventCodec.estimateSize(event);
+        }
+        assertTrue(estimate >= binary.length, "estimate: " + estimate + ", binary: " + binary.length);
+    }
+
+    @Test
+    public void unsupportedVersion() throws IOException {
+        byte[] data = PerfEventCodec.encode(Arrays.asList(perfEvent(1)));
+        data[0] = 99;
+        try {
+            PerfEventCodec.decode(data);
+            fail("decoded version 99");
+        } catch (PerfEventCodec.UnsupportedVersionException e) {
+            assertEquals(e.getVersion(), 99);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void truncated() throws IOException {
+        byte[] data = PerfEventCodec.encode(Arrays.asList(perfEvent(1)));
+        PerfEventCodec.decode(Arrays.copyOf(data, data.length - 10));
+    }
+
+    private static PerfEvent perfEvent(long ciId) {
+        PerfEvent event = new PerfEvent();
+        event.setCiId(ciId);
+        event.setManifestId(ciId * 10);
+        event.setTimestamp(1500000000000L + ciId);
+        event.setChecksum(4242);
+        event.setSource("compute-cpu");
+        event.setBucket("5m");
+        event.getMetrics().addAvg("CpuIdle", 90.5);
+        event.getMetrics().addAvg("CpuUser", 5.25);
+        event.getMetrics().addAvg("CpuSystem", 4.25);
+        event.getMetrics().addCount("CpuIdle", 3.0);
+        return event;
+    }
+}
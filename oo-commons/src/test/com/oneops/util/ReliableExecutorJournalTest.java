@@ -0,0 +1,354 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.util;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class ReliableExecutorJournalTest {
+
+	private static final int MESSAGES = 1000000;
+
+	private File folder;
+
+	@BeforeMethod
+	public void init() throws IOException {
+		folder = Files.createTempDirectory("journal").toFile();
+	}
+
+	@AfterMethod
+	public void cleanup() {
+		delete(folder);
+	}
+
+	@Test
+	public void spillAndReplay() {
+		TestExecutor executor = new TestExecutor();
+		executor.setScanFolder(folder.getPath());
+		executor.setShortName("test");
+		executor.setScanPeriod(3600);
+		executor.setSegmentSize(1024 * 1024);
+		executor.init();
+		try {
+			for (int i = 0; i < MESSAGES; i++) {
+				Assert.assertFalse(executor.executeSync(new Message(i, "payload-" + i)));
+			}
+			Assert.assertEquals(executor.getBacklog(), MESSAGES);
+
+			executor.available = true;
+			executor.scanner.run();
+
+			Assert.assertEquals(executor.processed, MESSAGES);
+			Assert.assertFalse(executor.outOfOrder);
+			Assert.assertEquals(executor.getBacklog(), 0);
+			// the cursor and the segment being written
+			Assert.assertEquals(folder.list().length, 2);
+		} finally {
+			executor.destroy();
+		}
+	}
+
+	@Test
+	public void retryStopsAtFailure() {
+		TestExecutor executor = new TestExecutor();
+		executor.setScanFolder(folder.getPath());
+		executor.setScanPeriod(3600);
+		executor.init();
+		try {
+			for (int i = 0; i < 10; i++) {
+				executor.executeSync(new Message(i, "payload-" + i));
+			}
+			executor.available = true;
+			executor.failAt = 4;
+			executor.scanner.run();
+			Assert.assertEquals(executor.processed, 4);
+			Assert.assertEquals(executor.getBacklog(), 6);
+
+			executor.failAt = -1;
+			executor.scanner.run();
+			Assert.assertEquals(executor.processed, 10);
+			Assert.assertFalse(executor.outOfOrder);
+			Assert.assertEquals(executor.getBacklog(), 0);
+		} finally {
+			executor.destroy();
+		}
+	}
+
+	@Test
+	public void importSpillFiles() throws IOException {
+		for (int i = 0; i < 3; i++) {
+			try (FileWriter writer = new FileWriter(new File(folder, "test-" + (1500000000000L + i) + "-" + i))) {
+				writer.write("{\"id\":" + i + ",\"payload\":\"p\"}");
+			}
+		}
+		TestExecutor executor = new TestExecutor();
+		executor.setScanFolder(folder.getPath());
+		executor.setShortName("test");
+		executor.setScanPeriod(3600);
+		executor.init();
+		try {
+			Assert.assertEquals(executor.getBacklog(), 3);
+			executor.available = true;
+			executor.scanner.run();
+			Assert.assertEquals(executor.processed, 3);
+			Assert.assertFalse(executor.outOfOrder);
+			Assert.assertFalse(new File(folder, "test-1500000000000-0").exists());
+		} finally {
+			executor.destroy();
+		}
+	}
+
+	@Test
+	public void reopen() throws IOException {
+		SpillJournal journal = new SpillJournal(folder, "test", 100);
+		for (int i = 0; i < 10; i++) {
+			journal.append(bytes("record-" + i));
+		}
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(string(journal.peek()), "record-" + i);
+			// same record until acked
+			Assert.assertEquals(string(journal.peek()), "record-" + i);
+			journal.ack();
+		}
+		journal.close();
+
+		journal = new SpillJournal(folder, "test", 100);
+		Assert.assertEquals(journal.size(), 7);
+		Assert.assertEquals(string(journal.peek()), "record-3");
+		journal.close();
+	}
+
+	@Test
+	public void fullyAckedSegmentsAreDeleted() throws IOException {
+		SpillJournal journal = new SpillJournal(folder, "test", 64);
+		for (int i = 0; i < 20; i++) {
+			journal.append(bytes("record-" + i));
+		}
+		int segments = segmentCount();
+		Assert.assertTrue(segments > 5);
+		for (int i = 0; i < 10; i++) {
+			journal.peek();
+			journal.ack();
+		}
+		Assert.assertTrue(segmentCount() < segments);
+		while (journal.peek() != null) {
+			journal.ack();
+		}
+		Assert.assertEquals(journal.size(), 0);
+		Assert.assertEquals(segmentCount(), 1);
+		journal.close();
+	}
+
+	@Test
+	public void tornWriteIsCut() throws IOException {
+		SpillJournal journal = new SpillJournal(folder, "test", 1024);
+		for (int i = 0; i < 5; i++) {
+			journal.append(bytes("record-" + i));
+		}
+		journal.close();
+		File segment = folder.listFiles((dir, name) -> name.endsWith(SpillJournal.SEGMENT_SUFFIX))[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			// half written record
+			file.seek(file.length());
+			file.writeInt(100);
+			file.writeInt(12345);
+			file.write(bytes("rec"));
+		}
+
+		journal = new SpillJournal(folder, "test", 1024);
+		Assert.assertEquals(journal.size(), 5);
+		journal.append(bytes("record-5"));
+		for (int i = 0; i < 6; i++) {
+			Assert.assertEquals(string(journal.peek()), "record-" + i);
+			journal.ack();
+		}
+		Assert.assertNull(journal.peek());
+		journal.close();
+	}
+
+	@Test
+	public void corruptRecordIsSkipped() throws IOException {
+		SpillJournal journal = new SpillJournal(folder, "test", 1024);
+		for (int i = 0; i < 5; i++) {
+			journal.append(bytes("record-" + i));
+		}
+		journal.close();
+		File segment = folder.listFiles((dir, name) -> name.endsWith(SpillJournal.SEGMENT_SUFFIX))[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			// payload of record-1
+			file.seek(16 + 8 + 2);
+			file.write('X');
+		}
+
+		journal = new SpillJournal(folder, "test", 1024);
+		// only the corrupt record is lost, the rest of the segment is read
+		Assert.assertEquals(journal.size(), 4);
+		for (int i : new int[] {0, 2, 3, 4}) {
+			Assert.assertEquals(string(journal.peek()), "record-" + i);
+			journal.ack();
+		}
+		Assert.assertNull(journal.peek());
+		journal.close();
+	}
+
+	@Test
+	public void corruptLengthIsSkipped() throws IOException {
+		SpillJournal journal = new SpillJournal(folder, "test", 1024);
+		for (int i = 0; i < 3; i++) {
+			journal.append(bytes("record-" + i));
+		}
+		File segment = folder.listFiles((dir, name) -> name.endsWith(SpillJournal.SEGMENT_SUFFIX))[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			// length of record-0, changed behind the open journal
+			file.seek(0);
+			file.writeInt(500);
+		}
+		Assert.assertEquals(string(journal.peek()), "record-1");
+		journal.ack();
+		Assert.assertEquals(string(journal.peek()), "record-2");
+		journal.ack();
+		Assert.assertNull(journal.peek());
+		journal.close();
+	}
+
+	@Test
+	public void journalInUse() throws IOException {
+		SpillJournal journal = new SpillJournal(folder, "test", 1024);
+		try {
+			new SpillJournal(folder, "test", 1024);
+			Assert.fail("opened twice");
+		} catch (IOException e) {
+			// expected
+		}
+		new SpillJournal(folder, "other", 1024).close();
+		journal.close();
+		new SpillJournal(folder, "test", 1024).close();
+	}
+
+	@Test
+	public void executorsWithoutShortName() {
+		TestExecutor executor = new TestExecutor();
+		executor.setScanFolder(folder.getPath());
+		executor.setScanPeriod(3600);
+		executor.init();
+		OtherExecutor other = new OtherExecutor();
+		other.setScanFolder(folder.getPath());
+		other.setScanPeriod(3600);
+		other.init();
+		try {
+			executor.executeSync(new Message(0, "payload"));
+			Assert.assertEquals(executor.getBacklog(), 1);
+			Assert.assertEquals(other.getBacklog(), 0);
+			other.scanner.run();
+			Assert.assertEquals(executor.getBacklog(), 1);
+		} finally {
+			executor.destroy();
+			other.destroy();
+		}
+	}
+
+	@Test
+	public void folderRemoved() throws IOException {
+		SpillJournal journal = new SpillJournal(folder, "test", 1024);
+		journal.append(bytes("record-0"));
+		delete(folder);
+		journal.append(bytes("record-1"));
+		Assert.assertEquals(string(journal.peek()), "record-1");
+		journal.ack();
+		Assert.assertNull(journal.peek());
+		journal.close();
+	}
+
+	private int segmentCount() {
+		return folder.listFiles((dir, name) -> name.endsWith(SpillJournal.SEGMENT_SUFFIX)).length;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(byte[] b) {
+		return b == null ? null : new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+
+	static class Message {
+		int id;
+		String payload;
+
+		Message(int id, String payload) {
+			this.id = id;
+			this.payload = payload;
+		}
+	}
+
+	static class TestExecutor extends ReliableExecutor<Message> {
+		volatile boolean available;
+		int failAt = -1;
+		int processed;
+		boolean outOfOrder;
+
+		TestExecutor() {
+			super(1);
+			setLogExecutionErrors(false);
+		}
+
+		@Override
+		protected boolean process(Message message) {
+			if (!available || message.id == failAt) {
+				return false;
+			}
+			if (message.id != processed) {
+				outOfOrder = true;
+			}
+			processed++;
+			return true;
+		}
+	}
+
+	static class OtherExecutor extends ReliableExecutor<Message> {
+
+		OtherExecutor() {
+			super(1);
+		}
+
+		@Override
+		protected boolean process(Message message) {
+			return true;
+		}
+	}
+}
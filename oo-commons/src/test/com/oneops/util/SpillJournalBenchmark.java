@@ -0,0 +1,92 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Spill and replay throughput and file count of the retry journal:
+ * <pre>
+ * java -cp ... com.oneops.util.SpillJournalBenchmark [messages]
+ * </pre>
+ */
+public class SpillJournalBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		File folder = Files.createTempDirectory("journal").toFile();
+		Journal journal = new Journal();
+		journal.setScanFolder(folder.getPath());
+		journal.setShortName("bench");
+		journal.setScanPeriod(3600);
+		journal.init();
+		long t0 = System.nanoTime();
+		for (int i = 0; i < messages; i++) {
+			journal.executeSync(message(i));
+		}
+		long t1 = System.nanoTime();
+		int files = folder.list().length;
+		journal.available = true;
+		journal.scanner.run();
+		long t2 = System.nanoTime();
+		journal.destroy();
+		report("journal", messages, t1 - t0, t2 - t1, files, journal.processed);
+		delete(folder);
+	}
+
+	private static MessageData message(int i) {
+		MessageData data = new MessageData();
+		data.setPayload("{\"ciId\":" + i + ",\"nsPath\":\"/oneops/assembly/env/bom/platform/1\",\"ciClassName\":\"bom.Compute\"}");
+		return data;
+	}
+
+	private static void report(String name, int messages, long spillNanos, long replayNanos, int files, int processed) {
+		System.out.println(String.format("%-8s %8d messages: spill %9.0f msg/s, replay %9.0f msg/s, %7d files, %d replayed",
+				name, messages, messages * 1e9 / spillNanos, messages * 1e9 / replayNanos, files, processed));
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+
+	static class Journal extends ReliableExecutor<MessageData> {
+		volatile boolean available;
+		int processed;
+
+		Journal() {
+			super(1);
+		}
+
+		@Override
+		protected boolean process(MessageData param) {
+			if (available) {
+				processed++;
+			}
+			return available;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.opamp.jms;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * A fixed set of single threaded lanes. The tasks with the same key run in one lane, one after
+ * the other in the order they were submitted, the tasks with other keys run concurrently in the
+ * other lanes. At most <code>maxInFlight</code> tasks are queued or running, {@link #submit}
+ * blocks the caller until there is room.
+ */
+class OpsEventLanes {
+
+  private static Logger logger = Logger.getLogger(OpsEventLanes.class);
+
+  private final ExecutorService[] lanes;
+  private final int maxInFlight;
+  private final Semaphore inFlight;
+
+  OpsEventLanes(int lanes, int maxInFlight) {
+    this.lanes = new ExecutorService[lanes];
+    for (int i = 0; i < lanes; i++) {
+      String name = "ops-event-lane-" + i;
+      this.lanes[i] = Executors.newSingleThreadExecutor(r -> new Thread(r, name));
+    }
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+  }
+
+  /**
+   * Runs the task in the lane of the key, waits while there are <code>maxInFlight</code> tasks.
+   */
+  void submit(long key, Runnable task) throws InterruptedException {
+    inFlight.acquire();
+    try {
+      lanes[Math.floorMod(Long.hashCode(key), lanes.length)].execute(() -> {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          logger.error("Error in ops event lane", e);
+        } finally {
+          inFlight.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      inFlight.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Stops taking tasks and waits for the submitted ones to finish.
+   *
+   * @return false if some of the tasks did not finish in time
+   */
+  boolean shutdown(long timeoutMs) throws InterruptedException {
+    for (ExecutorService lane : lanes) {
+      lane.shutdown();
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    boolean done = true;
+    for (ExecutorService lane : lanes) {
+      done &= lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+    return done;
+  }
+
+  int getInFlight() {
+    return maxInFlight - inFlight.availablePermits();
+  }
+}
@@ -24,7 +24,9 @@ import com.oneops.opamp.service.BadStateProcessor;
 import com.oneops.opamp.service.EnvPropsProcessor;
 import com.oneops.opamp.service.FlexStateProcessor;
 import com.oneops.opamp.service.Notifications;
+import com.oneops.opamp.service.OpsLookupBatcher;
 import com.oneops.opamp.util.EventUtil;
+import com.oneops.opamp.util.MicroBatcher;
 import com.oneops.ops.CiOpsProcessor;
 import com.oneops.ops.dao.OpsCiStateDao;
 import com.oneops.ops.events.CiChangeStateEvent;
@@ -32,16 +34,32 @@ import com.oneops.ops.events.OpsBaseEvent;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.TextMessage;
 import org.apache.log4j.Logger;
+import org.springframework.jms.JmsException;
+import org.springframework.jms.core.JmsTemplate;
 
 /**
  * The listener for opsevent generated by the sensor @see CiChangeStateEvent
  * Responsible for notifying events,
  * trigger auto-repairs,auto-scales
+ * <p>
+ * With <code>eventLanes</code> set the consumers hand the events over to that many lanes and
+ * take the next message. The events of a manifest are processed in one lane in the order they
+ * were received, so the component state counters and the repair decisions of a component see
+ * its events in order, while a storm of events in one environment doesn't hold up the others.
+ * The events are handed over in the order they are received, so the lanes take a single consumer.
+ * At most <code>maxInFlightEvents</code> events wait in the lanes, then the consumer blocks.
+ * With lanes the session acknowledges the messages one by one (ActiveMQ INDIVIDUAL_ACKNOWLEDGE)
+ * and a message is acknowledged by its lane once its event is processed, so the events still in
+ * the lanes are delivered again if the process dies. A message its lane fails on with an
+ * unexpected exception is sent to the <code>deadLetterSender</code> queue and acknowledged, or
+ * left unacknowledged if it can't be sent. Without lanes the events are processed on the
+ * consumer threads in a transacted session, that rolls back on such an exception.
  */
 public class OpsEventListener implements MessageListener {
 
@@ -55,6 +73,31 @@ public class OpsEventListener implements MessageListener {
   private OpsCiStateDao opsCiStateDao;
   private EventUtil eventUtil;
   private CiOpsProcessor ciOpsProcessor;
+  private OpsLookupBatcher lookupBatcher;
+  private int eventLanes = 0;
+  private int maxInFlightEvents = 1000;
+  private long shutdownTimeoutMs = 30000;
+  private JmsTemplate deadLetterSender;
+
+  private OpsEventLanes lanes;
+
+  public void init() {
+    if (eventLanes > 0) {
+      lanes = new OpsEventLanes(eventLanes, maxInFlightEvents);
+      logger.info("Ops events are processed in " + eventLanes + " lanes, max in flight: "
+          + maxInFlightEvents);
+    }
+  }
+
+  /**
+   * Waits for the events in the lanes to be processed.
+   */
+  public void destroy() throws InterruptedException {
+    if (lanes != null && !lanes.shutdown(shutdownTimeoutMs)) {
+      logger.warn("Ops event lanes did not finish in " + shutdownTimeoutMs + "ms, "
+          + lanes.getInFlight() + " events are not processed");
+    }
+  }
 
   /**
    * Sets the fs processor.
@@ -125,72 +168,30 @@ public class OpsEventListener implements MessageListener {
           if ("ci-change-state".equals(type)) {
             CiChangeStateEvent event = gson
                 .fromJson(((TextMessage) msg).getText(), CiChangeStateEvent.class);
-
-            eventUtil.addCloudName(event, envProcessor.fetchDeployedToRelations(event.getCiId()));
-
             OpsBaseEvent opsEvent = eventUtil.getOpsEvent(event);
-            long manifestId = opsEvent.getManifestId();
-            List<Long> manifestIds = new ArrayList<>();
-            manifestIds.add(manifestId);
-            Map<String, Integer> counters = ciOpsProcessor.getManifestStates(manifestIds)
-                .get(manifestId);
-            if (counters != null) {
-              logger.info("component level state counters for bom cid " + event.getCiId() + ": "
-                  + counters);
-              event.setComponentStatesCounters(counters);
+            if (lanes == null) {
+              processEvent(event, opsEvent);
             } else {
-              logger.warn("state counters found null for " + event.getCiId());
-            }
-
-            boolean isNewState =
-                (event.getNewState() != null) && (!event.getNewState().equals(event.getOldState()));
-
-            //Changed to pass the ChangeEvent context event
-            if (event.getPayLoad() != null && event.getNewState().equals(event.getOldState())
-                && opsEvent.getState().equalsIgnoreCase("close")) {
-              //this is the situation when one threshold got cleared but
-              //the ci state didn't changed b/c of other threshold is still violated
-              //we just need to send the notification.
-              logger.info(
-                  "sendingOpsCloseEventNotification for cid: " + event.getCiId() + " " + opsEvent
-                      .getSource() + " status " + opsEvent.getStatus() + " ostate:"
-                      + event.getOldState() + " nstate: " + event.getNewState());
-              notifier.sendOpsEventNotification(event);
-            } else if ("unhealthy".equals(event.getNewState())) {
-              if (opsEvent != null && opsEvent.getType() != null
-                  && "heartbeat".equals(opsEvent.getType())
-                  && envProcessor.isHeartbeatAlarmSuspended()) {
-                logger.warn("Heartbeat alarms suppressed. "
-                    + "No notifications/auto-repair/auto-replace will be performed for missing heartbeats");
-              } else {
-                bsProcessor.processUnhealthyState(event);
-              }
-            } else if ("overutilized".equals(event.getNewState())) {
-              fsProcessor.processOverutilized(event, isNewState);
-            } else if ("underutilized".equals(event.getNewState())) {
-              fsProcessor.processUnderutilized(event, isNewState, event.getTimestamp());
-            } else if (event.getPayLoad() != null && "notify".equals(event.getNewState())
-                && eventUtil.shouldNotify(event, opsEvent)) {
-              //skip the notification in case payload is null
-              notifier.sendOpsEventNotification(event);
-            } else if ("defunct".equals(event.getNewState())) {
-              bsProcessor.processDefunctState(event);
-            } else if ("good".equals(event.getNewState()) && "unhealthy"
-                .equals(event.getOldState())) {
-              logger.info(
-                  "sending good notification for cid: " + event.getCiId() + " " + (opsEvent != null
-                      ? opsEvent.getSource() : "") + " status " + (opsEvent != null ? opsEvent
-                      .getStatus() : "") + " ostate:"
-                      + event.getOldState() + " nstate: " + event.getNewState());
-              bsProcessor.processGoodState(event);
-            } else if (event.getPayLoad() != null && "good".equals(event.getNewState())
-                && "notify"
-                .equals(event.getOldState())) {//skip the notification in case payload is null
-              logger.info("sending recoverynotification for cid: " + event.getCiId() + " " + (
-                  opsEvent != null ? opsEvent.getSource() : "") + " status " + (opsEvent != null
-                  ? opsEvent.getStatus() : "") + " ostate:"
-                  + event.getOldState() + " nstate: " + event.getNewState());
-              notifier.sendOpsEventNotification(event);
+              long key = opsEvent.getManifestId() > 0 ? opsEvent.getManifestId() : event.getCiId();
+              lanes.submit(key, () -> {
+                try {
+                  processEvent(event, opsEvent);
+                } catch (OpsException opse) {
+                  logger.error("OpsException in onMessage", opse);
+                } catch (OpampException e) {
+                  logger.error("The event could not be processed, ciId: " + event.getCiId());
+                  logger.error("OpampException in onMessage", e);
+                } catch (RuntimeException e) {
+                  logger.error("The event could not be processed, ciId: " + event.getCiId(), e);
+                  if (!deadLetter(msg)) {
+                    // delivered again once the consumer reconnects
+                    return;
+                  }
+                }
+                acknowledge(msg);
+              });
+              // acknowledged by the lane
+              return;
             }
           }
         } catch (OpsException opse) {
@@ -198,6 +199,10 @@ public class OpsEventListener implements MessageListener {
         } catch (OpampException e) {
           logger.error("The message could not be processed " + msg);
           logger.error("OpampException in onMessage", e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          // rolls back the message
+          throw new IllegalStateException("Interrupted while waiting for an ops event lane", e);
         }
       }
       msg.acknowledge();
@@ -206,6 +211,110 @@ public class OpsEventListener implements MessageListener {
     }
   }
 
+  /**
+   * Sends a message its lane failed on to the dead letter queue.
+   *
+   * @return false if it could not be sent, the message is left unacknowledged then
+   */
+  private boolean deadLetter(Message msg) {
+    if (deadLetterSender == null) {
+      return false;
+    }
+    try {
+      deadLetterSender.send(session -> msg);
+      return true;
+    } catch (JmsException e) {
+      logger.error("Exception occured while sending the message to the dead letter queue" + msg, e);
+      return false;
+    }
+  }
+
+  private void acknowledge(Message msg) {
+    try {
+      msg.acknowledge();
+    } catch (JMSException e) {
+      logger.error("Exception occured while acknowledging the message" + msg, e);
+    }
+  }
+
+  /**
+   * Notifies, repairs or scales for a ci state change.
+   */
+  private void processEvent(CiChangeStateEvent event, OpsBaseEvent opsEvent)
+      throws OpampException {
+    long manifestId = opsEvent.getManifestId();
+    Map<String, Integer> counters;
+    if (lookupBatcher != null) {
+      // both lookups in the same window
+      CompletableFuture<Map<String, Integer>> states = lookupBatcher.getManifestStates(manifestId);
+      eventUtil.addCloudName(event, lookupBatcher.fetchDeployedToRelations(event.getCiId()));
+      counters = MicroBatcher.await(states);
+    } else {
+      eventUtil.addCloudName(event, envProcessor.fetchDeployedToRelations(event.getCiId()));
+      List<Long> manifestIds = new ArrayList<>();
+      manifestIds.add(manifestId);
+      counters = ciOpsProcessor.getManifestStates(manifestIds).get(manifestId);
+    }
+    if (counters != null) {
+      logger.info("component level state counters for bom cid " + event.getCiId() + ": "
+          + counters);
+      event.setComponentStatesCounters(counters);
+    } else {
+      logger.warn("state counters found null for " + event.getCiId());
+    }
+
+    boolean isNewState =
+        (event.getNewState() != null) && (!event.getNewState().equals(event.getOldState()));
+
+    //Changed to pass the ChangeEvent context event
+    if (event.getPayLoad() != null && event.getNewState().equals(event.getOldState())
+        && opsEvent.getState().equalsIgnoreCase("close")) {
+      //this is the situation when one threshold got cleared but
+      //the ci state didn't changed b/c of other threshold is still violated
+      //we just need to send the notification.
+      logger.info(
+          "sendingOpsCloseEventNotification for cid: " + event.getCiId() + " " + opsEvent
+              .getSource() + " status " + opsEvent.getStatus() + " ostate:"
+              + event.getOldState() + " nstate: " + event.getNewState());
+      notifier.sendOpsEventNotification(event);
+    } else if ("unhealthy".equals(event.getNewState())) {
+      if (opsEvent != null && opsEvent.getType() != null
+          && "heartbeat".equals(opsEvent.getType())
+          && envProcessor.isHeartbeatAlarmSuspended()) {
+        logger.warn("Heartbeat alarms suppressed. "
+            + "No notifications/auto-repair/auto-replace will be performed for missing heartbeats");
+      } else {
+        bsProcessor.processUnhealthyState(event);
+      }
+    } else if ("overutilized".equals(event.getNewState())) {
+      fsProcessor.processOverutilized(event, isNewState);
+    } else if ("underutilized".equals(event.getNewState())) {
+      fsProcessor.processUnderutilized(event, isNewState, event.getTimestamp());
+    } else if (event.getPayLoad() != null && "notify".equals(event.getNewState())
+        && eventUtil.shouldNotify(event, opsEvent)) {
+      //skip the notification in case payload is null
+      notifier.sendOpsEventNotification(event);
+    } else if ("defunct".equals(event.getNewState())) {
+      bsProcessor.processDefunctState(event);
+    } else if ("good".equals(event.getNewState()) && "unhealthy"
+        .equals(event.getOldState())) {
+      logger.info(
+          "sending good notification for cid: " + event.getCiId() + " " + (opsEvent != null
+              ? opsEvent.getSource() : "") + " status " + (opsEvent != null ? opsEvent
+              .getStatus() : "") + " ostate:"
+              + event.getOldState() + " nstate: " + event.getNewState());
+      bsProcessor.processGoodState(event);
+    } else if (event.getPayLoad() != null && "good".equals(event.getNewState())
+        && "notify"
+        .equals(event.getOldState())) {//skip the notification in case payload is null
+      logger.info("sending recoverynotification for cid: " + event.getCiId() + " " + (
+          opsEvent != null ? opsEvent.getSource() : "") + " status " + (opsEvent != null
+          ? opsEvent.getStatus() : "") + " ostate:"
+          + event.getOldState() + " nstate: " + event.getNewState());
+      notifier.sendOpsEventNotification(event);
+    }
+  }
+
   public EventUtil getEventUtil() {
     return eventUtil;
   }
@@ -221,4 +330,32 @@ public class OpsEventListener implements MessageListener {
   public void setCiOpsProcessor(CiOpsProcessor ciOpsProcessor) {
     this.ciOpsProcessor = ciOpsProcessor;
   }
+
+  /**
+   * Sets the batcher of the manifest state and deployedTo lookups, they are made one by one
+   * without it.
+   */
+  public void setLookupBatcher(OpsLookupBatcher lookupBatcher) {
+    this.lookupBatcher = lookupBatcher;
+  }
+
+  public void setEventLanes(int eventLanes) {
+    this.eventLanes = eventLanes;
+  }
+
+  public void setMaxInFlightEvents(int maxInFlightEvents) {
+    this.maxInFlightEvents = maxInFlightEvents;
+  }
+
+  public void setShutdownTimeoutMs(long shutdownTimeoutMs) {
+    this.shutdownTimeoutMs = shutdownTimeoutMs;
+  }
+
+  /**
+   * Sets the sender of the messages the lanes failed on, with the dead letter queue as the default
+   * destination.
+   */
+  public void setDeadLetterSender(JmsTemplate deadLetterSender) {
+    this.deadLetterSender = deadLetterSender;
+  }
 }
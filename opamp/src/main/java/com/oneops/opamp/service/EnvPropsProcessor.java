@@ -32,6 +32,8 @@ import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * provides lookups ,and info about enable
@@ -323,6 +325,17 @@ public class EnvPropsProcessor {
 		return cmProcessor.getFromCIRelations(ciId, "base.DeployedTo",null, "account.Cloud");
 	}
 
+	/**
+	 * Fetch the deployedTo relations of all the given ciIds with one query
+	 * @param ciIds
+	 * @return the relations by ciId, the ciIds without relations are left out
+	 */
+	public Map<Long, List<CmsCIRelation>> fetchDeployedToRelations(List<Long> ciIds){
+		List<CmsCIRelation> rels = cmProcessor.getFromCIRelationsNakedByFromCiIds(ciIds, "base.DeployedTo", null, "account.Cloud", true);
+		cmProcessor.populateRelCis(rels, false, true);
+		return rels.stream().collect(Collectors.groupingBy(CmsCIRelation::getFromCiId));
+	}
+
     public boolean isHeartbeatAlarmSuspended() {
         return getBooleanVariable(HEARTBEAT_ALARMS_SUSPENDED);
     }
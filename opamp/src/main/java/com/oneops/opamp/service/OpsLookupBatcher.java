@@ -0,0 +1,100 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.opamp.service;
+
+import com.oneops.cms.cm.domain.CmsCIRelation;
+import com.oneops.opamp.util.MicroBatcher;
+import com.oneops.ops.CiOpsProcessor;
+import org.apache.log4j.Logger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Batches the lookups the ops event lanes make for every event: the component state counters
+ * of the manifest, one cassandra multiget for the manifests of the window, and the deployedTo
+ * relations of the ci, one IN-list query for the cis of the window.
+ */
+public class OpsLookupBatcher {
+
+	private static Logger logger = Logger.getLogger(OpsLookupBatcher.class);
+
+	private EnvPropsProcessor envProcessor;
+	private CiOpsProcessor ciOpsProcessor;
+	private int batchSize = 100;
+	private long windowMs = 1;
+
+	private MicroBatcher<Long, Map<String, Integer>> manifestStates;
+	private MicroBatcher<Long, List<CmsCIRelation>> deployedToRelations;
+
+	public void init() {
+		manifestStates = new MicroBatcher<>("manifest-states-batcher",
+				manifestIds -> ciOpsProcessor.getManifestStates(manifestIds), batchSize, windowMs);
+		deployedToRelations = new MicroBatcher<>("deployed-to-batcher",
+				ciIds -> envProcessor.fetchDeployedToRelations(ciIds), batchSize, windowMs);
+		manifestStates.start();
+		deployedToRelations.start();
+		logger.info("Ops lookups are batched, batch size: " + batchSize + ", window: " + windowMs + "ms");
+	}
+
+	public void destroy() throws InterruptedException {
+		manifestStates.stop();
+		deployedToRelations.stop();
+		logger.info("Manifest states: " + manifestStates.getLookups() + " lookups in " + manifestStates.getLoads()
+				+ " queries, deployedTo relations: " + deployedToRelations.getLookups() + " lookups in "
+				+ deployedToRelations.getLoads() + " queries");
+	}
+
+	/**
+	 * @return the component state counters of the manifest, null if it has no cis
+	 */
+	public CompletableFuture<Map<String, Integer>> getManifestStates(long manifestId) {
+		return manifestStates.lookup(manifestId);
+	}
+
+	public List<CmsCIRelation> fetchDeployedToRelations(long ciId) {
+		List<CmsCIRelation> rels = deployedToRelations.get(ciId);
+		return rels == null ? Collections.emptyList() : rels;
+	}
+
+	public long getManifestStatesQueries() {
+		return manifestStates.getLoads();
+	}
+
+	public long getDeployedToQueries() {
+		return deployedToRelations.getLoads();
+	}
+
+	public void setEnvProcessor(EnvPropsProcessor envProcessor) {
+		this.envProcessor = envProcessor;
+	}
+
+	public void setCiOpsProcessor(CiOpsProcessor ciOpsProcessor) {
+		this.ciOpsProcessor = ciOpsProcessor;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setWindowMs(long windowMs) {
+		this.windowMs = windowMs;
+	}
+}
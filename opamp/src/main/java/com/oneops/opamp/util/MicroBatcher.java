@@ -0,0 +1,204 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.opamp.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Collects the keys looked up by concurrent callers for up to <code>windowMs</code>, or until
+ * there are <code>batchSize</code> of them, and loads them with one call to the loader. A key
+ * looked up by several callers in the same window is loaded once. With no window the keys looked
+ * up while a batch is loading make the next batch. The values are loaded after the lookup, never
+ * from an earlier batch.
+ *
+ * @param <K> the key
+ * @param <V> the value, null for the keys the loader doesn't return
+ */
+public class MicroBatcher<K, V> {
+
+	private static Logger logger = Logger.getLogger(MicroBatcher.class);
+
+	private final String name;
+	private final Function<List<K>, Map<K, V>> loader;
+	private final int batchSize;
+	private final long windowMs;
+
+	private final Object lock = new Object();
+	private Map<K, CompletableFuture<V>> pending = new LinkedHashMap<>();
+	private long oldestNanos;
+	private boolean running;
+	private Thread flusher;
+
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+
+	public MicroBatcher(String name, Function<List<K>, Map<K, V>> loader, int batchSize, long windowMs) {
+		this.name = name;
+		this.loader = loader;
+		this.batchSize = batchSize;
+		this.windowMs = windowMs;
+	}
+
+	public void start() {
+		synchronized (lock) {
+			running = true;
+		}
+		flusher = new Thread(this::run, name);
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Loads the pending keys and stops, the keys looked up afterwards are loaded one by one.
+	 */
+	public void stop() throws InterruptedException {
+		synchronized (lock) {
+			running = false;
+			lock.notifyAll();
+		}
+		if (flusher != null) {
+			flusher.join();
+		}
+	}
+
+	/**
+	 * Gets the value of the key with the other keys looked up in the window.
+	 */
+	public V get(K key) {
+		return await(lookup(key));
+	}
+
+	/**
+	 * Looks up the key with the other keys of the window, the caller can go on meanwhile.
+	 */
+	public CompletableFuture<V> lookup(K key) {
+		lookups.incrementAndGet();
+		synchronized (lock) {
+			if (running) {
+				CompletableFuture<V> result = pending.get(key);
+				if (result == null) {
+					if (pending.isEmpty()) {
+						oldestNanos = System.nanoTime();
+						lock.notifyAll();
+					}
+					result = new CompletableFuture<>();
+					pending.put(key, result);
+					if (pending.size() >= batchSize) {
+						lock.notifyAll();
+					}
+				}
+				return result;
+			}
+		}
+		CompletableFuture<V> result = new CompletableFuture<>();
+		load(Collections.singletonList(key), Collections.singletonMap(key, result));
+		return result;
+	}
+
+	/**
+	 * Waits for a looked up value.
+	 *
+	 * @throws RuntimeException the loader failed with
+	 */
+	public static <V> V await(CompletableFuture<V> result) {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a lookup", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private void run() {
+		while (true) {
+			Map<K, CompletableFuture<V>> batch;
+			synchronized (lock) {
+				try {
+					while (true) {
+						if (pending.isEmpty()) {
+							if (!running) {
+								return;
+							}
+							lock.wait();
+						} else {
+							long wait = TimeUnit.MILLISECONDS.toNanos(windowMs) - (System.nanoTime() - oldestNanos);
+							if (!running || wait <= 0 || pending.size() >= batchSize) {
+								break;
+							}
+							TimeUnit.NANOSECONDS.timedWait(lock, wait);
+						}
+					}
+				} catch (InterruptedException e) {
+					logger.warn(name + " interrupted, " + pending.size() + " lookups are not loaded");
+					return;
+				}
+				batch = pending;
+				pending = new LinkedHashMap<>();
+			}
+			List<K> keys = new ArrayList<>(batch.keySet());
+			for (int i = 0; i < keys.size(); i += batchSize) {
+				load(keys.subList(i, Math.min(i + batchSize, keys.size())), batch);
+			}
+		}
+	}
+
+	private void load(List<K> keys, Map<K, CompletableFuture<V>> batch) {
+		try {
+			loads.incrementAndGet();
+			Map<K, V> values = loader.apply(keys);
+			for (K key : keys) {
+				batch.get(key).complete(values.get(key));
+			}
+		} catch (RuntimeException e) {
+			logger.error("Error in " + name + " loading " + keys.size() + " keys", e);
+			for (K key : keys) {
+				batch.get(key).completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of keys looked up
+	 */
+	public long getLookups() {
+		return lookups.get();
+	}
+
+	/**
+	 * @return the number of loader calls
+	 */
+	public long getLoads() {
+		return loads.get();
+	}
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.opamp.jms;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Latency percentiles of the burst of {@link OpsEventLanesLoadTest} processed on the consumer
+ * threads and in the lanes, for all the events and for the environments that don't storm:
+ * <pre>
+ * java -cp ... com.oneops.opamp.jms.OpsEventLanesBenchmark [events]
+ * </pre>
+ */
+public class OpsEventLanesBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        OpsEventLanesLoadTest fixture = new OpsEventLanesLoadTest();
+        List<String> burst = fixture.burst(events);
+        int[] environments = fixture.environments(burst);
+
+        report(events, "consumer threads", fixture.replay(burst, 0), environments);
+        report(events, OpsEventLanesLoadTest.LANES + " lanes", fixture.replay(burst, OpsEventLanesLoadTest.LANES), environments);
+    }
+
+    private static void report(int events, String mode, long[] latencies, int[] environments) {
+        long[] quiet = new long[latencies.length];
+        int n = 0;
+        for (int seq = 0; seq < latencies.length; seq++) {
+            if (environments[seq] != 0) {
+                quiet[n++] = latencies[seq];
+            }
+        }
+        quiet = Arrays.copyOf(quiet, n);
+        System.out.println(String.format("%d events, %d environments, %s: p50 %dms p95 %dms p99 %dms,"
+                        + " quiet environments p50 %dms p95 %dms p99 %dms",
+                events, OpsEventLanesLoadTest.ENVIRONMENTS, mode,
+                percentile(latencies, 50) / 1000, percentile(latencies, 95) / 1000, percentile(latencies, 99) / 1000,
+                percentile(quiet, 50) / 1000, percentile(quiet, 95) / 1000, percentile(quiet, 99) / 1000));
+    }
+
+    private static long percentile(long[] values, int percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+}
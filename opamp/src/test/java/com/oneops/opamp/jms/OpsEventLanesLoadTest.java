@@ -0,0 +1,219 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.opamp.jms;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.oneops.cms.cm.domain.CmsCIRelation;
+import com.oneops.opamp.service.BadStateProcessor;
+import com.oneops.opamp.service.EnvPropsProcessor;
+import com.oneops.opamp.util.EventUtil;
+import com.oneops.ops.CiOpsProcessor;
+import com.oneops.ops.events.CiChangeStateEvent;
+import com.oneops.ops.events.OpsBaseEvent;
+
+/**
+ * Replays a burst of unhealthy events through the listener the way the listener container
+ * delivers them: consumers taking the messages off one queue. One environment storms with
+ * 40% of the events, the other ones send a steady trickle. The cms lookups and the repair take
+ * a fixed time per event. Every event is processed and acknowledged once, with lanes the events
+ * of a manifest are processed in order. See {@link OpsEventLanesBenchmark} for the latencies.
+ */
+public class OpsEventLanesLoadTest {
+
+    private static final int EVENTS = 5000;
+    static final int ENVIRONMENTS = 200;
+    private static final int MANIFESTS_PER_ENVIRONMENT = 5;
+    // the consumers of opamp.consumers, with lanes one consumer keeps the order of the queue
+    private static final int CONSUMERS = 3;
+    static final int LANES = 16;
+    private static final int EVENTS_PER_SECOND = 8000;
+    private static final long LOOKUP_MICROS = 100;
+    private static final long REPAIR_MICROS = 200;
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void consumerThreads() throws Exception {
+        replay(burst(EVENTS), 0);
+    }
+
+    @Test
+    public void lanesKeepManifestOrder() throws Exception {
+        replay(burst(EVENTS), LANES);
+    }
+
+    /**
+     * @return the latency of each event in micros, from its arrival to the end of its processing
+     */
+    long[] replay(List<String> burst, int lanes) throws Exception {
+        long[] arrivals = new long[burst.size()];
+        long[] latencies = new long[burst.size()];
+        AtomicInteger acknowledged = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(burst.size());
+        Map<Long, Long> lastCiId = new ConcurrentHashMap<>();
+        AtomicInteger outOfOrder = new AtomicInteger();
+
+        OpsEventListener listener = new OpsEventListener();
+        listener.setGson(gson);
+        EventUtil eventUtil = new EventUtil();
+        eventUtil.setGson(gson);
+        listener.setEventUtil(eventUtil);
+        listener.setEnvProcessor(new EnvPropsProcessor() {
+            @Override
+            public boolean isOpAmpSuspended() {
+                return false;
+            }
+
+            @Override
+            public boolean isHeartbeatAlarmSuspended() {
+                return false;
+            }
+
+            @Override
+            public List<CmsCIRelation> fetchDeployedToRelations(long ciId) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(LOOKUP_MICROS));
+                return Collections.emptyList();
+            }
+        });
+        listener.setCiOpsProcessor(new CiOpsProcessor() {
+            @Override
+            public Map<Long, Map<String, Integer>> getManifestStates(List<Long> manifestIds) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(LOOKUP_MICROS));
+                return Collections.emptyMap();
+            }
+        });
+        listener.setBsProcessor(new BadStateProcessor() {
+            @Override
+            public void processUnhealthyState(CiChangeStateEvent event) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(REPAIR_MICROS));
+                int seq = (int) event.getCiId();
+                long manifestId = gson.fromJson(event.getPayLoad(), OpsBaseEvent.class).getManifestId();
+                Long last = lastCiId.put(manifestId, event.getCiId());
+                if (last != null && last > event.getCiId()) {
+                    outOfOrder.incrementAndGet();
+                }
+                latencies[seq] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - arrivals[seq]);
+                done.countDown();
+            }
+        });
+        listener.setEventLanes(lanes);
+        listener.init();
+
+        BlockingQueue<ActiveMQTextMessage> queue = new LinkedBlockingQueue<>();
+        List<Thread> consumers = new ArrayList<>();
+        for (int i = 0; i < (lanes > 0 ? 1 : CONSUMERS); i++) {
+            Thread consumer = new Thread(() -> {
+                try {
+                    while (true) {
+                        listener.onMessage(queue.take());
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            });
+            consumer.start();
+            consumers.add(consumer);
+        }
+
+        long start = System.nanoTime();
+        for (int seq = 0; seq < burst.size(); seq++) {
+            long arrival = start + TimeUnit.SECONDS.toNanos(seq) / EVENTS_PER_SECOND;
+            long wait = arrival - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            ActiveMQTextMessage message = new ActiveMQTextMessage();
+            message.setAcknowledgeCallback(acknowledged::incrementAndGet);
+            message.setText(burst.get(seq));
+            message.setStringProperty("type", "ci-change-state");
+            arrivals[seq] = System.nanoTime();
+            queue.put(message);
+        }
+        assertTrue(done.await(5, TimeUnit.MINUTES));
+        for (Thread consumer : consumers) {
+            consumer.interrupt();
+        }
+        // without lanes the consumer acknowledges after the event is processed
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        listener.destroy();
+        assertEquals(acknowledged.get(), burst.size());
+        if (lanes > 0) {
+            assertEquals(outOfOrder.get(), 0, "events of a manifest processed out of order");
+        }
+        return latencies;
+    }
+
+    /**
+     * The events of the burst, the ci id is the position of the event in the burst.
+     */
+    List<String> burst(int events) {
+        Random random = new Random(42);
+        List<String> burst = new ArrayList<>();
+        for (int seq = 0; seq < events; seq++) {
+            int env = random.nextInt(10) < 4 ? 0 : 1 + random.nextInt(ENVIRONMENTS - 1);
+            long manifestId = env * MANIFESTS_PER_ENVIRONMENT + random.nextInt(MANIFESTS_PER_ENVIRONMENT) + 1;
+            OpsBaseEvent opsEvent = new OpsBaseEvent();
+            opsEvent.setCiId(seq);
+            opsEvent.setManifestId(manifestId);
+            opsEvent.setState("open");
+            opsEvent.setType("metric");
+            opsEvent.setSource("p1cpu");
+            CiChangeStateEvent event = new CiChangeStateEvent();
+            event.setCiId(seq);
+            event.setOldState("good");
+            event.setNewState("unhealthy");
+            event.setPayLoad(gson.toJson(opsEvent));
+            burst.add(gson.toJson(event));
+        }
+        return burst;
+    }
+
+    /**
+     * @return the environment of each event of the burst, 0 is the storming one
+     */
+    int[] environments(List<String> burst) {
+        int[] environments = new int[burst.size()];
+        for (int seq = 0; seq < burst.size(); seq++) {
+            CiChangeStateEvent event = gson.fromJson(burst.get(seq), CiChangeStateEvent.class);
+            long manifestId = gson.fromJson(event.getPayLoad(), OpsBaseEvent.class).getManifestId();
+            environments[seq] = (int) ((manifestId - 1) / MANIFESTS_PER_ENVIRONMENT);
+        }
+        return environments;
+    }
+}
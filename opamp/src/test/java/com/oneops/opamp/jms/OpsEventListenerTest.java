@@ -20,19 +20,26 @@ package com.oneops.opamp.jms;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertTrue;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
 import javax.jms.TextMessage;
 
 import org.mockito.ArgumentMatcher;
+import org.springframework.jms.UncategorizedJmsException;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -400,6 +407,86 @@ public class OpsEventListenerTest
 
     }
 
+    @Test
+    public void lanesAcknowledgeOnceProcessed() throws Exception
+    {
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BadStateProcessor blockingBsp = mock(BadStateProcessor.class);
+        doAnswer(invocation -> {
+            processing.countDown();
+            release.await();
+            return null;
+        }).when(blockingBsp).processUnhealthyState(any(CiChangeStateEvent.class));
+        EventUtil eventUtil = new EventUtil();
+        eventUtil.setGson(new Gson());
+        OpsEventListener listener = new OpsEventListener();
+        listener.setGson(new Gson());
+        listener.setBsProcessor(blockingBsp);
+        listener.setEnvProcessor(epp);
+        listener.setEventUtil(eventUtil);
+        listener.setCiOpsProcessor(ciOpsProcessor);
+        listener.setEventLanes(1);
+        listener.init();
+
+        TextMessage message = mock(TextMessage.class);
+        when(message.getStringProperty("type")).thenReturn("ci-change-state");
+        when(message.getText()).thenReturn(gson.toJson(getCiChangeEvent(UNHEALTHY, "good", OPEN, NEW)));
+        listener.onMessage(message);
+
+        // handed over to the lane, not acknowledged before it is processed
+        assertTrue(processing.await(5, TimeUnit.SECONDS));
+        verify(message, never()).acknowledge();
+        release.countDown();
+        listener.destroy();
+        verify(message).acknowledge();
+    }
+
+    @Test
+    public void lanesDeadLetterFailedEvents() throws Exception
+    {
+        JmsTemplate deadLetterSender = mock(JmsTemplate.class);
+        TextMessage message = failingLaneMessage(deadLetterSender);
+        verify(deadLetterSender).send(any(MessageCreator.class));
+        verify(message).acknowledge();
+    }
+
+    @Test
+    public void lanesLeaveFailedEventsUnacknowledgedWithoutDeadLetterQueue() throws Exception
+    {
+        JmsTemplate deadLetterSender = mock(JmsTemplate.class);
+        doThrow(new UncategorizedJmsException("down")).when(deadLetterSender).send(any(MessageCreator.class));
+        TextMessage message = failingLaneMessage(deadLetterSender);
+        verify(message, never()).acknowledge();
+    }
+
+    /**
+     * Hands a message over to a lane that fails on it.
+     */
+    private TextMessage failingLaneMessage(JmsTemplate deadLetterSender) throws Exception
+    {
+        BadStateProcessor failingBsp = mock(BadStateProcessor.class);
+        doThrow(new IllegalStateException("expected")).when(failingBsp).processUnhealthyState(any(CiChangeStateEvent.class));
+        EventUtil eventUtil = new EventUtil();
+        eventUtil.setGson(new Gson());
+        OpsEventListener listener = new OpsEventListener();
+        listener.setGson(new Gson());
+        listener.setBsProcessor(failingBsp);
+        listener.setEnvProcessor(epp);
+        listener.setEventUtil(eventUtil);
+        listener.setCiOpsProcessor(ciOpsProcessor);
+        listener.setDeadLetterSender(deadLetterSender);
+        listener.setEventLanes(1);
+        listener.init();
+
+        TextMessage message = mock(TextMessage.class);
+        when(message.getStringProperty("type")).thenReturn("ci-change-state");
+        when(message.getText()).thenReturn(gson.toJson(getCiChangeEvent(UNHEALTHY, "good", OPEN, NEW)));
+        listener.onMessage(message);
+        listener.destroy();
+        return message;
+    }
+
     @Test
     public void nonTextMessageTest()
     {
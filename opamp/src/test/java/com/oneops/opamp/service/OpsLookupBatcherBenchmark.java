@@ -0,0 +1,50 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.opamp.service;
+
+import java.util.List;
+
+/**
+ * Manifest state and deployedTo queries and events per second of the burst of
+ * {@link OpsLookupBatcherTest} replayed through the lanes, with the lookups made one by one and
+ * batched:
+ * <pre>
+ * java -cp ... com.oneops.opamp.service.OpsLookupBatcherBenchmark [events]
+ * </pre>
+ */
+public class OpsLookupBatcherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        OpsLookupBatcherTest fixture = new OpsLookupBatcherTest();
+        List<String> burst = fixture.burst(events);
+
+        double oneByOne = fixture.replay(burst, null);
+        int manifestStatesOneByOne = fixture.manifestStateQueries.getAndSet(0);
+        int deployedToOneByOne = fixture.deployedToQueries.getAndSet(0);
+        double batched = fixture.replay(burst, new OpsLookupBatcher());
+        if (fixture.wrongResults.get() > 0) {
+            throw new IllegalStateException(fixture.wrongResults.get() + " events got the lookups of other events");
+        }
+
+        System.out.println(String.format("%d events: manifest state queries %d -> %d, deployedTo queries %d -> %d,"
+                        + " %.0f -> %.0f events/sec",
+                events, manifestStatesOneByOne, fixture.manifestStateQueries.get(), deployedToOneByOne,
+                fixture.deployedToQueries.get(), oneByOne, batched));
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.opamp.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.oneops.cms.cm.domain.CmsCI;
+import com.oneops.cms.cm.domain.CmsCIRelation;
+import com.oneops.opamp.jms.OpsEventListener;
+import com.oneops.opamp.util.EventUtil;
+import com.oneops.ops.CiOpsProcessor;
+import com.oneops.ops.events.CiChangeStateEvent;
+import com.oneops.ops.events.OpsBaseEvent;
+
+/**
+ * Replays a burst of events through the event lanes and counts the manifest state and deployedTo
+ * queries, made one by one and batched. See {@link OpsLookupBatcherBenchmark} for the event rate.
+ */
+public class OpsLookupBatcherTest {
+
+    private static final int EVENTS = 4000;
+    private static final int MANIFESTS = 1000;
+    private static final int CIS_PER_MANIFEST = 10;
+    private static final int LANES = 16;
+    private static final long QUERY_MICROS = 300;
+
+    private final Gson gson = new Gson();
+    final AtomicInteger manifestStateQueries = new AtomicInteger();
+    final AtomicInteger deployedToQueries = new AtomicInteger();
+    final AtomicInteger wrongResults = new AtomicInteger();
+
+    @Test
+    public void batchingCutsQueries() throws Exception {
+        List<String> burst = burst(EVENTS);
+        replay(burst, null);
+        int manifestStatesOneByOne = manifestStateQueries.getAndSet(0);
+        deployedToQueries.set(0);
+
+        OpsLookupBatcher batcher = new OpsLookupBatcher();
+        replay(burst, batcher);
+        int manifestStatesBatched = manifestStateQueries.get();
+        int deployedToBatched = deployedToQueries.get();
+
+        assertEquals(wrongResults.get(), 0, "events got the lookups of other events");
+        assertEquals(manifestStatesOneByOne, EVENTS);
+        assertTrue(manifestStatesBatched < EVENTS / 4);
+        assertTrue(deployedToBatched < EVENTS / 4);
+        assertEquals(batcher.getManifestStatesQueries(), manifestStatesBatched);
+    }
+
+    /**
+     * @return events/sec
+     */
+    double replay(List<String> burst, OpsLookupBatcher batcher) throws Exception {
+        CountDownLatch done = new CountDownLatch(burst.size());
+        EnvPropsProcessor envProcessor = new EnvPropsProcessor() {
+            @Override
+            public boolean isOpAmpSuspended() {
+                return false;
+            }
+
+            @Override
+            public boolean isHeartbeatAlarmSuspended() {
+                return false;
+            }
+
+            @Override
+            public List<CmsCIRelation> fetchDeployedToRelations(long ciId) {
+                return fetchDeployedToRelations(Collections.singletonList(ciId)).get(ciId);
+            }
+
+            @Override
+            public Map<Long, List<CmsCIRelation>> fetchDeployedToRelations(List<Long> ciIds) {
+                deployedToQueries.incrementAndGet();
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(QUERY_MICROS));
+                Map<Long, List<CmsCIRelation>> rels = new HashMap<>();
+                for (long ciId : ciIds) {
+                    CmsCI cloud = new CmsCI();
+                    cloud.setCiName("cloud-" + ciId % 3);
+                    CmsCIRelation rel = new CmsCIRelation();
+                    rel.setFromCiId(ciId);
+                    rel.setToCi(cloud);
+                    rels.put(ciId, Collections.singletonList(rel));
+                }
+                return rels;
+            }
+        };
+        CiOpsProcessor ciOpsProcessor = new CiOpsProcessor() {
+            @Override
+            public Map<Long, Map<String, Integer>> getManifestStates(List<Long> manifestIds) {
+                manifestStateQueries.incrementAndGet();
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(QUERY_MICROS));
+                Map<Long, Map<String, Integer>> states = new HashMap<>();
+                for (long manifestId : manifestIds) {
+                    states.put(manifestId, Collections.singletonMap("total", (int) manifestId));
+                }
+                return states;
+            }
+        };
+
+        OpsEventListener listener = new OpsEventListener();
+        listener.setGson(gson);
+        EventUtil eventUtil = new EventUtil();
+        eventUtil.setGson(gson);
+        listener.setEventUtil(eventUtil);
+        listener.setEnvProcessor(envProcessor);
+        listener.setCiOpsProcessor(ciOpsProcessor);
+        listener.setBsProcessor(new BadStateProcessor() {
+            @Override
+            public void processUnhealthyState(CiChangeStateEvent event) {
+                long manifestId = event.getCiId() / CIS_PER_MANIFEST;
+                if (event.getComponentStatesCounters().get("total") != manifestId
+                        || !("cloud-" + event.getCiId() % 3).equals(event.getCloudName())) {
+                    wrongResults.incrementAndGet();
+                }
+                done.countDown();
+            }
+        });
+        if (batcher != null) {
+            batcher.setEnvProcessor(envProcessor);
+            batcher.setCiOpsProcessor(ciOpsProcessor);
+            batcher.init();
+            listener.setLookupBatcher(batcher);
+        }
+        listener.setEventLanes(LANES);
+        listener.init();
+
+        long start = System.nanoTime();
+        for (String text : burst) {
+            ActiveMQTextMessage message = new ActiveMQTextMessage();
+            message.setText(text);
+            message.setStringProperty("type", "ci-change-state");
+            listener.onMessage(message);
+        }
+        assertTrue(done.await(5, TimeUnit.MINUTES));
+        double rate = burst.size() / ((System.nanoTime() - start) / 1e9);
+        listener.destroy();
+        if (batcher != null) {
+            batcher.destroy();
+        }
+        return rate;
+    }
+
+    /**
+     * Events for the cis of a thousand manifests, the ci id is the manifest id followed by a digit.
+     */
+    List<String> burst(int events) {
+        Random random = new Random(7);
+        List<String> burst = new ArrayList<>();
+        for (int seq = 0; seq < events; seq++) {
+            long manifestId = 1 + random.nextInt(MANIFESTS);
+            long ciId = manifestId * CIS_PER_MANIFEST + random.nextInt(CIS_PER_MANIFEST);
+            OpsBaseEvent opsEvent = new OpsBaseEvent();
+            opsEvent.setCiId(ciId);
+            opsEvent.setManifestId(manifestId);
+            opsEvent.setState("open");
+            opsEvent.setType("metric");
+            CiChangeStateEvent event = new CiChangeStateEvent();
+            event.setCiId(ciId);
+            event.setOldState("good");
+            event.setNewState("unhealthy");
+            event.setPayLoad(gson.toJson(opsEvent));
+            burst.add(gson.toJson(event));
+        }
+        return burst;
+    }
+}
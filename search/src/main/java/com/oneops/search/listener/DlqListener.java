@@ -28,6 +28,7 @@ import javax.jms.TextMessage;
 
 import org.apache.log4j.Logger;
 
+import com.oneops.search.msg.index.Indexer;
 import com.oneops.search.msg.processor.es.DLQMessageProcessor;
 
 public class DlqListener implements MessageListener {
@@ -36,6 +37,8 @@ public class DlqListener implements MessageListener {
 
     private DLQMessageProcessor msgProcessor;
 
+    private Indexer indexer;
+
     private String getMessageId(TextMessage message) throws JMSException {
         String msgId = message.getStringProperty("msgId");
         if (msgId == null) {
@@ -50,7 +53,13 @@ public class DlqListener implements MessageListener {
             if (message instanceof TextMessage) {
                 logger.debug("got message: " + message.getJMSCorrelationID());
                 TextMessage textMessage = (TextMessage) message;
-                msgProcessor.processMessage(textMessage.getText(), getMessageId(textMessage), getMessageHeaders(textMessage));
+                try {
+                    msgProcessor.processMessage(textMessage.getText(), getMessageId(textMessage), getMessageHeaders(textMessage));
+                    indexer.await();
+                } finally {
+                    // a message failed before await doesn't leave its documents to the next one
+                    indexer.discard();
+                }
             }
         } catch (JMSException e) {
             logger.error("JMSException in onMessage", e);
@@ -73,5 +82,9 @@ public class DlqListener implements MessageListener {
     public void setMsgProcessor(DLQMessageProcessor msgProcessor) {
         this.msgProcessor = msgProcessor;
     }
+
+    public void setIndexer(Indexer indexer) {
+        this.indexer = indexer;
+    }
     
 }
@@ -17,6 +17,7 @@
  *******************************************************************************/
 package com.oneops.search.listener;
 
+import com.oneops.search.msg.index.Indexer;
 import com.oneops.search.msg.processor.MessageProcessor;
 import org.apache.log4j.Logger;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
@@ -35,6 +36,8 @@ public class SearchListener implements MessageListener {
 
     private MessageProcessor msgProcessor;
 
+    private Indexer indexer;
+
     private static String getMessageId(TextMessage message) throws JMSException {
         String msgId = message.getStringProperty("msgId");
         String type = getMessageType(message);
@@ -58,7 +61,14 @@ public class SearchListener implements MessageListener {
             if (message instanceof TextMessage) {
                 logger.debug("got message: " + message.getJMSCorrelationID());
                 TextMessage textMessage = (TextMessage) message;
-                msgProcessor.processMessage(textMessage.getText(), getMessageType(textMessage), getMessageId(textMessage));
+                try {
+                    msgProcessor.processMessage(textMessage.getText(), getMessageType(textMessage), getMessageId(textMessage));
+                    // not acknowledged (redelivered) unless the bulk with the message documents is written
+                    indexer.await();
+                } finally {
+                    // a message failed before await doesn't leave its documents to the next one
+                    indexer.discard();
+                }
             }
         } catch (JMSException e) {
             logger.error("JMSException in onMessage", e);
@@ -73,6 +83,10 @@ public class SearchListener implements MessageListener {
         this.msgProcessor = msgProcessor;
     }
 
+    public void setIndexer(Indexer indexer) {
+        this.indexer = indexer;
+    }
+
 
     /**
      * allow it to run via cmdline
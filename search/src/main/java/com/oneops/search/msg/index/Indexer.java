@@ -35,6 +35,27 @@ public interface Indexer {
      */
     void indexEvent(String type, String message);
 
+    /**
+     * Waits for the documents indexed by the calling thread to be written, the message is
+     * acknowledged after that.
+     */
+    void await();
+
+    /**
+     * Forgets the documents indexed by the calling thread, for a message that failed before
+     * {@link #await()}.
+     */
+    void discard();
+
+    /**
+     * Deletes a document, in order with the documents indexed before.
+     *
+     * @param index index name
+     * @param type  document type
+     * @param id    document id
+     */
+    void delete(String index, String type, String id);
+
     String getIndexName();
 
     String getIndexByType(String type);
@@ -0,0 +1,383 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.search.msg.index.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.rest.RestStatus;
+
+import com.oneops.search.msg.processor.es.DLQMessageProcessor;
+
+/**
+ * Batches the documents indexed by the concurrent consumers into <code>_bulk</code> requests.
+ * A bulk is sent once it has <code>bulkActions</code> documents, <code>bulkBytes</code> of
+ * source or its oldest document waited <code>lingerMs</code>. With no linger the documents are
+ * sent as soon as the previous bulk is done, the ones added meanwhile make the next bulk.
+ * <p>
+ * One bulk is in flight at a time and the documents are sent in the order they were added, so
+ * the updates of a document are written in order. Deletes go through the same bulks, so they are
+ * ordered with the updates too. A consumer calls {@link #await()} before its
+ * message is acknowledged, it returns once the documents added by the consumer are written.
+ * Items rejected by a busy cluster are retried before the next bulk is sent, items that can't
+ * ever be indexed (mapping errors) go to the dlq processor.
+ */
+public class BulkIndexer {
+
+    private static Logger logger = Logger.getLogger(BulkIndexer.class);
+
+    private Client client;
+    private DLQMessageProcessor dlqProcessor;
+    private int bulkActions = 500;
+    private long bulkBytes = 5 * 1024 * 1024;
+    private long lingerMs = 0;
+    private int maxRetries = 5;
+    private long retryBackoffMs = 100;
+    private long awaitTimeoutMs = 60000;
+
+    private final Object lock = new Object();
+    private List<Doc> buffer = new ArrayList<>();
+    private long bufferBytes;
+    private long oldestNanos;
+    private boolean running;
+    private Thread flusher;
+    private final ThreadLocal<List<Doc>> pending = ThreadLocal.withInitial(ArrayList::new);
+
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong bulks = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public void init() {
+        synchronized (lock) {
+            running = true;
+        }
+        flusher = new Thread(this::run, "bulk-indexer");
+        flusher.setDaemon(true);
+        flusher.start();
+        logger.info("Bulk indexer started, bulk actions: " + bulkActions + ", bytes: " + bulkBytes + ", linger: " + lingerMs + "ms");
+    }
+
+    /**
+     * Sends the buffered documents and stops.
+     */
+    public void destroy() throws InterruptedException {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        if (flusher != null) {
+            flusher.join(awaitTimeoutMs);
+        }
+    }
+
+    /**
+     * Adds a document to the next bulk.
+     *
+     * @param index  index name
+     * @param type   document type
+     * @param id     document id, null to have one generated
+     * @param source document json
+     */
+    public void add(String index, String type, String id, String source) {
+        add(new Doc(index, type, id, source));
+    }
+
+    /**
+     * Adds the delete of a document to the next bulk.
+     *
+     * @param index index name
+     * @param type  document type
+     * @param id    document id
+     */
+    public void delete(String index, String type, String id) {
+        add(new Doc(index, type, id, null));
+    }
+
+    private void add(Doc doc) {
+        synchronized (lock) {
+            if (!running) {
+                throw new ElasticsearchException("Bulk indexer is stopped");
+            }
+            boolean first = buffer.isEmpty();
+            if (first) {
+                oldestNanos = System.nanoTime();
+            }
+            buffer.add(doc);
+            bufferBytes += doc.source == null ? 0 : doc.source.length();
+            // wake up the flusher to start the linger time or to send a full bulk
+            if (first || buffer.size() >= bulkActions || bufferBytes >= bulkBytes) {
+                lock.notifyAll();
+            }
+        }
+        if (Thread.currentThread() != flusher) {
+            pending.get().add(doc);
+        }
+    }
+
+    /**
+     * Waits for the documents added by the calling thread to be written.
+     *
+     * @throws ElasticsearchException if some of the documents could not be written
+     */
+    public void await() {
+        List<Doc> docs = pending.get();
+        if (docs.isEmpty()) {
+            return;
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(awaitTimeoutMs);
+            int failures = 0;
+            String error = null;
+            for (Doc doc : docs) {
+                try {
+                    doc.result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    failures++;
+                    error = e.getCause().getMessage();
+                }
+            }
+            if (failures > 0) {
+                throw new ElasticsearchException(failures + " of " + docs.size() + " documents were not indexed: " + error);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("Interrupted while waiting for the bulk", e);
+        } catch (TimeoutException e) {
+            throw new ElasticsearchException("Documents were not indexed in " + awaitTimeoutMs + "ms");
+        } finally {
+            docs.clear();
+        }
+    }
+
+    /**
+     * Forgets the documents added by the calling thread without waiting for them, for a message
+     * that failed before {@link #await()}. The documents are still written.
+     */
+    public void discard() {
+        pending.get().clear();
+    }
+
+    private void run() {
+        while (true) {
+            List<Doc> batch;
+            synchronized (lock) {
+                try {
+                    while (true) {
+                        if (buffer.isEmpty()) {
+                            if (!running) {
+                                return;
+                            }
+                            lock.wait();
+                        } else {
+                            long wait = TimeUnit.MILLISECONDS.toNanos(lingerMs) - (System.nanoTime() - oldestNanos);
+                            if (!running || wait <= 0 || buffer.size() >= bulkActions || bufferBytes >= bulkBytes) {
+                                break;
+                            }
+                            TimeUnit.NANOSECONDS.timedWait(lock, wait);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    logger.warn("Bulk indexer interrupted, " + buffer.size() + " documents are not indexed");
+                    return;
+                }
+                batch = buffer;
+                buffer = new ArrayList<>();
+                bufferBytes = 0;
+            }
+            for (int i = 0; i < batch.size(); i += bulkActions) {
+                try {
+                    flush(batch.subList(i, Math.min(i + bulkActions, batch.size())));
+                } catch (Exception e) {
+                    logger.error("Error in bulk indexer", e);
+                }
+            }
+        }
+    }
+
+    private void flush(List<Doc> docs) throws InterruptedException {
+        for (int attempt = 0; !docs.isEmpty(); attempt++) {
+            List<Doc> retry = new ArrayList<>();
+            boolean retryable = attempt < maxRetries;
+            try {
+                BulkRequestBuilder bulk = client.prepareBulk();
+                for (Doc doc : docs) {
+                    if (doc.isDelete()) {
+                        bulk.add(client.prepareDelete(doc.index, doc.type, doc.id));
+                    } else {
+                        bulk.add(client.prepareIndex(doc.index, doc.type, doc.id).setSource(doc.source));
+                    }
+                }
+                BulkItemResponse[] items = bulk.get().getItems();
+                bulks.incrementAndGet();
+                // the items come back in the order of the requests
+                Map<String, Integer> lastWritten = new HashMap<>();
+                List<Integer> retryItems = new ArrayList<>();
+                for (int i = 0; i < items.length; i++) {
+                    Doc doc = docs.get(i);
+                    if (!items[i].isFailed()) {
+                        indexed.incrementAndGet();
+                        doc.result.complete(null);
+                        if (doc.id != null) {
+                            lastWritten.put(doc.key(), i);
+                        }
+                    } else if (retryable && isRetryable(items[i].getFailure().getStatus())) {
+                        retryItems.add(i);
+                    } else {
+                        toDlq(doc, items[i].getFailureMessage());
+                    }
+                }
+                for (int i : retryItems) {
+                    Doc doc = docs.get(i);
+                    Integer written = doc.id == null ? null : lastWritten.get(doc.key());
+                    if (written != null && written > i) {
+                        // a later update of the document is written already
+                        doc.result.complete(null);
+                    } else {
+                        retry.add(doc);
+                    }
+                }
+            } catch (Exception e) {
+                if (!retryable) {
+                    logger.error("Bulk of " + docs.size() + " documents failed after " + attempt + " retries", e);
+                    failed.addAndGet(docs.size());
+                    docs.forEach(doc -> doc.result.completeExceptionally(e));
+                    return;
+                }
+                logger.warn("Bulk of " + docs.size() + " documents failed, retrying: " + e.getMessage());
+                retry = docs;
+            }
+            if (!retry.isEmpty()) {
+                retried.addAndGet(retry.size());
+                Thread.sleep(retryBackoffMs << attempt);
+            }
+            docs = retry;
+        }
+    }
+
+    private static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE
+                || status == RestStatus.GATEWAY_TIMEOUT;
+    }
+
+    private void toDlq(Doc doc, String error) {
+        failed.incrementAndGet();
+        logger.error("Failed to " + (doc.isDelete() ? "delete" : "index") + " document id::" + doc.id + " type::" + doc.type + " index::" + doc.index + "::" + error);
+        if (dlqProcessor == null || "dlq".equals(doc.type) || doc.isDelete()) {
+            doc.result.completeExceptionally(new ElasticsearchException(error));
+            return;
+        }
+        try {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("type", doc.type);
+            headers.put("index", doc.index);
+            headers.put("error", error);
+            if (doc.id != null) {
+                headers.put("msgId", doc.id);
+            }
+            dlqProcessor.processMessage(doc.source, doc.id, headers);
+            doc.result.complete(null);
+        } catch (Exception e) {
+            doc.result.completeExceptionally(e);
+        }
+    }
+
+    public long getIndexed() {
+        return indexed.get();
+    }
+
+    public long getBulks() {
+        return bulks.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public void setClient(Client client) {
+        this.client = client;
+    }
+
+    public void setDlqProcessor(DLQMessageProcessor dlqProcessor) {
+        this.dlqProcessor = dlqProcessor;
+    }
+
+    public void setBulkActions(int bulkActions) {
+        this.bulkActions = bulkActions;
+    }
+
+    public void setBulkBytes(long bulkBytes) {
+        this.bulkBytes = bulkBytes;
+    }
+
+    public void setLingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setRetryBackoffMs(long retryBackoffMs) {
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    public void setAwaitTimeoutMs(long awaitTimeoutMs) {
+        this.awaitTimeoutMs = awaitTimeoutMs;
+    }
+
+    private static class Doc {
+        private final String index;
+        private final String type;
+        private final String id;
+        // null for a delete
+        private final String source;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private Doc(String index, String type, String id, String source) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+            this.source = source;
+        }
+
+        private String key() {
+            return index + "/" + type + "/" + id;
+        }
+
+        private boolean isDelete() {
+            return source == null;
+        }
+    }
+}
@@ -32,7 +32,9 @@ public class ESIndexer implements Indexer{
 	private static Logger logger = Logger.getLogger(ESIndexer.class);
 	private String indexName;
 	private ElasticsearchTemplate template;
-	private SimpleDateFormat dt = new SimpleDateFormat( "yyyy-'w'ww" );
+	private BulkIndexer bulkIndexer;
+	// SimpleDateFormat is not thread safe and the consumers index concurrently
+	private static final ThreadLocal<SimpleDateFormat> dt = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-'w'ww"));
 
 	@Override
 	public void index(String id, String type, String message) {
@@ -43,11 +45,15 @@ public class ESIndexer implements Indexer{
 		if (("ci".equals(type) || "relation".equals(type))) {
 			return indexName;
 		} else {
-			return "cms" + "-" + dt.format(new Date());
+			return "cms" + "-" + dt.get().format(new Date());
 		}
 	}
 
 	private void index(String id, String type, String index, String message){
+		if (bulkIndexer != null) {
+			bulkIndexer.add(index, type, id, message);
+			return;
+		}
 		IndexQueryBuilder indexQueryBuilder = new IndexQueryBuilder().withIndexName(index);
 		if (id != null) indexQueryBuilder.withId(String.valueOf(id));
 		IndexQuery query = indexQueryBuilder.withType(type).withSource(message).build();
@@ -59,7 +65,30 @@ public class ESIndexer implements Indexer{
 
 
 	public void indexEvent(String type,String message){
-		index(null, type, "event" + "-" + dt.format(new Date()), message);
+		index(null, type, "event" + "-" + dt.get().format(new Date()), message);
+	}
+
+	@Override
+	public void await() {
+		if (bulkIndexer != null) {
+			bulkIndexer.await();
+		}
+	}
+
+	@Override
+	public void discard() {
+		if (bulkIndexer != null) {
+			bulkIndexer.discard();
+		}
+	}
+
+	@Override
+	public void delete(String index, String type, String id) {
+		if (bulkIndexer != null) {
+			bulkIndexer.delete(index, type, id);
+			return;
+		}
+		template.delete(index, type, id);
 	}
 
 	public String getIndexName() {
@@ -77,5 +106,13 @@ public class ESIndexer implements Indexer{
 	public void setTemplate(ElasticsearchTemplate template) {
 		this.template = template;
 	}
+
+	public BulkIndexer getBulkIndexer() {
+		return bulkIndexer;
+	}
+
+	public void setBulkIndexer(BulkIndexer bulkIndexer) {
+		this.bulkIndexer = bulkIndexer;
+	}
 	
 }
\ No newline at end of file
@@ -235,7 +235,7 @@ public class DeploymentMessageProcessor implements MessageProcessor {
         Arrays.stream(response.getHits().getHits())
                 .sorted((hit1, hit2) -> (hit1.getIndex().compareTo(hit2.getIndex())) * -1)
                 .skip(1).forEach(hit -> {
-            indexer.getTemplate().delete(hit.getIndex(), DEPLOYMENT, hit.getId());
+            indexer.delete(hit.getIndex(), DEPLOYMENT, hit.getId());
             logger.info("Deleted duplicate deployment " + hit.getId() + " in index " + hit.getIndex());
         });
     }
@@ -67,7 +67,7 @@ public class NSMessageProcessor {
         //Scroll until no hits are returned
         while (true) {
         	for (SearchHit hit : scrollResp.getHits()){
-        		indexer.getTemplate().delete(index, type, String.valueOf(hit.getId()));
+        		indexer.delete(index, type, String.valueOf(hit.getId()));
     			logger.info("Deleted message with id::"+ hit.getId() +" and type::"+type+" from ES for nsId " + nsId);
         	}
 			
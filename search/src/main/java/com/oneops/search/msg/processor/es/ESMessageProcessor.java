@@ -113,7 +113,7 @@ public class ESMessageProcessor implements MessageProcessor {
                 if ("cm_ci".equals(msgType)) {
                     msgType = "ci";
                    // relationMsgProcessor.processRelationDeleteMsg(msgId); //Delete all relation docs for given ci 
-                    indexer.getTemplate().delete(indexer.getIndexName(), ".percolator", msgId);//TEMP code: Till ciClassName is available try to delete all ciIds from percolator type also
+                    indexer.delete(indexer.getIndexName(), ".percolator", msgId);//TEMP code: Till ciClassName is available try to delete all ciIds from percolator type also
 
                     JsonObject object = new JsonObject();
                     object.add("timestamp", new JsonPrimitive(new Date().getTime()));
@@ -122,7 +122,7 @@ public class ESMessageProcessor implements MessageProcessor {
                 } else if ("cm_ci_rel".equals(msgType)){
                     return;                    // no longer deal with relation messages
                 }
-                indexer.getTemplate().delete(indexer.getIndexByType(msgType), msgType, msgId);
+                indexer.delete(indexer.getIndexByType(msgType), msgType, msgId);
                 logger.info("Deleted message with id::" + msgId + " and type::" + msgType + " from ES index:"+indexer.getIndexByType(msgType));
             }
         } catch (Exception e) {
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.search.msg.index.impl;
+
+/**
+ * Documents per second indexed by the concurrent consumers of {@link BulkIndexerTest} into a local
+ * elasticsearch node, one request per document and through the {@link BulkIndexer}:
+ * <pre>
+ * java -cp ... com.oneops.search.msg.index.impl.BulkIndexerBenchmark [messages]
+ * </pre>
+ */
+public class BulkIndexerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        BulkIndexerTest.startNode();
+        try {
+            BulkIndexerTest fixture = new BulkIndexerTest();
+            // warm up
+            fixture.setUp();
+            fixture.consume(messages / 10);
+            fixture.tearDown();
+
+            fixture.setUp();
+            long start = System.nanoTime();
+            fixture.consume(messages);
+            double directSeconds = (System.nanoTime() - start) / 1e9;
+            fixture.tearDown();
+
+            fixture.setUp();
+            fixture.indexer.setBulkIndexer(fixture.bulkIndexer);
+            start = System.nanoTime();
+            fixture.consume(messages);
+            double bulkSeconds = (System.nanoTime() - start) / 1e9;
+            fixture.tearDown();
+
+            if (fixture.bulkIndexer.getIndexed() != messages * 2) {
+                throw new IllegalStateException("bulk indexed " + fixture.bulkIndexer.getIndexed()
+                        + " of " + messages * 2 + " documents");
+            }
+            System.out.println(String.format("%d documents, %d consumers: one by one %.0f docs/s,"
+                            + " bulk %.0f docs/s in %d bulks", messages * 2, BulkIndexerTest.CONSUMERS,
+                    messages * 2 / directSeconds, messages * 2 / bulkSeconds, fixture.bulkIndexer.getBulks()));
+        } finally {
+            BulkIndexerTest.stopNode();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.search.msg.index.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+
+import com.oneops.search.msg.processor.es.DLQMessageProcessor;
+
+/**
+ * Indexes into a local elasticsearch node, over a transport client, the way the search consumers
+ * do: concurrent consumers, each waiting for its message documents to be written before taking
+ * the next one. See {@link BulkIndexerBenchmark} for the indexing rate.
+ */
+public class BulkIndexerTest {
+
+    static final int CONSUMERS = 8;
+    private static final int MESSAGES = 2000;
+    private static final int CIS = 200;
+    private static final String CLUSTER = "bulk-indexer-test";
+    private static final int PORT = 19300;
+
+    private static File home;
+    private static Node node;
+    private static Client client;
+
+    ESIndexer indexer;
+    BulkIndexer bulkIndexer;
+    private final Map<String, String> dlq = new ConcurrentHashMap<>();
+
+    @BeforeClass
+    public static void startNode() throws Exception {
+        home = Files.createTempDirectory("es-bulk").toFile();
+        node = NodeBuilder.nodeBuilder().data(true).settings(ImmutableSettings.settingsBuilder()
+                .put("path.home", home.getAbsolutePath())
+                .put("cluster.name", CLUSTER)
+                .put("network.host", "127.0.0.1")
+                .put("transport.tcp.port", PORT)
+                .put("discovery.zen.ping.multicast.enabled", false)
+                .put("http.enabled", false)
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0)).node();
+        node.client().admin().cluster().prepareHealth().setWaitForYellowStatus().get();
+        // the consumers use a transport client, see search-context.xml
+        client = new TransportClient(ImmutableSettings.settingsBuilder().put("cluster.name", CLUSTER))
+                .addTransportAddress(new InetSocketTransportAddress("127.0.0.1", PORT));
+    }
+
+    @AfterClass
+    public static void stopNode() throws Exception {
+        client.close();
+        node.close();
+        FileSystemUtils.deleteRecursively(home);
+    }
+
+    @Before
+    public void setUp() {
+        client.admin().indices().prepareDelete("_all").get();
+        bulkIndexer = new BulkIndexer();
+        bulkIndexer.setClient(client);
+        bulkIndexer.setDlqProcessor(new DLQMessageProcessor() {
+            @Override
+            public void processMessage(String message, String msgId, Map<String, String> headers) {
+                dlq.put(msgId, headers.get("error"));
+            }
+        });
+        bulkIndexer.init();
+        indexer = new ESIndexer();
+        indexer.setIndexName("cms-all");
+        indexer.setTemplate(new ElasticsearchTemplate(client));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        bulkIndexer.destroy();
+    }
+
+    @Test
+    public void bulkIndexing() throws Exception {
+        indexer.setBulkIndexer(bulkIndexer);
+        consume(MESSAGES);
+
+        assertEquals(MESSAGES * 2, bulkIndexer.getIndexed());
+        assertTrue(bulkIndexer.getBulks() < bulkIndexer.getIndexed() / 2);
+    }
+
+    @Test
+    public void keepsOrderPerCi() throws Exception {
+        indexer.setBulkIndexer(bulkIndexer);
+        int versions = 20;
+        // like the queue, the updates of a ci are consumed one after the other, by any consumer
+        ExecutorService consumers = Executors.newFixedThreadPool(CONSUMERS);
+        for (int version = 1; version <= versions; version++) {
+            List<Future<?>> updates = new ArrayList<>();
+            for (int ciId = 0; ciId < CIS; ciId++) {
+                int ci = ciId, v = version;
+                updates.add(consumers.submit(() -> {
+                    indexer.indexEvent("ci", ciJson(ci, v));
+                    indexer.index(String.valueOf(ci), "ci", ciJson(ci, v));
+                    indexer.await();
+                }));
+            }
+            for (Future<?> update : updates) {
+                update.get();
+            }
+        }
+        consumers.shutdown();
+        for (int ciId = 0; ciId < CIS; ciId++) {
+            GetResponse doc = client.prepareGet("cms-all", "ci", String.valueOf(ciId)).get();
+            assertEquals(versions, ((Number) doc.getSource().get("version")).intValue());
+        }
+    }
+
+    @Test
+    public void laterUpdateInTheSameBulkWins() {
+        indexer.setBulkIndexer(bulkIndexer);
+        for (int version = 1; version <= 50; version++) {
+            indexer.index("1", "ci", ciJson(1, version));
+        }
+        indexer.await();
+        GetResponse doc = client.prepareGet("cms-all", "ci", "1").get();
+        assertEquals(50, ((Number) doc.getSource().get("version")).intValue());
+    }
+
+    @Test
+    public void deletesInOrderWithUpdates() {
+        indexer.setBulkIndexer(bulkIndexer);
+        indexer.index("1", "ci", ciJson(1, 1));
+        indexer.delete("cms-all", "ci", "1");
+        indexer.index("2", "ci", ciJson(2, 1));
+        indexer.delete("cms-all", "ci", "2");
+        indexer.index("2", "ci", ciJson(2, 2));
+        indexer.await();
+        assertFalse(client.prepareGet("cms-all", "ci", "1").get().isExists());
+        GetResponse doc = client.prepareGet("cms-all", "ci", "2").get();
+        assertEquals(2, ((Number) doc.getSource().get("version")).intValue());
+        // deleting a missing document is not an error
+        indexer.delete("cms-all", "ci", "3");
+        indexer.await();
+    }
+
+    @Test
+    public void discardedDocumentsAreNotAwaited() {
+        indexer.setBulkIndexer(bulkIndexer);
+        indexer.index("1", "ci", ciJson(1, 1));
+        indexer.await();
+        // with no dlq the document fails, the message adding it fails before await
+        bulkIndexer.setDlqProcessor(null);
+        indexer.index("2", "ci", "{\"ciId\":2,\"version\":\"not a number\"}");
+        indexer.discard();
+        // the next message doesn't fail on the documents of the one before
+        indexer.index("3", "ci", ciJson(3, 1));
+        indexer.await();
+        assertTrue(client.prepareGet("cms-all", "ci", "3").get().isExists());
+    }
+
+    @Test
+    public void mappingErrorsGoToDlq() {
+        indexer.setBulkIndexer(bulkIndexer);
+        indexer.index("1", "ci", ciJson(1, 1));
+        indexer.await();
+        indexer.index("2", "ci", "{\"ciId\":2,\"version\":\"not a number\"}");
+        indexer.index("3", "ci", ciJson(3, 1));
+        indexer.await();
+        assertTrue(dlq.containsKey("2"));
+        assertTrue(client.prepareGet("cms-all", "ci", "3").get().isExists());
+    }
+
+    /**
+     * Indexes an event and a ci document for each message.
+     */
+    void consume(int messages) throws Exception {
+        ExecutorService consumers = Executors.newFixedThreadPool(CONSUMERS);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            int ciId = i % CIS, version = i / CIS;
+            results.add(consumers.submit(() -> {
+                indexer.indexEvent("ci", ciJson(ciId, version));
+                indexer.index(String.valueOf(ciId), "ci", ciJson(ciId, version));
+                indexer.await();
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        consumers.shutdown();
+    }
+
+    private static String ciJson(int ciId, int version) {
+        return "{\"ciId\":" + ciId + ",\"version\":" + version + ",\"ciName\":\"ci-" + ciId
+                + "\",\"ciClassName\":\"bom.Compute\",\"nsPath\":\"/org/assembly/env/bom/platform/1\"}";
+    }
+}
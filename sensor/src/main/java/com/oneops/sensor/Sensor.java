@@ -48,13 +48,17 @@ import com.oneops.sensor.thresholds.ThresholdsDao;
 import com.oneops.sensor.util.ChannelDownEvent;
 import com.oneops.sensor.util.ReplacedInstances;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
@@ -62,6 +66,8 @@ import org.apache.log4j.Logger;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Func1;
 import rx.observables.ConnectableObservable;
 import rx.schedulers.Schedulers;
 
@@ -85,11 +91,13 @@ public class Sensor {
     private static final boolean CHECK_TR_ON_EVENT = Boolean.valueOf(getProperty(RELOAD_TRS, "false"));
     public static final String ROW_COUNT = "com.oneops.sensor.events.batchsize";
     public static final int READ_ROWCOUNT = Integer.valueOf(getProperty(ROW_COUNT, "1000"));
+    private static final int TEMPLATE_MANIFESTS = Integer.valueOf(getProperty("com.oneops.sensor.stmt.shared.manifests", "100"));
 
 
     private final Gson gson = new Gson();
     private final Random random = new Random();
-    private final Map<Long, Map<String, ThresholdStatements>> loadedThresholds = new HashMap<>();
+    private final Map<Long, Map<String, ThresholdStatements>> loadedThresholds = new ConcurrentHashMap<>();
+    private final StmtTemplates stmtTemplates = new StmtTemplates(TEMPLATE_MANIFESTS);
 
     private int instanceId;
     private int poolSize;
@@ -105,6 +113,10 @@ public class Sensor {
     private int heartbeatRandomDelay = 30;
     private ReplacedInstances replacedInstances;
     private int loadStatementTimeOut;
+    private int loadParallelism = 1;
+    private volatile long initStartTime;
+    private volatile long readyTime;
+    private volatile boolean deferTemplates;
 
   /**
      * Sets the statement builder
@@ -170,6 +182,8 @@ public class Sensor {
      */
     public void init(int instanceId, int poolSize) throws Exception {
         long start = System.currentTimeMillis();
+        this.initStartTime = start;
+        this.readyTime = 0;
         logger.info(">>> Sensor initialization started.");
 
         this.instanceId = instanceId - 1;
@@ -192,9 +206,17 @@ public class Sensor {
         ct.setThreadPoolTimerExec(true);
         ct.setThreadPoolTimerExecNumThreads(ESPER_TIMER_THREADS);
 
-        this.epService = EPServiceProviderManager.getDefaultProvider(cfg);
-        loadAllStatements();
+        try {
+            this.epService = EPServiceProviderManager.getDefaultProvider(cfg);
+            stmtTemplates.clear();
+            loadAllStatements();
+        } catch (Throwable t) {
+            // not loading anymore, the sensor stays not ready
+            this.initStartTime = 0;
+            throw t;
+        }
         this.isInited = true;
+        this.readyTime = System.currentTimeMillis();
 
         long tt = TimeUnit.SECONDS.convert((System.currentTimeMillis() - start), TimeUnit.MILLISECONDS);
         logger.info(">>> Sensor initialization completed. Took " + tt + " seconds!!!");
@@ -255,6 +277,54 @@ public class Sensor {
         logger.debug("Loaded to Esper EPL: " + stmt);
     }
 
+    /**
+     * Add a threshold statement for the manifest. The manifest is bound to a template statement in
+     * {@link StmtTemplates} and the filter statement feeding it is re-created, or created once all the
+     * thresholds are bound while the sensor is loading. The template statement itself is only created
+     * with its first manifest.
+     *
+     * @param manifestId manifest id
+     * @param stmt       threshold statement
+     */
+    private void addStatementToEngine(long manifestId, SensorStatement stmt) {
+        if (stmt.isTemplate()) {
+            synchronized (stmtTemplates) {
+                String stmtName = stmtTemplates.bind(stmt, manifestId);
+                if (stmtName != null && !deferTemplates) {
+                    // the filter statement first, it declares the stream of the template statement
+                    refreshTemplateStmt(stmtName);
+                    refreshTemplateStmt(stmt.getStmtName());
+                }
+            }
+        } else {
+            addStatementToEngine(stmt.getStmtName(), stmt.getStmtText(), stmt.getListenerName());
+        }
+    }
+
+    /**
+     * Creates or re-creates a template statement or one of its filter statements, destroys it if there are
+     * no manifests bound to it anymore. Statements with an unchanged text are left as they are.
+     *
+     * @param stmtName template or filter statement name
+     */
+    private void refreshTemplateStmt(String stmtName) {
+        String stmtText = stmtTemplates.getStmtText(stmtName);
+        if (stmtText == null) {
+            destroyStatement(stmtName);
+        } else {
+            addStatementToEngine(stmtName, stmtText, stmtTemplates.getListenerName(stmtName));
+        }
+    }
+
+    /**
+     * Gets the template statements of the sensor.
+     *
+     * @return template statements
+     */
+    public StmtTemplates getStmtTemplates() {
+        return stmtTemplates;
+    }
+
     /**
      * Sends a single OpsEvent to esper engine.
      *
@@ -270,26 +340,53 @@ public class Sensor {
      * Get the open OpsEvent stream by setting proper manifest id.
      * OpenEvents --> Filter(validate manifest Id) --> filter (instance id).
      *
+     * @param scheduler load scheduler, <code>null</code> to filter the events sequentially.
      * @return Observable of OpsEvents.
      */
-    private Observable<OpsEvent> getAllOpenEvents() {
-        return opsEventDao.getOpenEvents(READ_ROWCOUNT).filter(event -> {
-            // Filter the events with proper manifest id.
-            Long mId = tsDao.getManifestId(event.getCiId());
-            if (mId == null) {
-                logger.error("Orphan CI. Can not find manifestId for ciId: " + event.getCiId() + ", name:" + event.getName() + ", state: " + event.getState());
-                opsEventDao.removeCi(event.getCiId());
-                return false;
-            }
+    private Observable<OpsEvent> getAllOpenEvents(Scheduler scheduler) {
+        return parallel(opsEventDao.getOpenEvents(READ_ROWCOUNT), scheduler,
+                event -> isOwnedOpenEvent(event) ? Collections.singletonList(event) : Collections.<OpsEvent>emptyList());
+    }
 
-            if (mId > 0 && ((mId % this.poolSize) == this.instanceId)) {
-                event.setManifestId(mId.longValue());
-                return true;
-            } else {
-                // Dicard messages for other instance ids
-                return false;
-            }
-        });
+    /**
+     * Looks up the manifest id of the open event and checks if it's managed by this instance.
+     *
+     * @param event open OpsEvent
+     * @return true if the event belongs to this instance.
+     */
+    private boolean isOwnedOpenEvent(OpsEvent event) {
+        // Filter the events with proper manifest id.
+        Long mId = tsDao.getManifestId(event.getCiId());
+        if (mId == null) {
+            logger.error("Orphan CI. Can not find manifestId for ciId: " + event.getCiId() + ", name:" + event.getName() + ", state: " + event.getState());
+            opsEventDao.removeCi(event.getCiId());
+            return false;
+        }
+
+        if (mId > 0 && ((mId % this.poolSize) == this.instanceId)) {
+            event.setManifestId(mId.longValue());
+            return true;
+        } else {
+            // Dicard messages for other instance ids
+            return false;
+        }
+    }
+
+    /**
+     * Applies the load function to every item of the stream. With a scheduler the items are processed
+     * concurrently, up to {@link #loadParallelism} at a time, otherwise in the emitting thread.
+     *
+     * @param source    stream to process
+     * @param scheduler load scheduler, can be <code>null</code>
+     * @param fn        load function
+     * @return stream of the load function results
+     */
+    private <T, R> Observable<R> parallel(Observable<T> source, Scheduler scheduler, Func1<T, List<R>> fn) {
+        if (scheduler == null) {
+            return source.flatMap(item -> Observable.from(fn.call(item)));
+        }
+        return Observable.merge(source.onBackpressureBuffer()
+                .map(item -> Observable.defer(() -> Observable.from(fn.call(item))).subscribeOn(scheduler)), loadParallelism);
     }
 
     /**
@@ -468,6 +565,20 @@ public class Sensor {
 	}
 */
     private void removeStmtFromEngine(long manifestId, String source, String eplName) {
+        if (stmtTemplates.isTemplate(eplName)) {
+            synchronized (stmtTemplates) {
+                String stmtName = stmtTemplates.unbind(eplName, manifestId);
+                if (stmtName != null) {
+                    refreshTemplateStmt(stmtName);
+                    refreshTemplateStmt(eplName);
+                }
+            }
+        } else {
+            destroyStatement(eplName);
+        }
+    }
+
+    private void destroyStatement(String eplName) {
         EPStatement oldStmt = epService.getEPAdministrator().getStatement(eplName);
         if (oldStmt != null) {
             oldStmt.stop();
@@ -518,14 +629,14 @@ public class Sensor {
 
         for (String stmtName : stmts.getStatements().keySet()) {
             SensorStatement stmt = stmts.getStatements().get(stmtName);
-            addStatementToEngine(stmt.getStmtName(), stmt.getStmtText(), stmt.getListenerName());
+            addStatementToEngine(manifestId, stmt);
         }
 
         if (stmts.getStmtNames().size() > 0) {
             // Register monitor
             // String key = manifestId + source;
             if (!loadedThresholds.containsKey(manifestId)) {
-                loadedThresholds.put(manifestId, new HashMap<String, ThresholdStatements>());
+                loadedThresholds.put(manifestId, new ConcurrentHashMap<String, ThresholdStatements>());
             }
             loadedThresholds.get(manifestId).put(source, stmts);
         } else {
@@ -667,11 +778,11 @@ public class Sensor {
 
         for (String stmtName : stmts.getStatements().keySet()) {
             SensorStatement stmt = stmts.getStatements().get(stmtName);
-            addStatementToEngine(stmt.getStmtName(), stmt.getStmtText(), stmt.getListenerName());
+            addStatementToEngine(manifestId, stmt);
         }
 
         if (!loadedThresholds.containsKey(manifestId)) {
-            loadedThresholds.put(manifestId, new HashMap<String, ThresholdStatements>());
+            loadedThresholds.put(manifestId, new ConcurrentHashMap<String, ThresholdStatements>());
         }
         loadedThresholds.get(manifestId).put(source, stmts);
         return true;
@@ -679,54 +790,64 @@ public class Sensor {
 
     /**
      * Load all valid threshold statements into esper engine and emit fake events for each heartbeat thresholds.
+     * Only the threshold rows managed by this instance are decoded.
      *
+     * @param scheduler load scheduler, <code>null</code> to load the thresholds sequentially.
      * @return a stream of fake events
      */
-    private Observable<FakeEvent> loadThresholds() {
+    private Observable<FakeEvent> loadThresholds(Scheduler scheduler) {
 
         AtomicInteger ldStmts = new AtomicInteger(0);
 
-        return tsDao.getAllThreshold(READ_ROWCOUNT)
-                .filter(this::validateThreshold)
-                .map(tr -> {
-                    ThresholdStatements stmts = stmtBuilder.getThresholdStatements(
-                            tr.getManifestId(),
-                            tr.getSource(),
-                            tr.getCrc(),
-                            tr.getThresholdJson(),
-                            tr.isHeartbeat(),
-                            tr.getHbDuration());
-
-                    for (String stmtName : stmts.getStatements().keySet()) {
-                        SensorStatement stmt = stmts.getStatements().get(stmtName);
-                        addStatementToEngine(stmt.getStmtName(), stmt.getStmtText(), stmt.getListenerName());
-                        ldStmts.incrementAndGet();
-                        if (ldStmts.get() % READ_ROWCOUNT == 0) {
-                            logger.info("Loaded " + ldStmts.get() + " threshold statements.");
-                        }
-                    }
+        Observable<Threshold> thresholds = tsDao.getAllThreshold(READ_ROWCOUNT, this::isManagedByThisInstance)
+                .filter(this::validateThreshold);
 
-                    if (!loadedThresholds.containsKey(tr.getManifestId())) {
-                        loadedThresholds.put(tr.getManifestId(), new HashMap<String, ThresholdStatements>());
-                    }
-                    loadedThresholds.get(tr.getManifestId()).put(tr.getSource(), stmts);
-                    return tr;
-
-                }).filter(tr -> tr.isHeartbeat()).flatMap(tr -> {
-
-                    // Fake events for missing heartbeat
-                    List<Long> mIds = tsDao.getManifestCiIds(tr.getManifestId());
-                    List<FakeEvent> fes = new ArrayList<>(mIds.size());
-                    for (long ciId : mIds) {
-                        FakeEvent fe = new FakeEvent();
-                        fe.ciId = ciId;
-                        fe.manifestId = tr.getManifestId();
-                        fe.source = tr.getSource();
-                        fes.add(fe);
-                    }
-                    return Observable.from(fes);
+        return parallel(thresholds, scheduler, tr -> loadThreshold(tr, ldStmts))
+                .doOnCompleted(() -> logger.info(">>> Loaded total " + ldStmts.get() + " threshold statements."));
+    }
+
+    /**
+     * Load the threshold statements into esper engine.
+     *
+     * @param tr      threshold
+     * @param ldStmts loaded statements counter
+     * @return fake events for the heartbeat threshold, empty list for others.
+     */
+    private List<FakeEvent> loadThreshold(Threshold tr, AtomicInteger ldStmts) {
+        ThresholdStatements stmts = stmtBuilder.getThresholdStatements(
+                tr.getManifestId(),
+                tr.getSource(),
+                tr.getCrc(),
+                tr.getThresholdJson(),
+                tr.isHeartbeat(),
+                tr.getHbDuration());
+
+        for (String stmtName : stmts.getStatements().keySet()) {
+            SensorStatement stmt = stmts.getStatements().get(stmtName);
+            addStatementToEngine(tr.getManifestId(), stmt);
+            int loaded = ldStmts.incrementAndGet();
+            if (loaded % READ_ROWCOUNT == 0) {
+                logger.info("Loaded " + loaded + " threshold statements.");
+            }
+        }
+
+        loadedThresholds.computeIfAbsent(tr.getManifestId(), k -> new ConcurrentHashMap<>()).put(tr.getSource(), stmts);
+
+        if (!tr.isHeartbeat()) {
+            return Collections.emptyList();
+        }
 
-                }).doOnCompleted(() -> logger.info(">>> Loaded total " + ldStmts.get() + " threshold statements."));
+        // Fake events for missing heartbeat
+        List<Long> mIds = tsDao.getManifestCiIds(tr.getManifestId());
+        List<FakeEvent> fes = new ArrayList<>(mIds.size());
+        for (long ciId : mIds) {
+            FakeEvent fe = new FakeEvent();
+            fe.ciId = ciId;
+            fe.manifestId = tr.getManifestId();
+            fe.source = tr.getSource();
+            fes.add(fe);
+        }
+        return fes;
     }
 
     /**
@@ -747,7 +868,8 @@ public class Sensor {
      * <li> Filter the events with proper sensor instance id.
      * <li> Bifurcate ops event stream into heartbeat and metric.
      * <li> Load all sensor statements and create a stream of fake events curresponding to heartbeat thresholds.
-     * <li> Start processing all three streams in parallel (with a timeout of max 30 mins)
+     * <li> Start processing all three streams in parallel (with a timeout of max 30 mins). With
+     * load parallelism &gt; 1 the thresholds and open events are also processed concurrently within each stream.
      * <li> Once the stream processing is complete, start seeding esper to restore the state for heart beat
      * (MHB) and open hb thresholds (RMHB)
      * </lo>
@@ -765,9 +887,19 @@ public class Sensor {
     private void loadAllStatements() throws InterruptedException {
 
         initDefaultStatements();
+        // the template statements are created once all their manifests are bound
+        deferTemplates = true;
+
+        ExecutorService loader = null;
+        Scheduler scheduler = null;
+        if (loadParallelism > 1) {
+            logger.info("Loading statements with parallelism: " + loadParallelism);
+            loader = Executors.newFixedThreadPool(loadParallelism);
+            scheduler = Schedulers.from(loader);
+        }
 
         // Bifurcate ops events stream into heartbeat and metric.
-        ConnectableObservable<OpsEvent> openEvents = getAllOpenEvents().publish();
+        ConnectableObservable<OpsEvent> openEvents = getAllOpenEvents(scheduler).publish();
         Observable<OpsEvent> hbeat = openEvents.filter(e -> HEARTBEAT.equals(e.getType()));
         Observable<OpsEvent> metric = openEvents.filter(e -> METRIC.equals(e.getType()));
 
@@ -777,7 +909,7 @@ public class Sensor {
         final List<FakeEvent> fes = new ArrayList<>();
         final Map<String, OpsEvent> hbOpenEvents = new HashMap<>();
 
-        loadThresholds().subscribeOn(Schedulers.io())
+        loadThresholds(scheduler).subscribeOn(Schedulers.io())
                 .subscribe(fes::add, this::handleError,
                         () -> {
                             logger.info("Loading threshold statements completed!");
@@ -804,7 +936,17 @@ public class Sensor {
         logger.info("Starting stream processing pipeline...");
         openEvents.connect();
         logger.info("Waiting to complete the OpsEvent stream processing.");
-        lock.await(getLoadStatementTimeOut(), TimeUnit.MINUTES);
+        try {
+            lock.await(getLoadStatementTimeOut(), TimeUnit.MINUTES);
+        } finally {
+            if (loader != null) {
+                loader.shutdown();
+            }
+            synchronized (stmtTemplates) {
+                deferTemplates = false;
+                stmtTemplates.getStmtNames().forEach(this::refreshTemplateStmt);
+            }
+        }
 
         // Finally insert the fake events to satisfy the open hb conditions.
         fes.stream().forEach(fe -> {
@@ -971,4 +1113,45 @@ public class Sensor {
   public void setLoadStatementTimeOut(int loadStatementTimeOut) {
     this.loadStatementTimeOut = loadStatementTimeOut;
   }
+
+  public int getLoadParallelism() {
+    return loadParallelism;
+  }
+
+  /**
+   * Sets the number of threads used to load thresholds and open events on startup,
+   * 1 loads them sequentially.
+   *
+   * @param loadParallelism load parallelism
+   */
+  public void setLoadParallelism(int loadParallelism) {
+    this.loadParallelism = loadParallelism;
+  }
+
+  /**
+   * Checks if the sensor is loading statements, ie the initialization is started but not yet completed.
+   *
+   * @return true if the sensor is loading.
+   */
+  public boolean isLoading() {
+    return initStartTime > 0 && readyTime == 0;
+  }
+
+  /**
+   * Gets the initialization start time.
+   *
+   * @return start time in millis, 0 if the sensor was never initialized.
+   */
+  public long getInitStartTime() {
+    return initStartTime;
+  }
+
+  /**
+   * Gets the time it took for the sensor to get ready, ie to load all the statements and open events.
+   *
+   * @return time to ready in millis, -1 if the sensor is not ready.
+   */
+  public long getTimeToReady() {
+    return readyTime > 0 ? readyTime - initStartTime : -1;
+  }
 }
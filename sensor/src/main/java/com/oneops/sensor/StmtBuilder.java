@@ -25,7 +25,10 @@ import com.oneops.sensor.thresholds.ThresholdDef;
 import org.apache.log4j.Logger;
 
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
 
 import static java.lang.System.getProperty;
 
@@ -39,6 +42,7 @@ public class StmtBuilder {
     public static final int THRESHOLDS_JSON_SIZE_FLOOR = 3;
     private static final int CHANNEL_DOWN_INTERVAL = Integer.valueOf(getProperty("com.oneops.sensor.chdowntime", "15"));
     private static final int WNDW_SIZE_MAX = Integer.valueOf(getProperty("com.oneops.sensor.MaxDuration", "5"));
+    private static final boolean SHARED_TEMPLATES = Boolean.valueOf(getProperty("com.oneops.sensor.stmt.shared", "false"));
 
     public final static String STMT_RESET = "insert into OpsCloseEvent select trigger.ciId as ciId, trigger.manifestId as manifestId, trigger.name as name, trigger.source as source, reset.timestamp as timestamp, reset.metrics as metrics, 'close' as state, trigger as openEvent from pattern [every trigger=OpsEvent(state = 'open') -> reset=OpsEvent(ciId = trigger.ciId and name = trigger.name and state = 'reset')]";
     public final static String STMT_RESET_HEARTBEAT = "insert into OpsCloseEvent select trigger.ciId as ciId, trigger.manifestId as manifestId, trigger.name as name, trigger.source as source, reset.timestamp as timestamp, 'close' as state, trigger as openEvent from pattern [every trigger=OpsEvent(state = 'open' and type = 'heartbeat') -> reset=PerfEvent(ciId = trigger.ciId and source = trigger.source)]";
@@ -47,12 +51,32 @@ public class StmtBuilder {
     public final static String STMT_DELAY_PERF_EVENT = "insert into PerfEvent select delayedEvent.perfEvent from pattern [(every delayedEvent=DelayedPerfEvent -> timer:interval(delayedEvent.delay sec))]";
 
     private final Gson gson = new Gson();
+    private boolean sharedTemplates = SHARED_TEMPLATES;
 
     /**
      * Statement constructor
      */
     public StmtBuilder() {
-        logger.info("Statement Builder initialized with Max Duration: " + WNDW_SIZE_MAX + ", ChannelDownInterval: " + CHANNEL_DOWN_INTERVAL);
+        logger.info("Statement Builder initialized with Max Duration: " + WNDW_SIZE_MAX + ", ChannelDownInterval: " + CHANNEL_DOWN_INTERVAL + ", SharedTemplates: " + sharedTemplates);
+    }
+
+    /**
+     * Checks if threshold statements are built as shared templates.
+     *
+     * @return true if shared templates mode is on
+     */
+    public boolean isSharedTemplates() {
+        return sharedTemplates;
+    }
+
+    /**
+     * Sets the shared templates mode. In this mode a statement is compiled once
+     * per distinct threshold shape and the manifests are bound to it through {@link StmtTemplates}.
+     *
+     * @param sharedTemplates true to build shared template statements
+     */
+    public void setSharedTemplates(boolean sharedTemplates) {
+        this.sharedTemplates = sharedTemplates;
     }
 
     /**
@@ -65,6 +89,10 @@ public class StmtBuilder {
      * @return Trigger statement
      */
     public String buildTriggerStmt(long manifestId, String source, String trsName, ThresholdDef def) {
+        return buildTriggerStmt(buildFilter(manifestFilter(manifestId), source, def, def.getTrigger()), source, trsName, def);
+    }
+
+    private String buildTriggerStmt(String stream, String source, String trsName, ThresholdDef def) {
 
         String name = source + ":" + trsName;
 
@@ -83,18 +111,9 @@ public class StmtBuilder {
                 .append("'").append(name).append("'")
                 .append(" as name, ")
                 .append("'").append(def.getState()).append("'")
-                .append(" as ciState, count(1) as count from PerfEvent(manifestId = ")
-                .append(manifestId)
-                .append(" and bucket = ")
-                .append("'").append(def.getBucket()).append("'")
-                .append(" and source = ")
-                .append("'").append(source).append("'")
-                .append(" and (metrics.")
-                .append(def.getStat())
-                .append("('").append(def.getMetric()).append("') ")
-                .append(def.getTrigger().getOperator())
-                .append(" ").append(def.getTrigger().getValue()).append(")).")
-                .append("win:time(")
+                .append(" as ciState, count(1) as count from ")
+                .append(stream)
+                .append(".win:time(")
                 .append(duration)
                 .append(" min) group by ciId having count(1)>=")
                 .append(def.getTrigger().getNumocc())
@@ -113,6 +132,10 @@ public class StmtBuilder {
      * @return Reset statement.
      */
     public String buildResetStmt(long manifestId, String source, String trsName, ThresholdDef def) {
+        return buildResetStmt(buildFilter(manifestFilter(manifestId), source, def, def.getReset()), source, trsName, def);
+    }
+
+    private String buildResetStmt(String stream, String source, String trsName, ThresholdDef def) {
 
         String name = source + ":" + trsName;
 
@@ -125,18 +148,9 @@ public class StmtBuilder {
                 .append("'").append(name).append("'")
                 .append(" as name, ")
                 .append("'").append(def.getState()).append("'")
-                .append(" as ciState, count(1) as count from PerfEvent(manifestId = ")
-                .append(manifestId)
-                .append(" and bucket = ")
-                .append("'").append(def.getBucket()).append("'")
-                .append(" and source = ")
-                .append("'").append(source).append("'")
-                .append(" and (metrics.")
-                .append(def.getStat())
-                .append("('").append(def.getMetric()).append("') ")
-                .append(def.getReset().getOperator())
-                .append(" ").append(def.getReset().getValue()).append(")).")
-                .append("win:time(")
+                .append(" as ciState, count(1) as count from ")
+                .append(stream)
+                .append(".win:time(")
                 .append(duration)
                 .append(" min) group by ciId having count(1)>=")
                 .append(def.getReset().getNumocc()).toString();
@@ -151,18 +165,60 @@ public class StmtBuilder {
      * @return heartbeat statement.
      */
     public String buildHeartbeatStmt(long manifestId, String source, String duration) {
+        return buildHeartbeatStmt(buildHeartbeatFilter(manifestFilter(manifestId), source), duration);
+    }
+
+    private String buildHeartbeatStmt(String stream, String duration) {
         return new StringBuilder(100)
                 .append("insert into OpsEvent select lastEvent.ciId as ciId, lastEvent.manifestId as manifestId, lastEvent.channel as channel, lastEvent.timestamp as timestamp, 'open' as state, 'heartbeat' as type, lastEvent.source as source, lastEvent.source || ':Heartbeat' as name, ")
                 .append("'unhealthy'")
-                .append(" as ciState from pattern [(every lastEvent=PerfEvent(source = ")
-                .append("'").append(source).append("'")
-                .append(" and manifestId = ")
-                .append(manifestId)
-                .append(")) -> (timer:interval(")
+                .append(" as ciState from pattern [(every lastEvent=")
+                .append(stream)
+                .append(") -> (timer:interval(")
                 .append(duration)
                 .append(" min) and not PerfEvent(ciId = lastEvent.ciId and source = lastEvent.source))]").toString();
     }
 
+    /**
+     * Builds the perf event filter of a trigger or reset stmt.
+     *
+     * @param manifestFilter manifest filter expression
+     * @param source         metric source
+     * @param def            {@link ThresholdDef}
+     * @param params         trigger or reset params
+     * @return filtered perf event stream
+     */
+    private String buildFilter(String manifestFilter, String source, ThresholdDef def, ThresholdDef.StmtParams params) {
+        return new StringBuilder(200)
+                .append("PerfEvent(")
+                .append(manifestFilter)
+                .append(" and bucket = ")
+                .append("'").append(def.getBucket()).append("'")
+                .append(" and source = ")
+                .append("'").append(source).append("'")
+                .append(" and (metrics.")
+                .append(def.getStat())
+                .append("('").append(def.getMetric()).append("') ")
+                .append(params.getOperator())
+                .append(" ").append(params.getValue()).append("))").toString();
+    }
+
+    /**
+     * Builds the perf event filter of a heartbeat stmt.
+     *
+     * @param manifestFilter manifest filter expression
+     * @param source         metric source
+     * @return filtered perf event stream
+     */
+    private String buildHeartbeatFilter(String manifestFilter, String source) {
+        return new StringBuilder(100)
+                .append("PerfEvent(source = ")
+                .append("'").append(source).append("'")
+                .append(" and ")
+                .append(manifestFilter)
+                .append(")").toString();
+    }
+
 
     /**
      * Gets the threshold statements.
@@ -193,29 +249,80 @@ public class StmtBuilder {
                 ThresholdDef trDef = trsholds.get(trsName);
                 // Build trigger statement
                 if (trDef.getTrigger() != null) {
-                    String eplStmt = buildTriggerStmt(manifestId, source, trsName, trDef);
-                    String eplName = source + ":" + trsName + "-" + manifestId + "-trigger";
-                    SensorStatement stmt = new SensorStatement(eplName, eplStmt, "OpsEventListener");
-                    trStatements.addStatement(stmt);
+                    if (sharedTemplates) {
+                        String filter = buildFilter(StmtTemplates.MANIFEST_FILTER, source, trDef, trDef.getTrigger());
+                        trStatements.addStatement(templateStatement(source + ":" + trsName, "-trigger", filter,
+                                stream -> buildTriggerStmt(stream, source, trsName, trDef), "OpsEventListener"));
+                    } else {
+                        String eplStmt = buildTriggerStmt(manifestId, source, trsName, trDef);
+                        String eplName = source + ":" + trsName + "-" + manifestId + "-trigger";
+                        SensorStatement stmt = new SensorStatement(eplName, eplStmt, "OpsEventListener");
+                        trStatements.addStatement(stmt);
+                    }
                 }
                 // Build reset statement
                 if (trDef.getReset() != null) {
-                    String eplStmt = buildResetStmt(manifestId, source, trsName, trDef);
-                    String eplName = source + ":" + trsName + "-" + manifestId + "-reset";
-                    SensorStatement stmt = new SensorStatement(eplName, eplStmt, null);
-                    trStatements.addStatement(stmt);
+                    if (sharedTemplates) {
+                        String filter = buildFilter(StmtTemplates.MANIFEST_FILTER, source, trDef, trDef.getReset());
+                        trStatements.addStatement(templateStatement(source + ":" + trsName, "-reset", filter,
+                                stream -> buildResetStmt(stream, source, trsName, trDef), null));
+                    } else {
+                        String eplStmt = buildResetStmt(manifestId, source, trsName, trDef);
+                        String eplName = source + ":" + trsName + "-" + manifestId + "-reset";
+                        SensorStatement stmt = new SensorStatement(eplName, eplStmt, null);
+                        trStatements.addStatement(stmt);
+                    }
                 }
             }
         }
         // Build heartbeat statement
         if (isHeartbeat) {
-            String eplStmt = buildHeartbeatStmt(manifestId, source, hbDuration);
             trStatements.setHeartbeat(true);
             trStatements.setHbDuration(hbDuration);
-            String eplName = source + ":Heartbeat-" + manifestId;
-            SensorStatement stmt = new SensorStatement(eplName, eplStmt, "OpsEventListener");
-            trStatements.addStatement(stmt);
+            if (sharedTemplates) {
+                String filter = buildHeartbeatFilter(StmtTemplates.MANIFEST_FILTER, source);
+                trStatements.addStatement(templateStatement(source + ":Heartbeat", "", filter,
+                        stream -> buildHeartbeatStmt(stream, hbDuration), "OpsEventListener"));
+            } else {
+                String eplStmt = buildHeartbeatStmt(manifestId, source, hbDuration);
+                String eplName = source + ":Heartbeat-" + manifestId;
+                SensorStatement stmt = new SensorStatement(eplName, eplStmt, "OpsEventListener");
+                trStatements.addStatement(stmt);
+            }
         }
         return trStatements;
     }
+
+    /**
+     * Builds a shared template statement out of the threshold shape. The template name is derived from
+     * the shape text, so all the manifests with the same threshold definition resolve to the same statement.
+     * The statement reads a stream of its own, fed by the filter statements of the manifests bound to it.
+     *
+     * @param prefix       statement name prefix
+     * @param suffix       statement name suffix
+     * @param filter       perf event filter with the manifest filter token
+     * @param stmt         statement text over the given stream
+     * @param listenerName the listener name
+     * @return template statement
+     */
+    private SensorStatement templateStatement(String prefix, String suffix, String filter, Function<String, String> stmt,
+                                              String listenerName) {
+        UUID id = UUID.nameUUIDFromBytes((filter + stmt.apply("")).getBytes(StandardCharsets.UTF_8));
+        String stream = "PerfEvent_" + id.toString().replace("-", "");
+        SensorStatement template = new SensorStatement(prefix + "-" + id + suffix, stmt.apply(stream), listenerName);
+        // the manifest filter is filled in by the sensor with the manifests bound to the template
+        template.setFilterText("insert into " + stream + " select * from " + filter);
+        template.setTemplate(true);
+        return template;
+    }
+
+    /**
+     * Per manifest filter expression of the perf event stream.
+     *
+     * @param manifestId manifest id
+     * @return filter expression
+     */
+    private String manifestFilter(long manifestId) {
+        return "manifestId = " + manifestId;
+    }
 }
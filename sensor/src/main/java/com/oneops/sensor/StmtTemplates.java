@@ -0,0 +1,239 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.sensor;
+
+import com.oneops.sensor.domain.SensorStatement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Shared (template) EPL statements of a sensor. A template is one threshold shape, its statement (the
+ * windows or the heartbeat pattern) reads a stream of its own. The stream is fed by filter statements of up
+ * to <code>maxManifests</code> manifests each, filtering the perf events on <code>manifestId in (...)</code>,
+ * which esper keeps in its filter index. Binding or unbinding a manifest changes the text of one filter
+ * statement, the sensor then re-creates it. The filter statements keep no state, so the windows and
+ * patterns of the other manifests are left as they are.
+ */
+public class StmtTemplates {
+
+    /**
+     * Placeholder of the manifest filter in the template statement text.
+     */
+    public static final String MANIFEST_FILTER = "$manifestFilter$";
+    private static final String PART_SEPARATOR = "#";
+
+    private final int maxManifests;
+    private final Map<String, Template> templates = new HashMap<>();
+
+    /**
+     * @param maxManifests max number of manifests filtered by a statement of a template
+     */
+    public StmtTemplates(int maxManifests) {
+        this.maxManifests = maxManifests;
+    }
+
+    /**
+     * Checks if the statement name is a registered template.
+     *
+     * @param templateName template name
+     * @return true if it's a template statement
+     */
+    public synchronized boolean isTemplate(String templateName) {
+        return templates.containsKey(templateName);
+    }
+
+    /**
+     * Binds the manifest to the template.
+     *
+     * @param template   template statement, its filter text has the {@link #MANIFEST_FILTER} placeholder
+     * @param manifestId manifest id
+     * @return the name of the filter statement to create or re-create, null if the manifest was already bound
+     */
+    public synchronized String bind(SensorStatement template, long manifestId) {
+        Template tmpl = templates.computeIfAbsent(template.getStmtName(),
+                name -> new Template(template.getStmtText(), template.getFilterText(), template.getListenerName()));
+        if (tmpl.partOf.containsKey(manifestId)) {
+            return null;
+        }
+        Part part = null;
+        for (Part p : tmpl.parts) {
+            if (p.manifests.size() < maxManifests) {
+                part = p;
+                break;
+            }
+        }
+        if (part == null) {
+            part = new Part(template.getStmtName() + PART_SEPARATOR + tmpl.nextPart++);
+            tmpl.parts.add(part);
+        }
+        part.manifests.add(manifestId);
+        tmpl.partOf.put(manifestId, part);
+        return part.stmtName;
+    }
+
+    /**
+     * Unbinds the manifest from the template.
+     *
+     * @param templateName template name
+     * @param manifestId   manifest id
+     * @return the name of the filter statement to re-create, or to destroy if {@link #getStmtText(String)} is null
+     * for it, null if the manifest was not bound
+     */
+    public synchronized String unbind(String templateName, long manifestId) {
+        Template tmpl = templates.get(templateName);
+        if (tmpl == null) {
+            return null;
+        }
+        Part part = tmpl.partOf.remove(manifestId);
+        if (part == null) {
+            return null;
+        }
+        part.manifests.remove(manifestId);
+        if (part.manifests.isEmpty()) {
+            tmpl.parts.remove(part);
+            if (tmpl.parts.isEmpty()) {
+                templates.remove(templateName);
+            }
+        }
+        return part.stmtName;
+    }
+
+    /**
+     * Gets the text of a template statement or of one of its filter statements.
+     *
+     * @param stmtName template name, or filter statement name returned by bind or unbind
+     * @return the statement text, null if no manifest is bound to the statement anymore
+     */
+    public synchronized String getStmtText(String stmtName) {
+        Template tmpl = templates.get(stmtName);
+        if (tmpl != null) {
+            return tmpl.stmtText;
+        }
+        Part part = getPart(stmtName);
+        if (part == null) {
+            return null;
+        }
+        String ids = part.manifests.stream().map(String::valueOf).collect(Collectors.joining(", "));
+        return templateOf(stmtName).filterText.replace(MANIFEST_FILTER, "manifestId in (" + ids + ")");
+    }
+
+    /**
+     * Gets the listener of a template statement, the filter statements have none.
+     *
+     * @param stmtName template or filter statement name
+     * @return the listener name, null if the statement has none or no manifest is bound to it anymore
+     */
+    public synchronized String getListenerName(String stmtName) {
+        Template tmpl = templates.get(stmtName);
+        return tmpl == null ? null : tmpl.listenerName;
+    }
+
+    /**
+     * Names of the statements of all the templates, the filter statements of a template come before it
+     * since they declare its stream.
+     *
+     * @return statement names
+     */
+    public synchronized List<String> getStmtNames() {
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, Template> tmpl : templates.entrySet()) {
+            for (Part part : tmpl.getValue().parts) {
+                names.add(part.stmtName);
+            }
+            names.add(tmpl.getKey());
+        }
+        return names;
+    }
+
+    /**
+     * Number of templates currently registered.
+     *
+     * @return template count
+     */
+    public synchronized int getTemplateCount() {
+        return templates.size();
+    }
+
+    /**
+     * Number of manifest bindings over all the templates.
+     *
+     * @return binding count
+     */
+    public synchronized int getBindingCount() {
+        int count = 0;
+        for (Template tmpl : templates.values()) {
+            count += tmpl.partOf.size();
+        }
+        return count;
+    }
+
+    /**
+     * Drops all the bindings, used when the engine is (re)initialized.
+     */
+    public synchronized void clear() {
+        templates.clear();
+    }
+
+    private Template templateOf(String stmtName) {
+        int separator = stmtName.lastIndexOf(PART_SEPARATOR);
+        return separator < 0 ? null : templates.get(stmtName.substring(0, separator));
+    }
+
+    private Part getPart(String stmtName) {
+        Template tmpl = templateOf(stmtName);
+        if (tmpl == null) {
+            return null;
+        }
+        for (Part part : tmpl.parts) {
+            if (part.stmtName.equals(stmtName)) {
+                return part;
+            }
+        }
+        return null;
+    }
+
+    private static class Template {
+        private final String stmtText;
+        private final String filterText;
+        private final String listenerName;
+        private final List<Part> parts = new ArrayList<>();
+        private final Map<Long, Part> partOf = new HashMap<>();
+        private int nextPart;
+
+        private Template(String stmtText, String filterText, String listenerName) {
+            this.stmtText = stmtText;
+            this.filterText = filterText;
+            this.listenerName = listenerName;
+        }
+    }
+
+    private static class Part {
+        private final String stmtName;
+        private final Set<Long> manifests = new TreeSet<>();
+
+        private Part(String stmtName) {
+            this.stmtName = stmtName;
+        }
+    }
+}
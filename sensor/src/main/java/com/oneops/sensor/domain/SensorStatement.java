@@ -24,6 +24,8 @@ public class SensorStatement {
 	private String stmtName;
 	private String stmtText;
 	private String listenerName;
+	private boolean template;
+	private String filterText;
 	
 	/**
 	 * Instantiates a new sensor statement.
@@ -99,4 +101,40 @@ public class SensorStatement {
 	public void setListenerName(String listenerName) {
 		this.listenerName = listenerName;
 	}
+
+	/**
+	 * Checks if this is a shared template statement.
+	 *
+	 * @return true, if it's a template
+	 */
+	public boolean isTemplate() {
+		return template;
+	}
+
+	/**
+	 * Sets the template flag.
+	 *
+	 * @param template the new template flag
+	 */
+	public void setTemplate(boolean template) {
+		this.template = template;
+	}
+
+	/**
+	 * Gets the text of the statement feeding the stream of a template, with the manifest filter placeholder.
+	 *
+	 * @return the filter statement text, null if it's not a template
+	 */
+	public String getFilterText() {
+		return filterText;
+	}
+
+	/**
+	 * Sets the filter statement text.
+	 *
+	 * @param filterText the new filter statement text
+	 */
+	public void setFilterText(String filterText) {
+		this.filterText = filterText;
+	}
 }
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.sensor.ecv;
+
+import com.oneops.ecv.health.Health;
+import com.oneops.ecv.health.IHealth;
+import com.oneops.ecv.health.IHealthCheck;
+import com.oneops.sensor.Sensor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Reports the sensor statement loading state on /esper/stmts/load, not through the ecv status checker
+ * as every startup goes through the loading. The check fails while the statements are being loaded
+ * and reports the time to ready once the sensor is initialized.
+ */
+public class LoadHealthCheck implements IHealthCheck {
+
+    @Autowired
+    private Sensor sensor;
+
+    @Override
+    public IHealth getHealth() {
+        if (sensor.isLoading()) {
+            long elapsed = System.currentTimeMillis() - sensor.getInitStartTime();
+            return new Health(HttpStatus.SERVICE_UNAVAILABLE.value(), Boolean.FALSE,
+                    "Loading statements, elapsed: " + elapsed + " ms", getName());
+        }
+        long timeToReady = sensor.getTimeToReady();
+        String message = (timeToReady < 0) ? "Not initialized" : "Ready, time to ready: " + timeToReady + " ms";
+        return new Health(HttpStatus.OK.value(), Boolean.TRUE, message, getName());
+    }
+
+    @Override
+    public String getName() {
+        return "sensor.Load";
+    }
+}
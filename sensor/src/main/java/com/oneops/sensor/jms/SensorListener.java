@@ -20,15 +20,20 @@ package com.oneops.sensor.jms;
 import com.google.gson.Gson;
 import com.oneops.sensor.Sensor;
 import com.oneops.sensor.events.BasicEvent;
+import com.oneops.sensor.events.PerfEvent;
+import com.oneops.sensor.events.PerfEventCodec;
 import com.oneops.sensor.util.SensorHeartBeat;
 import org.apache.log4j.Logger;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.ObjectMessage;
+import java.io.IOException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The listener interface for receiving sensor events.
@@ -49,6 +54,7 @@ public class SensorListener implements MessageListener {
     private SensorHeartBeat sensorHeartBeat;
     private Set<Long> cisToLog = ConcurrentHashMap.newKeySet();
     private Gson gson = new Gson();
+    private final AtomicLong droppedCounter = new AtomicLong();
 	/**
 	 * Sets the sensor.
 	 *
@@ -77,19 +83,48 @@ public class SensorListener implements MessageListener {
 		try {
 			
 			if (msg instanceof ObjectMessage) {
-				BasicEvent event = (BasicEvent)((ObjectMessage)msg).getObject();
-				if (logger.isDebugEnabled() || cisToLog.contains(event.getCiId())) {
-					logger.info(gson.toJson(event));
+				processEvent((BasicEvent)((ObjectMessage)msg).getObject());
+			} else if (msg instanceof BytesMessage) {
+				// binary encoded batch of perf events, see PerfEventCodec
+				BytesMessage bytesMsg = (BytesMessage) msg;
+				String format = bytesMsg.getStringProperty(PerfEventCodec.FORMAT_PROPERTY);
+				if (PerfEventCodec.FORMAT.equals(format)) {
+					byte[] data = new byte[(int) bytesMsg.getBodyLength()];
+					bytesMsg.readBytes(data);
+					for (PerfEvent event : PerfEventCodec.decode(data)) {
+						processEvent(event);
+					}
+				} else {
+					droppedCounter.incrementAndGet();
+					logger.warn("Unsupported perf event message format: " + format + ", discarding the message");
 				}
-				sensorHeartBeat.timeStampIt(event.getChannel());
-				sensorHeartBeat.timeStampIt(BasicEvent.DEFAULT_CHANNEL);
-				sensor.sendCEPEvent(event);
 			}
 			msg.acknowledge();
 		} catch (JMSException e) {
 			logger.info("caught Exception in onMessage",e);
 
+		} catch (IOException e) {
+			droppedCounter.incrementAndGet();
+			if (e instanceof PerfEventCodec.UnsupportedVersionException) {
+				logger.warn(e.getMessage() + ", discarding the message");
+			} else {
+				logger.error("Failed to decode perf events, discarding the message", e);
+			}
+			try {
+				msg.acknowledge();
+			} catch (JMSException ex) {
+				logger.info("caught Exception in onMessage", ex);
+			}
+		}
+	}
+
+	private void processEvent(BasicEvent event) {
+		if (logger.isDebugEnabled() || cisToLog.contains(event.getCiId())) {
+			logger.info(gson.toJson(event));
 		}
+		sensorHeartBeat.timeStampIt(event.getChannel());
+		sensorHeartBeat.timeStampIt(BasicEvent.DEFAULT_CHANNEL);
+		sensor.sendCEPEvent(event);
 	}
 	
 	public void addCiIdToLog(long ciId) {
@@ -99,5 +134,15 @@ public class SensorListener implements MessageListener {
 	public void removeCiIdToLog(long ciId) {
 		cisToLog.remove(ciId);
 	}
+
+	/**
+	 * Perf event messages discarded because their format or encoding version is unknown
+	 * or they could not be decoded.
+	 *
+	 * @return dropped message count
+	 */
+	public long getDroppedCounter() {
+		return droppedCounter.get();
+	}
 	
 }
@@ -19,6 +19,8 @@ package com.oneops.sensor.ws;
 
 import com.oneops.cms.simple.domain.CmsRfcCISimple;
 import com.oneops.cms.simple.domain.CmsWorkOrderSimple;
+import com.oneops.ecv.health.IHealth;
+import com.oneops.ecv.health.IHealthCheck;
 import com.oneops.ops.CiOpsProcessor;
 import com.oneops.ops.dao.OpsEventDao;
 import com.oneops.ops.events.CiChangeStateEvent;
@@ -34,6 +36,8 @@ import com.oneops.sensor.util.SensorHeartBeat;
 import com.oneops.sensor.util.SensorTools;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
@@ -62,6 +66,7 @@ public class SensorWsController {
     private SensorListener sensorListener;
     private SensorTools sensorTools;
     private MonitorRestorer restorer;
+    private IHealthCheck loadHealthCheck;
 
     public void setSensorListener(SensorListener sensorListener) {
         this.sensorListener = sensorListener;
@@ -75,6 +80,10 @@ public class SensorWsController {
         this.sensorTools = sensorTools;
     }
 
+    public void setLoadHealthCheck(IHealthCheck loadHealthCheck) {
+        this.loadHealthCheck = loadHealthCheck;
+    }
+
     public void setRestorer(MonitorRestorer restorer) {
 		this.restorer = restorer;
 	}
@@ -614,6 +623,18 @@ public class SensorWsController {
         }
     }
 
+    /**
+     * Gets the statement loading state, kept out of the ecv status as the loading is expected on every startup.
+     *
+     * @return the load health, 503 while the statements are loading
+     */
+    @RequestMapping(value = "/esper/stmts/load", method = RequestMethod.GET)
+    @ResponseBody
+    public ResponseEntity<IHealth> getLoadState() {
+        IHealth health = loadHealthCheck.getHealth();
+        return new ResponseEntity<IHealth>(health, HttpStatus.valueOf(health.getStatusCode()));
+    }
+
     /**
      * Gets the loaded stmts.
      *
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.sensor;
+
+import com.oneops.sensor.SensorLoadTest.InMemoryOpsEventDao;
+import com.oneops.sensor.SensorLoadTest.InMemoryThresholdsDao;
+
+/**
+ * Times the cold start load of the sensor statements, sequential against parallel, from the in-memory
+ * cassandra stand-in of {@link SensorLoadTest} where every lookup pays a 100us round trip. Run it by hand, eg
+ * <pre>
+ * java -Xmx4g -cp ... com.oneops.sensor.SensorLoadBenchmark 50000 5000 1 8
+ * </pre>
+ * with the threshold count, the open event count and the load parallelisms to compare.
+ */
+public class SensorLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int thresholds = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int openEvents = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int[] parallelisms = args.length > 2 ? new int[args.length - 2] : new int[]{1, 8};
+        for (int i = 2; i < args.length; i++) {
+            parallelisms[i - 2] = Integer.parseInt(args[i]);
+        }
+        for (int parallelism : parallelisms) {
+            Sensor sensor = SensorLoadTest.newSensor(new InMemoryThresholdsDao(thresholds),
+                    new InMemoryOpsEventDao(openEvents), parallelism);
+            System.out.println(String.format("thresholds=%d open events=%d parallelism=%d ready in %dms",
+                    thresholds, openEvents, parallelism, sensor.getTimeToReady()));
+            sensor.stop();
+        }
+    }
+}
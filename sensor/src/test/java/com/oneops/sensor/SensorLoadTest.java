@@ -0,0 +1,182 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.sensor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import com.espertech.esper.client.UpdateListener;
+import com.oneops.ops.dao.OpsEventDao;
+import com.oneops.ops.events.OpsEvent;
+import com.oneops.sensor.thresholds.Threshold;
+import com.oneops.sensor.thresholds.ThresholdsDao;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import org.testng.annotations.Test;
+import rx.Observable;
+
+/**
+ * Cold start load of the thresholds from an in-memory cassandra stand-in, where
+ * every lookup pays a simulated round trip: the parallel load ends in the same state
+ * as the sequential one.
+ */
+public class SensorLoadTest {
+
+    private static final int THRESHOLDS = 5000;
+    private static final int OPEN_EVENTS = 500;
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    @Test
+    public void sequentialLoadTest() throws Exception {
+        load(1);
+    }
+
+    @Test
+    public void parallelLoadTest() throws Exception {
+        load(8);
+    }
+
+    @Test
+    public void failedInitIsNotLoading() throws Exception {
+        Sensor sensor = new Sensor();
+        sensor.setStmtBuilder(new StmtBuilder());
+        sensor.setListeners(null);
+        try {
+            sensor.init(1, 1);
+            fail("init should fail without listeners");
+        } catch (NullPointerException expected) {
+            // the default statements can't get their listeners
+        }
+        assertFalse(sensor.isLoading());
+        assertEquals(sensor.getTimeToReady(), -1);
+    }
+
+    private void load(int parallelism) throws Exception {
+        InMemoryThresholdsDao tsDao = new InMemoryThresholdsDao(THRESHOLDS);
+        InMemoryOpsEventDao opsEventDao = new InMemoryOpsEventDao(OPEN_EVENTS);
+        Sensor sensor = newSensor(tsDao, opsEventDao, parallelism);
+
+        assertFalse(sensor.isLoading());
+        assertTrue(sensor.getTimeToReady() >= 0);
+        assertEquals(tsDao.ciLookups.get(), THRESHOLDS);
+        assertEquals(tsDao.manifestLookups.get(), OPEN_EVENTS);
+        assertEquals(sensor.getStmtTemplates().getBindingCount(), THRESHOLDS);
+    }
+
+    static Sensor newSensor(ThresholdsDao tsDao, OpsEventDao opsEventDao, int parallelism) throws Exception {
+        StmtBuilder stmtBuilder = new StmtBuilder();
+        stmtBuilder.setSharedTemplates(true);
+        UpdateListener listener = (newEvents, oldEvents) -> {
+        };
+        Map<String, UpdateListener> listeners = new HashMap<>();
+        listeners.put("OpsEventListener", listener);
+        listeners.put("CloseEventListener", listener);
+        listeners.put("ChannelDownListener", listener);
+
+        Sensor sensor = new Sensor();
+        sensor.setStmtBuilder(stmtBuilder);
+        sensor.setTsDao(tsDao);
+        sensor.setOpsEventDao(opsEventDao);
+        sensor.setListeners(listeners);
+        sensor.setLoadStatementTimeOut(5);
+        sensor.setLoadParallelism(parallelism);
+        sensor.init(1, 1);
+        return sensor;
+    }
+
+    private static void roundTrip() {
+        LockSupport.parkNanos(ROUND_TRIP_NANOS);
+    }
+
+    static class InMemoryThresholdsDao extends ThresholdsDao {
+
+        private final int thresholds;
+        private final AtomicInteger ciLookups = new AtomicInteger();
+        private final AtomicInteger manifestLookups = new AtomicInteger();
+
+        InMemoryThresholdsDao(int thresholds) {
+            this.thresholds = thresholds;
+        }
+
+        @Override
+        public Observable<Threshold> getAllThreshold(int batchSize, Predicate<Long> manifestFilter) {
+            return Observable.create(sub -> {
+                for (long manifestId = 1; manifestId <= thresholds; manifestId++) {
+                    if (manifestFilter.test(manifestId)) {
+                        Threshold tr = new Threshold();
+                        tr.setManifestId(manifestId);
+                        tr.setSource("compute-load");
+                        tr.setCrc(manifestId);
+                        tr.setThresholdJson("n");
+                        tr.setHeartbeat(true);
+                        tr.setHbDuration("5");
+                        sub.onNext(tr);
+                    }
+                }
+                sub.onCompleted();
+            });
+        }
+
+        @Override
+        public List<Long> getManifestCiIds(long manifestId) {
+            roundTrip();
+            ciLookups.incrementAndGet();
+            return Collections.singletonList(manifestId * 10);
+        }
+
+        @Override
+        public Long getManifestId(long ciId) {
+            roundTrip();
+            manifestLookups.incrementAndGet();
+            return ciId / 10;
+        }
+    }
+
+    static class InMemoryOpsEventDao extends OpsEventDao {
+
+        private final int openEvents;
+
+        InMemoryOpsEventDao(int openEvents) {
+            this.openEvents = openEvents;
+        }
+
+        @Override
+        public Observable<OpsEvent> getOpenEvents(int batchSize) {
+            return Observable.create(sub -> {
+                for (long manifestId = 1; manifestId <= openEvents; manifestId++) {
+                    OpsEvent event = new OpsEvent();
+                    event.setCiId(manifestId * 10);
+                    event.setName("compute-load:HighLoad");
+                    event.setSource("compute-load");
+                    event.setState("open");
+                    event.setType("metric");
+                    sub.onNext(event);
+                }
+                sub.onCompleted();
+            });
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package com.oneops.sensor;
 
 import com.google.gson.Gson;
+import com.oneops.sensor.domain.SensorStatement;
 import com.oneops.sensor.domain.ThresholdStatements;
 import com.oneops.sensor.thresholds.ThresholdDef;
 import com.oneops.sensor.thresholds.ThresholdDef.StmtParams;
@@ -29,6 +30,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 
@@ -161,6 +163,38 @@ public class StmtBuilderTest {
         assertEquals(hbStmt, stmt);
     }
 
+    @Test
+    public void sharedTemplateStmtTest() {
+        StmtBuilder builder = new StmtBuilder();
+        builder.setSharedTemplates(true);
+        Gson gson = new Gson();
+
+        Map<String, ThresholdDef> trsholds = new HashMap<>();
+        trsholds.put(NAME_THRESH, THRESH_DEF);
+        String thresholdsJson = gson.toJson(trsholds);
+
+        ThresholdStatements first = builder.getThresholdStatements(1001, SOURCE, 1414141410, thresholdsJson, true, String.valueOf(DURATION));
+        ThresholdStatements second = builder.getThresholdStatements(2002, SOURCE, 1414141410, thresholdsJson, true, String.valueOf(DURATION));
+
+        // Same threshold shape resolves to the same statements regardless of the manifest
+        assertEquals(first.getStmtNames(), second.getStmtNames());
+        assertEquals(first.getStatements().size(), 3);
+        for (SensorStatement stmt : first.getStatements().values()) {
+            assertTrue(stmt.isTemplate());
+            assertTrue(stmt.getFilterText().contains(StmtTemplates.MANIFEST_FILTER));
+            assertFalse(stmt.getStmtText().contains(StmtTemplates.MANIFEST_FILTER));
+            // the template statement reads the stream its filter statements insert into
+            String stream = stmt.getFilterText().split(" ")[2];
+            assertTrue(stmt.getStmtText().contains(stream));
+            assertEquals(stmt.getStmtText(), second.getStatements().get(stmt.getStmtName()).getStmtText());
+            assertEquals(stmt.getFilterText(), second.getStatements().get(stmt.getStmtName()).getFilterText());
+        }
+
+        // Different shape gets a different template
+        ThresholdStatements other = builder.getThresholdStatements(1001, SOURCE, 1414141410, thresholdsJson, true, "1");
+        assertTrue(!first.getStmtNames().equals(other.getStmtNames()));
+    }
+
     private String showJson() {
         Gson gson = new Gson();
         setupParams();
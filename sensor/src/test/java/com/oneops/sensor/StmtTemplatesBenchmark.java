@@ -0,0 +1,191 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.sensor;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.espertech.esper.client.UpdateListener;
+import com.google.gson.Gson;
+import com.oneops.cms.simple.domain.CmsRfcCISimple;
+import com.oneops.ops.dao.OpsEventDao;
+import com.oneops.sensor.events.PerfEvent;
+import com.oneops.sensor.thresholds.ThresholdDef;
+import com.oneops.sensor.thresholds.ThresholdDef.StmtParams;
+import com.oneops.sensor.thresholds.ThresholdsDao;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import rx.Observable;
+
+/**
+ * Compares per manifest statements with shared template statements. Run it with a large heap, eg
+ * <pre>
+ * java -Xmx8g -cp ... com.oneops.sensor.StmtTemplatesBenchmark 10000 100000
+ * </pre>
+ * For each manifest count it reports the number of statements created, heap used after the load
+ * and the perf events per second pushed through the engine. <code>-Dmodes=shared</code> leaves out the
+ * per manifest statements, which need about 5GB of heap at 100k manifests.
+ */
+public class StmtTemplatesBenchmark {
+
+    private static final String SOURCE = "compute-cpu";
+    private static final int SHAPES = 50;
+    private static final int EVENTS = 200000;
+
+    private final Gson gson = new Gson();
+    private final Random random = new Random(42);
+
+    public static void main(String[] args) throws Exception {
+        int[] manifestCounts = args.length > 0 ? new int[args.length] : new int[]{10000, 100000};
+        for (int i = 0; i < args.length; i++) {
+            manifestCounts[i] = Integer.parseInt(args[i]);
+        }
+        List<String> modes = Arrays.asList(System.getProperty("modes", "manifest,shared").split(","));
+        StmtTemplatesBenchmark benchmark = new StmtTemplatesBenchmark();
+        for (int manifests : manifestCounts) {
+            if (modes.contains("manifest")) {
+                benchmark.run(manifests, false);
+            }
+            if (modes.contains("shared")) {
+                benchmark.run(manifests, true);
+            }
+        }
+    }
+
+    private void run(int manifests, boolean shared) throws Exception {
+        StmtBuilder stmtBuilder = new StmtBuilder();
+        stmtBuilder.setSharedTemplates(shared);
+        AtomicLong fired = new AtomicLong();
+        Sensor sensor = newSensor(stmtBuilder, fired);
+
+        long heapBefore = usedHeap();
+        long start = System.currentTimeMillis();
+        for (long manifestId = 1; manifestId <= manifests; manifestId++) {
+            sensor.addCiThresholdsList(manifestId * 10, manifestId, monitors((int) (manifestId % SHAPES)));
+        }
+        long loadTime = System.currentTimeMillis() - start;
+        long heapUsed = usedHeap() - heapBefore;
+        int stmts = sensor.getEpService().getEPAdministrator().getStatementNames().length;
+
+        long evaluated = sensor.getEpService().getEPRuntime().getNumEventsEvaluated();
+        start = System.currentTimeMillis();
+        for (int i = 0; i < EVENTS; i++) {
+            long manifestId = 1 + random.nextInt(manifests);
+            PerfEvent event = new PerfEvent();
+            event.setCiId(manifestId * 10);
+            event.setManifestId(manifestId);
+            event.setSource(SOURCE);
+            event.setBucket("5m");
+            event.setTimestamp(System.currentTimeMillis());
+            event.getMetrics().addAvg("CpuIdle", random.nextDouble() * 100);
+            sensor.sendCEPEvent(event);
+        }
+        awaitIdle(sensor, evaluated);
+        long sendTime = Math.max(1, System.currentTimeMillis() - start);
+
+        System.out.println(String.format("mode=%-8s manifests=%-7d statements=%-7d templates=%-4d load=%dms heap=%dMB events/sec=%d fired=%d",
+                shared ? "shared" : "manifest", manifests, stmts, sensor.getStmtTemplates().getTemplateCount(), loadTime,
+                heapUsed / (1024 * 1024), EVENTS * 1000L / sendTime, fired.get()));
+        sensor.stop();
+    }
+
+    private Sensor newSensor(StmtBuilder stmtBuilder, AtomicLong fired) throws Exception {
+        ThresholdsDao tsDao = mock(ThresholdsDao.class);
+        when(tsDao.getAllThreshold(anyInt(), any())).thenReturn(Observable.empty());
+        OpsEventDao opsEventDao = mock(OpsEventDao.class);
+        when(opsEventDao.getOpenEvents(anyInt())).thenReturn(Observable.empty());
+
+        UpdateListener listener = (newEvents, oldEvents) -> fired.incrementAndGet();
+        Map<String, UpdateListener> listeners = new HashMap<>();
+        listeners.put("OpsEventListener", listener);
+        listeners.put("CloseEventListener", listener);
+        listeners.put("ChannelDownListener", listener);
+
+        Sensor sensor = new Sensor();
+        sensor.setStmtBuilder(stmtBuilder);
+        sensor.setTsDao(tsDao);
+        sensor.setOpsEventDao(opsEventDao);
+        sensor.setListeners(listeners);
+        sensor.setLoadStatementTimeOut(1);
+        sensor.init(1, 1);
+        return sensor;
+    }
+
+    private List<CmsRfcCISimple> monitors(int shape) {
+        ThresholdDef def = new ThresholdDef();
+        def.setBucket("5m");
+        def.setCooloff("15");
+        def.setMetric("CpuIdle");
+        def.setStat("avg");
+        def.setState("notify");
+
+        StmtParams trigger = def.new StmtParams();
+        trigger.setNumocc(3);
+        trigger.setOperator("<=");
+        trigger.setValue(10 + shape);
+        trigger.setDuration(5);
+        def.setTrigger(trigger);
+
+        StmtParams reset = def.new StmtParams();
+        reset.setNumocc(1);
+        reset.setOperator(">");
+        reset.setValue(20 + shape);
+        reset.setDuration(5);
+        def.setReset(reset);
+
+        Map<String, ThresholdDef> thresholds = new HashMap<>();
+        thresholds.put("HighCpuUtil", def);
+
+        CmsRfcCISimple monitor = new CmsRfcCISimple();
+        monitor.setCiName(SOURCE);
+        monitor.addCiAttribute("thresholds", gson.toJson(thresholds));
+        monitor.addCiAttribute("heartbeat", "true");
+        monitor.addCiAttribute("duration", "5");
+
+        List<CmsRfcCISimple> monitors = new ArrayList<>(1);
+        monitors.add(monitor);
+        return monitors;
+    }
+
+    private void awaitIdle(Sensor sensor, long evaluated) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60000;
+        long last = -1;
+        long current = sensor.getEpService().getEPRuntime().getNumEventsEvaluated();
+        while ((current - evaluated < EVENTS || current != last) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            last = current;
+            current = sensor.getEpService().getEPRuntime().getNumEventsEvaluated();
+        }
+    }
+
+    private long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
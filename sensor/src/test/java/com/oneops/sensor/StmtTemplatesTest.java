@@ -0,0 +1,153 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.sensor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.espertech.esper.client.Configuration;
+import com.espertech.esper.client.EPServiceProvider;
+import com.espertech.esper.client.EPServiceProviderManager;
+import com.espertech.esper.client.EventBean;
+import com.oneops.sensor.domain.SensorStatement;
+import com.oneops.sensor.events.PerfEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.testng.annotations.Test;
+
+public class StmtTemplatesTest {
+
+    private static final String TEMPLATE = "compute-load:HighLoad-1-trigger";
+
+    private static final String FILTER = "insert into PerfEvent_load select * from PerfEvent("
+            + StmtTemplates.MANIFEST_FILTER + " and source = 'compute-load')";
+
+    private final SensorStatement template = template("select manifestId from PerfEvent_load");
+
+    @Test
+    public void splitsManifestsInStatements() {
+        StmtTemplates templates = new StmtTemplates(2);
+
+        assertEquals(templates.bind(template, 1), TEMPLATE + "#0");
+        assertNull(templates.bind(template, 1));
+        assertEquals(templates.bind(template, 2), TEMPLATE + "#0");
+        assertEquals(templates.bind(template, 3), TEMPLATE + "#1");
+        assertTrue(templates.isTemplate(TEMPLATE));
+        assertEquals(templates.getTemplateCount(), 1);
+        assertEquals(templates.getBindingCount(), 3);
+        assertEquals(templates.getStmtText(TEMPLATE + "#0"),
+                "insert into PerfEvent_load select * from PerfEvent(manifestId in (1, 2) and source = 'compute-load')");
+        assertEquals(templates.getStmtText(TEMPLATE), "select manifestId from PerfEvent_load");
+        assertEquals(templates.getStmtNames(), Arrays.asList(TEMPLATE + "#0", TEMPLATE + "#1", TEMPLATE));
+
+        // the freed room is reused
+        assertEquals(templates.unbind(TEMPLATE, 1), TEMPLATE + "#0");
+        assertEquals(templates.getStmtText(TEMPLATE + "#0"),
+                "insert into PerfEvent_load select * from PerfEvent(manifestId in (2) and source = 'compute-load')");
+        assertEquals(templates.bind(template, 4), TEMPLATE + "#0");
+
+        assertEquals(templates.unbind(TEMPLATE, 3), TEMPLATE + "#1");
+        assertNull(templates.getStmtText(TEMPLATE + "#1"));
+        assertNull(templates.unbind(TEMPLATE, 3));
+        assertEquals(templates.getStmtNames(), Arrays.asList(TEMPLATE + "#0", TEMPLATE));
+
+        templates.unbind(TEMPLATE, 2);
+        templates.unbind(TEMPLATE, 4);
+        assertFalse(templates.isTemplate(TEMPLATE));
+        assertNull(templates.getStmtText(TEMPLATE));
+        assertEquals(templates.getBindingCount(), 0);
+    }
+
+    @Test
+    public void filtersBoundManifests() {
+        Configuration cfg = new Configuration();
+        cfg.addEventType("PerfEvent", PerfEvent.class.getName());
+        EPServiceProvider epService = EPServiceProviderManager.getProvider(StmtTemplatesTest.class.getName(), cfg);
+        try {
+            StmtTemplates templates = new StmtTemplates(1000);
+            templates.bind(template, 1);
+            String stmtName = templates.bind(template, 2);
+            epService.getEPAdministrator().createEPL(templates.getStmtText(stmtName), stmtName);
+            List<Long> matched = new ArrayList<>();
+            epService.getEPAdministrator().createEPL(templates.getStmtText(TEMPLATE), TEMPLATE)
+                    .addListener((newEvents, oldEvents) -> {
+                        for (EventBean event : newEvents) {
+                            matched.add((Long) event.get("manifestId"));
+                        }
+                    });
+
+            for (long manifestId = 1; manifestId <= 3; manifestId++) {
+                send(epService, manifestId);
+            }
+
+            assertEquals(matched, Arrays.asList(1L, 2L));
+        } finally {
+            epService.destroy();
+        }
+    }
+
+    @Test
+    public void keepsStateOnRebind() {
+        Configuration cfg = new Configuration();
+        cfg.addEventType("PerfEvent", PerfEvent.class.getName());
+        EPServiceProvider epService = EPServiceProviderManager.getProvider(StmtTemplatesTest.class.getName() + "-state", cfg);
+        try {
+            SensorStatement counting = template("select manifestId, count(*) as count from PerfEvent_load.win:keepall() group by manifestId");
+            StmtTemplates templates = new StmtTemplates(1000);
+            String stmtName = templates.bind(counting, 1);
+            epService.getEPAdministrator().createEPL(templates.getStmtText(stmtName), stmtName);
+            List<Long> counts = new ArrayList<>();
+            epService.getEPAdministrator().createEPL(templates.getStmtText(TEMPLATE), TEMPLATE)
+                    .addListener((newEvents, oldEvents) -> {
+                        for (EventBean event : newEvents) {
+                            counts.add((Long) event.get("count"));
+                        }
+                    });
+            send(epService, 1);
+
+            // binding another manifest re-creates the filter statement the way the sensor does
+            templates.bind(counting, 2);
+            epService.getEPAdministrator().getStatement(stmtName).destroy();
+            epService.getEPAdministrator().createEPL(templates.getStmtText(stmtName), stmtName);
+            send(epService, 2);
+            send(epService, 1);
+
+            // manifest 1 still has its first event in the window
+            assertEquals(counts, Arrays.asList(1L, 1L, 2L));
+        } finally {
+            epService.destroy();
+        }
+    }
+
+    private static SensorStatement template(String stmtText) {
+        SensorStatement stmt = new SensorStatement(TEMPLATE, stmtText, null);
+        stmt.setFilterText(FILTER);
+        stmt.setTemplate(true);
+        return stmt;
+    }
+
+    private static void send(EPServiceProvider epService, long manifestId) {
+        PerfEvent event = new PerfEvent();
+        event.setManifestId(manifestId);
+        event.setSource("compute-load");
+        epService.getEPRuntime().sendEvent(event);
+    }
+}
@@ -17,16 +17,25 @@
  *******************************************************************************/
 package com.oneops.sensor.jms;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.ObjectMessage;
 import org.testng.annotations.*;
 
 import com.oneops.sensor.Sensor;
 import com.oneops.sensor.events.BasicEvent;
+import com.oneops.sensor.events.PerfEvent;
+import com.oneops.sensor.events.PerfEventCodec;
 import com.oneops.sensor.jms.SensorListener;
 import com.oneops.sensor.util.SensorHeartBeat;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
 
 
 public class SensorListenerTest {
@@ -63,4 +72,63 @@ public class SensorListenerTest {
 		
 		listen.onMessage(msg);
 	}
+
+	@Test
+	/* binary batch is decoded and every event goes to the engine */
+	public void testOnBytesMessage() throws Exception{
+		SensorListener listen = new SensorListener();
+		Sensor sensor = mock(Sensor.class);
+		listen.setSensor(sensor);
+		listen.setSensorHeartBeat(mock(SensorHeartBeat.class));
+
+		List<PerfEvent> events = new ArrayList<>();
+		for (int i = 1; i <= 3; i++) {
+			PerfEvent event = new PerfEvent();
+			event.setCiId(i);
+			event.setSource("compute-cpu");
+			event.getMetrics().addAvg("CpuIdle", 10.0 * i);
+			events.add(event);
+		}
+		BytesMessage msg = bytesMessage(PerfEventCodec.encode(events), PerfEventCodec.FORMAT);
+
+		listen.onMessage(msg);
+		verify(sensor, times(3)).sendCEPEvent(any(BasicEvent.class));
+		verify(msg).acknowledge();
+		assertEquals(listen.getDroppedCounter(), 0);
+	}
+
+	@Test
+	/* batches of an unknown format or version are acknowledged and counted as dropped */
+	public void testOnBytesMessageUnknownVersion() throws Exception{
+		SensorListener listen = new SensorListener();
+		Sensor sensor = mock(Sensor.class);
+		listen.setSensor(sensor);
+		listen.setSensorHeartBeat(mock(SensorHeartBeat.class));
+
+		PerfEvent event = new PerfEvent();
+		event.setCiId(1);
+		byte[] data = PerfEventCodec.encode(Collections.singletonList(event));
+		data[0] = PerfEventCodec.VERSION + 1;
+		BytesMessage newerVersion = bytesMessage(data, PerfEventCodec.FORMAT);
+		BytesMessage newerFormat = bytesMessage(data, "perf-bin-" + (PerfEventCodec.VERSION + 1));
+
+		listen.onMessage(newerVersion);
+		listen.onMessage(newerFormat);
+		verify(sensor, never()).sendCEPEvent(any(BasicEvent.class));
+		verify(newerVersion).acknowledge();
+		verify(newerFormat).acknowledge();
+		assertEquals(listen.getDroppedCounter(), 2);
+	}
+
+	private static BytesMessage bytesMessage(byte[] data, String format) throws JMSException {
+		BytesMessage msg = mock(BytesMessage.class);
+		when(msg.getStringProperty(PerfEventCodec.FORMAT_PROPERTY)).thenReturn(format);
+		when(msg.getBodyLength()).thenReturn((long) data.length);
+		doAnswer(invocation -> {
+			byte[] buf = (byte[]) invocation.getArguments()[0];
+			System.arraycopy(data, 0, buf, 0, data.length);
+			return data.length;
+		}).when(msg).readBytes(any(byte[].class));
+		return msg;
+	}
 }
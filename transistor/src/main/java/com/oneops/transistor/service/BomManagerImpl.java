@@ -18,6 +18,10 @@
 package com.oneops.transistor.service;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -60,6 +64,8 @@ public class BomManagerImpl implements BomManager {
 	private CmsDpmtProcessor dpmtProcessor;
 	private CmsUtil cmsUtil;
 	private CloudUtil cloudUtil;
+	private ExecutorService executorService;
+	private Semaphore concurrentGenerations = new Semaphore(4);
 	private Gson gson = new Gson();
 
 	public void setCloudUtil(CloudUtil cloudUtil) {
@@ -94,6 +100,23 @@ public class BomManagerImpl implements BomManager {
 		this.dpmtProcessor = dpmtProcessor;
 	}
 
+	/**
+	 * Prepares the platforms of an exec order level concurrently on the executor, sequentially without one.
+	 */
+	public void setExecutorService(ExecutorService executorService) {
+		this.executorService = executorService;
+	}
+
+	/**
+	 * Sets the number of generations that prepare their platforms on the executor at once, the others prepare them
+	 * on the calling thread. A generation keeps the db connection of its transaction while it waits for its
+	 * platforms, which are read on the executor with connections of their own, so it must stay below the db
+	 * connection pool size.
+	 */
+	public void setConcurrentGenerations(int concurrentGenerations) {
+		this.concurrentGenerations = new Semaphore(concurrentGenerations);
+	}
+
 	@Override
 	public Map<String, Object> generateAndDeployBom(long envId, String userId, Set<Long> excludePlats, CmsDeployment dpmt, boolean commit) {
 		Map<String, Object> bomInfo = generateBomForClouds(envId, userId, excludePlats, dpmt.getComments(), commit);
@@ -123,9 +146,10 @@ public class BomManagerImpl implements BomManager {
 		trUtil.verifyAndCreateNS(bomNsPath);
 		trUtil.lockNS(bomNsPath);
 
+		boolean manifestCommitted = false;
 		if (commit) {
 			//get open manifest release and soft commit it (no real deletes)
-			commitManifestRelease(manifestNsPath, bomNsPath, userId, desc);
+			manifestCommitted = commitManifestRelease(manifestNsPath, bomNsPath, userId, desc);
 		}
 
 		List<CmsRelease> bomReleases = bomRfcProcessor.getReleaseBy3(bomNsPath, null, "open");
@@ -150,7 +174,16 @@ public class BomManagerImpl implements BomManager {
 
 		context.load();
 
-		int execOrder = generateBomForActiveClouds(context);
+		// the executor threads read outside of the transaction, they wouldn't see the manifest committed in it
+		boolean concurrent = executorService != null && !manifestCommitted && concurrentGenerations.tryAcquire();
+		int execOrder;
+		try {
+			execOrder = generateBomForActiveClouds(context, concurrent);
+		} finally {
+			if (concurrent) {
+				concurrentGenerations.release();
+			}
+		}
 		generateBomForOfflineClouds(context, execOrder);
 
 		long rfcCiCount = 0;
@@ -210,9 +243,9 @@ public class BomManagerImpl implements BomManager {
 		return bomInfo;
 	}
 
-	private int generateBomForActiveClouds(EnvBomGenerationContext context) {
+	private int generateBomForActiveClouds(EnvBomGenerationContext context, boolean concurrent) {
 		String envManifestNsPath = context.getManifestNsPath();
-		logger.info(envManifestNsPath + " >>> Starting generating BOM for active clouds... ");
+		logger.info(envManifestNsPath + " >>> Starting generating BOM for active clouds" + (concurrent ? ", preparing platforms concurrently" : "") + "... ");
 		long globalStartTime = System.currentTimeMillis();
 
 		Map<Integer, List<CmsCI>> platsToProcess = getOrderedPlatforms(context);
@@ -227,48 +260,63 @@ public class BomManagerImpl implements BomManager {
 			if (platsToProcess.containsKey(i)) {
 				startingExecOrder = (startingExecOrder > 1) ? startingExecOrder + 1 : startingExecOrder;
 				int stepMaxOrder = 0;
-				for (CmsCI platform : platsToProcess.get(i)) {
-					long platStartTime = System.currentTimeMillis();
-					List<CmsCIRelation> platformCloudRels = cmProcessor.getFromCIRelations(platform.getCiId(), BASE_CONSUMES, "account.Cloud");
-					if (platformCloudRels.size() == 0) {
-						//if platform does not have a relation to the cloud - consider it disabled
-						continue;
-					}
-
-					if (checkSecondary) {
-						check4Secondary(context.loadPlatformContext(platform), platformCloudRels);
-					} else {
-						logger.info("check secondary not configured.");
+				List<CmsCI> platforms = platsToProcess.get(i);
+				// the platforms of a level don't depend on each other, they are loaded and expanded on the executor
+				// while the rfcs are created here one platform after the other, in the order and with the exec orders
+				// of the sequential generation
+				List<Future<Map<Long, BomRfcBulkProcessor.PlatformCloudBom>>> preparedPlatforms = new ArrayList<>();
+				if (concurrent) {
+					for (CmsCI platform : platforms) {
+						preparedPlatforms.add(executorService.submit(() -> preparePlatform(context, platform)));
 					}
+				}
+				try {
+					for (int p = 0; p < platforms.size(); p++) {
+						CmsCI platform = platforms.get(p);
+						long platStartTime = System.currentTimeMillis();
+						Map<Long, BomRfcBulkProcessor.PlatformCloudBom> platformBoms = concurrent ? await(preparedPlatforms.get(p)) : null;
+						List<CmsCIRelation> platformCloudRels = context.getPlatformCloudRelations(platform);
+						if (platformCloudRels.size() == 0) {
+							//if platform does not have a relation to the cloud - consider it disabled
+							continue;
+						}
 
-					int platExecOrder = startingExecOrder;
-					int thisPlatMaxExecOrder = 0;
-					SortedMap<Integer, SortedMap<Integer, List<CmsCIRelation>>> orderedClouds = getOrderedClouds(platformCloudRels, false);
-					for (SortedMap<Integer, List<CmsCIRelation>> priorityClouds : orderedClouds.values()) {
-						for (List<CmsCIRelation> orderCloud : priorityClouds.values()) {
-							for (CmsCIRelation platformCloudRel : orderCloud) {
-								//now we need to check if the cloud is active for this given platform
-								CmsCIRelationAttribute adminstatus = platformCloudRel.getAttribute("adminstatus");
-								if (adminstatus != null && !CmsConstants.CLOUD_STATE_ACTIVE.equals(adminstatus.getDjValue())) {
-									continue;
-								}
+						if (!concurrent) {
+							check4Secondary(context, platform, platformCloudRels);
+						}
 
-								// Must load platform context again in case it was dirty after variable interpolation - the 'loadPlatformContext'
-								// is smart to do partial reload if necessary.
-								PlatformBomGenerationContext platformContext = context.loadPlatformContext(platform);
-								int maxExecOrder;
-								if (context.getDisabledPlatformIds().contains(platform.getCiId()) || platform.getCiState().equalsIgnoreCase("pending_deletion")) {
-									maxExecOrder = bomGenerationProcessor.deleteManifestPlatform(context, platformContext, platformCloudRel, platExecOrder);
-								} else {
-									maxExecOrder = bomGenerationProcessor.processManifestPlatform(context, platformContext, platformCloudRel, platExecOrder, true);
+						int platExecOrder = startingExecOrder;
+						int thisPlatMaxExecOrder = 0;
+						SortedMap<Integer, SortedMap<Integer, List<CmsCIRelation>>> orderedClouds = getOrderedClouds(platformCloudRels, false);
+						for (SortedMap<Integer, List<CmsCIRelation>> priorityClouds : orderedClouds.values()) {
+							for (List<CmsCIRelation> orderCloud : priorityClouds.values()) {
+								for (CmsCIRelation platformCloudRel : orderCloud) {
+									//now we need to check if the cloud is active for this given platform
+									if (!isActive(platformCloudRel)) {
+										continue;
+									}
+
+									int maxExecOrder;
+									if (isDeleted(context, platform)) {
+										maxExecOrder = bomGenerationProcessor.deleteManifestPlatform(context, context.loadPlatformContext(platform), platformCloudRel, platExecOrder);
+									} else {
+										BomRfcBulkProcessor.PlatformCloudBom platformBom = concurrent ? platformBoms.get(platformCloudRel.getCiRelationId())
+												// Must load platform context again in case it was dirty after variable interpolation - the 'loadPlatformContext'
+												// is smart to do partial reload if necessary.
+												: bomGenerationProcessor.prepareManifestPlatform(context, context.loadPlatformContext(platform), platformCloudRel, true);
+										maxExecOrder = bomGenerationProcessor.processManifestPlatform(context, platformBom, platExecOrder);
+									}
+									stepMaxOrder = (maxExecOrder > stepMaxOrder) ? maxExecOrder : stepMaxOrder;
+									thisPlatMaxExecOrder = (maxExecOrder > thisPlatMaxExecOrder) ? maxExecOrder : thisPlatMaxExecOrder;
 								}
-								stepMaxOrder = (maxExecOrder > stepMaxOrder) ? maxExecOrder : stepMaxOrder;
-								thisPlatMaxExecOrder = (maxExecOrder > thisPlatMaxExecOrder) ? maxExecOrder : thisPlatMaxExecOrder;
+								platExecOrder = (thisPlatMaxExecOrder > platExecOrder) ? thisPlatMaxExecOrder + 1 : platExecOrder;
 							}
-							platExecOrder = (thisPlatMaxExecOrder > platExecOrder) ? thisPlatMaxExecOrder + 1 : platExecOrder;
 						}
+						logger.info(platform.getNsPath() + " >>> Done generating BOM for platform " + platform.getCiName() + "for all active clouds in " + (System.currentTimeMillis() - platStartTime) + " ms.");
 					}
-					logger.info(platform.getNsPath() + " >>> Done generating BOM for platform " + platform.getCiName() + "for all active clouds in " + (System.currentTimeMillis() - platStartTime) + " ms.");
+				} finally {
+					// stop preparing the rest of the level if a platform failed
+					preparedPlatforms.forEach(f -> f.cancel(true));
 				}
 				startingExecOrder = (stepMaxOrder > 0) ? stepMaxOrder + 1 : startingExecOrder;
 			}
@@ -278,6 +326,61 @@ public class BomManagerImpl implements BomManager {
 		return startingExecOrder;
 	}
 
+	/**
+	 * Loads the platform context for each active cloud of the platform and expands the manifest into the bom nodes.
+	 * Only reads, the rfcs are created by the caller.
+	 *
+	 * @return the bom nodes by the id of the relation to the cloud, nothing for a platform being deleted
+	 */
+	private Map<Long, BomRfcBulkProcessor.PlatformCloudBom> preparePlatform(EnvBomGenerationContext context, CmsCI platform) {
+		Map<Long, BomRfcBulkProcessor.PlatformCloudBom> platformBoms = new HashMap<>();
+		List<CmsCIRelation> platformCloudRels = context.getPlatformCloudRelations(platform);
+		if (platformCloudRels.size() == 0) {
+			return platformBoms;
+		}
+		check4Secondary(context, platform, platformCloudRels);
+		if (!isDeleted(context, platform)) {
+			for (CmsCIRelation platformCloudRel : platformCloudRels) {
+				if (isActive(platformCloudRel)) {
+					platformBoms.put(platformCloudRel.getCiRelationId(),
+							bomGenerationProcessor.prepareManifestPlatform(context, context.loadPlatformContext(platform), platformCloudRel, true));
+				}
+			}
+		}
+		return platformBoms;
+	}
+
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TransistorException(CmsError.TRANSISTOR_BOM_GENERATION_FAILED, "Interrupted while generating BOM");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new TransistorException(CmsError.TRANSISTOR_BOM_GENERATION_FAILED, e.getCause().getMessage());
+		}
+	}
+
+	private void check4Secondary(EnvBomGenerationContext context, CmsCI platform, List<CmsCIRelation> platformCloudRels) {
+		if (checkSecondary) {
+			check4Secondary(context.loadPlatformContext(platform), platformCloudRels);
+		} else {
+			logger.info("check secondary not configured.");
+		}
+	}
+
+	private static boolean isActive(CmsCIRelation platformCloudRel) {
+		CmsCIRelationAttribute adminstatus = platformCloudRel.getAttribute("adminstatus");
+		return adminstatus == null || CmsConstants.CLOUD_STATE_ACTIVE.equals(adminstatus.getDjValue());
+	}
+
+	private static boolean isDeleted(EnvBomGenerationContext context, CmsCI platform) {
+		return context.getDisabledPlatformIds().contains(platform.getCiId()) || platform.getCiState().equalsIgnoreCase("pending_deletion");
+	}
+
 	private Set<Long> getPlatformIds(Map<Integer, List<CmsCI>> platsToProcess) {
 		return platsToProcess.entrySet()
 				.stream()
@@ -364,7 +467,7 @@ public class BomManagerImpl implements BomManager {
 				int stepMaxOrder = 0;
 				for (CmsCI platform : platsToProcess.get(i)) {
 					//now we need to check if the cloud is active for this given platform
-					List<CmsCIRelation> platformCloudRels = cmProcessor.getFromCIRelations(platform.getCiId(), BASE_CONSUMES, "account.Cloud");
+					List<CmsCIRelation> platformCloudRels = context.getPlatformCloudRelations(platform);
 					if (platformCloudRels.size() == 0) {
 						//if platform does not have a relation to the cloud - consider it disabled
 						continue;
@@ -498,7 +601,7 @@ public class BomManagerImpl implements BomManager {
 		}
 	}
 
-	private void commitManifestRelease(String manifestNsPath, String bomNsPath, String userId, String desc) {
+	private boolean commitManifestRelease(String manifestNsPath, String bomNsPath, String userId, String desc) {
 		List<CmsRelease> manifestReleases = manifestRfcProcessor.getReleaseBy3(manifestNsPath, null, "open");
 		for (CmsRelease release : manifestReleases) {
 			manifestRfcProcessor.commitRelease(release.getReleaseId(), true, null,false,userId, desc);
@@ -520,6 +623,7 @@ public class BomManagerImpl implements BomManager {
 				manifestRfcProcessor.updateRelease(bomRel);
 			}
 		}
+		return manifestReleases.size() > 0;
 	}
 
 	@Override
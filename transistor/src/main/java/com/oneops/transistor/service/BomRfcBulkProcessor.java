@@ -88,26 +88,23 @@ public class BomRfcBulkProcessor {
 	}
 
 	public int processManifestPlatform(EnvBomGenerationContext ec, PlatformBomGenerationContext pc, CmsCIRelation bindingRel, int startExecOrder, boolean usePercent) {
-		long startingTime = System.currentTimeMillis();
+		return processManifestPlatform(ec, prepareManifestPlatform(ec, pc, bindingRel, usePercent), startExecOrder);
+	}
 
-		int maxExecOrder = 0;
-		CmsCI platformCi = pc.getPlatform();
-		String bomNsPath = pc.getBomNsPath();
+	/**
+	 * Interpolates the variables of the manifest cis for the cloud and expands them into the bom nodes of the
+	 * platform. Doesn't read or write rfcs, the platforms of an exec order level can be prepared concurrently.
+	 */
+	PlatformCloudBom prepareManifestPlatform(EnvBomGenerationContext ec, PlatformBomGenerationContext pc, CmsCIRelation bindingRel, boolean usePercent) {
+		PlatformCloudBom platformBom = new PlatformCloudBom(pc, bindingRel, usePercent);
 		CmsCI cloud = bindingRel.getToCi();
 
-		logger.info(bomNsPath + " >>> Start working on cloud - " + cloud.getCiName() + " (" + cloud.getCiId()	+ ")");
+		logger.info(pc.getBomNsPath() + " >>> Start working on cloud - " + cloud.getCiName() + " (" + cloud.getCiId()	+ ")");
 		List<CmsCI> components = pc.getComponents();
 		if (components.size() > 0) {
-			if (startExecOrder <= priorityMax) {
-				startExecOrder = priorityMax + 1;
-			}
-
-			long nsId = trUtil.verifyAndCreateNS(bomNsPath);
-
-			boolean isPartial = false;
 			for (CmsCIRelation rel : pc.getDependsOns()) {
 				if (rel.getAttribute("pct_dpmt") != null && !"100".equals(rel.getAttribute("pct_dpmt").getDjValue())){
-					isPartial = true;
+					platformBom.isPartial = true;
 					break;
 				}
 			}
@@ -137,6 +134,34 @@ public class BomRfcBulkProcessor {
 			for(BomRfc bom : bomRfcs) {
 				bom.mfstCi = trUtil.cloneCI(bom.mfstCi);
 			}
+			platformBom.bomRfcs = bomRfcs;
+		}
+		return platformBom;
+	}
+
+	/**
+	 * Creates the rfcs of the prepared platform for the cloud, starting at the exec order.
+	 *
+	 * @return the max exec order of the rfcs
+	 */
+	int processManifestPlatform(EnvBomGenerationContext ec, PlatformCloudBom platformBom, int startExecOrder) {
+		int maxExecOrder = 0;
+		PlatformBomGenerationContext pc = platformBom.pc;
+		CmsCIRelation bindingRel = platformBom.bindingRel;
+		CmsCI platformCi = pc.getPlatform();
+		String bomNsPath = pc.getBomNsPath();
+		CmsCI cloud = bindingRel.getToCi();
+
+		List<CmsCI> components = pc.getComponents();
+		List<BomRfc> bomRfcs = platformBom.bomRfcs;
+		if (bomRfcs != null) {
+			if (startExecOrder <= priorityMax) {
+				startExecOrder = priorityMax + 1;
+			}
+
+			long nsId = trUtil.verifyAndCreateNS(bomNsPath);
+			boolean isPartial = platformBom.isPartial;
+			boolean usePercent = platformBom.usePercent;
 
 			List<CmsCI> existingCIs = pc.getBomCIs(bindingRel.getToCiId());
 			Map<String, CmsRfcCI> existingRfcCIs = getOpenRfcCis(bomNsPath);
@@ -173,7 +198,7 @@ public class BomRfcBulkProcessor {
 			}
 		}
 
-		long timeTook = System.currentTimeMillis() - startingTime;
+		long timeTook = System.currentTimeMillis() - platformBom.startingTime;
 		logger.info(bomNsPath + " >>> Done with " + platformCi.getCiName() + ", cloud - " + cloud.getCiName() + " in " + timeTook + " ms.");
 		return maxExecOrder;
 	}
@@ -1349,6 +1374,24 @@ public class BomRfcBulkProcessor {
 		return nsParts[nsParts.length - 2] + "(" + nsParts[nsParts.length - 1] + ")";
 	}
 
+	/**
+	 * The bom nodes of a platform for a cloud, before the rfcs are created.
+	 */
+	class PlatformCloudBom {
+		private final long startingTime = System.currentTimeMillis();
+		private final PlatformBomGenerationContext pc;
+		private final CmsCIRelation bindingRel;
+		private final boolean usePercent;
+		private boolean isPartial = false;
+		private List<BomRfc> bomRfcs;
+
+		private PlatformCloudBom(PlatformBomGenerationContext pc, CmsCIRelation bindingRel, boolean usePercent) {
+			this.pc = pc;
+			this.bindingRel = bindingRel;
+			this.usePercent = usePercent;
+		}
+	}
+
 	private class BomRfc  {
 		long manifestCiId;
 		CmsCI mfstCi;
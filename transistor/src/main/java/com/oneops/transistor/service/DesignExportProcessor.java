@@ -875,6 +875,8 @@ public class DesignExportProcessor {
 				}
 			}
 		}
+		// the attributes are written past the cm processor
+		cmProcessor.invalidateCi(designCi.getCiId());
 	}
 	
 	private String getPackNsPath(CmsCI platform) {
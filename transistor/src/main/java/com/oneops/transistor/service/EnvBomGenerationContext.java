@@ -8,12 +8,13 @@ import com.oneops.cms.dj.service.CmsRfcProcessor;
 import com.oneops.cms.util.CmsUtil;
 import org.apache.log4j.Logger;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+import static com.oneops.cms.util.CmsConstants.BASE_CONSUMES;
 import static com.oneops.cms.util.CmsConstants.MANIFEST_COMPOSED_OF;
 import static com.oneops.cms.util.CmsConstants.MANIFEST_LINKS_TO;
 
@@ -34,9 +35,12 @@ class EnvBomGenerationContext {
     private Set<Long> disabledPlatformIds;
     private Map<String, String> globalVariables;
 
-    private Map<Long, Map<String, String>> cloudVariableMap = new HashMap<>();
+    // the platforms of an exec order level can be loaded concurrently
+    private Map<Long, Map<String, String>> cloudVariableMap = new ConcurrentHashMap<>();
 
-    private Map<Long, PlatformBomGenerationContext> platformContextMap = new HashMap<>();
+    private Map<Long, List<CmsCIRelation>> platformCloudMap = new ConcurrentHashMap<>();
+
+    private Map<Long, PlatformBomGenerationContext> platformContextMap = new ConcurrentHashMap<>();
 
     private List<CmsCIRelation> linksToRelations;
 
@@ -118,13 +122,14 @@ class EnvBomGenerationContext {
     }
 
     Map<String, String> getCloudVariables(CmsCI cloud) {
-        long cloudId = cloud.getCiId();
-        Map<String, String> vars = cloudVariableMap.get(cloudId);
-        if (vars == null) {
-            vars = cmsUtil.getCloudVars(cloud);
-            cloudVariableMap.put(cloudId, vars);
-        }
-        return vars;
+        return cloudVariableMap.computeIfAbsent(cloud.getCiId(), cloudId -> cmsUtil.getCloudVars(cloud));
+    }
+
+    /**
+     * @return the consumes relations of the platform to its clouds, loaded once for the active and the offline clouds
+     */
+    List<CmsCIRelation> getPlatformCloudRelations(CmsCI platform) {
+        return platformCloudMap.computeIfAbsent(platform.getCiId(), platformId -> cmProcessor.getFromCIRelations(platformId, BASE_CONSUMES, "account.Cloud"));
     }
 
     List<CmsCIRelation> getLinksToRelations() {
@@ -6,6 +6,7 @@ import com.oneops.cms.cm.domain.CmsCIRelation;
 import com.oneops.cms.cm.service.CmsCmProcessor;
 import com.oneops.cms.util.CmsUtil;
 import org.apache.log4j.Logger;
+import org.springframework.beans.BeanUtils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -49,7 +50,9 @@ public class PlatformBomGenerationContext {
         manifestNsPath = pc.manifestNsPath;
         bomNsPath = pc.bomNsPath;
         variables = pc.variables;
-        manifestRelationMap = pc.manifestRelationMap;
+        // set the reloaded CIs on copies of the relations, the rfcs of the previous clouds may not be created yet
+        manifestRelationMap = new HashMap<>();
+        pc.manifestRelationMap.forEach((relationName, rels) -> manifestRelationMap.put(relationName, rels.stream().map(PlatformBomGenerationContext::copy).collect(Collectors.toList())));
         loadManifestCIs(cmProcessor);   // have to reload manifest CIs because they could be "dirty" after variable interpolation
         bomRelations = pc.bomRelations;
 
@@ -139,6 +142,12 @@ public class PlatformBomGenerationContext {
         });
     }
 
+    private static CmsCIRelation copy(CmsCIRelation rel) {
+        CmsCIRelation copy = new CmsCIRelation();
+        BeanUtils.copyProperties(rel, copy);
+        return copy;
+    }
+
     String getManifestNsPath() {
         return manifestNsPath;
     }
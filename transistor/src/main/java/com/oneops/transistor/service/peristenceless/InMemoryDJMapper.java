@@ -161,6 +161,14 @@ public class InMemoryDJMapper implements DJMapper{
         return cis.get(rfcId);
     }
 
+    @Override
+    public List<CmsRfcCI> getRfcCIByIdList(List<Long> rfcIds) {
+        return rfcIds.stream()
+                .map(cis::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
     @Override
     public CmsRfcCI getOpenRfcCIByCiId(long ciId) {
         for (CmsRfcCI rfc : cis.values()) {
@@ -320,6 +328,25 @@ public class InMemoryDJMapper implements DJMapper{
                         .collect(Collectors.toList());
     }
 
+    @Override
+    public List<CmsRfcRelation> getOpenRfcRelationsByCiIds(List<Long> fromCiIds, List<Long> toCiIds, String relName, String shortRelName, String targetClassName) {
+        return relations.values().stream()
+                        .filter(r -> r.getIsActiveInRelease() &&
+                                     (relName == null || r.getRelationName().equals(relName)) &&
+                                     (fromCiIds == null || fromCiIds.contains(r.getFromCiId())) &&
+                                     (toCiIds == null || toCiIds.contains(r.getToCiId())) &&
+                                     (shortRelName == null || r.getRelationName().endsWith(shortRelName)) &&
+                                     (targetClassName == null || fromCiIds == null || isOfClass(r.getToCiId(), targetClassName)))
+                        .collect(Collectors.toList());
+    }
+
+    private boolean isOfClass(Long ciId, String className) {
+        for (CmsRfcCI rfc : cis.values()) {
+            if (ciId != null && ciId == rfc.getCiId() && className.equals(rfc.getCiClassName())) return true;
+        }
+        return false;
+    }
+
     @Override
     public List<CmsRfcRelation> getOpenFromRfcRelationByTargetClass(long fromCiId, String relName, String shortRelName, String targetClassName) {
         throw new UnsupportedOperationException();
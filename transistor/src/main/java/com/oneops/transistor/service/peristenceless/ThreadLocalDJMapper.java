@@ -137,6 +137,11 @@ public class ThreadLocalDJMapper implements DJMapper{
         return get().getRfcCIById(rfcId);
     }
 
+    @Override
+    public List<CmsRfcCI> getRfcCIByIdList(List<Long> rfcIds) {
+        return get().getRfcCIByIdList(rfcIds);
+    }
+
     @Override
     public CmsRfcCI getOpenRfcCIByCiId(long ciId) {
         return get().getOpenRfcCIByCiId(ciId);
@@ -272,6 +277,11 @@ public class ThreadLocalDJMapper implements DJMapper{
         return get().getOpenRfcRelationBy2(fromCiId, toCiId, relName, shortRelName);
     }
 
+    @Override
+    public List<CmsRfcRelation> getOpenRfcRelationsByCiIds(List<Long> fromCiIds, List<Long> toCiIds, String relName, String shortRelName, String targetClassName) {
+        return get().getOpenRfcRelationsByCiIds(fromCiIds, toCiIds, relName, shortRelName, targetClassName);
+    }
+
     @Override
     public List<CmsRfcRelation> getOpenFromRfcRelationByTargetClass(long fromCiId, String relName, String shortRelName, String targetClassName) {
         return get().getOpenFromRfcRelationByTargetClass(fromCiId, relName, shortRelName, targetClassName);
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.transistor.service;
+
+import com.oneops.transistor.service.peristenceless.InMemoryDJMapper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Time of the sequential and concurrent bom generation of the synthetic environment of
+ * {@link BomGenerationConcurrencyTest} into the in-memory dj mapper, with a fixed time per cms query:
+ * <pre>
+ * java -cp ... com.oneops.transistor.service.BomGenerationConcurrencyBenchmark [platforms] [clouds] [queryMicros] [threads]
+ * </pre>
+ */
+public class BomGenerationConcurrencyBenchmark {
+
+    public static void main(String[] args) {
+        int platforms = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int clouds = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        long queryMicros = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // warm up
+            BomGenerationConcurrencyTest.generate(platforms, clouds, 0, null);
+            BomGenerationConcurrencyTest.generate(platforms, clouds, 0, executor);
+
+            long start = System.nanoTime();
+            InMemoryDJMapper sequential = BomGenerationConcurrencyTest.generate(platforms, clouds, queryMicros, null);
+            long sequentialMs = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            InMemoryDJMapper concurrent = BomGenerationConcurrencyTest.generate(platforms, clouds, queryMicros, executor);
+            long concurrentMs = (System.nanoTime() - start) / 1000000;
+
+            if (!BomGenerationConcurrencyTest.rfcs(concurrent).equals(BomGenerationConcurrencyTest.rfcs(sequential))) {
+                throw new IllegalStateException("concurrent generation differs from the sequential one");
+            }
+            System.out.println(String.format("%d platforms, %d clouds, %d rfcs, %dus per query: sequential %d ms, concurrent on %d threads %d ms",
+                    platforms, clouds, sequential.getCis().size() + sequential.getRelations().size(), queryMicros, sequentialMs, threads, concurrentMs));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.transistor.service;
+
+import com.oneops.cms.cm.dal.CIMapper;
+import com.oneops.cms.cm.domain.CmsCI;
+import com.oneops.cms.cm.domain.CmsCIAttribute;
+import com.oneops.cms.cm.domain.CmsCIRelation;
+import com.oneops.cms.cm.domain.CmsCIRelationAttribute;
+import com.oneops.cms.cm.service.CmsCmProcessor;
+import com.oneops.cms.crypto.CmsCryptoDES;
+import com.oneops.cms.dj.dal.DJMapper;
+import com.oneops.cms.dj.domain.CmsRfcCI;
+import com.oneops.cms.dj.domain.CmsRfcRelation;
+import com.oneops.cms.dj.service.CmsRfcProcessor;
+import com.oneops.cms.md.domain.CmsClazz;
+import com.oneops.cms.md.domain.CmsClazzAttribute;
+import com.oneops.cms.md.domain.CmsRelation;
+import com.oneops.cms.md.service.CmsMdProcessor;
+import com.oneops.cms.ns.domain.CmsNamespace;
+import com.oneops.cms.ns.service.CmsNsManager;
+import com.oneops.cms.ns.service.CmsNsProcessor;
+import com.oneops.cms.util.CmsUtil;
+import com.oneops.transistor.service.peristenceless.InMemoryDJMapper;
+import com.oneops.transistor.service.peristenceless.ThreadLocalDJMapper;
+import com.oneops.transistor.util.CloudUtil;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import static com.oneops.cms.util.CmsConstants.BASE_CONSUMES;
+import static com.oneops.cms.util.CmsConstants.MANIFEST_COMPOSED_OF;
+import static com.oneops.cms.util.CmsConstants.MANIFEST_DEPENDS_ON;
+import static com.oneops.cms.util.CmsConstants.MANIFEST_LINKS_TO;
+import static com.oneops.cms.util.CmsConstants.MANIFEST_REQUIRES;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+/**
+ * Generates the bom of an environment with two levels of platforms deployed to three clouds into the in-memory
+ * dj mapper, sequentially and preparing the platforms of a level on an executor. Each platform has a compute
+ * and an os depending on two of them, the compute size is the cloud name. Generations waiting in a transaction
+ * for their platforms do not starve the platforms of connections.
+ *
+ * @see BomGenerationConcurrencyBenchmark
+ */
+public class BomGenerationConcurrencyTest {
+
+    private static final long ENV_ID = 1;
+
+    @Test
+    public void sameRfcsConcurrently() {
+        InMemoryDJMapper sequential = generate(8, 3, 0, null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        InMemoryDJMapper concurrent;
+        try {
+            concurrent = generate(8, 3, 0, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        // two computes and an os per cloud
+        assertEquals(sequential.getCis().size(), 8 * 3 * 3);
+        assertEquals(rfcs(concurrent), rfcs(sequential));
+    }
+
+    @Test
+    public void interpolatesTheCloudOfEachBom() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        InMemoryDJMapper concurrent;
+        try {
+            concurrent = generate(8, 3, 0, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        for (CmsRfcCI rfc : concurrent.getCis().values()) {
+            if (rfc.getCiClassName().equals("bom.Compute")) {
+                // the name ends with -<binding id>-<index>, the binding id is the cloud id
+                String cloudId = rfc.getCiName().split("-")[1];
+                assertEquals(rfc.getAttribute("size").getNewValue(), "c" + (Long.valueOf(cloudId) - 10), rfc.getCiName());
+            }
+        }
+    }
+
+    @Test
+    public void moreGenerationsInTransactionsThanConnections() throws Exception {
+        List<String> sequential = rfcs(generate(8, 3, 0, null));
+
+        // a pool of 2 connections without a max wait, the generations keep theirs while they wait for their platforms
+        Semaphore pool = new Semaphore(2);
+        ThreadLocal<Boolean> inTransaction = ThreadLocal.withInitial(() -> false);
+        ManifestCmProcessor cmProcessor = new ManifestCmProcessor(8, 3, 0) {
+            @Override
+            void query() {
+                if (inTransaction.get()) {
+                    return;
+                }
+                pool.acquireUninterruptibly();
+                pool.release();
+            }
+        };
+        ThreadLocalDJMapper mapper = new ThreadLocalDJMapper();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ExecutorService generations = Executors.newFixedThreadPool(4);
+        try {
+            BomManagerImpl impl = bomManager(cmProcessor, mapper, executor);
+            impl.setConcurrentGenerations(1);
+            List<Future<InMemoryDJMapper>> results = new ArrayList<>();
+            for (int g = 0; g < 4; g++) {
+                results.add(generations.submit(() -> {
+                    pool.acquire();
+                    inTransaction.set(true);
+                    mapper.set(new InMemoryDJMapper());
+                    try {
+                        impl.generateBom(ENV_ID, "tester", null, null, false);
+                        return mapper.get();
+                    } finally {
+                        inTransaction.set(false);
+                        pool.release();
+                    }
+                }));
+            }
+            for (Future<InMemoryDJMapper> result : results) {
+                try {
+                    assertEquals(rfcs(result.get(30, TimeUnit.SECONDS)), sequential);
+                } catch (TimeoutException e) {
+                    fail("the generations and their platforms wait for each other's connections");
+                }
+            }
+        } finally {
+            generations.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reloadCopiesTheRelations() {
+        ManifestCmProcessor cmProcessor = new ManifestCmProcessor(1, 1, 0);
+        EnvBomGenerationContext context = new EnvBomGenerationContext(ENV_ID, "tester", cmProcessor, cmsUtil(cmProcessor), mock(CmsRfcProcessor.class));
+        context.load();
+        CmsCI platform = context.getPlatforms().get(0);
+
+        PlatformBomGenerationContext first = context.loadPlatformContext(platform);
+        CmsCIRelation dependsOn = first.getDependsOns().get(0);
+        CmsCI os = dependsOn.getFromCi();
+        PlatformBomGenerationContext reloaded = context.loadPlatformContext(platform);
+
+        assertNotSame(reloaded.getDependsOns().get(0), dependsOn);
+        assertNotSame(reloaded.getDependsOns().get(0).getFromCi(), os);
+        // the relations of the first context still point to its cis
+        assertSame(dependsOn.getFromCi(), os);
+        assertSame(first.getComponents().stream().filter(ci -> ci.getCiId() == os.getCiId()).findFirst().orElse(null), os);
+    }
+
+    /**
+     * The rfcs ordered by id, with their ci ids, exec orders and attributes.
+     */
+    static List<String> rfcs(InMemoryDJMapper mapper) {
+        List<String> rfcs = mapper.getCis().values().stream()
+                .sorted((a, b) -> Long.compare(a.getRfcId(), b.getRfcId()))
+                .map(rfc -> rfc.getRfcId() + " " + rfc.getCiId() + " " + rfc.getNsPath() + " " + rfc.getCiName() + " " + rfc.getRfcAction()
+                        + " " + rfc.getExecOrder() + " " + attributes(rfc.getAttributes().values().stream().collect(Collectors.toMap(a -> a.getAttributeName(), a -> String.valueOf(a.getNewValue())))))
+                .collect(Collectors.toList());
+        mapper.getRelations().values().stream()
+                .sorted((a, b) -> Long.compare(a.getRfcId(), b.getRfcId()))
+                .map(rfc -> rfc.getRfcId() + " " + rfc.getRelationName() + " " + rfc.getFromCiId() + "->" + rfc.getToCiId()
+                        + " " + rfc.getFromRfcId() + "->" + rfc.getToRfcId() + " " + attributes(relationAttributes(rfc)))
+                .forEach(rfcs::add);
+        return rfcs;
+    }
+
+    private static Map<String, String> relationAttributes(CmsRfcRelation rfc) {
+        return rfc.getAttributes().values().stream().collect(Collectors.toMap(a -> a.getAttributeName(), a -> String.valueOf(a.getNewValue())));
+    }
+
+    private static String attributes(Map<String, String> attributes) {
+        return attributes.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .collect(Collectors.joining(",", "{", "}"));
+    }
+
+    /**
+     * Generates the bom of the synthetic environment, preparing the platforms on the executor if there is one.
+     *
+     * @param queryMicros the time each cms query takes
+     * @return the mapper with the rfcs
+     */
+    static InMemoryDJMapper generate(int platforms, int clouds, long queryMicros, ExecutorService executor) {
+        InMemoryDJMapper mapper = new InMemoryDJMapper();
+        bomManager(new ManifestCmProcessor(platforms, clouds, queryMicros), mapper, executor)
+                .generateBom(ENV_ID, "tester", null, null, false);
+        return mapper;
+    }
+
+    /**
+     * The bom manager of the synthetic environment, creating the bom rfcs in the dj mapper.
+     */
+    private static BomManagerImpl bomManager(ManifestCmProcessor cmProcessor, DJMapper mapper, ExecutorService executor) {
+        CmsUtil cmsUtil = cmsUtil(cmProcessor);
+
+        CmsNsManager nsManager = mock(CmsNsManager.class);
+        doAnswer(i -> ns((String) i.getArguments()[0])).when(nsManager).getNs(anyString());
+        CmsMdProcessor mdProcessor = mock(CmsMdProcessor.class);
+        doAnswer(i -> clazz((String) i.getArguments()[0])).when(mdProcessor).getClazz(anyString());
+        doAnswer(i -> {
+            CmsRelation relation = new CmsRelation();
+            relation.setRelationName((String) i.getArguments()[0]);
+            relation.setMdAttributes(new ArrayList<>());
+            return relation;
+        }).when(mdProcessor).getRelation(anyString());
+        TransUtil trUtil = new TransUtil();
+        trUtil.setCmsUtil(cmsUtil);
+        trUtil.setNsManager(nsManager);
+        trUtil.setMdProcessor(mdProcessor);
+
+        CmsRfcProcessor bomRfcProcessor = rfcProcessor(mapper);
+        CmsRfcProcessor manifestRfcProcessor = rfcProcessor(new InMemoryDJMapper());
+
+        BomRfcBulkProcessor bomGenerationProcessor = new BomRfcBulkProcessor();
+        bomGenerationProcessor.setCmProcessor(cmProcessor);
+        bomGenerationProcessor.setRfcProcessor(bomRfcProcessor);
+        bomGenerationProcessor.setTrUtil(trUtil);
+        bomGenerationProcessor.setCmsUtil(cmsUtil);
+
+        BomManagerImpl impl = new BomManagerImpl();
+        impl.setCmProcessor(cmProcessor);
+        impl.setCmsUtil(cmsUtil);
+        impl.setTrUtil(trUtil);
+        impl.setCloudUtil(mock(CloudUtil.class));
+        impl.setBomRfcProcessor(bomRfcProcessor);
+        impl.setManifestRfcProcessor(manifestRfcProcessor);
+        impl.setBomGenerationProcessor(bomGenerationProcessor);
+        impl.setExecutorService(executor);
+        return impl;
+    }
+
+    private static CmsRfcProcessor rfcProcessor(DJMapper mapper) {
+        CmsNsProcessor nsProcessor = mock(CmsNsProcessor.class);
+        doAnswer(i -> ns((String) i.getArguments()[0])).when(nsProcessor).getNs(anyString());
+        CmsRfcProcessor rfcProcessor = new CmsRfcProcessor();
+        rfcProcessor.setDjMapper(mapper);
+        rfcProcessor.setCmsNsProcessor(nsProcessor);
+        rfcProcessor.setCiMapper(mock(CIMapper.class));
+        return rfcProcessor;
+    }
+
+    private static CmsNamespace ns(String nsPath) {
+        CmsNamespace ns = new CmsNamespace();
+        ns.setNsId(1);
+        ns.setNsPath(nsPath);
+        return ns;
+    }
+
+    private static CmsUtil cmsUtil(CmsCmProcessor cmProcessor) {
+        CmsUtil cmsUtil = new CmsUtil();
+        cmsUtil.setCmProcessor(cmProcessor);
+        cmsUtil.setCmsCrypto(new CmsCryptoDES());
+        cmsUtil.setCountOfErrorsToReport(5);
+        return cmsUtil;
+    }
+
+    private static CmsClazz clazz(String className) {
+        CmsClazz clazz = new CmsClazz();
+        clazz.setClassName(className);
+        CmsClazzAttribute size = new CmsClazzAttribute();
+        size.setAttributeName("size");
+        clazz.setMdAttributes(Collections.singletonList(size));
+        return clazz;
+    }
+
+    /**
+     * The cms of the environment. The first half of the platforms links to the second half, the platform ids
+     * are 100 and up, the cloud ids 10 and up and the component ids 10000 and up. Every query returns new cis and
+     * relations, as the database would.
+     */
+    static class ManifestCmProcessor extends CmsCmProcessor {
+        private final int platforms;
+        private final int clouds;
+        private final long queryMicros;
+
+        ManifestCmProcessor(int platforms, int clouds, long queryMicros) {
+            this.platforms = platforms;
+            this.clouds = clouds;
+            this.queryMicros = queryMicros;
+        }
+
+        @Override
+        public CmsCI getCiById(long id) {
+            query();
+            CmsCI env = ci("account.Environment", "env", ENV_ID);
+            env.setNsPath("/org/assembly");
+            return env;
+        }
+
+        @Override
+        public List<CmsCIRelation> getFromCIRelations(long fromId, String relationName, String shortRelName, String toClazzName) {
+            query();
+            CmsCI env = ci("account.Environment", "env", ENV_ID);
+            List<CmsCIRelation> rels = new ArrayList<>();
+            for (int p = 0; p < platforms; p++) {
+                rels.add(relation(MANIFEST_COMPOSED_OF, env, platform(p)));
+            }
+            return rels;
+        }
+
+        @Override
+        public List<CmsCIRelation> getFromCIRelations(long fromId, String relationName, String toClazzName) {
+            query();
+            if (!BASE_CONSUMES.equals(relationName)) {
+                return new ArrayList<>();
+            }
+            CmsCI platform = platform((int) (fromId - 100));
+            List<CmsCIRelation> rels = new ArrayList<>();
+            for (int c = 0; c < clouds; c++) {
+                CmsCIRelation rel = relation(BASE_CONSUMES, platform, ci("account.Cloud", "c" + c, 10 + c));
+                rel.setCiRelationId(platform.getCiId() * 10 + c);
+                rel.addAttribute(relationAttribute("priority", "1"));
+                rel.addAttribute(relationAttribute("adminstatus", "active"));
+                rel.addAttribute(relationAttribute("dpmt_order", String.valueOf(1 + c % 2)));
+                rels.add(rel);
+            }
+            return rels;
+        }
+
+        @Override
+        public List<CmsCIRelation> getCIRelationsNakedNoAttrs(String nsPath, String relationName, String shortRelName, String fromClazzName, String toClazzName) {
+            query();
+            List<CmsCIRelation> links = new ArrayList<>();
+            if (MANIFEST_LINKS_TO.equals(relationName)) {
+                for (int p = 0; p < platforms / 2; p++) {
+                    links.add(relation(MANIFEST_LINKS_TO, platform(p), platform(platforms / 2 + p)));
+                }
+            }
+            return links;
+        }
+
+        /**
+         * The manifest relations of the platform in the ns path.
+         */
+        @Override
+        public List<CmsCIRelation> getCIRelationsNaked(String nsPath, String relationName, String shortRelName, String fromClazzName, String toClazzName) {
+            query();
+            int p = Integer.valueOf(nsPath.split("/")[5].substring(1));
+            CmsCI platform = platform(p);
+            CmsCI compute = component(p, "Compute");
+            CmsCI os = component(p, "Os");
+            List<CmsCIRelation> rels = new ArrayList<>();
+            rels.add(relation(MANIFEST_REQUIRES, platform, compute));
+            rels.add(relation(MANIFEST_REQUIRES, platform, os));
+            CmsCIRelation dependsOn = relation(MANIFEST_DEPENDS_ON, os, compute);
+            dependsOn.addAttribute(relationAttribute("current", "2"));
+            rels.add(dependsOn);
+            return rels;
+        }
+
+        @Override
+        public List<CmsCI> getCiByIdList(List<Long> ids) {
+            query();
+            return ids.stream()
+                    .map(id -> component((int) ((id - 10000) / 2), id % 2 == 0 ? "Compute" : "Os"))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public List<CmsCIRelation> getCIRelations(String nsPath, String relationName, String shortRelName, String fromClazzName, String toClazzName) {
+            query();
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<CmsCIRelation> getToCIRelations(long toId, String relationName, String fromClazzName) {
+            query();
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<CmsCI> getCiByNsLikeByStateNaked(String ns, String clazzName, String state) {
+            query();
+            return new ArrayList<>();
+        }
+
+        void query() {
+            if (queryMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(queryMicros));
+            }
+        }
+
+        private static CmsCI platform(int p) {
+            CmsCI platform = ci("manifest.Platform", "p" + p, 100 + p);
+            platform.setNsPath("/org/assembly/env/manifest");
+            CmsCIAttribute version = new CmsCIAttribute();
+            version.setAttributeName("major_version");
+            version.setDjValue("1");
+            platform.addAttribute(version);
+            return platform;
+        }
+
+        private static CmsCI component(int p, String type) {
+            CmsCI component = ci("manifest." + type, type.toLowerCase(), 10000 + p * 2 + ("Compute".equals(type) ? 0 : 1));
+            component.setNsPath("/org/assembly/env/manifest/p" + p + "/1");
+            if ("Compute".equals(type)) {
+                CmsCIAttribute size = new CmsCIAttribute();
+                size.setAttributeName("size");
+                size.setDjValue("$OO_CLOUD{cloud_name}");
+                size.setDfValue("$OO_CLOUD{cloud_name}");
+                component.addAttribute(size);
+            }
+            return component;
+        }
+    }
+
+    private static CmsCI ci(String className, String ciName, long ciId) {
+        CmsCI ci = new CmsCI();
+        ci.setCiClassName(className);
+        ci.setCiName(ciName);
+        ci.setCiId(ciId);
+        ci.setCiState("default");
+        return ci;
+    }
+
+    private static CmsCIRelation relation(String relationName, CmsCI fromCi, CmsCI toCi) {
+        CmsCIRelation rel = new CmsCIRelation();
+        rel.setRelationName(relationName);
+        rel.setFromCi(fromCi);
+        rel.setFromCiId(fromCi.getCiId());
+        rel.setToCi(toCi);
+        rel.setToCiId(toCi.getCiId());
+        return rel;
+    }
+
+    private static CmsCIRelationAttribute relationAttribute(String name, String value) {
+        CmsCIRelationAttribute attribute = new CmsCIRelationAttribute();
+        attribute.setAttributeName(name);
+        attribute.setDfValue(value);
+        attribute.setDjValue(value);
+        return attribute;
+    }
+}
@@ -6,6 +6,7 @@ import com.google.common.cache.LoadingCache;
 import com.oneops.cms.transmitter.dal.EventMapper;
 import com.oneops.cms.transmitter.domain.CMSEvent;
 import com.oneops.cms.transmitter.domain.CMSEventRecord;
+import com.oneops.cms.transmitter.domain.EventLease;
 import com.oneops.cms.util.dal.UtilMapper;
 import com.oneops.cms.util.domain.CmsVar;
 import org.apache.ibatis.exceptions.PersistenceException;
@@ -15,7 +16,10 @@ import org.apache.log4j.Logger;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -48,6 +52,9 @@ public abstract class BaseEventReader {
     private LoadingCache<String, Boolean> varCache;
     private int varCacheTTLInSeconds = 30;
     private int varCacheMaxSize = 10;
+    private int batchSize = 500;
+    private int partitions = 1;
+    private List<Integer> leasedPartitions = Collections.emptyList();
 
 
     public void setSessionFactory(SqlSessionFactory sf) {
@@ -71,6 +78,24 @@ public abstract class BaseEventReader {
         this.varCacheMaxSize = varCacheMaxSize;
     }
 
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Number of partitions of the queue, the events are partitioned by their source id. With more
+     * than one, every reader process leases a share of the partitions and they publish in
+     * parallel, with one the process holding the lock publishes all the events.
+     * <p>
+     * The events of one source (a ci, a relation, a deployment...) keep their order, the events
+     * of different sources don't: the events of a relation are not ordered with the events of
+     * its from and to cis, which can land in other partitions. Consumers relying on that order
+     * need a single partition.
+     */
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
     public void init() {
         this.processId = UUID.randomUUID().toString();
         logger.info(">>>>>>>>>>>>>" + this.getClass().getSimpleName() + " process id = " + this.processId);
@@ -78,7 +103,14 @@ public abstract class BaseEventReader {
 
     public void cleanup() {
         try (SqlSession session = sqlsf.openSession()) {
-            session.getMapper(EventMapper.class).removeLock(getLockName(), processId);
+            EventMapper eventMapper = session.getMapper(EventMapper.class);
+            if (partitions > 1) {
+                eventMapper.lockLeases(getLockName());
+                eventMapper.releaseLeases(getLockName(), processId);
+                eventMapper.removeReader(getLockName(), processId);
+            } else {
+                eventMapper.removeLock(getLockName(), processId);
+            }
             session.commit();
         }
     }
@@ -129,6 +161,65 @@ public abstract class BaseEventReader {
 
     protected abstract void removeEvent(long eventId, EventMapper eventMapper);
 
+    /**
+     * Removes the published events with one statement in one transaction, only if this process
+     * still holds the lease of their partitions. The lease is checked in the same transaction, so
+     * it can't be taken over before the delete is committed. If it was lost the events are left
+     * to the new owner, which publishes them again.
+     *
+     * @param eventIds ids of the published events
+     * @return false if the lease was lost and nothing was removed
+     */
+    public boolean removeEvents(List<Long> eventIds) {
+        if (eventIds.isEmpty()) {
+            return true;
+        }
+        try (SqlSession session = sqlsf.openSession()) {
+            EventMapper eventMapper = session.getMapper(EventMapper.class);
+            if (!holdsLease(eventMapper)) {
+                session.rollback(true);
+                logger.warn("Lost the lease of " + getLockName() + ", " + eventIds.size()
+                        + " published events are left to the new owner");
+                return false;
+            }
+            removeEvents(eventIds, eventMapper);
+            session.commit();
+            return true;
+        }
+    }
+
+    /**
+     * Renews the lease of this process, called while a batch is published so that a long batch
+     * doesn't outlive it.
+     *
+     * @return false if the lease was lost, the rest of the batch must not be published
+     */
+    public boolean renewLease() {
+        try (SqlSession session = sqlsf.openSession()) {
+            boolean held = holdsLease(session.getMapper(EventMapper.class));
+            session.commit(true);
+            return held;
+        }
+    }
+
+    /**
+     * Renews the heartbeat and checks that the partitions read by the last batch (or the lock
+     * without partitions) are still held by this process. Other readers take over the leases
+     * under the same transaction lock, so they stay held until the transaction ends.
+     */
+    private boolean holdsLease(EventMapper eventMapper) {
+        if (partitions <= 1) {
+            return eventMapper.good2run(getLockName(), processId, PROCESS_TIMEOUT_SECONDS);
+        }
+        String lockName = getLockName();
+        eventMapper.lockLeases(lockName);
+        return eventMapper.heartbeatReader(lockName, processId) == 1
+                && (leasedPartitions.isEmpty()
+                || eventMapper.renewLeases(lockName, leasedPartitions, processId) == leasedPartitions.size());
+    }
+
+    protected abstract void removeEvents(List<Long> eventIds, EventMapper eventMapper);
+
     public List<CMSEvent> getEvents() {
 
         SqlSession session = null;
@@ -139,7 +230,17 @@ public abstract class BaseEventReader {
             session = sqlsf.openSession();
             EventMapper eventMapper = session.getMapper(EventMapper.class);
 
-            if (!eventMapper.good2run(getLockName(), processId, PROCESS_TIMEOUT_SECONDS)) {
+            if (partitions > 1) {
+                List<Integer> leased = leasePartitions(eventMapper);
+                session.commit(true);
+                if (!leased.equals(leasedPartitions)) {
+                    logger.info(">>>>>>>>>Leased partitions " + leased + " of " + partitions + " for " + getLockName());
+                    leasedPartitions = leased;
+                }
+                if (leased.isEmpty()) {
+                    return cmsEvents;
+                }
+            } else if (!eventMapper.good2run(getLockName(), processId, PROCESS_TIMEOUT_SECONDS)) {
                 if (iamActiveProcess == null || iamActiveProcess) {
                     logger.info(">>>>>>>>>Other process has a lock " + getLockName() + ", will wait");
                     iamActiveProcess = false;
@@ -155,7 +256,8 @@ public abstract class BaseEventReader {
             }
 
             if (isCmsPubActive()) {
-                for (CMSEventRecord record : getEvents(eventMapper)) {
+                List<Integer> partitionIds = partitions > 1 ? leasedPartitions : null;
+                for (CMSEventRecord record : getEvents(eventMapper, batchSize, partitions, partitionIds)) {
                     CMSEvent event = populateEvent(record);
                     if (event != null) {
                         cmsEvents.add(event);
@@ -182,7 +284,56 @@ public abstract class BaseEventReader {
 
     protected abstract int getBacklog(EventMapper evenMapper);
 
-    protected abstract List<CMSEventRecord> getEvents(EventMapper eventMapper);
+    /**
+     * Renews the leases of this process and rebalances the partitions: every live reader gets an
+     * even share, the leases of the readers without heartbeat are taken over. Called before a
+     * batch is read, so the partitions given up have no events in flight.
+     *
+     * @return the partitions leased by this process
+     */
+    private List<Integer> leasePartitions(EventMapper eventMapper) {
+        String lockName = getLockName();
+        eventMapper.lockLeases(lockName);
+        if (eventMapper.heartbeatReader(lockName, processId) == 0) {
+            eventMapper.addReader(lockName, processId);
+        }
+        eventMapper.removeStaleReaders(lockName, PROCESS_TIMEOUT_SECONDS);
+        eventMapper.addLeases(lockName, partitions);
+        Set<String> readers = new HashSet<>(eventMapper.getReaders(lockName));
+        int share = (partitions + readers.size() - 1) / readers.size();
+
+        List<Integer> leased = new ArrayList<>();
+        List<Integer> released = new ArrayList<>();
+        List<Integer> free = new ArrayList<>();
+        for (EventLease lease : eventMapper.getLeases(lockName)) {
+            if (lease.getPartitionId() >= partitions) {
+                continue;
+            }
+            if (processId.equals(lease.getLockedBy())) {
+                if (leased.size() < share) {
+                    leased.add(lease.getPartitionId());
+                } else {
+                    released.add(lease.getPartitionId());
+                }
+            } else if (lease.getLockedBy() == null || !readers.contains(lease.getLockedBy())) {
+                free.add(lease.getPartitionId());
+            }
+        }
+        List<Integer> taken = free.subList(0, Math.min(free.size(), share - leased.size()));
+        if (!released.isEmpty()) {
+            eventMapper.updateLeases(lockName, released, null);
+        }
+        if (!taken.isEmpty() || !leased.isEmpty()) {
+            leased.addAll(taken);
+            // renews the leases kept too
+            eventMapper.updateLeases(lockName, leased, processId);
+        }
+        Collections.sort(leased);
+        return leased;
+    }
+
+    protected abstract List<CMSEventRecord> getEvents(EventMapper eventMapper, int limit, int partitions,
+                                                      List<Integer> partitionIds);
 
     protected abstract String getLockName();
 
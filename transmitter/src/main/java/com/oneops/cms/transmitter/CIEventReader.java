@@ -51,8 +51,14 @@ public class CIEventReader extends BaseEventReader {
     }
 
     @Override
-    public List<CMSEventRecord> getEvents(EventMapper eventMapper) {
-        return eventMapper.getCiEvents();
+    protected void removeEvents(List<Long> eventIds, EventMapper eventMapper) {
+        eventMapper.removeCiEvents(eventIds);
+    }
+
+    @Override
+    public List<CMSEventRecord> getEvents(EventMapper eventMapper, int limit, int partitions,
+                                          List<Integer> partitionIds) {
+        return eventMapper.getCiEvents(limit, partitions, partitionIds);
     }
 
     @Override
@@ -17,8 +17,12 @@
  *******************************************************************************/
 package com.oneops.cms.transmitter;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.jms.*;
 
+import org.apache.activemq.ActiveMQMessageProducer;
+import org.apache.activemq.AsyncCallback;
 import org.apache.log4j.Logger;
 
 import com.google.gson.Gson;
@@ -49,12 +53,33 @@ public class CmsPublisher extends AbstractMessagePublisher {
         priorityProducer.setPriority(6);
     }
 
-    public void publishMessage(CMSEvent event) throws JMSException {
+    /**
+     * Sends the event without waiting for the broker, the sends of a batch are pipelined.
+     *
+     * @param event event to publish
+     * @return completed once the broker acknowledged the message
+     */
+    public CompletableFuture<Void> publishMessage(CMSEvent event) throws JMSException {
         MessageProducer producer = getProducer(event);
         TextMessage message = createTextMessage(event);
-        producer.send(message);
-        logger.info("Published msg " + getHeaders(event) + " with priority " + producer.getPriority());
-        logger.debug("Published: " + message.getText());
+        int priority = producer.getPriority();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        ((ActiveMQMessageProducer) producer).send(message, new AsyncCallback() {
+            @Override
+            public void onSuccess() {
+                logger.info("Published msg " + getHeaders(event) + " with priority " + priority);
+                result.complete(null);
+            }
+
+            @Override
+            public void onException(JMSException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        if (logger.isDebugEnabled()) {
+            logger.debug("Published: " + message.getText());
+        }
+        return result;
     }
 
     private MessageProducer getProducer(CMSEvent event) {
@@ -46,8 +46,14 @@ public class ControllerEventReader extends BaseEventReader {
     }
 
 
-    public List<CMSEventRecord> getEvents(EventMapper eventMapper) {
-        return eventMapper.getEvents();
+    protected void removeEvents(List<Long> eventIds, EventMapper eventMapper) {
+        eventMapper.removeEvents(eventIds);
+    }
+
+
+    public List<CMSEventRecord> getEvents(EventMapper eventMapper, int limit, int partitions,
+                                          List<Integer> partitionIds) {
+        return eventMapper.getEvents(limit, partitions, partitionIds);
     }
 
     public String getLockName() {
@@ -17,6 +17,8 @@
  *******************************************************************************/
 package com.oneops.cms.transmitter;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.jms.JMSException;
 
 import com.oneops.notification.NotificationMessage;
@@ -41,18 +43,27 @@ public class EventPublisher {
 
     private boolean publishControllerEventsAsync;
 
-    public void publishControllerEvents(CMSEvent event) throws JMSException {
+    /**
+     * @return completed once the event is on the CMS topic
+     */
+    public CompletableFuture<Void> publishControllerEvents(CMSEvent event) throws JMSException {
         notifyEvent(event);
-        cmsPublisher.publishMessage(event);
+        CompletableFuture<Void> published = cmsPublisher.publishMessage(event);
         //publish to search only if it is async
         if (publishControllerEventsAsync) {
             searchPublisher.publishMessage(event);
         }
+        return published;
     }
 
-    public void publishCIEvents(CMSEvent event) throws JMSException {
+    /**
+     * @return completed once the event is handed to the search publisher, which keeps the
+     * messages it can't send for retry
+     */
+    public CompletableFuture<Void> publishCIEvents(CMSEvent event) throws JMSException {
         notifyEvent(event);
         searchPublisher.publishMessage(event);
+        return CompletableFuture.completedFuture(null);
     }
 
     private void notifyEvent(CMSEvent event) throws JMSException {
@@ -22,11 +22,15 @@ import com.oneops.cms.transmitter.domain.PubStatus;
 import org.apache.log4j.Logger;
 
 import javax.jms.JMSException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
@@ -39,6 +43,8 @@ public class MainScheduler {
     private EventPublisher eventPublisher;
     private ControllerEventReader controllerEventReader;
     private CIEventReader ciEventReader;
+    private int maxInFlight = 100;
+    private int leaseRenewSeconds = 10;
 
     private final ScheduledExecutorService controllerEventScheduler = Executors.newScheduledThreadPool(1);
     private final ScheduledExecutorService ciEventScheduler = Executors.newScheduledThreadPool(1);
@@ -54,57 +60,115 @@ public class MainScheduler {
     }
 
     private void publishControllerPendingEvents() {
+        publishPendingEvents(controllerEventReader, "controller", event -> {
+            if (event.getPayload() != null) {
+                return eventPublisher.publishControllerEvents(event);
+            }
+            logger.info("Event payload found null for " + event.getHeaders());
+            return null;
+        });
+    }
+
+    private void publishCIPendingEvents() {
+        publishPendingEvents(ciEventReader, "ci", event -> {
+            String action = event.getHeaders().get("action");
+            if (event.getPayload() != null || "delete".equals(action)) {
+                return eventPublisher.publishCIEvents(event);
+            }
+            logger.info("Event payload found null for " + event.getHeaders());
+            return null;
+        });
+    }
+
+    /**
+     * Publishes the pending events batch by batch and removes the published ones, loops right
+     * away while there is a backlog and waits for the next run once it is drained.
+     */
+    private void publishPendingEvents(BaseEventReader reader, String type, Publisher publisher) {
         isRunning = true;
         lastRun = System.currentTimeMillis();
-        List<CMSEvent> events = controllerEventReader.getEvents();
-        while (events.size() > 0) {
-            logger.info("Got " + events.size() + " controller events; Using ControllerEventPublisher");
-            for (CMSEvent event : events) {
-                try {
-                    if (event.getPayload() != null) {
-                        eventPublisher.publishControllerEvents(event);
-                    } else {
-                        logger.info("Event payload found null for " + event.getHeaders());
-                    }
-                    controllerEventReader.removeEvent(event.getEventId());
-                } catch (JMSException e) {
-                    e.printStackTrace();
-                    logger.error(e.getMessage(), e);
-                    //stopPublishing();
+        try {
+            List<CMSEvent> events = reader.getEvents();
+            while (events != null && events.size() > 0) {
+                logger.info("Got " + events.size() + " " + type + " events");
+                List<Long> published = publishBatch(reader, events, publisher);
+                if (!reader.removeEvents(published) || published.size() < events.size()) {
+                    // the rest is published again on the next run
                     return;
                 }
+                events = reader.getEvents();
             }
-            events = controllerEventReader.getEvents();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // an exception would cancel the scheduled job
+            logger.error("Failed to publish " + type + " events", e);
         }
-        //System.out.println("Done;");
     }
 
-    private void publishCIPendingEvents() {
-        //logger.info("start reading" + eventType);
-        isRunning = true;
-        lastRun = System.currentTimeMillis();
-        List<CMSEvent> events = ciEventReader.getEvents();
-        while (events.size() > 0) {
-            logger.info("Got " + events.size() + " ci events; Using CIEventPublisher");
-            for (CMSEvent event : events) {
-                String action = event.getHeaders().get("action");
-                try {
-                    if (event.getPayload() != null || "delete".equals(action)) {
-                        eventPublisher.publishCIEvents(event);
-                    } else {
-                        logger.info("Event payload found null for " + event.getHeaders());
-                    }
-                    ciEventReader.removeEvent(event.getEventId());
-                } catch (JMSException e) {
-                    e.printStackTrace();
-                    logger.error(e.getMessage(), e);
-                    //stopPublishing();
-                    return;
+    /**
+     * Sends the events without waiting for each one, at most <code>maxInFlight</code> are not
+     * acknowledged at a time. Only the acknowledged events before the first failed or unsent one
+     * are returned, in the event_id order of the batch, so an event is never removed while an
+     * earlier one is left to publish again. The events acknowledged after a failure are published
+     * again on the next run.
+     * <p>
+     * The lease of the reader is renewed every <code>leaseRenewSeconds</code> while sending, the
+     * sending stops once it is lost since another process reads the same events by then.
+     *
+     * @return ids of the leading acknowledged events and the ones with nothing to publish
+     */
+    private List<Long> publishBatch(BaseEventReader reader, List<CMSEvent> events, Publisher publisher)
+            throws InterruptedException {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        // written by the send callbacks, read once all the permits are back
+        boolean[] acked = new boolean[events.size()];
+        AtomicBoolean failed = new AtomicBoolean();
+        long renewAt = 0;
+        for (int i = 0; i < events.size(); i++) {
+            if (System.currentTimeMillis() >= renewAt) {
+                if (!reader.renewLease()) {
+                    logger.warn("Lost the lease, stopped publishing the batch at event "
+                            + events.get(i).getEventId());
+                    break;
                 }
+                renewAt = System.currentTimeMillis() + SECONDS.toMillis(leaseRenewSeconds);
             }
-            events = ciEventReader.getEvents();
+            inFlight.acquire();
+            if (failed.get()) {
+                inFlight.release();
+                break;
+            }
+            CompletableFuture<Void> result;
+            try {
+                result = publisher.publish(events.get(i));
+            } catch (JMSException e) {
+                logger.error(e.getMessage(), e);
+                inFlight.release();
+                break;
+            }
+            if (result == null) {
+                acked[i] = true;
+                inFlight.release();
+                continue;
+            }
+            int index = i;
+            result.whenComplete((r, e) -> {
+                if (e == null) {
+                    acked[index] = true;
+                } else if (failed.compareAndSet(false, true)) {
+                    logger.error(e.getMessage(), e);
+                }
+                inFlight.release();
+            });
+        }
+        // wait for the sends in flight
+        inFlight.acquire(maxInFlight);
+        List<Long> published = new ArrayList<>(events.size());
+        for (int i = 0; i < events.size() && acked[i]; i++) {
+            published.add(events.get(i).getEventId());
         }
-        //System.out.println("Done;");
+        return published;
     }
 
     public void stopPublishing() {
@@ -125,6 +189,18 @@ public class MainScheduler {
         this.ciEventReader = ciEventReader;
     }
 
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * How often the lease of the reader is renewed while a batch is published, well below the
+     * 30 seconds after which another process takes it over.
+     */
+    public void setLeaseRenewSeconds(int leaseRenewSeconds) {
+        this.leaseRenewSeconds = leaseRenewSeconds;
+    }
+
 
     public void cleanup() {
         logger.info("canceling the jobs");
@@ -135,6 +211,13 @@ public class MainScheduler {
         controllerEventScheduler.shutdown();
     }
 
+    private interface Publisher {
+        /**
+         * @return completed once the event is published, null if there is nothing to publish
+         */
+        CompletableFuture<Void> publish(CMSEvent event) throws JMSException;
+    }
+
     public PubStatus getStatus() {
         PubStatus stat = new PubStatus();
         stat.setQueueBacklog(controllerEventReader.getQueueBacklog());
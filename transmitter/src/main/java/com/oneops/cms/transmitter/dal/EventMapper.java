@@ -20,18 +20,25 @@ package com.oneops.cms.transmitter.dal;
 import java.util.List;
 
 import com.oneops.cms.transmitter.domain.CMSEventRecord;
+import com.oneops.cms.transmitter.domain.EventLease;
 
 import org.apache.ibatis.annotations.Param;
 
 public interface EventMapper {
-    List<CMSEventRecord> getEvents();
+    List<CMSEventRecord> getEvents(@Param("limit") int limit, @Param("partitions") int partitions,
+                                   @Param("partitionIds") List<Integer> partitionIds);
 
-    List<CMSEventRecord> getCiEvents();
+    List<CMSEventRecord> getCiEvents(@Param("limit") int limit, @Param("partitions") int partitions,
+                                     @Param("partitionIds") List<Integer> partitionIds);
 
     void removeEvent(long eventId);
 
     void removeCiEvent(long eventId);
 
+    void removeEvents(@Param("eventIds") List<Long> eventIds);
+
+    void removeCiEvents(@Param("eventIds") List<Long> eventIds);
+
     int getQueueBacklog();
 
     int getCiEventsQueueBacklog();
@@ -39,4 +46,28 @@ public interface EventMapper {
     boolean good2run(@Param("lockName") String lockName, @Param("processId") String processId, @Param("staleTimeout") int staleTimeout);
 
     void removeLock(@Param("lockName") String lockName, @Param("processId") String processId);
+
+    int lockLeases(@Param("lockName") String lockName);
+
+    int heartbeatReader(@Param("lockName") String lockName, @Param("processId") String processId);
+
+    void addReader(@Param("lockName") String lockName, @Param("processId") String processId);
+
+    void removeStaleReaders(@Param("lockName") String lockName, @Param("staleTimeout") int staleTimeout);
+
+    void removeReader(@Param("lockName") String lockName, @Param("processId") String processId);
+
+    List<String> getReaders(@Param("lockName") String lockName);
+
+    void addLeases(@Param("lockName") String lockName, @Param("partitions") int partitions);
+
+    List<EventLease> getLeases(@Param("lockName") String lockName);
+
+    void updateLeases(@Param("lockName") String lockName, @Param("partitionIds") List<Integer> partitionIds,
+                      @Param("processId") String processId);
+
+    int renewLeases(@Param("lockName") String lockName, @Param("partitionIds") List<Integer> partitionIds,
+                    @Param("processId") String processId);
+
+    void releaseLeases(@Param("lockName") String lockName, @Param("processId") String processId);
 }
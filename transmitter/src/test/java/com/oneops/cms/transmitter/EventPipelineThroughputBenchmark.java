@@ -0,0 +1,56 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.transmitter;
+
+/**
+ * Events per second of the pipelined drain of {@link EventPipelineThroughputTest} against the
+ * events published and removed one by one. Run as a user that can run initdb:
+ * <pre>
+ * java -cp ... com.oneops.cms.transmitter.EventPipelineThroughputBenchmark [events] [oneByOneEvents]
+ * </pre>
+ */
+public class EventPipelineThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int oneByOneEvents = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        EventPipelineThroughputTest.startServers();
+        try {
+            EventPipelineThroughputTest fixture = new EventPipelineThroughputTest();
+            fixture.setUp();
+            try {
+                report("pipelined", events, fixture.drain(events));
+            } finally {
+                fixture.tearDown();
+            }
+            fixture.setUp();
+            try {
+                report("one by one", oneByOneEvents, fixture.oneByOne(oneByOneEvents));
+            } finally {
+                fixture.tearDown();
+            }
+        } finally {
+            EventPipelineThroughputTest.stopServers();
+        }
+    }
+
+    private static void report(String mode, int events, long ms) {
+        System.out.println(String.format("%d events published and removed %s in %.1fs, %d events/sec",
+                events, mode, ms / 1000.0, events * 1000L / Math.max(1, ms)));
+    }
+}
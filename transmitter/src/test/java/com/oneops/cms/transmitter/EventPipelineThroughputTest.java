@@ -0,0 +1,184 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.transmitter;
+
+import static com.jayway.awaitility.Awaitility.await;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.oneops.cms.dj.domain.CmsDeployment;
+import com.oneops.cms.transmitter.domain.CMSEvent;
+import com.oneops.cms.transmitter.domain.CMSEventRecord;
+
+/**
+ * Drains a queue of controller events from an embedded postgres to an embedded broker, the
+ * events are published in pipelined batches and removed with one statement per batch. See
+ * {@link EventPipelineThroughputBenchmark} for the throughput.
+ */
+public class EventPipelineThroughputTest {
+
+    private static final int EVENTS = 2000;
+    private static final String BROKER_URL = "tcp://localhost:61646";
+
+    private static EventQueueDb db;
+    private static SqlSessionFactory sqlsf;
+    private static BrokerService broker;
+
+    private CmsPublisher cmsPublisher;
+    private JMSConsumer topicConsumer;
+    private ControllerEventReader controllerEventReader;
+    private CIEventReader ciEventReader;
+    private MainScheduler scheduler;
+
+    @BeforeClass
+    public static void startServers() throws Exception {
+        db = EventQueueDb.start();
+        sqlsf = db.getSessionFactory();
+
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.addConnector(BROKER_URL);
+        broker.start();
+        broker.waitUntilStarted();
+    }
+
+    @AfterClass
+    public static void stopServers() throws Exception {
+        if (broker != null) {
+            broker.stop();
+        }
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ActiveMQConnectionFactory connFactory = new ActiveMQConnectionFactory(BROKER_URL);
+        cmsPublisher = new CmsPublisher();
+        cmsPublisher.setConnFactory(connFactory);
+        cmsPublisher.init();
+        topicConsumer = new JMSConsumer();
+        topicConsumer.setConnectionFactory(connFactory);
+        topicConsumer.setDestinationName("CMS.ALL");
+        topicConsumer.setDestinationType("topic");
+        topicConsumer.init();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> topicConsumer.isStarted());
+
+        EventPublisher eventPublisher = new EventPublisher();
+        eventPublisher.setCmsPublisher(cmsPublisher);
+        eventPublisher.setNotificationConfig(new NotificationConfigurator());
+
+        // the deployments are not in the test schema, the events carry a stub
+        controllerEventReader = new ControllerEventReader() {
+            @Override
+            protected CMSEvent populateEvent(CMSEventRecord record) {
+                CmsDeployment dpmt = new CmsDeployment();
+                dpmt.setDeploymentId(record.getSourcePk());
+                dpmt.setNsPath("/org/assembly/env/bom");
+                dpmt.setDeploymentState("active");
+                CMSEvent event = new CMSEvent();
+                event.setEventId(record.getEventId());
+                event.addHeaders("source", "deployment");
+                event.addHeaders("clazzName", "Deployment");
+                event.addHeaders("action", record.getEventType());
+                event.addHeaders("sourceId", String.valueOf(record.getSourcePk()));
+                event.setPayload(dpmt);
+                return event;
+            }
+        };
+        controllerEventReader.setSessionFactory(sqlsf);
+        controllerEventReader.init();
+        ciEventReader = new CIEventReader();
+        ciEventReader.setSessionFactory(sqlsf);
+        ciEventReader.init();
+
+        scheduler = new MainScheduler();
+        scheduler.setEventPublisher(eventPublisher);
+        scheduler.setControllerEventReader(controllerEventReader);
+        scheduler.setCiEventReader(ciEventReader);
+    }
+
+    @After
+    public void tearDown() {
+        controllerEventReader.cleanup();
+        ciEventReader.cleanup();
+        topicConsumer.terminate();
+        cmsPublisher.cleanup();
+    }
+
+    @Test
+    public void drainsBacklog() throws Exception {
+        drain(EVENTS);
+        Assert.assertEquals(EVENTS, topicConsumer.getCounter());
+    }
+
+    /**
+     * Publishes and removes that many events with the scheduler.
+     *
+     * @return the time it took in ms
+     */
+    long drain(int events) throws Exception {
+        db.execute("insert into cms_event_queue (event_id, source_pk, source_name, event_type_id)"
+                + " select g, g, 'deployment', 2 from generate_series(1, " + events + ") g");
+        long start = System.nanoTime();
+        scheduler.startTheJob();
+        try {
+            await().atMost(5, TimeUnit.MINUTES).until(() -> topicConsumer.getCounter() == events
+                    && controllerEventReader.getQueueBacklog() == 0);
+        } finally {
+            scheduler.cleanup();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Publishes and removes that many events the way it was done before: waits for each send,
+     * removes each event in its own transaction.
+     *
+     * @return the time it took in ms
+     */
+    long oneByOne(int events) throws Exception {
+        db.execute("insert into cms_event_queue (event_id, source_pk, source_name, event_type_id)"
+                + " select g, g, 'deployment', 2 from generate_series(1, " + events + ") g");
+        long start = System.nanoTime();
+        List<CMSEvent> batch = controllerEventReader.getEvents();
+        while (batch.size() > 0) {
+            for (CMSEvent event : batch) {
+                cmsPublisher.publishMessage(event).get();
+                controllerEventReader.removeEvent(event.getEventId());
+            }
+            batch = controllerEventReader.getEvents();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        await().atMost(10, TimeUnit.SECONDS).until(() -> topicConsumer.getCounter() == events);
+        return elapsed;
+    }
+}
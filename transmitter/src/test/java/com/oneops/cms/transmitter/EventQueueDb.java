@@ -0,0 +1,92 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.transmitter;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Scanner;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Assume;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import com.oneops.cms.transmitter.dal.EventMapper;
+import com.oneops.cms.util.dal.UtilMapper;
+
+/**
+ * Embedded postgres with the event queue tables.
+ */
+class EventQueueDb {
+
+    private final EmbeddedPostgres postgres;
+    private final SqlSessionFactory sqlsf;
+
+    private EventQueueDb(EmbeddedPostgres postgres) throws Exception {
+        this.postgres = postgres;
+        try (Reader sql = new InputStreamReader(getClass().getClassLoader().getResourceAsStream("event-queue-schema.sql"))) {
+            execute(new Scanner(sql).useDelimiter("\\A").next());
+        }
+        // pooled like oneopsCMSDS
+        BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.postgresql.Driver");
+        dataSource.setUrl("jdbc:postgresql://localhost:" + postgres.getPort() + "/postgres");
+        dataSource.setUsername("postgres");
+        dataSource.setMaxActive(10);
+        dataSource.setDefaultAutoCommit(false);
+        Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.addMapper(EventMapper.class);
+        configuration.addMapper(UtilMapper.class);
+        sqlsf = new SqlSessionFactoryBuilder().build(configuration);
+    }
+
+    /**
+     * Starts the database, skips the tests if it can't be started.
+     */
+    static EventQueueDb start() throws Exception {
+        EmbeddedPostgres postgres = null;
+        try {
+            postgres = EmbeddedPostgres.builder().start();
+        } catch (Exception e) {
+            // initdb does not run as root
+            Assume.assumeNoException(e);
+        }
+        return new EventQueueDb(postgres);
+    }
+
+    SqlSessionFactory getSessionFactory() {
+        return sqlsf;
+    }
+
+    void execute(String sql) throws Exception {
+        try (Connection connection = postgres.getPostgresDatabase().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    void close() throws Exception {
+        postgres.close();
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ *
+ *   Copyright 2015 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.transmitter;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.oneops.cms.transmitter.domain.CMSEvent;
+
+public class MainSchedulerTest {
+
+    private final ScheduledExecutorService broker = Executors.newSingleThreadScheduledExecutor();
+    private ControllerEventReader controllerEventReader;
+    private EventPublisher eventPublisher;
+    private MainScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        controllerEventReader = mock(ControllerEventReader.class);
+        eventPublisher = mock(EventPublisher.class);
+        scheduler = new MainScheduler();
+        scheduler.setControllerEventReader(controllerEventReader);
+        scheduler.setCiEventReader(mock(CIEventReader.class));
+        scheduler.setEventPublisher(eventPublisher);
+        when(controllerEventReader.renewLease()).thenReturn(true);
+        when(controllerEventReader.removeEvents(anyListOf(Long.class))).thenReturn(true);
+    }
+
+    private static List<CMSEvent> events(int count) {
+        List<CMSEvent> events = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            CMSEvent event = new CMSEvent();
+            event.setEventId(id);
+            event.setPayload("event-" + id);
+            events.add(event);
+        }
+        return events;
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.cleanup();
+        broker.shutdown();
+    }
+
+    @Test
+    public void removesTheEventsBeforeTheFirstFailure() throws JMSException {
+        when(controllerEventReader.getEvents()).thenReturn(events(6)).thenReturn(null);
+        when(eventPublisher.publishControllerEvents(any(CMSEvent.class))).thenAnswer(invocation -> {
+            long id = ((CMSEvent) invocation.getArguments()[0]).getEventId();
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            if (id == 4) {
+                result.completeExceptionally(new JMSException("send failed"));
+            } else if (id == 2) {
+                // acknowledged after the failure of a later event
+                broker.schedule(() -> result.complete(null), 200, TimeUnit.MILLISECONDS);
+            } else {
+                result.complete(null);
+            }
+            return result;
+        });
+
+        scheduler.startTheJob();
+
+        // 5 may be acknowledged too, it's still published again with 4
+        verify(controllerEventReader, timeout(5000)).removeEvents(Arrays.asList(1L, 2L, 3L));
+        verify(controllerEventReader).removeEvents(anyListOf(Long.class));
+    }
+
+    @Test
+    public void stopsPublishingOnceTheLeaseIsLost() throws JMSException {
+        when(controllerEventReader.getEvents()).thenReturn(events(6)).thenReturn(null);
+        when(controllerEventReader.renewLease()).thenReturn(true).thenReturn(false);
+        when(eventPublisher.publishControllerEvents(any(CMSEvent.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        // renewed before every event
+        scheduler.setLeaseRenewSeconds(0);
+
+        scheduler.startTheJob();
+
+        verify(controllerEventReader, timeout(5000)).removeEvents(Arrays.asList(1L));
+        verify(eventPublisher).publishControllerEvents(any(CMSEvent.class));
+        verify(controllerEventReader).getEvents();
+    }
+
+    @Test
+    public void keepsTheEventsWhenTheLeaseIsLostBeforeRemoving() throws JMSException {
+        when(controllerEventReader.getEvents()).thenReturn(events(3)).thenReturn(null);
+        when(controllerEventReader.removeEvents(anyListOf(Long.class))).thenReturn(false);
+        when(eventPublisher.publishControllerEvents(any(CMSEvent.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        scheduler.startTheJob();
+
+        verify(controllerEventReader, timeout(5000)).removeEvents(Arrays.asList(1L, 2L, 3L));
+        // the next batch waits for the next run
+        verify(controllerEventReader).getEvents();
+    }
+}
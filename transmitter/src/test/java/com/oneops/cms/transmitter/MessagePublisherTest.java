@@ -19,6 +19,7 @@ package com.oneops.cms.transmitter;
 
 import static com.jayway.awaitility.Awaitility.await;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -71,6 +72,10 @@ public class MessagePublisherTest {
         topicConsumer = context.getBean("topicConsumer", JMSConsumer.class);
         searchConsumer = context.getBean("searchConsumer", JMSConsumer.class);
         scheduler = context.getBean(MainScheduler.class);
+        for (BaseEventReader reader : context.getBeansOfType(BaseEventReader.class).values()) {
+            when(reader.renewLease()).thenReturn(true);
+            when(reader.removeEvents(anyListOf(Long.class))).thenReturn(true);
+        }
         while (!(topicConsumer.isStarted() && searchConsumer.isStarted())) {
             //wait until the consumers are started
         }
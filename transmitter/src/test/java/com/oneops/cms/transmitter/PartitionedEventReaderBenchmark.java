@@ -0,0 +1,47 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.transmitter;
+
+/**
+ * Drain rate of the event queue of {@link PartitionedEventReaderTest} with one reader and with
+ * several readers leasing the partitions. Run as a user that can run initdb:
+ * <pre>
+ * java -cp ... com.oneops.cms.transmitter.PartitionedEventReaderBenchmark [readers...]
+ * </pre>
+ */
+public class PartitionedEventReaderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String[] readers = args.length > 0 ? args : new String[]{"1", "3", "6"};
+        PartitionedEventReaderTest.startDb();
+        try {
+            PartitionedEventReaderTest fixture = new PartitionedEventReaderTest();
+            // warm up
+            fixture.setUp();
+            fixture.drain(1);
+            for (String count : readers) {
+                fixture.setUp();
+                long ms = fixture.drain(Integer.parseInt(count));
+                System.out.println(String.format("%s readers: %d events in %d ms, %d events/s",
+                        count, PartitionedEventReaderTest.EVENTS, ms, PartitionedEventReaderTest.EVENTS * 1000L / ms));
+            }
+        } finally {
+            PartitionedEventReaderTest.stopDb();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ *
+ *   Copyright 2017 Walmart, Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *******************************************************************************/
+package com.oneops.cms.transmitter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.oneops.cms.transmitter.domain.CMSEvent;
+import com.oneops.cms.transmitter.domain.CMSEventRecord;
+
+/**
+ * Several ci event readers over one queue, each one leasing a share of the partitions. See
+ * {@link PartitionedEventReaderBenchmark} for the drain rate.
+ */
+public class PartitionedEventReaderTest {
+
+    static final int EVENTS = 30000;
+    private static final int CIS = 600;
+    private static final int PARTITIONS = 12;
+    private static final int BATCH_SIZE = 100;
+    // what a batch takes to publish, the readers are bound by the broker round trips
+    private static final long PUBLISH_MICROS_PER_EVENT = 200;
+
+    private static EventQueueDb db;
+
+    // ci id -> event ids in the order they were published
+    private final Map<Long, List<Long>> published = new ConcurrentHashMap<>();
+
+    @BeforeClass
+    public static void startDb() throws Exception {
+        db = EventQueueDb.start();
+    }
+
+    @AfterClass
+    public static void stopDb() throws Exception {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        db.execute("delete from cms_ci_event_queue; delete from cms_event_reader; delete from cms_event_lease");
+        published.clear();
+    }
+
+    @Test
+    public void readersDrainTheQueueInOrder() throws Exception {
+        drain(1);
+        published.clear();
+        drain(3);
+    }
+
+    @Test
+    public void takesOverExpiredLeases() throws Exception {
+        queueEvents();
+        CIEventReader first = newReader();
+        Assert.assertFalse(first.getEvents().isEmpty());
+        // the first reader stops without giving up its leases
+        db.execute("update cms_event_reader set heartbeat = heartbeat - interval '1 minute'");
+
+        CIEventReader second = newReader();
+        Set<Long> partitions = new HashSet<>();
+        for (CMSEvent event : second.getEvents()) {
+            partitions.add(Long.valueOf(event.getHeaders().get("sourceId")) % PARTITIONS);
+        }
+        Assert.assertEquals(PARTITIONS, partitions.size());
+        second.cleanup();
+    }
+
+    @Test
+    public void lostLeaseKeepsTheEvents() throws Exception {
+        queueEvents();
+        CIEventReader first = newReader();
+        List<Long> eventIds = new ArrayList<>();
+        for (CMSEvent event : first.getEvents()) {
+            eventIds.add(event.getEventId());
+        }
+        Assert.assertTrue(first.renewLease());
+        // the first reader stalls while publishing, the second one takes over
+        db.execute("update cms_event_reader set heartbeat = heartbeat - interval '1 minute'");
+        CIEventReader second = newReader();
+        Assert.assertFalse(second.getEvents().isEmpty());
+
+        Assert.assertFalse(first.renewLease());
+        Assert.assertFalse(first.removeEvents(eventIds));
+        Assert.assertEquals(EVENTS, first.getQueueBacklog());
+        second.cleanup();
+    }
+
+    /**
+     * Publishes all the queued events with that many readers.
+     *
+     * @return the time it took in ms
+     */
+    long drain(int readers) throws Exception {
+        queueEvents();
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        List<Future<?>> results = new ArrayList<>();
+        AtomicInteger remaining = new AtomicInteger(EVENTS);
+        for (int i = 0; i < readers; i++) {
+            CIEventReader reader = newReader();
+            results.add(executor.submit(() -> {
+                try {
+                    publishAll(reader, remaining);
+                } finally {
+                    reader.cleanup();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(5, TimeUnit.MINUTES);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        executor.shutdown();
+        Assert.assertEquals(0, newReader().getQueueBacklog());
+
+        Set<Long> eventIds = new HashSet<>();
+        for (Map.Entry<Long, List<Long>> ci : published.entrySet()) {
+            List<Long> ids = ci.getValue();
+            List<Long> sorted = new ArrayList<>(ids);
+            Collections.sort(sorted);
+            Assert.assertEquals("events of ci " + ci.getKey() + " out of order", sorted, ids);
+            eventIds.addAll(ids);
+        }
+        Assert.assertEquals(EVENTS, eventIds.size());
+        Assert.assertEquals(EVENTS, published.values().stream().mapToInt(List::size).sum());
+        return elapsed;
+    }
+
+    private void publishAll(CIEventReader reader, AtomicInteger remaining) throws InterruptedException {
+        while (remaining.get() > 0) {
+            List<CMSEvent> events = reader.getEvents();
+            if (events.isEmpty()) {
+                // no partitions leased yet
+                Thread.sleep(10);
+                continue;
+            }
+            List<Long> eventIds = new ArrayList<>();
+            for (CMSEvent event : events) {
+                published.computeIfAbsent(Long.valueOf(event.getHeaders().get("sourceId")),
+                        ci -> Collections.synchronizedList(new ArrayList<>())).add(event.getEventId());
+                eventIds.add(event.getEventId());
+            }
+            TimeUnit.MICROSECONDS.sleep(events.size() * PUBLISH_MICROS_PER_EVENT);
+            Assert.assertTrue(reader.removeEvents(eventIds));
+            remaining.addAndGet(-eventIds.size());
+        }
+    }
+
+    private void queueEvents() throws Exception {
+        db.execute("insert into cms_ci_event_queue (event_id, source_pk, source_name, event_type_id)"
+                + " select g, g % " + CIS + ", 'cm_ci', 2 from generate_series(1, " + EVENTS + ") g");
+    }
+
+    private CIEventReader newReader() {
+        // the cis are not in the test schema, the events carry the ids only
+        CIEventReader reader = new CIEventReader() {
+            @Override
+            protected CMSEvent populateEvent(CMSEventRecord record) {
+                CMSEvent event = new CMSEvent();
+                event.setEventId(record.getEventId());
+                event.addHeaders("source", "cm_ci");
+                event.addHeaders("action", record.getEventType());
+                event.addHeaders("sourceId", String.valueOf(record.getSourcePk()));
+                return event;
+            }
+        };
+        reader.setSessionFactory(db.getSessionFactory());
+        reader.setPartitions(PARTITIONS);
+        reader.setBatchSize(BATCH_SIZE);
+        reader.init();
+        return reader;
+    }
+}
@@ -0,0 +1,100 @@
+-- the event queue tables of kloopzdb used by the transmitter, see db-schema/db
+
+CREATE SEQUENCE cm_pk_seq;
+
+CREATE TABLE cms_event_type (
+    event_type_id integer NOT NULL,
+    event_type character varying(64) NOT NULL,
+    CONSTRAINT cms_event_type_pk PRIMARY KEY (event_type_id)
+);
+
+CREATE TABLE cms_event_queue (
+    event_id bigint NOT NULL,
+    source_pk bigint NOT NULL,
+    source_name character varying(200) NOT NULL,
+    event_type_id integer NOT NULL,
+    created timestamp without time zone DEFAULT now() NOT NULL,
+    CONSTRAINT cms_event_queue_pk PRIMARY KEY (event_id)
+);
+
+CREATE TABLE cms_ci_event_queue (
+    event_id bigint NOT NULL,
+    source_pk bigint NOT NULL,
+    source_name character varying(200) NOT NULL,
+    event_type_id integer NOT NULL,
+    created timestamp without time zone DEFAULT now() NOT NULL,
+    CONSTRAINT cms_ci_event_queue_pk PRIMARY KEY (event_id)
+);
+
+CREATE TABLE cms_lock (
+    lock_id bigint NOT NULL,
+    lock_name character varying(64) NOT NULL,
+    locked_by character varying(200) NOT NULL,
+    created timestamp without time zone DEFAULT now() NOT NULL,
+    updated timestamp without time zone DEFAULT now() NOT NULL,
+    CONSTRAINT cms_lock_pk PRIMARY KEY (lock_id),
+    CONSTRAINT cms_lock_ln UNIQUE (lock_name)
+);
+
+CREATE TABLE cms_event_reader (
+    lock_name character varying(64) NOT NULL,
+    process_id character varying(200) NOT NULL,
+    heartbeat timestamp without time zone DEFAULT now() NOT NULL,
+    CONSTRAINT cms_event_reader_pk PRIMARY KEY (lock_name, process_id)
+);
+
+CREATE TABLE cms_event_lease (
+    lock_name character varying(64) NOT NULL,
+    partition_id integer NOT NULL,
+    locked_by character varying(200),
+    updated timestamp without time zone DEFAULT now() NOT NULL,
+    CONSTRAINT cms_event_lease_pk PRIMARY KEY (lock_name, partition_id)
+);
+
+CREATE TABLE cms_vars (
+    var_id bigint NOT NULL,
+    var_name character varying(200) NOT NULL,
+    var_value text NOT NULL,
+    criteria character varying(200),
+    updated_by character varying(200),
+    created timestamp without time zone DEFAULT now() NOT NULL,
+    updated timestamp without time zone DEFAULT now() NOT NULL,
+    CONSTRAINT cms_vars_pk PRIMARY KEY (var_id)
+);
+
+INSERT INTO cms_event_type VALUES (1, 'add'), (2, 'update'), (3, 'delete');
+
+CREATE FUNCTION cms_acquire_lock(p_lock_name character varying, p_locked_by character varying, p_stale_timeout integer)
+  RETURNS boolean AS
+$BODY$
+DECLARE
+    l_lock_row cms_lock%ROWTYPE;
+    l_lock_cnt integer;
+BEGIN
+    select into l_lock_cnt count(1) from cms_lock where lock_name = p_lock_name;
+    if l_lock_cnt = 0 then
+        BEGIN
+            insert into cms_lock(lock_id, lock_name, locked_by)
+            values (nextval('cm_pk_seq'), p_lock_name, p_locked_by);
+        EXCEPTION WHEN unique_violation THEN
+            return false;
+        END;
+    end if;
+
+    select into l_lock_row cl.lock_id, cl.lock_name, cl.locked_by, cl.created, cl.updated
+    from cms_lock cl where cl.lock_name = p_lock_name for update;
+
+    if l_lock_row.locked_by = p_locked_by then
+        update cms_lock set updated = current_timestamp where lock_id = l_lock_row.lock_id;
+        return true;
+    elsif cast(extract(epoch from (current_timestamp - l_lock_row.updated)) as integer) > p_stale_timeout then
+        update cms_lock
+        set locked_by = p_locked_by, created = current_timestamp, updated = current_timestamp
+        where lock_id = l_lock_row.lock_id;
+        return true;
+    else
+        return false;
+    end if;
+END;
+$BODY$
+  LANGUAGE plpgsql VOLATILE;